@@ -3,6 +3,7 @@ package com.geoping.app;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.EditText;
@@ -20,8 +21,13 @@ import com.geoping.datacollection.R;
 import com.geoping.app.adapters.ConversationAdapter;
 import com.geoping.app.models.Conversation;
 import com.geoping.app.models.Room;
+import com.geoping.app.protocol.GeoPingProtocol;
+import com.geoping.app.protocol.PresenceStateMachine;
+import com.geoping.app.protocol.WifiReading;
 import com.geoping.app.utils.ApiClient;
 import com.geoping.app.utils.AuthManager;
+import com.geoping.app.utils.PresenceClient;
+import com.geoping.app.utils.ScanTraceRecorder;
 import com.geoping.app.utils.SocketManager;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
@@ -64,14 +70,18 @@ public class ChatActivity extends AppCompatActivity implements ConversationAdapt
     private AuthManager authManager;
     private ApiClient apiClient;
     private SocketManager socketManager;
+    private PresenceClient presenceClient;
     private ConversationAdapter conversationAdapter;
 
     private boolean isPresent = false;
+    // Histerese no aparelho: só transições e heartbeats são gravados no servidor
+    private final PresenceStateMachine presenceState = new PresenceStateMachine();
     private Handler presenceCheckHandler;
     private Runnable presenceCheckRunnable;
 
     // Listeners Socket.io
     private Emitter.Listener onNewConversationListener;
+    private Emitter.Listener onRoomResetListener;
 
     // Variáveis para Wi-Fi scan
     private android.net.wifi.WifiManager wifiManager;
@@ -102,6 +112,7 @@ public class ChatActivity extends AppCompatActivity implements ConversationAdapt
 
             // Inicializar SocketManager (CORREÇÃO CRÍTICA)
             socketManager = SocketManager.getInstance();
+            presenceClient = new PresenceClient(this);
             
             initializeComponents();
             Log.d(TAG, "Componentes inicializados");
@@ -174,15 +185,14 @@ public class ChatActivity extends AppCompatActivity implements ConversationAdapt
     private void setupSocketListeners() {
         onNewConversationListener = args -> runOnUiThread(() -> {
             try {
-                JSONObject data = (JSONObject) args[0];
-                JSONObject conversationJson = data.getJSONObject("conversation");
-                String creatorUsername = data.getString("creatorUsername");
+                // Payload plano: { conversation_id, title, creator_id, creatorUsername, created_at, room_id, seq }
+                JSONObject conversationJson = (JSONObject) args[0];
 
                 Conversation newConversation = new Conversation();
-                newConversation.setConversationId(conversationJson.getString("id"));
+                newConversation.setConversationId(conversationJson.getString("conversation_id"));
                 newConversation.setTitle(conversationJson.getString("title"));
                 newConversation.setCreatorId(conversationJson.getInt("creator_id"));
-                newConversation.setCreatorUsername(creatorUsername);
+                newConversation.setCreatorUsername(conversationJson.optString("creatorUsername"));
                 newConversation.setCreatedAt(conversationJson.getString("created_at"));
                 newConversation.setMessageCount(0);
 
@@ -196,6 +206,10 @@ public class ChatActivity extends AppCompatActivity implements ConversationAdapt
         });
 
         socketManager.onNewConversation(onNewConversationListener);
+
+        // Reconexão sem como recuperar os eventos perdidos: recarregar a lista
+        onRoomResetListener = args -> runOnUiThread(this::loadConversations);
+        socketManager.onRoomReset(onRoomResetListener);
     }
 
     private void connectSocket() {
@@ -211,6 +225,7 @@ public class ChatActivity extends AppCompatActivity implements ConversationAdapt
                 return;
             }
 
+            socketManager.trackForeground(getApplication());
             if (!socketManager.isConnected()) {
                 socketManager.connect(serverUrl, authToken);
             }
@@ -425,80 +440,82 @@ public class ChatActivity extends AppCompatActivity implements ConversationAdapt
                  textViewPresenceStatus.setText("Analisando...");
             }
 
-            // Montar payload para /api/presence/update
-            JSONArray wifiFingerprint = new JSONArray();
-            for (android.net.wifi.ScanResult result : results) {
-                JSONObject network = new JSONObject();
-                network.put("bssid", result.BSSID);
-                network.put("ssid", result.SSID);
-                network.put("rssi", result.level);
-                wifiFingerprint.put(network);
+            // Socket (presence_scan) quando autenticado; senão /api/presence/update.
+            // Cada scan só é avaliado e vota na máquina de estados; a presença é
+            // gravada nas transições e no heartbeat, como no PresenceService
+            List<WifiReading> readings = ScanTraceRecorder.toReadings(results);
+            if (presenceState.needsReport(SystemClock.elapsedRealtime())) {
+                reportPresence(readings);
+                return;
             }
 
-            JSONObject payload = new JSONObject();
-            payload.put("room_id", currentRoom.getRoomId());
-            payload.put("wifi_scan_results", wifiFingerprint);
-
-            String url = apiClient.buildUrl("/api/presence/update");
-            RequestBody body = RequestBody.create(payload.toString(), JSON);
-            
-            String authHeader = authManager.getAuthorizationHeader();
-            // Log.d(TAG, "DEBUG: Auth Header: " + (authHeader != null && authHeader.length() > 10 ? authHeader.substring(0, 15) + "..." : authHeader));
-
-            Request request = new Request.Builder()
-                    .url(url)
-                    .addHeader("Authorization", authHeader)
-                    .post(body)
-                    .build();
-
-            ApiClient.getSharedHttpClient().newCall(request).enqueue(new Callback() {
+            presenceClient.evaluate(currentRoom.getRoomId(), readings, new PresenceClient.Callback() {
                 @Override
-                public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    Log.e(TAG, "Erro de rede ao atualizar presença: " + e.getMessage());
-                    scheduleNextScan(); // Continua o ciclo mesmo com erro
+                public void onResult(boolean isInside, double confidence) {
+                    runOnUiThread(() -> {
+                        Log.d(TAG, "DEBUG: Parsed Inside=" + isInside + ", Conf=" + confidence);
+                        long now = SystemClock.elapsedRealtime();
+                        presenceState.onEvaluation(isInside, confidence, now);
+                        if (presenceState.needsReport(now)) {
+                            reportPresence(readings);
+                            return;
+                        }
+                        updatePresenceUI(presenceState.isInside(), presenceState.getConfidence());
+                        // CRUCIAL: Agendar próximo scan APÓS a resposta
+                        scheduleNextScan();
+                    });
                 }
 
                 @Override
-                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                    final String responseBody = response.body() != null ? response.body().string() : "";
-                    Log.d(TAG, "DEBUG: Server Response: Code=" + response.code() + ", Body=" + responseBody);
-                    
-                    runOnUiThread(() -> {
-                         try {
-                             if (response.isSuccessful()) {
-                                 JSONObject json = new JSONObject(responseBody);
-                                 boolean isInside = json.getBoolean("inside");
-                                 double confidence = json.optDouble("confidence", 0.0);
-                                 
-                                 Log.d(TAG, "DEBUG: Parsed Inside=" + isInside + ", Conf=" + confidence);
-                                 updatePresenceUI(isInside, confidence);
-                             } else {
-                                 Log.e(TAG, "DEBUG: Server error: " + response.code());
-                                 if (response.code() == 401) {
-                                     // Token expirou ou inválido
-                                     Toast.makeText(ChatActivity.this, "Sessão expirada. Faça login novamente.", Toast.LENGTH_LONG).show();
-                                     // Opcional: Redirecionar para LoginActivity
-                                 }
-                                 if (authManager.getUserId() != currentRoom.getCreatorId()) {
-                                     textViewPresenceStatus.setText("Erro no servidor: " + response.code());
-                                 }
-                             }
-                         } catch (JSONException e) {
-                             Log.e(TAG, "DEBUG: JSON Parse error: " + e.getMessage());
-                         } finally {
-                             // CRUCIAL: Agendar próximo scan APÓS a resposta
-                             scheduleNextScan();
-                         }
-                    });
+                public void onError(int status, String error) {
+                    runOnUiThread(() -> handlePresenceError(status, error));
                 }
             });
 
-        } catch (JSONException e) {
+        } catch (SecurityException e) {
             Log.e(TAG, "Erro ao processar scan Wi-Fi: " + e.getMessage());
             scheduleNextScan();
         }
     }
 
+    /**
+     * Gravar o estado da máquina de estados (transição ou heartbeat); o
+     * servidor confere com o scan enviado junto
+     */
+    private void reportPresence(List<WifiReading> readings) {
+        final boolean claimedInside = presenceState.isInside();
+        presenceClient.report(currentRoom.getRoomId(), readings, claimedInside, new PresenceClient.Callback() {
+            @Override
+            public void onResult(boolean isInside, double confidence) {
+                runOnUiThread(() -> {
+                    if (isInside != claimedInside) {
+                        Log.w(TAG, "Servidor não confirmou " + (claimedInside ? "INSIDE" : "OUTSIDE") + " para este scan");
+                    }
+                    presenceState.onReported(claimedInside, isInside, confidence, SystemClock.elapsedRealtime());
+                    updatePresenceUI(presenceState.isInside(), presenceState.getConfidence());
+                    scheduleNextScan();
+                });
+            }
+
+            @Override
+            public void onError(int status, String error) {
+                runOnUiThread(() -> handlePresenceError(status, error));
+            }
+        });
+    }
+
+    private void handlePresenceError(int status, String error) {
+        Log.e(TAG, "DEBUG: Server error: " + status + " " + error);
+        if (status == 401) {
+            // Token expirou ou inválido
+            Toast.makeText(ChatActivity.this, "Sessão expirada. Faça login novamente.", Toast.LENGTH_LONG).show();
+        }
+        if (status != 0 && authManager.getUserId() != currentRoom.getCreatorId()) {
+            textViewPresenceStatus.setText("Erro no servidor: " + status);
+        }
+        scheduleNextScan(); // Continua o ciclo mesmo com erro
+    }
+
     private void fetchOnlineUsersCount() {
         // Correção: Buscar contagem de usuários PRESENTES na sala
         String url = apiClient.buildUrl("/api/presence/room/" + currentRoom.getRoomId());
@@ -595,6 +612,7 @@ public class ChatActivity extends AppCompatActivity implements ConversationAdapt
     protected void onResume() {
         super.onResume();
         isActivityActive = true;
+        presenceState.reset(); // Votos de antes da pausa já não valem
         loadConversations();
         
         // Registrar Receiver
@@ -698,7 +716,8 @@ public class ChatActivity extends AppCompatActivity implements ConversationAdapt
         }
 
         socketManager.leaveRoom(currentRoom.getRoomId());
-        socketManager.off("new_conversation", onNewConversationListener);
+        socketManager.off(GeoPingProtocol.EVENT_NEW_CONVERSATION, onNewConversationListener);
+        socketManager.off(GeoPingProtocol.EVENT_ROOM_RESET, onRoomResetListener);
     }
 }
 
@@ -19,8 +19,10 @@ import com.geoping.app.adapters.MessageAdapter;
 import com.geoping.app.models.Conversation;
 import com.geoping.app.models.Message;
 import com.geoping.app.models.Room;
+import com.geoping.app.protocol.GeoPingProtocol;
 import com.geoping.app.utils.ApiClient;
 import com.geoping.app.utils.AuthManager;
+import com.geoping.app.utils.MessageOutbox;
 import com.geoping.app.utils.SocketManager;
 
 import org.json.JSONArray;
@@ -28,19 +30,19 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import io.socket.emitter.Emitter;
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 public class ConversationActivity extends AppCompatActivity {
 
     private static final String TAG = "ConversationActivity";
-    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
 
     private TextView textViewConversationTitle;
     private TextView textViewCreatedBy;
@@ -55,10 +57,13 @@ public class ConversationActivity extends AppCompatActivity {
     private AuthManager authManager;
     private ApiClient apiClient;
     private SocketManager socketManager;
+    private MessageOutbox messageOutbox;
     private MessageAdapter messageAdapter;
 
     // Listeners Socket.io
     private Emitter.Listener onNewMessageListener;
+    private Emitter.Listener onRoomResetListener;
+    private MessageOutbox.Listener outboxListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -68,6 +73,7 @@ public class ConversationActivity extends AppCompatActivity {
         authManager = new AuthManager(this);
         apiClient = new ApiClient(this);
         socketManager = SocketManager.getInstance();
+        messageOutbox = MessageOutbox.getInstance(this);
 
         currentConversation = (Conversation) getIntent().getSerializableExtra("conversation");
         currentRoom = (Room) getIntent().getSerializableExtra("room");
@@ -82,6 +88,7 @@ public class ConversationActivity extends AppCompatActivity {
         setupListeners();
         setupRecyclerView();
         setupSocketListeners();
+        setupOutboxListener();
         loadMessages();
     }
 
@@ -114,22 +121,13 @@ public class ConversationActivity extends AppCompatActivity {
     private void setupSocketListeners() {
         onNewMessageListener = args -> runOnUiThread(() -> {
             try {
-                JSONObject data = (JSONObject) args[0];
-                JSONObject messageJson = data.getJSONObject("message");
-                String senderUsername = data.getString("senderUsername");
+                // Payload plano: { id, conversation_id (UUID), sender_id, sender_username, content, client_msg_id, sent_at }
+                JSONObject messageJson = (JSONObject) args[0];
 
                 // Verificar se a mensagem é da conversa atual
-                if (messageJson.getInt("conversation_id") == Integer.parseInt(currentConversation.getConversationId())) {
-                    Message newMessage = new Message();
-                    newMessage.setId(messageJson.getInt("id"));
-                    newMessage.setConversationId(messageJson.getInt("conversation_id"));
-                    newMessage.setSenderId(messageJson.getInt("sender_id"));
-                    newMessage.setSenderUsername(senderUsername);
-                    newMessage.setContent(messageJson.getString("content"));
-                    newMessage.setSentAt(messageJson.getString("sent_at"));
-                    newMessage.setMine(messageJson.getInt("sender_id") == authManager.getUserId());
-
-                    messageAdapter.addMessage(newMessage);
+                if (currentConversation.getConversationId().equals(messageJson.getString("conversation_id"))) {
+                    // Mensagens próprias substituem a versão pendente (mesmo client_msg_id)
+                    messageAdapter.addMessage(parseMessage(messageJson));
                     recyclerViewMessages.smoothScrollToPosition(messageAdapter.getItemCount() - 1);
                     updateEmptyState();
                 }
@@ -140,6 +138,56 @@ public class ConversationActivity extends AppCompatActivity {
         });
 
         socketManager.onNewMessage(onNewMessageListener);
+
+        // Reconexão sem como recuperar os eventos perdidos: recarregar as mensagens
+        onRoomResetListener = args -> runOnUiThread(this::loadMessages);
+        socketManager.onRoomReset(onRoomResetListener);
+    }
+
+    /**
+     * Confirmações e recusas da fila de envio
+     */
+    private void setupOutboxListener() {
+        outboxListener = new MessageOutbox.Listener() {
+            @Override
+            public void onMessageAcked(String clientMsgId, JSONObject message) {
+                if (message == null) {
+                    return;
+                }
+                runOnUiThread(() -> {
+                    try {
+                        Message confirmed = parseMessage(message);
+                        if (!messageAdapter.reconcile(clientMsgId, confirmed)) {
+                            messageAdapter.addMessage(confirmed);
+                        }
+                    } catch (JSONException e) {
+                        Log.e(TAG, "Erro ao processar confirmação: " + e.getMessage());
+                    }
+                });
+            }
+
+            @Override
+            public void onMessageFailed(String clientMsgId, String error) {
+                runOnUiThread(() -> {
+                    messageAdapter.markFailed(clientMsgId);
+                    Toast.makeText(ConversationActivity.this, error, Toast.LENGTH_LONG).show();
+                });
+            }
+        };
+
+        messageOutbox.addListener(outboxListener);
+    }
+
+    private Message parseMessage(JSONObject json) throws JSONException {
+        Message message = new Message();
+        message.setId(json.getInt("id"));
+        message.setSenderId(json.optInt("sender_id"));
+        message.setSenderUsername(json.optString("sender_username", ""));
+        message.setContent(json.getString("content"));
+        message.setSentAt(json.getString("sent_at"));
+        message.setClientMsgId(json.isNull("client_msg_id") ? null : json.optString("client_msg_id", null));
+        message.setMine(message.getSenderId() == authManager.getUserId());
+        return message;
     }
 
     private void loadMessages() {
@@ -168,19 +216,25 @@ public class ConversationActivity extends AppCompatActivity {
                             JSONObject jsonResponse = new JSONObject(responseBody);
                             JSONArray messagesJson = jsonResponse.getJSONArray("messages");
 
-                            java.util.List<Message> messages = new java.util.ArrayList<>();
+                            List<Message> messages = new java.util.ArrayList<>();
+                            Set<String> confirmedIds = new HashSet<>();
                             for (int i = 0; i < messagesJson.length(); i++) {
-                                JSONObject msgJson = messagesJson.getJSONObject(i);
-                                Message msg = new Message();
-                                msg.setId(msgJson.getInt("id"));
-                                msg.setSenderId(msgJson.getInt("sender_id"));
-                                msg.setSenderUsername(msgJson.getString("sender_username"));
-                                msg.setContent(msgJson.getString("content"));
-                                msg.setSentAt(msgJson.getString("sent_at"));
-                                msg.setMine(msgJson.getInt("sender_id") == authManager.getUserId());
+                                Message msg = parseMessage(messagesJson.getJSONObject(i));
+                                if (msg.getClientMsgId() != null) {
+                                    confirmedIds.add(msg.getClientMsgId());
+                                }
                                 messages.add(msg);
                             }
 
+                            // Mensagens ainda na fila de envio aparecem no final como pendentes
+                            for (MessageOutbox.Entry entry : messageOutbox.getPending(currentConversation.getConversationId())) {
+                                if (confirmedIds.contains(entry.clientMsgId)) {
+                                    messageOutbox.discard(entry.clientMsgId); // Gravada, ack perdido
+                                } else {
+                                    messages.add(toPendingMessage(entry));
+                                }
+                            }
+
                             messageAdapter.setMessages(messages);
                             updateEmptyState();
                             if (messageAdapter.getItemCount() > 0) {
@@ -200,6 +254,10 @@ public class ConversationActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Envio otimista: a mensagem aparece na hora como pendente e vai pela fila
+     * (Socket.io com ack); a confirmação substitui a versão pendente
+     */
     private void sendMessage() {
         String content = editTextMessage.getText().toString().trim();
         if (content.isEmpty()) {
@@ -207,83 +265,30 @@ public class ConversationActivity extends AppCompatActivity {
             return;
         }
 
-        try {
-            JSONObject payload = new JSONObject();
-            payload.put("conversation_id", currentConversation.getConversationId());
-            payload.put("content", content);
-
-            String url = apiClient.buildUrl("/api/messages/send");
-            RequestBody body = RequestBody.create(payload.toString(), JSON);
-            Request request = new Request.Builder()
-                    .url(url)
-                    .addHeader("Authorization", authManager.getAuthorizationHeader())
-                    .post(body)
-                    .build();
-
-            editTextMessage.setText(""); // Limpar campo imediatamente
-
-            ApiClient.getSharedHttpClient().newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    runOnUiThread(() -> {
-                        Log.e(TAG, "Erro ao enviar mensagem: " + e.getMessage());
-                        Toast.makeText(ConversationActivity.this, "Erro de rede ao enviar mensagem.", Toast.LENGTH_LONG).show();
-                    });
-                }
+        editTextMessage.setText(""); // Limpar campo imediatamente
 
-                @Override
-                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                    final String responseBody = response.body() != null ? response.body().string() : "";
-                    runOnUiThread(() -> {
-                        if (response.isSuccessful()) {
-                            // A mensagem aparecerá via Socket.io, MAS vamos adicionar localmente também para UX instantânea
-                            Log.d(TAG, "Mensagem enviada com sucesso!");
-                            
-                            try {
-                                Log.d(TAG, "Response body envio: " + responseBody); // DEBUG
-                                JSONObject jsonResponse = new JSONObject(responseBody);
-                                JSONObject messageJson = jsonResponse.getJSONObject("message");
-                                
-                                Message newMessage = new Message();
-                                newMessage.setId(messageJson.optInt("id")); // Usar optInt para evitar erro se vier string
-                                newMessage.setConversationId(messageJson.optInt("conversation_id"));
-                                newMessage.setSenderId(messageJson.optInt("sender_id"));
-                                newMessage.setSenderUsername(messageJson.optString("sender_username", "Eu")); // Fallback
-                                newMessage.setContent(messageJson.getString("content"));
-                                newMessage.setSentAt(messageJson.getString("sent_at"));
-                                newMessage.setMine(true);
-
-                                Log.d(TAG, "Adicionando msg ao adapter: " + newMessage.getContent());
-                                messageAdapter.addMessage(newMessage);
-                                messageAdapter.notifyDataSetChanged(); // Forçar atualização completa
-                                recyclerViewMessages.scrollToPosition(messageAdapter.getItemCount() - 1);
-                                updateEmptyState();
-                                
-                            } catch (JSONException e) {
-                                Log.e(TAG, "Erro ao processar resposta de envio: " + e.getMessage());
-                            }
-                            
-                        } else {
-                            String errorMsg = "Erro ao enviar mensagem.";
-                            try {
-                                JSONObject jsonError = new JSONObject(responseBody);
-                                errorMsg = jsonError.optString("message", errorMsg);
-                            } catch (JSONException e) {
-                                Log.e(TAG, "Erro JSON ao enviar mensagem: " + e.getMessage());
-                            }
-                            Toast.makeText(ConversationActivity.this, errorMsg, Toast.LENGTH_LONG).show();
-                            Log.e(TAG, "Falha ao enviar mensagem: " + responseBody);
-                        }
-                    });
-                }
-            });
+        MessageOutbox.Entry entry = messageOutbox.enqueue(currentConversation.getConversationId(), content);
+        messageAdapter.addMessage(toPendingMessage(entry));
+        recyclerViewMessages.scrollToPosition(messageAdapter.getItemCount() - 1);
+        updateEmptyState();
 
-        } catch (JSONException e) {
-            Log.e(TAG, "Erro ao criar JSON para mensagem: " + e.getMessage());
-            Toast.makeText(this, "Erro interno ao enviar mensagem.", Toast.LENGTH_SHORT).show();
+        if (!socketManager.isAuthenticated()) {
+            Log.d(TAG, "Socket offline, mensagem " + entry.clientMsgId + " fica na fila");
         }
     }
 
+    private Message toPendingMessage(MessageOutbox.Entry entry) {
+        Message message = new Message();
+        message.setSenderId(authManager.getUserId());
+        message.setSenderUsername(authManager.getUsername());
+        message.setContent(entry.content);
+        message.setSentAt(entry.createdAt);
+        message.setClientMsgId(entry.clientMsgId);
+        message.setStatus(Message.STATUS_PENDING);
+        message.setMine(true);
+        return message;
+    }
+
     private void updateEmptyState() {
         if (messageAdapter.getItemCount() == 0) {
             recyclerViewMessages.setVisibility(View.GONE);
@@ -297,7 +302,11 @@ public class ConversationActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        socketManager.off("new_message", onNewMessageListener);
+        socketManager.off(GeoPingProtocol.EVENT_NEW_MESSAGE, onNewMessageListener);
+        socketManager.off(GeoPingProtocol.EVENT_ROOM_RESET, onRoomResetListener);
+        if (outboxListener != null) {
+            messageOutbox.removeListener(outboxListener);
+        }
     }
 }
 
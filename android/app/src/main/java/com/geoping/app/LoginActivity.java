@@ -15,6 +15,8 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.geoping.datacollection.R;
 import com.geoping.datacollection.DataCollectionActivity;
+import com.geoping.app.protocol.GeoPingProtocol;
+import com.geoping.app.protocol.Payloads;
 import com.geoping.app.utils.ApiClient;
 import com.geoping.app.utils.AuthManager;
 
@@ -115,12 +117,10 @@ public class LoginActivity extends AppCompatActivity {
 
         try {
             // Criar JSON payload
-            JSONObject json = new JSONObject();
-            json.put("username", username);
-            json.put("password", password);
+            JSONObject json = Payloads.login(username, password);
 
             // Fazer requisicao
-            String url = apiClient.buildUrl("/api/auth/login");
+            String url = apiClient.buildUrl(GeoPingProtocol.ROUTE_LOGIN);
             RequestBody body = RequestBody.create(
                     json.toString(),
                     MediaType.parse("application/json")
@@ -18,6 +18,7 @@ import com.geoping.app.adapters.RoomAdapter;
 import com.geoping.app.models.Room;
 import com.geoping.app.utils.ApiClient;
 import com.geoping.app.utils.AuthManager;
+import com.geoping.app.utils.MessageOutbox;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -52,6 +53,7 @@ public class MainActivity extends AppCompatActivity implements RoomAdapter.OnRoo
 
     private RoomAdapter roomAdapter;
     private boolean showingMyRooms = true; // true = minhas salas, false = assinaturas
+    private int monitorableSubscriptions = 0; // Assinaturas aprovadas com modelo (modo multi-sala)
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -286,6 +288,13 @@ public class MainActivity extends AppCompatActivity implements RoomAdapter.OnRoo
             room.setSubscriberCount(json.optInt("subscriber_count", 0));
             rooms.add(room);
         }
+
+        monitorableSubscriptions = 0;
+        for (Room room : rooms) {
+            if ("approved".equals(room.getSubscriptionStatus()) && !room.isBlocked() && room.isModelTrained()) {
+                monitorableSubscriptions++;
+            }
+        }
         return rooms;
     }
 
@@ -311,6 +320,10 @@ public class MainActivity extends AppCompatActivity implements RoomAdapter.OnRoo
         Intent serviceIntent = new Intent(this, com.geoping.app.services.PresenceService.class);
         serviceIntent.putExtra("room_id", room.getRoomId());
         serviceIntent.putExtra("room_name", room.getRoomName());
+        // Mais de uma assinatura: um scan avaliado em todas (PresenceService.EXTRA_MULTI_ROOM)
+        if (!showingMyRooms && monitorableSubscriptions > 1) {
+            serviceIntent.putExtra(com.geoping.app.services.PresenceService.EXTRA_MULTI_ROOM, true);
+        }
         
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
             startForegroundService(serviceIntent);
@@ -333,6 +346,7 @@ public class MainActivity extends AppCompatActivity implements RoomAdapter.OnRoo
     }
 
     private void logout() {
+        MessageOutbox.getInstance(this).clear();
         authManager.logout();
         goToLogin();
     }
@@ -13,6 +13,8 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.geoping.datacollection.R;
+import com.geoping.app.protocol.GeoPingProtocol;
+import com.geoping.app.protocol.Payloads;
 import com.geoping.app.utils.ApiClient;
 import com.geoping.app.utils.AuthManager;
 
@@ -96,12 +98,9 @@ public class RegisterActivity extends AppCompatActivity {
         setLoading(true);
 
         try {
-            JSONObject json = new JSONObject();
-            json.put("username", username);
-            json.put("email", email);
-            json.put("password", password);
+            JSONObject json = Payloads.register(username, email, password);
 
-            String url = apiClient.buildUrl("/api/auth/register");
+            String url = apiClient.buildUrl(GeoPingProtocol.ROUTE_REGISTER);
             RequestBody body = RequestBody.create(
                     json.toString(),
                     MediaType.parse("application/json")
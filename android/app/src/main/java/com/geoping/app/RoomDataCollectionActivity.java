@@ -24,6 +24,8 @@ import androidx.core.content.ContextCompat;
 
 import com.geoping.app.utils.ApiClient;
 import com.geoping.app.utils.AuthManager;
+import com.geoping.app.utils.ScanFreshness;
+import com.geoping.app.utils.ScanTraceRecorder;
 import com.geoping.datacollection.R;
 
 import org.json.JSONArray;
@@ -77,6 +79,8 @@ public class RoomDataCollectionActivity extends AppCompatActivity {
     private WifiManager wifiManager;
     private Handler scanHandler;
     private Runnable scanRunnable;
+    private ScanTraceRecorder traceRecorder; // Gravacao opcional dos scans em trace binario
+    private ScanFreshness scanFreshness = new ScanFreshness(); // Descarta o cache repetido de scans recusados
     
     // BroadcastReceiver para resultados do Wi-Fi scan
     private BroadcastReceiver wifiScanReceiver = new BroadcastReceiver() {
@@ -127,6 +131,14 @@ public class RoomDataCollectionActivity extends AppCompatActivity {
 
         buttonTrainModel.setOnClickListener(v -> startTraining());
         buttonStopCollection.setOnClickListener(v -> showStopConfirmation());
+
+        // Toque longo no status: liga/desliga gravacao de trace (vale para a proxima coleta)
+        textViewCollectionStatus.setOnLongClickListener(v -> {
+            boolean enabled = ScanTraceRecorder.toggleEnabled(this);
+            Toast.makeText(this, enabled ? "Gravação de trace ativada" : "Gravação de trace desativada",
+                    Toast.LENGTH_SHORT).show();
+            return true;
+        });
     }
 
     private void setupWifiManager() {
@@ -189,6 +201,7 @@ public class RoomDataCollectionActivity extends AppCompatActivity {
     private void startCollection() {
         isCollecting = true;
         sampleCount = 0;
+        scanFreshness = new ScanFreshness();
         updateSampleCount();
         
         textViewCollectionStatus.setText("🔄 Coletando amostras...");
@@ -198,6 +211,10 @@ public class RoomDataCollectionActivity extends AppCompatActivity {
         Log.d(TAG, "Wi-Fi SSID: " + wifiSsid);
         Log.d(TAG, "Room Label: " + roomLabel);
         Log.d(TAG, "Server URL: " + ApiClient.getBaseUrl());
+
+        if (ScanTraceRecorder.isEnabled(this, getIntent())) {
+            traceRecorder = ScanTraceRecorder.start(this, roomLabel);
+        }
         
         // Registrar receiver para os resultados do scan
         IntentFilter intentFilter = new IntentFilter();
@@ -216,8 +233,10 @@ public class RoomDataCollectionActivity extends AppCompatActivity {
         
         try {
             boolean scanStarted = wifiManager.startScan();
+            scanFreshness.onStartScan(scanStarted);
             if (!scanStarted) {
-                Log.w(TAG, "AVISO: Falha ao iniciar scan (throttling?)");
+                Log.w(TAG, "AVISO: Falha ao iniciar scan (throttling?) - " + scanFreshness.describe());
+                updateSampleCount();
             }
         } catch (SecurityException e) {
             Log.e(TAG, "ERRO: Permissão negada para scan Wi-Fi");
@@ -237,14 +256,28 @@ public class RoomDataCollectionActivity extends AppCompatActivity {
         }
         
         try {
-            List<ScanResult> scanResults = wifiManager.getScanResults();
+            List<ScanResult> allResults = wifiManager.getScanResults();
             
-            if (scanResults == null || scanResults.isEmpty()) {
+            if (allResults == null || allResults.isEmpty()) {
                 Log.w(TAG, "Scan #" + (sampleCount + 1) + ": Nenhuma rede encontrada");
                 return;
             }
 
-            Log.d(TAG, "Scan #" + (sampleCount + 1) + ": " + scanResults.size() + " redes detectadas");
+            // Cache de um scan anterior (startScan recusado) não é amostra nova
+            ScanFreshness.Result freshness = scanFreshness.filter(allResults);
+            if (freshness.stale) {
+                Log.w(TAG, "Scan #" + (sampleCount + 1) + ": resultado repetido descartado - " + scanFreshness.describe());
+                updateSampleCount();
+                return;
+            }
+            List<ScanResult> scanResults = freshness.fresh;
+
+            Log.d(TAG, "Scan #" + (sampleCount + 1) + ": " + scanResults.size() + " redes detectadas" +
+                    (freshness.dropped > 0 ? " (" + freshness.dropped + " antigas descartadas)" : ""));
+
+            if (traceRecorder != null) {
+                traceRecorder.record(scanResults);
+            }
             
             // Enviar dados para o servidor
             sendDataToServer(scanResults);
@@ -330,7 +363,11 @@ public class RoomDataCollectionActivity extends AppCompatActivity {
             textViewProgressMessage.setTextColor(getResources().getColor(android.R.color.holo_green_dark));
         } else {
             int remaining = MIN_SAMPLES - sampleCount;
-            textViewProgressMessage.setText("Colete mais " + remaining + " amostras para treinar o modelo");
+            String message = "Colete mais " + remaining + " amostras para treinar o modelo";
+            if (scanFreshness.getThrottledCount() + scanFreshness.getStaleScanCount() > 0) {
+                message += "\nScans " + scanFreshness.describe();
+            }
+            textViewProgressMessage.setText(message);
         }
     }
 
@@ -360,6 +397,11 @@ public class RoomDataCollectionActivity extends AppCompatActivity {
         } catch (IllegalArgumentException e) {
             // Receiver já foi desregistrado
         }
+
+        if (traceRecorder != null) {
+            traceRecorder.stop();
+            traceRecorder = null;
+        }
         
         Log.d(TAG, "Coleta parada. Total: " + sampleCount + " amostras");
     }
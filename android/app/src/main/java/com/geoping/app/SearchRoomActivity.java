@@ -1,6 +1,16 @@
 package com.geoping.app;
 
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -10,14 +20,19 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.geoping.datacollection.R;
 import com.geoping.app.adapters.SearchResultAdapter;
 import com.geoping.app.models.Room;
+import com.geoping.app.protocol.GeoPingProtocol;
+import com.geoping.app.protocol.Payloads;
 import com.geoping.app.utils.ApiClient;
 import com.geoping.app.utils.AuthManager;
+import com.geoping.app.utils.ScanTraceRecorder;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -36,11 +51,17 @@ import okhttp3.Response;
 
 /**
  * SearchRoomActivity - Buscar e solicitar assinatura em salas
+ * (por nome ou pelas redes Wi-Fi visíveis: "Salas próximas")
  */
 public class SearchRoomActivity extends AppCompatActivity implements SearchResultAdapter.OnSubscribeClickListener {
 
+    private static final int REQUEST_LOCATION = 200;
+    private static final long SCAN_TIMEOUT_MS = 5000;
+    private static final int NEARBY_SCORE_TOP = 3; // Candidatos avaliados pelo modelo no servidor
+
     private EditText editTextSearch;
     private Button buttonSearch;
+    private Button buttonNearby;
     private Button buttonClose;
     private RecyclerView recyclerViewResults;
     private TextView textViewEmpty;
@@ -50,6 +71,19 @@ public class SearchRoomActivity extends AppCompatActivity implements SearchResul
     private ApiClient apiClient;
     private SearchResultAdapter adapter;
 
+    private WifiManager wifiManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean waitingScan = false;
+
+    private final BroadcastReceiver scanReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            finishNearbyScan();
+        }
+    };
+
+    private final Runnable scanTimeout = this::finishNearbyScan;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -57,6 +91,7 @@ public class SearchRoomActivity extends AppCompatActivity implements SearchResul
 
         authManager = new AuthManager(this);
         apiClient = new ApiClient(this);
+        wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
 
         initializeComponents();
         setupListeners();
@@ -65,6 +100,7 @@ public class SearchRoomActivity extends AppCompatActivity implements SearchResul
     private void initializeComponents() {
         editTextSearch = findViewById(R.id.editTextSearch);
         buttonSearch = findViewById(R.id.buttonSearch);
+        buttonNearby = findViewById(R.id.buttonNearby);
         buttonClose = findViewById(R.id.buttonClose);
         recyclerViewResults = findViewById(R.id.recyclerViewResults);
         textViewEmpty = findViewById(R.id.textViewEmpty);
@@ -77,6 +113,7 @@ public class SearchRoomActivity extends AppCompatActivity implements SearchResul
 
     private void setupListeners() {
         buttonSearch.setOnClickListener(v -> performSearch());
+        buttonNearby.setOnClickListener(v -> performNearbySearch());
         buttonClose.setOnClickListener(v -> finish());
 
         editTextSearch.setOnEditorActionListener((v, actionId, event) -> {
@@ -102,7 +139,98 @@ public class SearchRoomActivity extends AppCompatActivity implements SearchResul
                 .get()
                 .build();
 
-        apiClient.getHttpClient().newCall(request).enqueue(new Callback() {
+        apiClient.getHttpClient().newCall(request).enqueue(roomsCallback("Nenhuma sala encontrada"));
+    }
+
+    /**
+     * Salas próximas: um scan Wi-Fi enviado a POST /api/rooms/nearby
+     */
+    private void performNearbySearch() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION},
+                    REQUEST_LOCATION);
+            return;
+        }
+
+        setLoading(true);
+        waitingScan = true;
+        registerReceiver(scanReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+
+        // startScan pode ser recusado (limite do Android): usar o último resultado
+        boolean started;
+        try {
+            started = wifiManager.startScan();
+        } catch (SecurityException e) {
+            started = false;
+        }
+        if (started) {
+            handler.postDelayed(scanTimeout, SCAN_TIMEOUT_MS);
+        } else {
+            finishNearbyScan();
+        }
+    }
+
+    private void finishNearbyScan() {
+        if (!waitingScan) {
+            return;
+        }
+        waitingScan = false;
+        handler.removeCallbacks(scanTimeout);
+        unregisterReceiver(scanReceiver);
+
+        List<ScanResult> results;
+        try {
+            results = wifiManager.getScanResults();
+        } catch (SecurityException e) {
+            results = null;
+        }
+
+        if (results == null || results.isEmpty()) {
+            setLoading(false);
+            showEmptyState("Nenhuma rede Wi-Fi encontrada");
+            return;
+        }
+
+        RequestBody body;
+        try {
+            body = RequestBody.create(
+                    Payloads.nearbyRooms(ScanTraceRecorder.toReadings(results), NEARBY_SCORE_TOP).toString(),
+                    MediaType.parse("application/json")
+            );
+        } catch (JSONException e) {
+            setLoading(false);
+            Toast.makeText(this, "Erro ao criar requisicao: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(apiClient.buildUrl(GeoPingProtocol.ROUTE_ROOMS_NEARBY))
+                .addHeader("Authorization", authManager.getAuthorizationHeader())
+                .post(body)
+                .build();
+
+        apiClient.getHttpClient().newCall(request).enqueue(roomsCallback("Nenhuma sala treinada por perto"));
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == REQUEST_LOCATION) {
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                performNearbySearch();
+            } else {
+                Toast.makeText(this, "Permissao de localizacao necessaria para o scan Wi-Fi", Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * Resposta { success, rooms } (mesmo formato em /search e /nearby)
+     */
+    private Callback roomsCallback(String emptyMessage) {
+        return new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
                 runOnUiThread(() -> {
@@ -128,11 +256,15 @@ public class SearchRoomActivity extends AppCompatActivity implements SearchResul
                             List<Room> rooms = parseSearchResults(roomsArray);
 
                             if (rooms.isEmpty()) {
-                                showEmptyState("Nenhuma sala encontrada");
+                                showEmptyState(emptyMessage);
                             } else {
                                 adapter.setRooms(rooms);
                                 hideEmptyState();
                             }
+                        } else {
+                            Toast.makeText(SearchRoomActivity.this,
+                                    "Erro: " + jsonResponse.optString("error", "Erro desconhecido"),
+                                    Toast.LENGTH_SHORT).show();
                         }
 
                     } catch (JSONException e) {
@@ -142,7 +274,7 @@ public class SearchRoomActivity extends AppCompatActivity implements SearchResul
                     }
                 });
             }
-        });
+        };
     }
 
     private List<Room> parseSearchResults(JSONArray jsonArray) throws JSONException {
@@ -240,7 +372,18 @@ public class SearchRoomActivity extends AppCompatActivity implements SearchResul
     private void setLoading(boolean loading) {
         progressBar.setVisibility(loading ? View.VISIBLE : View.GONE);
         buttonSearch.setEnabled(!loading);
+        buttonNearby.setEnabled(!loading);
         editTextSearch.setEnabled(!loading);
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (waitingScan) {
+            waitingScan = false;
+            handler.removeCallbacks(scanTimeout);
+            unregisterReceiver(scanReceiver);
+        }
+    }
 }
 
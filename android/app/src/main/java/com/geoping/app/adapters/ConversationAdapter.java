@@ -58,6 +58,12 @@ public class ConversationAdapter extends RecyclerView.Adapter<ConversationAdapte
     }
 
     public void addConversation(Conversation conversation) {
+        // Evitar duplicação (evento reenviado na retomada ou já criado localmente)
+        for (Conversation c : conversations) {
+            if (c.getConversationId() != null && c.getConversationId().equals(conversation.getConversationId())) {
+                return;
+            }
+        }
         conversations.add(0, conversation); // Adicionar no início
         notifyItemInserted(0);
     }
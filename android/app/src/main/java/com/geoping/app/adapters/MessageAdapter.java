@@ -50,14 +50,60 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
     }
 
     public void addMessage(Message message) {
-        // Evitar duplicação
-        for (Message m : messages) {
-            if (m.getId() == message.getId()) {
-                return;
+        // Mensagem própria já exibida como pendente: substituir pela confirmada
+        if (message.getClientMsgId() != null && reconcile(message.getClientMsgId(), message)) {
+            return;
+        }
+
+        // Evitar duplicação (pendentes ainda não têm id)
+        if (message.getId() > 0) {
+            for (Message m : messages) {
+                if (m.getId() == message.getId()) {
+                    return;
+                }
+            }
+        }
+
+        // Mensagens recuperadas por sync_room chegam depois de outras mais novas
+        int position = messages.size();
+        while (message.getId() > 0 && position > 0
+                && messages.get(position - 1).getId() > message.getId()) {
+            position--;
+        }
+        messages.add(position, message);
+        notifyItemInserted(position); // Notifica inserção específica
+    }
+
+    /**
+     * Substituir a mensagem pendente pelo clientMsgId
+     *
+     * @return false se não há mensagem com esse clientMsgId
+     */
+    public boolean reconcile(String clientMsgId, Message confirmed) {
+        int position = indexOfClientMsgId(clientMsgId);
+        if (position < 0) {
+            return false;
+        }
+        messages.set(position, confirmed);
+        notifyItemChanged(position);
+        return true;
+    }
+
+    public void markFailed(String clientMsgId) {
+        int position = indexOfClientMsgId(clientMsgId);
+        if (position >= 0) {
+            messages.get(position).setStatus(Message.STATUS_FAILED);
+            notifyItemChanged(position);
+        }
+    }
+
+    private int indexOfClientMsgId(String clientMsgId) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (clientMsgId.equals(messages.get(i).getClientMsgId())) {
+                return i;
             }
         }
-        messages.add(message);
-        notifyItemInserted(messages.size() - 1); // Notifica inserção específica
+        return -1;
     }
 
     static class MessageViewHolder extends RecyclerView.ViewHolder {
@@ -86,7 +132,13 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
                 layoutMine.setVisibility(View.VISIBLE);
                 layoutOther.setVisibility(View.GONE);
                 textViewContentMine.setText(message.getContent());
-                textViewTimeMine.setText(formatTime(message.getSentAt()));
+                if (message.isPending()) {
+                    textViewTimeMine.setText("Enviando...");
+                } else if (message.getStatus() == Message.STATUS_FAILED) {
+                    textViewTimeMine.setText("Falha ao enviar");
+                } else {
+                    textViewTimeMine.setText(formatTime(message.getSentAt()));
+                }
             } else {
                 // Mensagem de outro usuário
                 layoutMine.setVisibility(View.GONE);
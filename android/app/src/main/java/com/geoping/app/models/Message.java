@@ -8,6 +8,11 @@ import java.io.Serializable;
 public class Message implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    // Estado de envio (mensagens proprias)
+    public static final int STATUS_SENT = 0;
+    public static final int STATUS_PENDING = 1;   // Na fila (MessageOutbox), aguardando ack
+    public static final int STATUS_FAILED = 2;    // Recusada pelo servidor
+
     private int id;
     private int conversationId;
     private int senderId;
@@ -15,6 +20,8 @@ public class Message implements Serializable {
     private String content;
     private String sentAt;
     private boolean isMine; // Se a mensagem é do usuário logado
+    private String clientMsgId; // Gerado no app (reconciliacao com o ack / new_message)
+    private int status = STATUS_SENT;
 
     public Message() {}
 
@@ -36,6 +43,9 @@ public class Message implements Serializable {
     public String getContent() { return content; }
     public String getSentAt() { return sentAt; }
     public boolean isMine() { return isMine; }
+    public String getClientMsgId() { return clientMsgId; }
+    public int getStatus() { return status; }
+    public boolean isPending() { return status == STATUS_PENDING; }
 
     // Setters
     public void setId(int id) { this.id = id; }
@@ -45,6 +55,8 @@ public class Message implements Serializable {
     public void setContent(String content) { this.content = content; }
     public void setSentAt(String sentAt) { this.sentAt = sentAt; }
     public void setMine(boolean mine) { isMine = mine; }
+    public void setClientMsgId(String clientMsgId) { this.clientMsgId = clientMsgId; }
+    public void setStatus(int status) { this.status = status; }
 
     @Override
     public String toString() {
@@ -54,6 +66,7 @@ public class Message implements Serializable {
                 ", content='" + content + '\'' +
                 ", sentAt='" + sentAt + '\'' +
                 ", isMine=" + isMine +
+                ", status=" + status +
                 '}';
     }
 }
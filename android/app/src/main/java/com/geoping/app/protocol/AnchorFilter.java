@@ -0,0 +1,64 @@
+package com.geoping.app.protocol;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Pre-filtro de presenca: BSSIDs ancora da sala (GET /api/rooms/:id/anchors).
+ *
+ * Um scan com menos ancoras visiveis que minOverlap esta fora da sala com
+ * seguranca; o backend usa a mesma regra antes de rodar o modelo.
+ */
+public class AnchorFilter {
+    private final Set<String> anchors;
+    private final int minOverlap;
+
+    public AnchorFilter(Set<String> anchors, int minOverlap) {
+        this.anchors = anchors;
+        this.minOverlap = minOverlap;
+    }
+
+    /**
+     * @return null se a resposta nao tem ancoras utilizaveis
+     */
+    public static AnchorFilter fromJson(JSONObject json) {
+        JSONArray list = json.optJSONArray("anchors");
+        int minOverlap = json.optInt("min_overlap", 0);
+        if (list == null || list.length() == 0 || minOverlap <= 0) {
+            return null;
+        }
+
+        Set<String> anchors = new HashSet<>();
+        for (int i = 0; i < list.length(); i++) {
+            anchors.add(list.optString(i).toLowerCase(Locale.ROOT));
+        }
+        return new AnchorFilter(anchors, minOverlap);
+    }
+
+    public int countMatches(List<WifiReading> readings) {
+        int matches = 0;
+        for (WifiReading reading : readings) {
+            String bssid = reading.getBssid();
+            if (bssid != null && anchors.contains(bssid.toLowerCase(Locale.ROOT))) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    public boolean isClearlyOutside(List<WifiReading> readings) {
+        return countMatches(readings) < minOverlap;
+    }
+
+    /**
+     * Mesma confianca que o backend devolve no scan pre-filtrado
+     */
+    public double outsideConfidence(List<WifiReading> readings) {
+        return 1.0 - (double) countMatches(readings) / minOverlap;
+    }
+}
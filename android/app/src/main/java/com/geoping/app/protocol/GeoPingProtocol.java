@@ -0,0 +1,53 @@
+package com.geoping.app.protocol;
+
+/**
+ * Contrato entre o app e o backend: rotas HTTP e eventos Socket.io.
+ *
+ * Java puro (sem dependencias Android) para ser compartilhado com o
+ * gerador de carga em android/loadtest.
+ */
+public final class GeoPingProtocol {
+
+    // Rotas HTTP
+    public static final String ROUTE_LOGIN = "/api/auth/login";
+    public static final String ROUTE_REGISTER = "/api/auth/register";
+    public static final String ROUTE_PRESENCE_UPDATE = "/api/presence/update";
+    public static final String ROUTE_PRESENCE_UPDATE_ALL = "/api/presence/update-all";
+    public static final String ROUTE_MY_SUBSCRIPTIONS = "/api/rooms/my-subscriptions";
+    public static final String ROUTE_ROOMS_NEARBY = "/api/rooms/nearby";
+
+    // Eventos Socket.io (cliente -> servidor)
+    public static final String EVENT_AUTHENTICATE = "authenticate";
+    public static final String EVENT_JOIN_ROOM = "join_room";
+    public static final String EVENT_LEAVE_ROOM = "leave_room";
+    public static final String EVENT_SEND_MESSAGE = "send_message";   // Com ack
+    public static final String EVENT_PRESENCE_SCAN = "presence_scan"; // Com ack (mesmo corpo de ROUTE_PRESENCE_UPDATE)
+    public static final String EVENT_PRESENCE_SCAN_ALL = "presence_scan_all"; // Com ack (mesmo corpo de ROUTE_PRESENCE_UPDATE_ALL)
+    public static final String EVENT_SYNC_ROOM = "sync_room";         // Com ack: eventos da sala a partir de from_seq
+
+    // Eventos Socket.io (servidor -> cliente)
+    public static final String EVENT_AUTHENTICATED = "authenticated";
+    public static final String EVENT_AUTHENTICATION_FAILED = "authentication_failed";
+    public static final String EVENT_JOINED_ROOM = "joined_room";
+    public static final String EVENT_NEW_MESSAGE = "new_message";
+    public static final String EVENT_NEW_CONVERSATION = "new_conversation";
+    public static final String EVENT_ROOM_RESET = "room_reset";   // Eventos perdidos fora do buffer do servidor
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private GeoPingProtocol() {}
+
+    /**
+     * GET com as ancoras do pre-filtro de presenca da sala
+     */
+    public static String roomAnchorsRoute(String roomId) {
+        return "/api/rooms/" + roomId + "/anchors";
+    }
+
+    /**
+     * Header Authorization (HTTP) e payload do evento authenticate (socket)
+     */
+    public static String bearer(String token) {
+        return token != null ? BEARER_PREFIX + token : null;
+    }
+}
@@ -0,0 +1,115 @@
+package com.geoping.app.protocol;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Corpo das requisicoes de autenticacao, presenca e mensagens
+ */
+public final class Payloads {
+
+    private Payloads() {}
+
+    /**
+     * Corpo de POST /api/presence/update
+     */
+    public static JSONObject presenceUpdate(String roomId, List<WifiReading> readings) throws JSONException {
+        JSONArray wifiScanResults = new JSONArray();
+        for (WifiReading reading : readings) {
+            wifiScanResults.put(reading.toJson());
+        }
+
+        JSONObject payload = new JSONObject();
+        payload.put("room_id", roomId);
+        payload.put("wifi_scan_results", wifiScanResults);
+        return payload;
+    }
+
+    /**
+     * Corpo de POST /api/presence/update com o estado do aparelho
+     *
+     * @param report false = so avaliar o scan (o servidor nao grava nada)
+     * @param state estado a registrar ("inside"/"outside"), ou null para o
+     *              servidor registrar a propria avaliacao do scan
+     */
+    public static JSONObject presenceUpdate(String roomId, List<WifiReading> readings,
+                                            boolean report, String state) throws JSONException {
+        JSONObject payload = presenceUpdate(roomId, readings);
+        payload.put("report", report);
+        if (state != null) {
+            payload.put("state", state);
+        }
+        return payload;
+    }
+
+    /**
+     * Corpo de POST /api/presence/update-all (um scan, varias salas)
+     */
+    public static JSONObject presenceUpdateAll(Collection<String> roomIds, List<WifiReading> readings) throws JSONException {
+        JSONArray wifiScanResults = new JSONArray();
+        for (WifiReading reading : readings) {
+            wifiScanResults.put(reading.toJson());
+        }
+
+        JSONObject payload = new JSONObject();
+        payload.put("room_ids", new JSONArray(roomIds));
+        payload.put("wifi_scan_results", wifiScanResults);
+        return payload;
+    }
+
+    /**
+     * Corpo de POST /api/rooms/nearby
+     *
+     * @param scoreTop quantos candidatos o servidor avalia com o modelo da sala (0 = nenhum)
+     */
+    public static JSONObject nearbyRooms(List<WifiReading> readings, int scoreTop) throws JSONException {
+        JSONArray wifiScanResults = new JSONArray();
+        for (WifiReading reading : readings) {
+            wifiScanResults.put(reading.toJson());
+        }
+
+        JSONObject payload = new JSONObject();
+        payload.put("wifi_scan_results", wifiScanResults);
+        payload.put("score_top", scoreTop);
+        return payload;
+    }
+
+    /**
+     * Evento send_message (e POST /api/messages/send)
+     *
+     * @param clientMsgId identificador gerado no app; reenvios com o mesmo id
+     *                    nao duplicam a mensagem no servidor
+     */
+    public static JSONObject sendMessage(String conversationId, String content, String clientMsgId) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("conversation_id", conversationId);
+        json.put("content", content);
+        json.put("client_msg_id", clientMsgId);
+        return json;
+    }
+
+    /**
+     * Corpo de POST /api/auth/login
+     */
+    public static JSONObject login(String username, String password) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("username", username);
+        json.put("password", password);
+        return json;
+    }
+
+    /**
+     * Corpo de POST /api/auth/register
+     */
+    public static JSONObject register(String username, String email, String password) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("username", username);
+        json.put("email", email);
+        json.put("password", password);
+        return json;
+    }
+}
@@ -0,0 +1,185 @@
+package com.geoping.app.protocol;
+
+/**
+ * Estado de presenca no aparelho, com histerese, para reportar ao servidor
+ * so as transicoes (e um heartbeat).
+ *
+ * Cada avaliacao de scan (inside + confidence, vindas do servidor ou do
+ * pre-filtro de ancoras) e um voto numa janela das ultimas windowSize
+ * avaliacoes. O estado so muda quando:
+ * - votesToSwitch votos da janela sao do estado oposto;
+ * - o estado atual ja durou minDwellMs.
+ * Um scan perto do threshold (confidence < margin) vota no estado atual, entao
+ * o ruido em volta do threshold nao faz INSIDE/OUTSIDE alternar.
+ *
+ * needsReport() indica quando enviar o estado: transicao ainda nao
+ * confirmada pelo servidor ou heartbeat vencido (a presenca no servidor
+ * expira em 60s sem atualizacao). O scan enviado junto com o relatorio
+ * volta em onReported(). Sem sincronizacao: uso em uma unica thread.
+ */
+public class PresenceStateMachine {
+    public static final int DEFAULT_WINDOW_SIZE = 5;
+    public static final int DEFAULT_VOTES_TO_SWITCH = 3;
+    public static final double DEFAULT_MARGIN = 0.1;
+    public static final long DEFAULT_MIN_DWELL_MS = 20000;
+    public static final long DEFAULT_HEARTBEAT_MS = 45000;
+
+    public enum State { UNKNOWN, INSIDE, OUTSIDE }
+
+    private final int windowSize;
+    private final int votesToSwitch;
+    private final double margin;
+    private final long minDwellMs;
+    private final long heartbeatMs;
+
+    private final boolean[] votes; // Janela circular: true = INSIDE
+    private int voteCount = 0;
+    private int nextVote = 0;
+
+    private State state = State.UNKNOWN;
+    private double confidence = 0.0;
+    private long stateSince = 0;
+    private long lastReportAt = 0;
+    private boolean reportPending = false;
+
+    public PresenceStateMachine() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_VOTES_TO_SWITCH, DEFAULT_MARGIN,
+                DEFAULT_MIN_DWELL_MS, DEFAULT_HEARTBEAT_MS);
+    }
+
+    public PresenceStateMachine(int windowSize, int votesToSwitch, double margin,
+                                long minDwellMs, long heartbeatMs) {
+        if (votesToSwitch < 1 || votesToSwitch > windowSize) {
+            throw new IllegalArgumentException("votesToSwitch deve estar entre 1 e windowSize");
+        }
+        this.windowSize = windowSize;
+        this.votesToSwitch = votesToSwitch;
+        this.margin = margin;
+        this.minDwellMs = minDwellMs;
+        this.heartbeatMs = heartbeatMs;
+        this.votes = new boolean[windowSize];
+    }
+
+    /**
+     * Registrar a avaliacao de um scan
+     *
+     * @return true se o estado mudou (transicao a reportar)
+     */
+    public boolean onEvaluation(boolean inside, double scanConfidence, long nowMs) {
+        if (state == State.UNKNOWN) {
+            // Primeira avaliacao define o estado sem esperar a janela
+            addVote(inside);
+            switchTo(inside, scanConfidence, nowMs);
+            return true;
+        }
+
+        boolean currentInside = state == State.INSIDE;
+        addVote(scanConfidence < margin ? currentInside : inside);
+        if (inside == currentInside) {
+            confidence = scanConfidence;
+        }
+
+        if (countVotes(!currentInside) >= votesToSwitch && nowMs - stateSince >= minDwellMs) {
+            switchTo(!currentInside, scanConfidence, nowMs);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Transicao ainda nao confirmada ou heartbeat vencido
+     */
+    public boolean needsReport(long nowMs) {
+        return state != State.UNKNOWN && (reportPending || nowMs - lastReportAt >= heartbeatMs);
+    }
+
+    /**
+     * Resposta do servidor a um report(): claimedInside foi o estado enviado,
+     * recordedInside o que o servidor gravou (recusa um estado contrario ao
+     * scan quando o modelo esta confiante) e scanConfidence a do scan.
+     *
+     * Numa transicao a recusa volta o estado ao gravado. Num heartbeat o
+     * veredito do scan e so mais um voto: um scan ruidoso nao pula a janela
+     * nem a permanencia minima.
+     *
+     * @return true se o estado mudou
+     */
+    public boolean onReported(boolean claimedInside, boolean recordedInside,
+                              double scanConfidence, long nowMs) {
+        lastReportAt = nowMs;
+        if (state == State.UNKNOWN || claimedInside != (state == State.INSIDE)) {
+            // Estado mudou durante o envio: o relatorio novo continua pendente
+            return false;
+        }
+
+        if (reportPending) {
+            reportPending = false;
+            if (recordedInside != claimedInside) {
+                switchTo(recordedInside, scanConfidence, nowMs);
+                reportPending = false;
+                return true;
+            }
+            return false;
+        }
+
+        boolean changed = onEvaluation(recordedInside, scanConfidence, nowMs);
+        if (changed && recordedInside == (state == State.INSIDE)) {
+            // O servidor ja gravou o estado novo junto com este heartbeat
+            reportPending = false;
+        }
+        return changed;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isInside() {
+        return state == State.INSIDE;
+    }
+
+    /**
+     * Confianca da ultima avaliacao que concordou com o estado atual
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public void reset() {
+        voteCount = 0;
+        nextVote = 0;
+        state = State.UNKNOWN;
+        confidence = 0.0;
+        stateSince = 0;
+        lastReportAt = 0;
+        reportPending = false;
+    }
+
+    private void switchTo(boolean inside, double newConfidence, long nowMs) {
+        state = inside ? State.INSIDE : State.OUTSIDE;
+        confidence = newConfidence;
+        stateSince = nowMs;
+        reportPending = true;
+        // Janela recomeca com o voto que causou a transicao
+        boolean last = votes[(nextVote + windowSize - 1) % windowSize];
+        voteCount = 0;
+        nextVote = 0;
+        addVote(last);
+    }
+
+    private void addVote(boolean inside) {
+        votes[nextVote] = inside;
+        nextVote = (nextVote + 1) % windowSize;
+        voteCount = Math.min(voteCount + 1, windowSize);
+    }
+
+    private int countVotes(boolean inside) {
+        int count = 0;
+        for (int i = 0; i < voteCount; i++) {
+            if (votes[i] == inside) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,92 @@
+package com.geoping.app.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Formato binario dos traces de scan Wi-Fi (.gpt).
+ *
+ * Cabecalho: "GPST" + versao (1 byte) + timestamp inicial (8 bytes, ms epoch)
+ *
+ * Registros (1 byte de tag):
+ * - TAG_BSSID: define o proximo id do dicionario
+ *   MAC (6 bytes) + frequencia (varint) + SSID (varint tamanho + UTF-8)
+ * - TAG_SCAN: delta do timestamp em ms (varint) + quantidade (varint)
+ *   + para cada rede: id (varint) + RSSI (1 byte, com sinal)
+ *
+ * Cada BSSID/frequencia eh escrito uma unica vez; um scan tipico de
+ * 20 redes ocupa ~45 bytes contra ~1.5 KB em JSON.
+ */
+final class ScanTraceFormat {
+    static final byte[] MAGIC = {'G', 'P', 'S', 'T'};
+    static final int VERSION = 1;
+
+    static final int TAG_BSSID = 1;
+    static final int TAG_SCAN = 2;
+
+    private ScanTraceFormat() {}
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint invalido");
+    }
+
+    static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * "aa:bb:cc:dd:ee:ff" -> 6 bytes; false se o formato for invalido
+     */
+    static boolean parseMac(String bssid, byte[] out) {
+        if (bssid == null || bssid.length() != 17) {
+            return false;
+        }
+        for (int i = 0; i < 6; i++) {
+            int hi = Character.digit(bssid.charAt(i * 3), 16);
+            int lo = Character.digit(bssid.charAt(i * 3 + 1), 16);
+            if (hi < 0 || lo < 0 || (i < 5 && bssid.charAt(i * 3 + 2) != ':')) {
+                return false;
+            }
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return true;
+    }
+
+    static String formatMac(byte[] mac) {
+        StringBuilder sb = new StringBuilder(17);
+        for (int i = 0; i < 6; i++) {
+            if (i > 0) sb.append(':');
+            sb.append(Character.forDigit((mac[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(mac[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
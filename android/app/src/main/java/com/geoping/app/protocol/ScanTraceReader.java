@@ -0,0 +1,144 @@
+package com.geoping.app.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Le traces gravados pelo ScanTraceWriter, scan a scan.
+ *
+ * Um ultimo registro truncado (app morto durante a escrita) eh tratado
+ * como fim do arquivo.
+ */
+public class ScanTraceReader implements Closeable {
+
+    /**
+     * Um scan do trace: instante (ms epoch) + redes observadas
+     */
+    public static class Scan {
+        public final long timestampMs;
+        public final List<WifiReading> readings;
+
+        Scan(long timestampMs, List<WifiReading> readings) {
+            this.timestampMs = timestampMs;
+            this.readings = readings;
+        }
+    }
+
+    private final InputStream in;
+    private final List<WifiReading> dictionary = new ArrayList<>();
+    private final long startTimestampMs;
+    private long timestampMs;
+
+    public ScanTraceReader(InputStream input) throws IOException {
+        this.in = new BufferedInputStream(input);
+
+        byte[] magic = new byte[ScanTraceFormat.MAGIC.length];
+        ScanTraceFormat.readFully(in, magic);
+        if (!Arrays.equals(magic, ScanTraceFormat.MAGIC)) {
+            throw new IOException("Arquivo nao eh um trace de scans");
+        }
+
+        int version = in.read();
+        if (version != ScanTraceFormat.VERSION) {
+            throw new IOException("Versao de trace nao suportada: " + version);
+        }
+
+        byte[] start = new byte[8];
+        ScanTraceFormat.readFully(in, start);
+        long value = 0;
+        for (byte b : start) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        this.startTimestampMs = value;
+        this.timestampMs = value;
+    }
+
+    public long getStartTimestampMs() {
+        return startTimestampMs;
+    }
+
+    /**
+     * Proximo scan ou null no fim do trace
+     */
+    public Scan next() throws IOException {
+        try {
+            while (true) {
+                int tag = in.read();
+                if (tag < 0) {
+                    return null;
+                }
+
+                if (tag == ScanTraceFormat.TAG_BSSID) {
+                    readDefinition();
+                } else if (tag == ScanTraceFormat.TAG_SCAN) {
+                    return readScan();
+                } else {
+                    throw new IOException("Registro desconhecido no trace: " + tag);
+                }
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void readDefinition() throws IOException {
+        byte[] mac = new byte[6];
+        ScanTraceFormat.readFully(in, mac);
+        int frequency = (int) ScanTraceFormat.readVarLong(in);
+        byte[] ssid = new byte[(int) ScanTraceFormat.readVarLong(in)];
+        ScanTraceFormat.readFully(in, ssid);
+
+        dictionary.add(new WifiReading(ScanTraceFormat.formatMac(mac),
+                new String(ssid, StandardCharsets.UTF_8), 0, frequency));
+    }
+
+    private Scan readScan() throws IOException {
+        long delta = ScanTraceFormat.readVarLong(in);
+        int count = (int) ScanTraceFormat.readVarLong(in);
+
+        List<WifiReading> readings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = (int) ScanTraceFormat.readVarLong(in);
+            int rssi = in.read();
+            if (rssi < 0) {
+                throw new EOFException();
+            }
+            if (id >= dictionary.size()) {
+                throw new IOException("BSSID nao definido no trace: " + id);
+            }
+            WifiReading network = dictionary.get(id);
+            readings.add(new WifiReading(network.getBssid(), network.getSsid(), (byte) rssi, network.getFrequency()));
+        }
+
+        timestampMs += delta;
+        return new Scan(timestampMs, readings);
+    }
+
+    /**
+     * Carregar todos os scans de um arquivo
+     */
+    public static List<Scan> readAll(File file) throws IOException {
+        List<Scan> scans = new ArrayList<>();
+        try (ScanTraceReader reader = new ScanTraceReader(new FileInputStream(file))) {
+            Scan scan;
+            while ((scan = reader.next()) != null) {
+                scans.add(scan);
+            }
+        }
+        return scans;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
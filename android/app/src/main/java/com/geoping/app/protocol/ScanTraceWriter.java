@@ -0,0 +1,93 @@
+package com.geoping.app.protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grava scans Wi-Fi no formato binario de trace (ver ScanTraceFormat).
+ *
+ * Cada scan eh descarregado no stream ao ser gravado: se o app morrer,
+ * o trace continua legivel ate o ultimo scan completo.
+ */
+public class ScanTraceWriter implements Closeable {
+    private final OutputStream out;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final byte[] mac = new byte[6];
+    private long lastTimestampMs;
+    private int scanCount = 0;
+
+    public ScanTraceWriter(OutputStream output, long startTimestampMs) throws IOException {
+        this.out = new BufferedOutputStream(output);
+        this.lastTimestampMs = startTimestampMs;
+
+        out.write(ScanTraceFormat.MAGIC);
+        out.write(ScanTraceFormat.VERSION);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (startTimestampMs >>> shift));
+        }
+        out.flush();
+    }
+
+    /**
+     * Gravar um scan. Redes com BSSID invalido sao ignoradas.
+     */
+    public void writeScan(long timestampMs, List<WifiReading> readings) throws IOException {
+        int[] ids = new int[readings.size()];
+        int[] rssis = new int[readings.size()];
+        int count = 0;
+
+        // Definir no dicionario as redes ainda nao vistas
+        for (WifiReading reading : readings) {
+            String key = reading.getBssid() + "/" + reading.getFrequency();
+            Integer id = dictionary.get(key);
+            if (id == null) {
+                if (!ScanTraceFormat.parseMac(reading.getBssid(), mac)) {
+                    continue;
+                }
+                id = dictionary.size();
+                dictionary.put(key, id);
+                writeDefinition(reading);
+            }
+            ids[count] = id;
+            rssis[count] = Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, reading.getRssi()));
+            count++;
+        }
+
+        out.write(ScanTraceFormat.TAG_SCAN);
+        ScanTraceFormat.writeVarLong(out, Math.max(0, timestampMs - lastTimestampMs));
+        ScanTraceFormat.writeVarLong(out, count);
+        for (int i = 0; i < count; i++) {
+            ScanTraceFormat.writeVarLong(out, ids[i]);
+            out.write(rssis[i]);
+        }
+        out.flush();
+
+        lastTimestampMs = Math.max(lastTimestampMs, timestampMs);
+        scanCount++;
+    }
+
+    private void writeDefinition(WifiReading reading) throws IOException {
+        byte[] ssid = (reading.getSsid() != null ? reading.getSsid() : "").getBytes(StandardCharsets.UTF_8);
+
+        out.write(ScanTraceFormat.TAG_BSSID);
+        out.write(mac);
+        ScanTraceFormat.writeVarLong(out, Math.max(0, reading.getFrequency()));
+        ScanTraceFormat.writeVarLong(out, ssid.length);
+        out.write(ssid);
+    }
+
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,49 @@
+package com.geoping.app.protocol;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Uma rede observada em um scan Wi-Fi (equivalente a um ScanResult,
+ * mas sem dependencia do Android).
+ */
+public class WifiReading {
+    private final String bssid;
+    private final String ssid;
+    private final int rssi;
+    private final int frequency;
+
+    public WifiReading(String bssid, String ssid, int rssi, int frequency) {
+        this.bssid = bssid;
+        this.ssid = ssid;
+        this.rssi = rssi;
+        this.frequency = frequency;
+    }
+
+    public String getBssid() {
+        return bssid;
+    }
+
+    public String getSsid() {
+        return ssid;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * Formato esperado em wifi_scan_results pelo backend
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject network = new JSONObject();
+        network.put("bssid", bssid);
+        network.put("ssid", ssid);
+        network.put("rssi", rssi);
+        return network;
+    }
+}
@@ -14,7 +14,10 @@ import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -22,28 +25,63 @@ import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
 import com.geoping.app.MainActivity;
+import com.geoping.app.protocol.AnchorFilter;
+import com.geoping.app.protocol.GeoPingProtocol;
+import com.geoping.app.protocol.PresenceStateMachine;
+import com.geoping.app.protocol.ScanTraceReader;
+import com.geoping.app.protocol.WifiReading;
 import com.geoping.app.utils.ApiClient;
 import com.geoping.app.utils.AuthManager;
+import com.geoping.app.utils.PresenceClient;
+import com.geoping.app.utils.ScanFreshness;
+import com.geoping.app.utils.ScanTraceRecorder;
 import com.geoping.datacollection.R;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 
 /**
  * Serviço em foreground para detecção de presença indoor em tempo real.
  * Faz scan Wi-Fi a cada 10 segundos e atualiza status de presença no servidor.
+ *
+ * Com o pré-filtro de âncoras da sala, um scan longe da sala é decidido aqui
+ * (OUTSIDE) sem ir ao servidor.
+ *
+ * Modo de uma sala: os scans são só avaliados pelo servidor e votam numa
+ * PresenceStateMachine (histerese, permanência mínima, N de M); a presença é
+ * gravada apenas nas transições e a cada heartbeat (45s, dentro da janela de
+ * 60s do servidor). O heartbeat roda num timer e, sem scan novo (startScan
+ * limitado pelo sistema), reenvia o último scan aceito.
+ *
+ * Modo multi-sala (EXTRA_MULTI_ROOM): cada scan é avaliado de uma vez em todas
+ * as assinaturas aprovadas com modelo (POST /api/presence/update-all) e só as
+ * transições (entrou/saiu de uma sala) atualizam a notificação.
+ *
+ * Modo passivo (padrão; EXTRA_PASSIVE_SCAN = false desliga): os resultados de
+ * scans feitos pelo sistema ou por outros apps também chegam pelo
+ * SCAN_RESULTS_AVAILABLE_ACTION e são aproveitados. startScan() só é chamado
+ * quando o último resultado novo tem mais de SCAN_INTERVAL_MS, poupando a
+ * cota de scans ativos que o Android impõe ao app.
+ *
+ * Scans, montagem dos payloads, respostas do servidor e notificação rodam
+ * numa HandlerThread própria (nunca na main thread da Activity visível); a
+ * notificação só é reenviada quando o texto muda.
  */
 public class PresenceService extends Service {
 
@@ -52,15 +90,54 @@ public class PresenceService extends Service {
     private static final int NOTIFICATION_ID = 1001;
     private static final int SCAN_INTERVAL_MS = 10000; // 10 segundos
 
+    private static final int MIN_EVALUATION_INTERVAL_MS = 3000; // Scans de outros apps em rajada
+    private static final int HEARTBEAT_CHECK_MS = 5000; // Heartbeat não depende de chegar scan novo
+
+    public static final String EXTRA_MULTI_ROOM = "multi_room";
+    public static final String EXTRA_PASSIVE_SCAN = "passive_scan";
+
     private WifiManager wifiManager;
-    private Handler scanHandler;
+    private HandlerThread workerThread;
+    private Handler scanHandler; // Todo o processamento de scans roda neste handler (workerThread)
     private Runnable scanRunnable;
-    private boolean isRunning = false;
+    private volatile boolean isRunning = false;
+    private volatile String notificationText; // Texto exibido na notificação
 
-    private String currentRoomId;
-    private String currentRoomName;
+    private volatile String currentRoomId;
+    private volatile String currentRoomName;
     private boolean isInside = false;
     private double lastConfidence = 0.0;
+    private PresenceClient presenceClient;
+    private volatile AnchorFilter anchorFilter;
+    // Histerese no aparelho: o servidor só grava transições e heartbeats
+    private final PresenceStateMachine stateMachine = new PresenceStateMachine();
+    // Com startScan limitado (4 a cada 2 min) pode passar ~90s sem scan novo:
+    // o heartbeat vai por timer com o último scan aceito
+    private Runnable heartbeatRunnable;
+    private List<WifiReading> lastReadings;
+    private boolean reportInFlight = false;
+    private long lastSentAllAt = 0; // Multi-sala: último envio (scan ou heartbeat)
+
+    // Modo multi-sala: room_id -> nome das assinaturas monitoradas, salas onde o usuário está
+    private boolean multiRoom = false;
+    private final Map<String, String> subscribedRooms = new ConcurrentHashMap<>();
+    private volatile boolean subscriptionsLoading = false; // Requisição em andamento
+    private final Set<String> insideRooms = new LinkedHashSet<>();
+
+    // Cache repetido de scans recusados pelo sistema não é evidência nova
+    private ScanFreshness scanFreshness = new ScanFreshness(SCAN_INTERVAL_MS);
+
+    // Modo passivo: último resultado novo aceito (elapsedRealtime); scans
+    // ativos disparados pelo app x resultados novos aproveitados
+    private boolean passiveScan = true;
+    private long lastFreshScanAt = 0;
+    private int activeScanCount = 0;
+    private int freshScanCount = 0;
+
+    // Gravacao/replay de traces de scan (ver ScanTraceRecorder)
+    private volatile ScanTraceRecorder traceRecorder;
+    private List<ScanTraceReader.Scan> replayScans;
+    private int replayIndex = 0;
 
     // BroadcastReceiver para resultados do Wi-Fi scan
     private final BroadcastReceiver wifiScanReceiver = new BroadcastReceiver() {
@@ -79,7 +156,10 @@ public class PresenceService extends Service {
         Log.d(TAG, "PresenceService criado");
 
         wifiManager = (WifiManager) getApplicationContext().getSystemService(WIFI_SERVICE);
-        scanHandler = new Handler(Looper.getMainLooper());
+        workerThread = new HandlerThread("PresenceWorker", Process.THREAD_PRIORITY_BACKGROUND);
+        workerThread.start();
+        scanHandler = new Handler(workerThread.getLooper());
+        presenceClient = new PresenceClient(this);
 
         createNotificationChannel();
     }
@@ -87,12 +167,34 @@ public class PresenceService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null && intent.hasExtra("room_id")) {
-            currentRoomId = intent.getStringExtra("room_id");
-            currentRoomName = intent.getStringExtra("room_name");
+            boolean requestedMulti = intent.getBooleanExtra(EXTRA_MULTI_ROOM, false);
+            String requestedRoomId = intent.getStringExtra("room_id");
+            // Já no modo multi-sala: a sala pedida está entre as assinaturas monitoradas.
+            // Troca de modo ou de sala: recomeçar (âncoras e máquina de estados da sala nova)
+            boolean sameMonitoring = isRunning && multiRoom == requestedMulti
+                    && (multiRoom || requestedRoomId.equals(currentRoomId));
+            if (!sameMonitoring) {
+                if (isRunning) {
+                    stopPresenceMonitoring();
+                }
+                multiRoom = requestedMulti;
+                currentRoomId = requestedRoomId;
+                currentRoomName = intent.getStringExtra("room_name");
+                passiveScan = intent.getBooleanExtra(EXTRA_PASSIVE_SCAN, true);
+            }
+
+            Log.d(TAG, multiRoom
+                    ? "Iniciando monitoramento de presença em todas as assinaturas"
+                    : "Iniciando monitoramento de presença para sala: " + currentRoomName);
 
-            Log.d(TAG, "Iniciando monitoramento de presença para sala: " + currentRoomName);
+            if (intent.hasExtra(ScanTraceRecorder.EXTRA_REPLAY_TRACE)) {
+                loadReplayTrace(intent.getStringExtra(ScanTraceRecorder.EXTRA_REPLAY_TRACE));
+            } else if (traceRecorder == null && ScanTraceRecorder.isEnabled(this, intent)) {
+                traceRecorder = ScanTraceRecorder.start(this, currentRoomName);
+            }
 
             try {
+                notificationText = "Iniciando...";
                 if (Build.VERSION.SDK_INT >= 34) { // Android 14+
                     startForeground(NOTIFICATION_ID, createNotification("Iniciando..."), 
                                   android.content.pm.ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION);
@@ -117,19 +219,58 @@ public class PresenceService extends Service {
         }
 
         isRunning = true;
+        scanHandler.post(() -> { // Estado só é tocado na worker thread
+            stateMachine.reset();
+            lastReadings = null;
+            reportInFlight = false;
+            lastSentAllAt = 0;
+        });
+        scanFreshness = new ScanFreshness(SCAN_INTERVAL_MS);
+        if (multiRoom) {
+            loadSubscribedRooms();
+        } else {
+            loadAnchorFilter();
+        }
+
+        heartbeatRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (!isRunning) {
+                    return;
+                }
+                sendHeartbeatIfDue();
+                scanHandler.postDelayed(this, HEARTBEAT_CHECK_MS);
+            }
+        };
+        scanHandler.postDelayed(heartbeatRunnable, HEARTBEAT_CHECK_MS);
+
+        if (replayScans != null) {
+            startReplay();
+            return;
+        }
 
         // Registrar receiver para os resultados do scan
         IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
-        registerReceiver(wifiScanReceiver, intentFilter);
+        registerReceiver(wifiScanReceiver, intentFilter, null, scanHandler);
 
-        // Criar runnable para scans periódicos
+        // Criar runnable para scans periódicos; no modo passivo só escaneia se
+        // nenhum resultado novo chegou no último intervalo
+        lastFreshScanAt = 0;
+        activeScanCount = 0;
+        freshScanCount = 0;
         scanRunnable = new Runnable() {
             @Override
             public void run() {
-                if (isRunning) {
+                if (!isRunning) {
+                    return;
+                }
+                long age = SystemClock.elapsedRealtime() - lastFreshScanAt;
+                if (!passiveScan || lastFreshScanAt == 0 || age >= SCAN_INTERVAL_MS) {
                     performWifiScan();
                     scanHandler.postDelayed(this, SCAN_INTERVAL_MS);
+                } else {
+                    scanHandler.postDelayed(this, SCAN_INTERVAL_MS - age);
                 }
             }
         };
@@ -144,12 +285,63 @@ public class PresenceService extends Service {
         if (scanHandler != null && scanRunnable != null) {
             scanHandler.removeCallbacks(scanRunnable);
         }
+        if (scanHandler != null && heartbeatRunnable != null) {
+            scanHandler.removeCallbacks(heartbeatRunnable);
+        }
 
         try {
             unregisterReceiver(wifiScanReceiver);
         } catch (IllegalArgumentException e) {
             // Receiver já foi desregistrado
         }
+
+        // Fechar o trace na worker thread, depois de um record() em andamento
+        final ScanTraceRecorder recorder = traceRecorder;
+        traceRecorder = null;
+        if (recorder != null) {
+            scanHandler.post(() -> recorder.stop());
+        }
+    }
+
+    /**
+     * Carregar trace gravado para substituir os scans reais
+     */
+    private void loadReplayTrace(String path) {
+        try {
+            replayScans = ScanTraceReader.readAll(new File(path));
+            replayIndex = 0;
+            Log.d(TAG, "Replay de trace: " + replayScans.size() + " scans de " + path);
+            if (replayScans.isEmpty()) {
+                replayScans = null;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Erro ao ler trace " + path + ": " + e.getMessage());
+            replayScans = null;
+        }
+    }
+
+    /**
+     * Enviar os scans do trace respeitando os intervalos gravados (em loop)
+     */
+    private void startReplay() {
+        scanRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (!isRunning || replayScans == null) {
+                    return;
+                }
+
+                ScanTraceReader.Scan scan = replayScans.get(replayIndex);
+                updatePresence(scan.readings);
+
+                replayIndex = (replayIndex + 1) % replayScans.size();
+                long delay = replayIndex == 0
+                        ? SCAN_INTERVAL_MS
+                        : replayScans.get(replayIndex).timestampMs - scan.timestampMs;
+                scanHandler.postDelayed(this, Math.max(1000, delay));
+            }
+        };
+        scanHandler.post(scanRunnable);
     }
 
     private void performWifiScan() {
@@ -158,7 +350,14 @@ public class PresenceService extends Service {
         }
 
         try {
-            wifiManager.startScan();
+            boolean started = wifiManager.startScan();
+            scanFreshness.onStartScan(started);
+            if (started) {
+                activeScanCount++;
+            }
+            if (!started) {
+                Log.d(TAG, "startScan recusado pelo sistema (" + scanFreshness.describe() + ")");
+            }
         } catch (SecurityException e) {
             Log.e(TAG, "Erro de permissão ao escanear Wi-Fi: " + e.getMessage());
         }
@@ -169,89 +368,316 @@ public class PresenceService extends Service {
             return;
         }
 
+        // Rajada de resultados (outros apps escaneando): um por intervalo mínimo basta
+        long now = SystemClock.elapsedRealtime();
+        if (lastFreshScanAt != 0 && now - lastFreshScanAt < MIN_EVALUATION_INTERVAL_MS) {
+            return;
+        }
+
         try {
-            List<ScanResult> scanResults = wifiManager.getScanResults();
+            ScanFreshness.Result freshness = scanFreshness.filter(wifiManager.getScanResults());
+            if (freshness.stale) {
+                Log.d(TAG, "Scan repetido descartado (" + scanFreshness.describe() + ")");
+                return;
+            }
 
-            if (scanResults == null || scanResults.isEmpty()) {
+            List<ScanResult> scanResults = freshness.fresh;
+            if (scanResults.isEmpty()) {
                 return;
             }
 
-            Log.d(TAG, "Scan Wi-Fi: " + scanResults.size() + " redes detectadas");
+            lastFreshScanAt = now;
+            freshScanCount++;
+            Log.d(TAG, "Scan Wi-Fi: " + scanResults.size() + " redes detectadas" +
+                    (freshness.dropped > 0 ? " (" + freshness.dropped + " antigas descartadas)" : "") +
+                    " | scans ativos: " + activeScanCount + "/" + freshScanCount);
+
+            ScanTraceRecorder recorder = traceRecorder;
+            if (recorder != null) {
+                recorder.record(scanResults);
+            }
 
             // Enviar para backend
-            updatePresence(scanResults);
+            updatePresence(ScanTraceRecorder.toReadings(scanResults));
 
         } catch (SecurityException e) {
             Log.e(TAG, "Erro ao ler resultados Wi-Fi: " + e.getMessage());
         }
     }
 
-    private void updatePresence(List<ScanResult> scanResults) {
-        try {
-            // Construir JSON do scan Wi-Fi
-            JSONArray wifiScanResults = new JSONArray();
-            for (ScanResult result : scanResults) {
-                JSONObject network = new JSONObject();
-                network.put("bssid", result.BSSID);
-                network.put("ssid", result.SSID);
-                network.put("rssi", result.level);
-                wifiScanResults.put(network);
+    /**
+     * Buscar as âncoras da sala; sem elas (modelo antigo, erro) todo scan vai ao servidor
+     */
+    private void loadAnchorFilter() {
+        anchorFilter = null;
+        final String roomId = currentRoomId;
+        Request request = new Request.Builder()
+                .url(ApiClient.getBaseUrl() + GeoPingProtocol.roomAnchorsRoute(roomId))
+                .addHeader("Authorization", AuthManager.getInstance(this).getAuthorizationHeader())
+                .build();
+
+        ApiClient.getSharedHttpClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                Log.w(TAG, "Âncoras indisponíveis: " + e.getMessage());
             }
 
-            JSONObject payload = new JSONObject();
-            payload.put("room_id", currentRoomId);
-            payload.put("wifi_scan_results", wifiScanResults);
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful() || body == null) {
+                        Log.d(TAG, "Sala sem pré-filtro de âncoras (" + response.code() + ")");
+                        return;
+                    }
+                    AnchorFilter filter = AnchorFilter.fromJson(new JSONObject(body.string()));
+                    if (!roomId.equals(currentRoomId)) {
+                        return; // Resposta da sala anterior
+                    }
+                    anchorFilter = filter;
+                    Log.d(TAG, "Pré-filtro de âncoras carregado");
+                } catch (JSONException e) {
+                    Log.e(TAG, "Resposta de âncoras inválida: " + e.getMessage());
+                }
+            }
+        });
+    }
 
-            String url = ApiClient.getBaseUrl() + "/api/presence/update";
+    /**
+     * Assinaturas aprovadas com modelo treinado (o servidor confere de novo a cada scan).
+     * Enquanto a lista estiver vazia, cada scan pede de novo
+     */
+    private void loadSubscribedRooms() {
+        if (subscriptionsLoading) {
+            return;
+        }
+        subscriptionsLoading = true;
+        Request request = new Request.Builder()
+                .url(ApiClient.getBaseUrl() + GeoPingProtocol.ROUTE_MY_SUBSCRIPTIONS)
+                .addHeader("Authorization", AuthManager.getInstance(this).getAuthorizationHeader())
+                .build();
 
-            RequestBody body = RequestBody.create(payload.toString(), MediaType.parse("application/json"));
-            Request request = new Request.Builder()
-                    .url(url)
-                    .post(body)
-                    .addHeader("Authorization", AuthManager.getInstance(this).getAuthorizationHeader())
-                    .build();
+        ApiClient.getSharedHttpClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                subscriptionsLoading = false;
+                Log.w(TAG, "Assinaturas indisponíveis: " + e.getMessage());
+            }
 
-            ApiClient.getSharedHttpClient().newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    Log.e(TAG, "Erro ao atualizar presença: " + e.getMessage());
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful() || body == null) {
+                        Log.e(TAG, "Erro ao carregar assinaturas (" + response.code() + ")");
+                        return;
+                    }
+                    JSONArray subscriptions = new JSONObject(body.string()).getJSONArray("subscriptions");
+                    subscribedRooms.clear();
+                    for (int i = 0; i < subscriptions.length(); i++) {
+                        JSONObject room = subscriptions.getJSONObject(i);
+                        if ("approved".equals(room.optString("subscription_status"))
+                                && !room.optBoolean("is_blocked", false)
+                                && room.optBoolean("model_trained", false)) {
+                            subscribedRooms.put(room.getString("room_id"), room.optString("room_name"));
+                        }
+                    }
+                    Log.d(TAG, "Monitorando " + subscribedRooms.size() + " salas");
+                } catch (JSONException e) {
+                    Log.e(TAG, "Resposta de assinaturas inválida: " + e.getMessage());
+                } finally {
+                    subscriptionsLoading = false;
                 }
+            }
+        });
+    }
 
-                @Override
-                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                    try (ResponseBody responseBody = response.body()) {
-                        if (response.isSuccessful() && responseBody != null) {
-                            String responseData = responseBody.string();
-                            JSONObject result = new JSONObject(responseData);
+    private void updatePresence(List<WifiReading> readings) {
+        lastReadings = readings;
+        if (multiRoom) {
+            updatePresenceAll(readings);
+            return;
+        }
 
-                            isInside = result.getBoolean("inside");
-                            lastConfidence = result.getDouble("confidence");
+        long now = SystemClock.elapsedRealtime();
+        AnchorFilter filter = anchorFilter;
+        if (filter != null && filter.isClearlyOutside(readings)) {
+            // Nenhuma âncora visível: voto OUTSIDE sem perguntar ao servidor
+            onEvaluation(false, filter.outsideConfidence(readings), now);
+            if (!stateMachine.needsReport(now)) {
+                Log.d(TAG, "Fora da sala pelo pré-filtro, scan não enviado");
+                return;
+            }
+            reportState(readings);
+            return;
+        }
 
-                            Log.d(TAG, "Presença atualizada: " + (isInside ? "INSIDE" : "OUTSIDE") + 
-                                      " (confiança: " + String.format("%.2f", lastConfidence * 100) + "%)");
+        // Transição não confirmada ou heartbeat: o relatório já leva este scan
+        if (stateMachine.needsReport(now)) {
+            reportState(readings);
+            return;
+        }
 
-                            updateNotification();
-                        }
-                    } catch (JSONException e) {
-                        Log.e(TAG, "Erro ao processar resposta: " + e.getMessage());
+        // Socket (presence_scan) quando autenticado; senão HTTP. Só avaliação, nada gravado
+        final String roomId = currentRoomId;
+        presenceClient.evaluate(roomId, readings, new PresenceClient.Callback() {
+            @Override
+            public void onResult(boolean inside, double confidence) {
+                scanHandler.post(() -> {
+                    if (!roomId.equals(currentRoomId)) {
+                        return; // Resposta da sala anterior
                     }
-                }
-            });
+                    long evaluatedAt = SystemClock.elapsedRealtime();
+                    onEvaluation(inside, confidence, evaluatedAt);
+                    if (stateMachine.needsReport(evaluatedAt)) {
+                        reportState(readings);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(int status, String error) {
+                Log.e(TAG, "Erro ao avaliar presença: " + error);
+            }
+        });
+    }
+
+    /**
+     * Heartbeat vencido sem scan novo (scans recusados pelo sistema): reenviar
+     * o último scan aceito para a presença não expirar no servidor (60s)
+     */
+    private void sendHeartbeatIfDue() {
+        List<WifiReading> readings = lastReadings;
+        if (readings == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (multiRoom) {
+            if (now - lastSentAllAt >= PresenceStateMachine.DEFAULT_HEARTBEAT_MS) {
+                Log.d(TAG, "Heartbeat (multi-sala) com o último scan");
+                updatePresenceAll(readings);
+            }
+        } else if (stateMachine.needsReport(now) && !reportInFlight) {
+            Log.d(TAG, "Heartbeat com o último scan (" + scanFreshness.describe() + ")");
+            reportState(readings);
+        }
+    }
 
-        } catch (JSONException e) {
-            Log.e(TAG, "Erro ao criar JSON: " + e.getMessage());
+    /**
+     * Voto de um scan na máquina de estados; a notificação segue o estado, não o scan
+     */
+    private void onEvaluation(boolean inside, double confidence, long now) {
+        if (stateMachine.onEvaluation(inside, confidence, now)) {
+            Log.d(TAG, "Transição de presença: " + stateMachine.getState() +
+                      " (confiança: " + String.format("%.2f", confidence * 100) + "%)");
         }
+        isInside = stateMachine.isInside();
+        lastConfidence = stateMachine.getConfidence();
+        updateNotification();
+    }
+
+    /**
+     * Gravar o estado do aparelho no servidor (transição ou heartbeat). Em erro
+     * o relatório continua pendente e vai no próximo scan ou no timer de heartbeat
+     */
+    private void reportState(List<WifiReading> readings) {
+        if (reportInFlight) {
+            return; // O timer de heartbeat reenvia se continuar pendente
+        }
+        reportInFlight = true;
+        final boolean claimedInside = stateMachine.isInside();
+        final String roomId = currentRoomId;
+        presenceClient.report(roomId, readings, claimedInside, new PresenceClient.Callback() {
+            @Override
+            public void onResult(boolean inside, double confidence) {
+                scanHandler.post(() -> {
+                    reportInFlight = false;
+                    if (!roomId.equals(currentRoomId)) {
+                        return; // Resposta da sala anterior
+                    }
+                    if (inside != claimedInside) {
+                        Log.w(TAG, "Servidor não confirmou " + (claimedInside ? "INSIDE" : "OUTSIDE") +
+                                  " para este scan (confiança: " + String.format("%.2f", confidence * 100) + "%)");
+                    }
+                    if (stateMachine.onReported(claimedInside, inside, confidence, SystemClock.elapsedRealtime())) {
+                        Log.d(TAG, "Transição de presença: " + stateMachine.getState());
+                    }
+                    isInside = stateMachine.isInside();
+                    lastConfidence = stateMachine.getConfidence();
+
+                    Log.d(TAG, "Presença registrada: " + (isInside ? "INSIDE" : "OUTSIDE") +
+                              " (confiança: " + String.format("%.2f", confidence * 100) + "%)");
+
+                    updateNotification();
+                });
+            }
+
+            @Override
+            public void onError(int status, String error) {
+                Log.e(TAG, "Erro ao registrar presença: " + error);
+                scanHandler.post(() -> reportInFlight = false);
+            }
+        });
+    }
+
+    /**
+     * Um scan, todas as salas: o servidor avalia os modelos num único processo
+     */
+    private void updatePresenceAll(List<WifiReading> readings) {
+        if (subscribedRooms.isEmpty()) {
+            // Carga inicial falhou (ou nenhuma sala com modelo ainda): tentar de novo
+            loadSubscribedRooms();
+            return;
+        }
+
+        lastSentAllAt = SystemClock.elapsedRealtime();
+        presenceClient.sendAll(subscribedRooms.keySet(), readings, new PresenceClient.RoomsCallback() {
+            @Override
+            public void onResult(List<String> insideRoomIds, List<String> changedRoomIds) {
+                scanHandler.post(() -> {
+                    if (changedRoomIds.isEmpty() && insideRooms.containsAll(insideRoomIds)
+                            && insideRoomIds.containsAll(insideRooms)) {
+                        return;
+                    }
+                    for (String roomId : changedRoomIds) {
+                        Log.d(TAG, "Transição em " + subscribedRooms.get(roomId) + ": " +
+                                (insideRoomIds.contains(roomId) ? "INSIDE" : "OUTSIDE"));
+                    }
+                    insideRooms.clear();
+                    insideRooms.addAll(insideRoomIds);
+                    updateNotification();
+                });
+            }
+
+            @Override
+            public void onError(int status, String error) {
+                Log.e(TAG, "Erro ao atualizar presença (multi-sala): " + error);
+            }
+        });
     }
 
     private void updateNotification() {
-        String status = isInside 
-            ? "✓ Dentro da sala" 
-            : "✗ Fora da sala";
-        String confidence = String.format("Confiança: %.0f%%", lastConfidence * 100);
+        String text;
+        if (multiRoom) {
+            List<String> names = new ArrayList<>();
+            for (String roomId : insideRooms) {
+                names.add(subscribedRooms.containsKey(roomId) ? subscribedRooms.get(roomId) : roomId);
+            }
+            text = names.isEmpty() ? "✗ Fora das salas" : "✓ Dentro de: " + TextUtils.join(", ", names);
+        } else {
+            String status = isInside 
+                ? "✓ Dentro da sala" 
+                : "✗ Fora da sala";
+            String confidence = String.format("Confiança: %.0f%%", lastConfidence * 100);
+            text = status + " | " + confidence;
+        }
+
+        // Mesmo texto: não reconstruir nem reenviar a notificação
+        if (text.equals(notificationText)) {
+            return;
+        }
+        notificationText = text;
 
-        Notification notification = createNotification(status + " | " + confidence);
         NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        notificationManager.notify(NOTIFICATION_ID, notification);
+        notificationManager.notify(NOTIFICATION_ID, createNotification(text));
     }
 
     private void createNotificationChannel() {
@@ -278,7 +704,7 @@ public class PresenceService extends Service {
         );
 
         return new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setContentTitle("GeoPing - " + currentRoomName)
+                .setContentTitle(multiRoom ? "GeoPing - Minhas salas" : "GeoPing - " + currentRoomName)
                 .setContentText(contentText)
                 .setSmallIcon(android.R.drawable.ic_menu_mylocation)
                 .setContentIntent(pendingIntent)
@@ -290,6 +716,7 @@ public class PresenceService extends Service {
     public void onDestroy() {
         super.onDestroy();
         stopPresenceMonitoring();
+        workerThread.quitSafely(); // Processa o que já estava na fila (ex: fechar o trace)
         Log.d(TAG, "PresenceService destruído");
     }
 
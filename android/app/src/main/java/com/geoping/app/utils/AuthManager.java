@@ -3,6 +3,8 @@ package com.geoping.app.utils;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.geoping.app.protocol.GeoPingProtocol;
+
 /**
  * Gerenciador de autenticacao
  * Armazena token JWT e dados do usuario
@@ -92,8 +94,7 @@ public class AuthManager {
      * Obter header Authorization para requisicoes HTTP
      */
     public String getAuthorizationHeader() {
-        String token = getToken();
-        return token != null ? "Bearer " + token : null;
+        return GeoPingProtocol.bearer(getToken());
     }
 }
 
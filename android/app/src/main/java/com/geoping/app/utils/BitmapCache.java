@@ -0,0 +1,301 @@
+package com.geoping.app.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Cache de dois niveis (memoria + disco) para os graficos de treinamento.
+ *
+ * - Memoria: LruCache limitado a 1/8 do heap, com bitmaps ja reduzidos
+ *   (inSampleSize) para o tamanho do ImageView de destino.
+ * - Disco: PNG original + ETag em getCacheDir(), chave = URL + versao do modelo.
+ *
+ * Quando a versao do modelo eh conhecida, uma entrada em disco eh servida sem
+ * rede. Sem versao, a entrada em disco eh exibida imediatamente e revalidada
+ * com If-None-Match (o backend responde 304 se o grafico nao mudou).
+ */
+public class BitmapCache {
+    private static final String TAG = "BitmapCache";
+    private static final String DISK_DIR = "training_charts";
+    private static final long MAX_DISK_BYTES = 20L * 1024 * 1024; // 20 MB
+    private static final String LATEST_VERSION = "latest";
+
+    private static BitmapCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final File diskDir;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Callback entregue sempre na main thread. Pode ser chamado duas vezes
+     * (copia em disco + versao nova) quando a revalidacao encontra mudanca.
+     */
+    public interface Listener {
+        void onBitmap(Bitmap bitmap);
+        void onError(String message);
+    }
+
+    private BitmapCache(Context context) {
+        int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024);
+        memoryCache = new LruCache<String, Bitmap>(maxKb / 8) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+
+        diskDir = new File(context.getApplicationContext().getCacheDir(), DISK_DIR);
+        if (!diskDir.exists() && !diskDir.mkdirs()) {
+            Log.e(TAG, "Nao foi possivel criar diretorio de cache: " + diskDir);
+        }
+    }
+
+    public static synchronized BitmapCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new BitmapCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Carregar imagem da URL, reduzida para caber em reqWidth x reqHeight.
+     *
+     * @param modelVersion versao do modelo (ex: data do treino) ou null se desconhecida
+     */
+    public void load(String url, String modelVersion, int reqWidth, int reqHeight, Listener listener) {
+        String version = modelVersion != null && !modelVersion.isEmpty() ? modelVersion : LATEST_VERSION;
+        String diskKey = hash(url + "#" + version);
+        String memoryKey = diskKey + "@" + reqWidth + "x" + reqHeight;
+
+        Bitmap cached = memoryCache.get(memoryKey);
+        if (cached != null) {
+            listener.onBitmap(cached);
+            return;
+        }
+
+        diskExecutor.execute(() -> {
+            File imageFile = new File(diskDir, diskKey + ".png");
+            File etagFile = new File(diskDir, diskKey + ".etag");
+            String etag = null;
+
+            if (imageFile.exists()) {
+                Bitmap bitmap = decodeSampled(imageFile, reqWidth, reqHeight);
+                if (bitmap != null) {
+                    memoryCache.put(memoryKey, bitmap);
+                    deliver(listener, bitmap);
+
+                    // Versao fixa: o conteudo nao muda, nao precisa de rede
+                    if (!LATEST_VERSION.equals(version)) {
+                        imageFile.setLastModified(System.currentTimeMillis());
+                        return;
+                    }
+                    etag = readEtag(etagFile);
+                }
+            }
+
+            fetch(url, etag, imageFile, etagFile, memoryKey, reqWidth, reqHeight, listener);
+        });
+    }
+
+    private void fetch(String url, String etag, File imageFile, File etagFile, String memoryKey,
+                       int reqWidth, int reqHeight, Listener listener) {
+        Request.Builder builder = new Request.Builder().url(url).get();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+
+        ApiClient.getSharedHttpClient().newCall(builder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                // Se ja exibimos a copia em disco, a falha de revalidacao eh silenciosa
+                if (etag == null) {
+                    fail(listener, e.getMessage());
+                }
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (response.code() == 304) {
+                        imageFile.setLastModified(System.currentTimeMillis());
+                        return;
+                    }
+
+                    if (!response.isSuccessful() || body == null) {
+                        if (etag == null) {
+                            fail(listener, "HTTP " + response.code());
+                        }
+                        return;
+                    }
+
+                    writeToDisk(body.byteStream(), imageFile);
+                    writeEtag(etagFile, response.header("ETag"));
+                    trimDisk();
+
+                    Bitmap bitmap = decodeSampled(imageFile, reqWidth, reqHeight);
+                    if (bitmap == null) {
+                        fail(listener, "Falha ao decodificar imagem");
+                        return;
+                    }
+                    memoryCache.put(memoryKey, bitmap);
+                    deliver(listener, bitmap);
+                } catch (IOException e) {
+                    Log.e(TAG, "Erro ao gravar cache: " + e.getMessage());
+                    if (etag == null) {
+                        fail(listener, e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodificar com inSampleSize (potencia de 2) e RGB_565: os graficos
+     * nao tem transparencia, entao metade dos bytes por pixel basta.
+     */
+    private static Bitmap decodeSampled(File file, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    }
+
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 && reqHeight <= 0) {
+            return inSampleSize;
+        }
+
+        int halfWidth = width / 2;
+        int halfHeight = height / 2;
+        while ((reqWidth <= 0 || halfWidth / inSampleSize >= reqWidth)
+                && (reqHeight <= 0 || halfHeight / inSampleSize >= reqHeight)) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static void writeToDisk(InputStream input, File target) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (OutputStream output = new FileOutputStream(tmp)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Falha ao mover arquivo de cache");
+        }
+    }
+
+    private static void writeEtag(File etagFile, String etag) throws IOException {
+        if (etag == null) {
+            etagFile.delete();
+            return;
+        }
+        try (OutputStream output = new FileOutputStream(etagFile)) {
+            output.write(etag.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String readEtag(File etagFile) {
+        if (!etagFile.exists()) {
+            return null;
+        }
+        try (InputStream input = new FileInputStream(etagFile)) {
+            byte[] data = new byte[(int) etagFile.length()];
+            int read = input.read(data);
+            return read > 0 ? new String(data, 0, read, StandardCharsets.UTF_8) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remover os PNGs menos usados ate ficar abaixo de MAX_DISK_BYTES
+     */
+    private void trimDisk() {
+        File[] files = diskDir.listFiles((dir, name) -> name.endsWith(".png"));
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            total -= f.length();
+            String base = f.getName().substring(0, f.getName().length() - 4);
+            f.delete();
+            new File(diskDir, base + ".etag").delete();
+        }
+    }
+
+    private void deliver(Listener listener, Bitmap bitmap) {
+        mainHandler.post(() -> listener.onBitmap(bitmap));
+    }
+
+    private void fail(Listener listener, String message) {
+        mainHandler.post(() -> listener.onError(message));
+    }
+
+    private static String hash(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : bytes) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(value.hashCode());
+        }
+    }
+}
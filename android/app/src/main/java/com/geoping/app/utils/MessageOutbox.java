@@ -0,0 +1,272 @@
+package com.geoping.app.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.geoping.app.protocol.GeoPingProtocol;
+import com.geoping.app.protocol.Payloads;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.socket.client.AckWithTimeout;
+
+/**
+ * Fila persistente de mensagens a enviar pelo Socket.io (evento send_message).
+ *
+ * A mensagem entra na fila e aparece na tela na hora; sai da fila quando o
+ * servidor confirma pelo ack. Cada mensagem tem um client_msg_id (UUID), entao
+ * reenvios apos timeout ou reconexao nao duplicam a mensagem no servidor.
+ *
+ * A fila fica em SharedPreferences e e reenviada a cada autenticacao do socket.
+ */
+public class MessageOutbox {
+    private static final String TAG = "MessageOutbox";
+    private static final String PREFS_NAME = "GeoPingOutbox";
+    private static final String KEY_ENTRIES = "entries";
+    private static final long ACK_TIMEOUT_MS = 10000;
+
+    private static MessageOutbox instance;
+
+    /**
+     * Resultado do envio (chamado na thread do socket)
+     */
+    public interface Listener {
+        void onMessageAcked(String clientMsgId, JSONObject message);
+        void onMessageFailed(String clientMsgId, String error);
+    }
+
+    /**
+     * Mensagem aguardando confirmacao
+     */
+    public static class Entry {
+        public final String clientMsgId;
+        public final String conversationId;
+        public final String content;
+        public final String createdAt;
+
+        Entry(String clientMsgId, String conversationId, String content, String createdAt) {
+            this.clientMsgId = clientMsgId;
+            this.conversationId = conversationId;
+            this.content = content;
+            this.createdAt = createdAt;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("client_msg_id", clientMsgId);
+            json.put("conversation_id", conversationId);
+            json.put("content", content);
+            json.put("created_at", createdAt);
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            return new Entry(json.getString("client_msg_id"), json.getString("conversation_id"),
+                    json.getString("content"), json.optString("created_at", ""));
+        }
+    }
+
+    private final SharedPreferences prefs;
+    private final SocketManager socketManager;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(); // Ordem de envio
+    private final Set<String> inFlight = new HashSet<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private MessageOutbox(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        socketManager = SocketManager.getInstance();
+        load();
+        socketManager.addOnAuthenticatedListener(this::flush);
+    }
+
+    public static synchronized MessageOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageOutbox(context);
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Colocar mensagem na fila e tentar enviar
+     */
+    public Entry enqueue(String conversationId, String content) {
+        String createdAt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US).format(new Date());
+        Entry entry = new Entry(UUID.randomUUID().toString(), conversationId, content, createdAt);
+
+        synchronized (this) {
+            entries.put(entry.clientMsgId, entry);
+            save();
+        }
+        flush();
+        return entry;
+    }
+
+    /**
+     * Mensagens ainda nao confirmadas de uma conversa
+     */
+    public synchronized List<Entry> getPending(String conversationId) {
+        List<Entry> pending = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.conversationId.equals(conversationId)) {
+                pending.add(entry);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Remover mensagem ja confirmada por outro caminho (ex: veio na lista do servidor)
+     */
+    public synchronized void discard(String clientMsgId) {
+        if (entries.remove(clientMsgId) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Esvaziar a fila (logout)
+     */
+    public synchronized void clear() {
+        entries.clear();
+        inFlight.clear();
+        save();
+    }
+
+    /**
+     * Enviar tudo que nao esta aguardando ack. Sem socket autenticado nao faz
+     * nada: a fila e reenviada na proxima autenticacao.
+     */
+    public void flush() {
+        if (!socketManager.isAuthenticated()) {
+            return;
+        }
+
+        List<Entry> toSend = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (inFlight.add(entry.clientMsgId)) {
+                    toSend.add(entry);
+                }
+            }
+        }
+
+        for (Entry entry : toSend) {
+            send(entry);
+        }
+    }
+
+    private void send(Entry entry) {
+        JSONObject payload;
+        try {
+            payload = Payloads.sendMessage(entry.conversationId, entry.content, entry.clientMsgId);
+        } catch (JSONException e) {
+            Log.e(TAG, "Erro ao montar mensagem: " + e.getMessage());
+            return;
+        }
+
+        boolean emitted = socketManager.emitWithAck(GeoPingProtocol.EVENT_SEND_MESSAGE, payload,
+                new AckWithTimeout(ACK_TIMEOUT_MS) {
+                    @Override
+                    public void onSuccess(Object... args) {
+                        handleAck(entry, args.length > 0 ? args[0] : null);
+                    }
+
+                    @Override
+                    public void onTimeout() {
+                        Log.w(TAG, "Timeout no ack de " + entry.clientMsgId + ", reenviando");
+                        synchronized (MessageOutbox.this) {
+                            inFlight.remove(entry.clientMsgId);
+                        }
+                        flush();
+                    }
+                });
+
+        if (!emitted) {
+            synchronized (this) {
+                inFlight.remove(entry.clientMsgId);
+            }
+        }
+    }
+
+    private void handleAck(Entry entry, Object response) {
+        JSONObject json = response instanceof JSONObject ? (JSONObject) response : new JSONObject();
+        int status = json.optInt("status", 500);
+        boolean success = json.optBoolean("success", false);
+
+        synchronized (this) {
+            inFlight.remove(entry.clientMsgId);
+            // Erro interno/nao autenticado: manter na fila para a proxima tentativa
+            if (!success && (status >= 500 || status == 401)) {
+                Log.w(TAG, "Envio de " + entry.clientMsgId + " falhou (" + status + "), mantendo na fila");
+                return;
+            }
+            entries.remove(entry.clientMsgId);
+            save();
+        }
+
+        if (success) {
+            JSONObject message = json.optJSONObject("message");
+            for (Listener listener : listeners) {
+                listener.onMessageAcked(entry.clientMsgId, message);
+            }
+        } else {
+            String error = json.optString("error", "Erro ao enviar mensagem.");
+            Log.e(TAG, "Mensagem " + entry.clientMsgId + " recusada: " + error);
+            for (Listener listener : listeners) {
+                listener.onMessageFailed(entry.clientMsgId, error);
+            }
+        }
+    }
+
+    private void load() {
+        String stored = prefs.getString(KEY_ENTRIES, null);
+        if (stored == null) {
+            return;
+        }
+        try {
+            JSONArray array = new JSONArray(stored);
+            for (int i = 0; i < array.length(); i++) {
+                Entry entry = Entry.fromJson(array.getJSONObject(i));
+                entries.put(entry.clientMsgId, entry);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Fila corrompida, descartando: " + e.getMessage());
+            prefs.edit().remove(KEY_ENTRIES).apply();
+        }
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries.values()) {
+                array.put(entry.toJson());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Erro ao salvar fila: " + e.getMessage());
+            return;
+        }
+        prefs.edit().putString(KEY_ENTRIES, array.toString()).apply();
+    }
+}
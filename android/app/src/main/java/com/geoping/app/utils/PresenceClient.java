@@ -0,0 +1,250 @@
+package com.geoping.app.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.geoping.app.protocol.GeoPingProtocol;
+import com.geoping.app.protocol.Payloads;
+import com.geoping.app.protocol.WifiReading;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import io.socket.client.AckWithTimeout;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Envio de scans Wi-Fi para avaliacao de presenca.
+ *
+ * Usa o evento presence_scan no socket do SocketManager (autenticado uma vez
+ * no authenticate, resposta pelo ack). Sem socket autenticado, cai para
+ * POST /api/presence/update. O modo multi-sala (sendAll) usa presence_scan_all
+ * e POST /api/presence/update-all da mesma forma.
+ *
+ * Com maquina de estados no aparelho (PresenceStateMachine), evaluate()
+ * so avalia o scan e report() registra o estado nas transicoes/heartbeat
+ * (PresenceService e ChatActivity usam os dois).
+ *
+ * Em 429 o servidor informa retry_after_ms; ate la os envios (de qualquer
+ * instancia: PresenceService e ChatActivity) falham localmente sem rede.
+ *
+ * Callbacks chamados fora da thread principal.
+ */
+public class PresenceClient {
+    private static final String TAG = "PresenceClient";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final long ACK_TIMEOUT_MS = 15000; // Inferencia inclui o spawn do Python
+    private static final long DEFAULT_RETRY_AFTER_MS = 10000;
+
+    // Compartilhado entre instancias: o limite do servidor e por usuario e sala
+    private static volatile long retryNotBefore = 0;
+
+    public interface Callback {
+        void onResult(boolean inside, double confidence);
+
+        /**
+         * @param status status HTTP equivalente (0 = rede/timeout)
+         */
+        void onError(int status, String error);
+    }
+
+    /**
+     * Resultado do modo multi-sala
+     */
+    public interface RoomsCallback {
+        /**
+         * @param insideRoomIds salas em que o usuario esta agora
+         * @param changedRoomIds salas cujo estado mudou desde a ultima avaliacao no servidor
+         */
+        void onResult(List<String> insideRoomIds, List<String> changedRoomIds);
+
+        void onError(int status, String error);
+    }
+
+    /**
+     * Resposta ja convertida em JSON (ack do socket ou corpo HTTP)
+     */
+    private interface ResponseHandler {
+        void handle(JSONObject json, int httpStatus);
+    }
+
+    private interface ErrorHandler {
+        void onError(int status, String error);
+    }
+
+    private final Context context;
+    private final SocketManager socketManager;
+
+    public PresenceClient(Context context) {
+        this.context = context.getApplicationContext();
+        this.socketManager = SocketManager.getInstance();
+    }
+
+    /**
+     * Avaliar o scan sem gravar a presenca (resultado bruto do modelo)
+     */
+    public void evaluate(String roomId, List<WifiReading> readings, Callback callback) {
+        send(roomId, readings, false, null, callback);
+    }
+
+    /**
+     * Registrar o estado do aparelho; o servidor confere com o scan e o
+     * callback recebe o estado efetivamente gravado
+     */
+    public void report(String roomId, List<WifiReading> readings, boolean inside, Callback callback) {
+        send(roomId, readings, true, inside ? "inside" : "outside", callback);
+    }
+
+    private void send(String roomId, List<WifiReading> readings, boolean report, String state, Callback callback) {
+        if (System.currentTimeMillis() < retryNotBefore) {
+            callback.onError(429, "Servidor ocupado, scan descartado");
+            return;
+        }
+
+        JSONObject payload;
+        try {
+            payload = Payloads.presenceUpdate(roomId, readings, report, state);
+        } catch (JSONException e) {
+            callback.onError(0, "Erro ao criar JSON: " + e.getMessage());
+            return;
+        }
+
+        emit(GeoPingProtocol.EVENT_PRESENCE_SCAN, GeoPingProtocol.ROUTE_PRESENCE_UPDATE, payload,
+                (json, httpStatus) -> deliver(json, httpStatus, callback),
+                callback::onError);
+    }
+
+    /**
+     * Um scan avaliado em varias salas assinadas de uma vez
+     */
+    public void sendAll(Collection<String> roomIds, List<WifiReading> readings, RoomsCallback callback) {
+        if (System.currentTimeMillis() < retryNotBefore) {
+            callback.onError(429, "Servidor ocupado, scan descartado");
+            return;
+        }
+
+        JSONObject payload;
+        try {
+            payload = Payloads.presenceUpdateAll(roomIds, readings);
+        } catch (JSONException e) {
+            callback.onError(0, "Erro ao criar JSON: " + e.getMessage());
+            return;
+        }
+
+        emit(GeoPingProtocol.EVENT_PRESENCE_SCAN_ALL, GeoPingProtocol.ROUTE_PRESENCE_UPDATE_ALL, payload,
+                (json, httpStatus) -> deliverAll(json, httpStatus, callback),
+                callback::onError);
+    }
+
+    /**
+     * Socket autenticado quando disponivel; senao HTTP na rota equivalente
+     */
+    private void emit(String event, String route, JSONObject payload, ResponseHandler handler, ErrorHandler onError) {
+        boolean emitted = socketManager.emitWithAck(event, payload,
+                new AckWithTimeout(ACK_TIMEOUT_MS) {
+                    @Override
+                    public void onSuccess(Object... args) {
+                        Object response = args.length > 0 ? args[0] : null;
+                        handler.handle(response instanceof JSONObject ? (JSONObject) response : new JSONObject(), 200);
+                    }
+
+                    @Override
+                    public void onTimeout() {
+                        onError.onError(0, "Timeout aguardando resposta do servidor");
+                    }
+                });
+
+        if (!emitted) {
+            sendHttp(route, payload, handler, onError);
+        }
+    }
+
+    private void sendHttp(String route, JSONObject payload, ResponseHandler handler, ErrorHandler onError) {
+        Request request = new Request.Builder()
+                .url(ApiClient.getBaseUrl() + route)
+                .post(RequestBody.create(payload.toString(), JSON))
+                .addHeader("Authorization", AuthManager.getInstance(context).getAuthorizationHeader())
+                .build();
+
+        ApiClient.getSharedHttpClient().newCall(request).enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                onError.onError(0, e.getMessage());
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+                try (ResponseBody body = response.body()) {
+                    String data = body != null ? body.string() : "";
+                    JSONObject json;
+                    try {
+                        json = new JSONObject(data);
+                    } catch (JSONException e) {
+                        json = new JSONObject();
+                    }
+                    handler.handle(json, response.code());
+                }
+            }
+        });
+    }
+
+    /**
+     * Mesmo corpo nas duas vias: { success, inside, confidence } ou { success: false, error }
+     */
+    private static void deliver(JSONObject json, int httpStatus, Callback callback) {
+        if (json.optBoolean("success", false) && json.has("inside")) {
+            callback.onResult(json.optBoolean("inside"), json.optDouble("confidence", 0.0));
+            return;
+        }
+        fail(json, httpStatus, callback::onError);
+    }
+
+    /**
+     * { success, evaluated, inside: [room_id], changes: [{ room_id, inside, confidence }] }
+     */
+    private static void deliverAll(JSONObject json, int httpStatus, RoomsCallback callback) {
+        if (json.optBoolean("success", false) && json.has("inside")) {
+            List<String> inside = new ArrayList<>();
+            JSONArray insideArray = json.optJSONArray("inside");
+            for (int i = 0; insideArray != null && i < insideArray.length(); i++) {
+                inside.add(insideArray.optString(i));
+            }
+
+            List<String> changed = new ArrayList<>();
+            JSONArray changes = json.optJSONArray("changes");
+            for (int i = 0; changes != null && i < changes.length(); i++) {
+                JSONObject change = changes.optJSONObject(i);
+                if (change != null) {
+                    changed.add(change.optString("room_id"));
+                }
+            }
+
+            callback.onResult(inside, changed);
+            return;
+        }
+        fail(json, httpStatus, callback::onError);
+    }
+
+    private static void fail(JSONObject json, int httpStatus, ErrorHandler onError) {
+        int status = json.optInt("status", httpStatus >= 400 ? httpStatus : 500);
+        String error = json.optString("error", "Erro ao atualizar presença");
+        if (status == 429) {
+            retryNotBefore = System.currentTimeMillis() + json.optLong("retry_after_ms", DEFAULT_RETRY_AFTER_MS);
+        }
+        Log.e(TAG, "Presença recusada (" + status + "): " + error);
+        onError.onError(status, error);
+    }
+}
@@ -0,0 +1,120 @@
+package com.geoping.app.utils;
+
+import android.net.wifi.ScanResult;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Filtro de frescor dos resultados de scan Wi-Fi.
+ *
+ * Quando o Android limita startScan() (throttling), getScanResults() devolve
+ * o cache do scan anterior. Enviar esse cache como amostra nova duplica
+ * amostras no treino e repete evidencia antiga na presenca.
+ *
+ * ScanResult.timestamp e o instante (elapsedRealtime, em us) em que o AP foi
+ * visto pela ultima vez. Por scan:
+ * - entradas mais velhas que maxAgeMs sao descartadas;
+ * - se o AP mais recente nao e mais novo que o do scan anterior aceito, o
+ *   scan inteiro e o mesmo cache repetido (stale).
+ *
+ * Os contadores (scans recusados pelo sistema, scans repetidos, entradas
+ * velhas) aparecem na tela de coleta e nos logs. Uso em uma unica thread.
+ */
+public class ScanFreshness {
+    public static final long DEFAULT_MAX_AGE_MS = 10000;
+
+    private final long maxAgeMs;
+    private long lastNewestUs = -1;
+
+    private int throttledCount = 0;
+    private int staleScanCount = 0;
+    private int staleEntryCount = 0;
+
+    public ScanFreshness() {
+        this(DEFAULT_MAX_AGE_MS);
+    }
+
+    public ScanFreshness(long maxAgeMs) {
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Resultado de um scan depois do filtro
+     */
+    public static class Result {
+        public final List<ScanResult> fresh;
+        public final boolean stale;   // Cache repetido: nao enviar
+        public final int dropped;     // Entradas descartadas por idade
+
+        Result(List<ScanResult> fresh, boolean stale, int dropped) {
+            this.fresh = fresh;
+            this.stale = stale;
+            this.dropped = dropped;
+        }
+    }
+
+    /**
+     * Registrar o retorno de startScan() (false = recusado pelo limite do sistema)
+     */
+    public void onStartScan(boolean started) {
+        if (!started) {
+            throttledCount++;
+        }
+    }
+
+    /**
+     * Filtrar os resultados de getScanResults()
+     */
+    public Result filter(List<ScanResult> scanResults) {
+        if (scanResults == null || scanResults.isEmpty()) {
+            return new Result(Collections.<ScanResult>emptyList(), false, 0);
+        }
+
+        long nowUs = SystemClock.elapsedRealtimeNanos() / 1000;
+        long cutoffUs = nowUs - maxAgeMs * 1000;
+        long newestUs = Long.MIN_VALUE;
+        List<ScanResult> fresh = new ArrayList<>(scanResults.size());
+
+        for (ScanResult result : scanResults) {
+            newestUs = Math.max(newestUs, result.timestamp);
+            if (result.timestamp >= cutoffUs) {
+                fresh.add(result);
+            }
+        }
+
+        int dropped = scanResults.size() - fresh.size();
+        if (newestUs <= lastNewestUs || fresh.isEmpty()) {
+            staleScanCount++;
+            staleEntryCount += scanResults.size();
+            return new Result(Collections.<ScanResult>emptyList(), true, scanResults.size());
+        }
+
+        lastNewestUs = newestUs;
+        staleEntryCount += dropped;
+        return new Result(fresh, false, dropped);
+    }
+
+    public int getThrottledCount() {
+        return throttledCount;
+    }
+
+    public int getStaleScanCount() {
+        return staleScanCount;
+    }
+
+    public int getStaleEntryCount() {
+        return staleEntryCount;
+    }
+
+    /**
+     * Resumo para log/tela: "recusados 3 | repetidos 2 | APs velhos 14"
+     */
+    public String describe() {
+        return "recusados " + throttledCount
+                + " | repetidos " + staleScanCount
+                + " | APs velhos " + staleEntryCount;
+    }
+}
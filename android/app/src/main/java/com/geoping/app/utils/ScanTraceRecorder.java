@@ -0,0 +1,129 @@
+package com.geoping.app.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.wifi.ScanResult;
+import android.util.Log;
+
+import com.geoping.app.protocol.ScanTraceWriter;
+import com.geoping.app.protocol.WifiReading;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Grava em arquivo o que o WifiManager.getScanResults() realmente retornou,
+ * no formato binario de ScanTraceWriter.
+ *
+ * Arquivos em Android/data/<pacote>/files/traces/ (adb pull), prontos para o
+ * replay no PresenceService ou no gerador de carga (--trace-file).
+ *
+ * Ativacao: extra "record_trace" na Intent ou preferencia persistente
+ * (alternada por toque longo no status da tela de coleta).
+ */
+public class ScanTraceRecorder {
+    private static final String TAG = "ScanTraceRecorder";
+    private static final String PREFS_NAME = "GeoPingTrace";
+    private static final String KEY_ENABLED = "record_trace";
+    private static final String TRACE_DIR = "traces";
+
+    public static final String EXTRA_RECORD_TRACE = "record_trace";
+    public static final String EXTRA_REPLAY_TRACE = "replay_trace";
+
+    private final ScanTraceWriter writer;
+    private final File file;
+
+    private ScanTraceRecorder(File file, ScanTraceWriter writer) {
+        this.file = file;
+        this.writer = writer;
+    }
+
+    /**
+     * Gravacao ativa pela Intent ou pela preferencia salva
+     */
+    public static boolean isEnabled(Context context, Intent intent) {
+        if (intent != null && intent.getBooleanExtra(EXTRA_RECORD_TRACE, false)) {
+            return true;
+        }
+        return prefs(context).getBoolean(KEY_ENABLED, false);
+    }
+
+    public static boolean toggleEnabled(Context context) {
+        boolean enabled = !prefs(context).getBoolean(KEY_ENABLED, false);
+        prefs(context).edit().putBoolean(KEY_ENABLED, enabled).apply();
+        return enabled;
+    }
+
+    /**
+     * Abrir um novo trace: <prefixo>_<data>.gpt
+     *
+     * @return null se nao foi possivel criar o arquivo
+     */
+    public static ScanTraceRecorder start(Context context, String prefix) {
+        File dir = context.getExternalFilesDir(TRACE_DIR);
+        if (dir == null) {
+            dir = new File(context.getFilesDir(), TRACE_DIR);
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Nao foi possivel criar diretorio: " + dir);
+            return null;
+        }
+
+        String safePrefix = prefix != null ? prefix.replaceAll("[^A-Za-z0-9_-]", "_") : "scan";
+        String stamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, safePrefix + "_" + stamp + ".gpt");
+
+        try {
+            ScanTraceWriter writer = new ScanTraceWriter(new FileOutputStream(file), System.currentTimeMillis());
+            Log.d(TAG, "Gravando trace em " + file.getAbsolutePath());
+            return new ScanTraceRecorder(file, writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Erro ao criar trace: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void record(List<ScanResult> scanResults) {
+        try {
+            writer.writeScan(System.currentTimeMillis(), toReadings(scanResults));
+        } catch (IOException e) {
+            Log.e(TAG, "Erro ao gravar scan no trace: " + e.getMessage());
+        }
+    }
+
+    public void stop() {
+        try {
+            writer.close();
+            Log.d(TAG, "Trace finalizado: " + writer.getScanCount() + " scans, "
+                    + file.length() + " bytes (" + file.getName() + ")");
+        } catch (IOException e) {
+            Log.e(TAG, "Erro ao fechar trace: " + e.getMessage());
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Converter ScanResult (Android) para o modelo compartilhado do protocolo
+     */
+    public static List<WifiReading> toReadings(List<ScanResult> scanResults) {
+        List<WifiReading> readings = new ArrayList<>(scanResults.size());
+        for (ScanResult result : scanResults) {
+            readings.add(new WifiReading(result.BSSID, result.SSID, result.level, result.frequency));
+        }
+        return readings;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
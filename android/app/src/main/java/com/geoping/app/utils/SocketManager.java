@@ -1,28 +1,85 @@
 package com.geoping.app.utils;
 
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.geoping.app.protocol.GeoPingProtocol;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import io.socket.client.Ack;
+import io.socket.client.AckWithTimeout;
 import io.socket.client.IO;
 import io.socket.client.Socket;
 import io.socket.emitter.Emitter;
+import io.socket.thread.EventThread;
 
 /**
  * Gerenciador de conexão Socket.io
  * Singleton para manter uma única conexão ativa
+ *
+ * Reconexão própria (a do socket.io fica desligada): backoff exponencial com
+ * full jitter, sem limite de tentativas enquanto o app está em primeiro plano.
+ * Ao reconectar, re-autentica, volta para currentRoomId e informa o último
+ * seq visto na sala para receber os eventos perdidos.
+ *
+ * Com o socket conectado, um salto no seq (evento N+2 depois do N) dispara
+ * sync_room pedindo só o intervalo que faltou; os eventos recuperados são
+ * entregues aos mesmos listeners das telas.
  */
 public class SocketManager {
     private static final String TAG = "SocketManager";
     private static SocketManager instance;
-    
+
+    private static final long BACKOFF_BASE_MS = 1000;
+    private static final long BACKOFF_CAP_MS = 30000;
+    private static final long SYNC_ACK_TIMEOUT_MS = 10000;
+    private static final long GAP_GRACE_MS = 500;
+
     private Socket socket;
     private boolean isConnected = false;
+    private volatile boolean isAuthenticated = false;
     private String currentRoomId;
     private String savedAuthToken; // Token salvo para reconexão
+    // Chamados a cada autenticação (inclusive após reconexão), ex: MessageOutbox
+    private final List<Runnable> authenticatedListeners = new CopyOnWriteArrayList<>();
+    // Listeners das telas; reaplicados quando o socket é recriado
+    private final Map<String, List<Emitter.Listener>> eventListeners = new ConcurrentHashMap<>();
+
+    // Reconexão
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private final Runnable reconnectRunnable = this::reconnectNow;
+    private int reconnectAttempt = 0;
+    private boolean reconnectScheduled = false;
+    private boolean manualDisconnect = false;
+    private int startedActivities = 0;
+    private boolean lifecycleRegistered = false;
+
+    // Último seq contínuo por sala (eventos new_message / new_conversation):
+    // todos os eventos até ele já foram entregues às telas
+    private final Map<String, Long> lastSeqByRoom = new ConcurrentHashMap<>();
+    // Eventos já entregues além do salto, esperando o sync_room
+    // (acessados só na thread de eventos do socket.io)
+    private final Map<String, Set<Long>> seqAheadByRoom = new ConcurrentHashMap<>();
+    private final Set<String> syncInFlight = ConcurrentHashMap.newKeySet();
+    private volatile String serverEpoch;
 
     private SocketManager() {}
 
@@ -33,20 +90,73 @@ public class SocketManager {
         return instance;
     }
 
+    /**
+     * Acompanhar se o app está em primeiro plano (atividades iniciadas).
+     * Chamar no onCreate de uma Activity. Em segundo plano não há novas tentativas de reconexão; ao voltar,
+     * reconecta na hora.
+     */
+    public void trackForeground(Application application) {
+        if (lifecycleRegistered) {
+            return;
+        }
+        lifecycleRegistered = true;
+        // Chamado no onCreate: o onStart da própria Activity ainda vai contar
+        startedActivities = 0;
+
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityStarted(Activity activity) {
+                startedActivities++;
+                if (startedActivities == 1) {
+                    Log.d(TAG, "App em primeiro plano");
+                    if (socket != null && !socket.connected() && !manualDisconnect) {
+                        reconnectAttempt = 0;
+                        reconnectNow();
+                    }
+                }
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                startedActivities = Math.max(0, startedActivities - 1);
+                if (startedActivities == 0) {
+                    Log.d(TAG, "App em segundo plano, reconexão suspensa");
+                    cancelReconnect();
+                }
+            }
+
+            @Override public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+            @Override public void onActivityResumed(Activity activity) {}
+            @Override public void onActivityPaused(Activity activity) {}
+            @Override public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+            @Override public void onActivityDestroyed(Activity activity) {}
+        });
+    }
+
+    private boolean isForeground() {
+        // Sem acompanhamento do ciclo de vida: comportamento antigo (sempre tenta)
+        return !lifecycleRegistered || startedActivities > 0;
+    }
+
     /**
      * Conectar ao servidor Socket.io
+     *
+     * @param authToken token JWT (com ou sem o prefixo "Bearer ")
      */
     public void connect(String serverUrl, String authToken) {
-        this.savedAuthToken = authToken; // Salvar token
+        // O servidor espera "Bearer <token>" no authenticate
+        this.savedAuthToken = authToken != null && !authToken.startsWith("Bearer ")
+                ? GeoPingProtocol.bearer(authToken) : authToken;
+        manualDisconnect = false;
 
         if (socket != null && socket.connected()) {
             Log.d(TAG, "Já conectado, re-autenticando...");
-            if (authToken != null) {
-                socket.emit("authenticate", authToken);
+            if (savedAuthToken != null) {
+                socket.emit(GeoPingProtocol.EVENT_AUTHENTICATE, savedAuthToken);
             }
             return;
         }
-        
+
         // Se socket existe mas está desconectado, ou é nulo
         if (socket != null) {
             try {
@@ -61,9 +171,7 @@ public class SocketManager {
         try {
             IO.Options options = IO.Options.builder()
                     .setForceNew(true) // Forçar nova conexão
-                    .setReconnection(true)
-                    .setReconnectionAttempts(5) // Limitar tentativas para evitar loop infinito
-                    .setReconnectionDelay(1000)
+                    .setReconnection(false) // Reconexão feita aqui (scheduleReconnect)
                     .setTimeout(10000)
                     .build();
 
@@ -71,11 +179,12 @@ public class SocketManager {
 
             socket.on(Socket.EVENT_CONNECT, args -> {
                 isConnected = true;
+                reconnectAttempt = 0;
                 Log.d(TAG, "Socket.io conectado");
-                
+
                 // Autenticar com o token salvo
                 if (savedAuthToken != null) {
-                    socket.emit("authenticate", savedAuthToken);
+                    socket.emit(GeoPingProtocol.EVENT_AUTHENTICATE, savedAuthToken);
                 } else {
                     Log.e(TAG, "Token de autenticação não encontrado!");
                 }
@@ -83,17 +192,68 @@ public class SocketManager {
 
             socket.on(Socket.EVENT_DISCONNECT, args -> {
                 isConnected = false;
-                Log.d(TAG, "Socket.io desconectado");
+                isAuthenticated = false;
+                Log.d(TAG, "Socket.io desconectado: " + (args.length > 0 ? args[0] : ""));
+                scheduleReconnect();
             });
 
             socket.on(Socket.EVENT_CONNECT_ERROR, args -> {
-                Log.e(TAG, "Erro de conexão: " + args[0]);
+                Log.e(TAG, "Erro de conexão: " + (args.length > 0 ? args[0] : ""));
+                scheduleReconnect();
             });
 
-            socket.on("authenticated", args -> {
+            socket.on(GeoPingProtocol.EVENT_AUTHENTICATED, args -> {
                 Log.d(TAG, "Autenticado: " + args[0]);
+                isAuthenticated = true;
+
+                // Retomar a sala (com o último seq para receber o que foi perdido)
+                String roomId = currentRoomId;
+                if (roomId != null) {
+                    emitJoin(roomId, true);
+                }
+
+                for (Runnable listener : authenticatedListeners) {
+                    listener.run();
+                }
+            });
+
+            socket.on(GeoPingProtocol.EVENT_JOINED_ROOM, args -> {
+                if (args.length < 2 || !(args[1] instanceof JSONObject)) {
+                    return;
+                }
+                JSONObject info = (JSONObject) args[1];
+                String roomId = String.valueOf(args[0]);
+                String epoch = info.optString("epoch", null);
+
+                // Primeira entrada na sala (ou servidor reiniciado): seq atual vira a base
+                if (epoch != null && !epoch.equals(serverEpoch)) {
+                    serverEpoch = epoch;
+                    lastSeqByRoom.clear();
+                    seqAheadByRoom.clear();
+                }
+                if (!lastSeqByRoom.containsKey(roomId)) {
+                    lastSeqByRoom.put(roomId, info.optLong("seq", 0));
+                }
+            });
+
+            socket.on(GeoPingProtocol.EVENT_ROOM_RESET, args -> {
+                JSONObject info = (JSONObject) args[0];
+                serverEpoch = info.optString("epoch", serverEpoch);
+                lastSeqByRoom.put(info.optString("room_id"), info.optLong("seq", 0));
+                seqAheadByRoom.remove(info.optString("room_id"));
+                Log.w(TAG, "Eventos perdidos não disponíveis, recarregar sala " + info.optString("room_id"));
             });
 
+            // Registrados antes dos listeners das telas: o seq é anotado primeiro
+            socket.on(GeoPingProtocol.EVENT_NEW_MESSAGE, this::recordSeq);
+            socket.on(GeoPingProtocol.EVENT_NEW_CONVERSATION, this::recordSeq);
+
+            for (Map.Entry<String, List<Emitter.Listener>> entry : eventListeners.entrySet()) {
+                for (Emitter.Listener listener : entry.getValue()) {
+                    socket.on(entry.getKey(), listener);
+                }
+            }
+
             socket.connect();
 
         } catch (URISyntaxException e) {
@@ -101,30 +261,271 @@ public class SocketManager {
         }
     }
 
+    private void recordSeq(Object... args) {
+        if (args.length == 0 || !(args[0] instanceof JSONObject)) {
+            return;
+        }
+        JSONObject data = (JSONObject) args[0];
+        String roomId = data.optString("room_id", null);
+        long seq = data.optLong("seq", -1);
+        if (roomId == null || seq < 0) {
+            return;
+        }
+
+        Long last = lastSeqByRoom.get(roomId);
+        if (last == null) {
+            lastSeqByRoom.put(roomId, seq);
+            return;
+        }
+        if (seq <= last) {
+            return; // Repetido (ex: reenviado na retomada)
+        }
+
+        if (seq == last + 1) {
+            advanceSeq(roomId, seq);
+            return;
+        }
+
+        // Salto: o evento já foi entregue às telas, faltam os anteriores
+        Set<Long> ahead = seqAheadByRoom.get(roomId);
+        if (ahead == null) {
+            ahead = new HashSet<>();
+            seqAheadByRoom.put(roomId, ahead);
+        }
+        ahead.add(seq);
+        scheduleGapCheck(roomId);
+    }
+
     /**
-     * Entrar em uma sala
+     * Pedir o intervalo só se o salto continuar aberto depois de GAP_GRACE_MS:
+     * com o backend em cluster, eventos publicados por workers diferentes
+     * podem chegar fora de ordem e o salto se fecha sozinho
      */
-    public void joinRoom(String roomId) {
-        if (socket == null || !socket.connected()) {
-            Log.e(TAG, "Socket não conectado");
+    private void scheduleGapCheck(String roomId) {
+        handler.postDelayed(() -> EventThread.exec(() -> {
+            Set<Long> ahead = seqAheadByRoom.get(roomId);
+            Long last = lastSeqByRoom.get(roomId);
+            if (ahead != null && !ahead.isEmpty() && last != null) {
+                requestMissing(roomId, last + 1);
+            }
+        }), GAP_GRACE_MS);
+    }
+
+    /**
+     * Avançar o seq contínuo, absorvendo os eventos já recebidos adiante
+     */
+    private void advanceSeq(String roomId, long seq) {
+        Set<Long> ahead = seqAheadByRoom.get(roomId);
+        if (ahead != null) {
+            while (ahead.remove(seq + 1)) {
+                seq++;
+            }
+            if (ahead.isEmpty()) {
+                seqAheadByRoom.remove(roomId);
+            }
+        }
+        lastSeqByRoom.put(roomId, seq);
+    }
+
+    /**
+     * Pedir ao servidor os eventos da sala a partir de fromSeq (um pedido por
+     * sala de cada vez). Sem resposta, a retomada após reconexão cobre o intervalo.
+     */
+    private void requestMissing(String roomId, long fromSeq) {
+        if (socket == null || !isAuthenticated || serverEpoch == null || !syncInFlight.add(roomId)) {
+            return;
+        }
+
+        JSONObject request = new JSONObject();
+        try {
+            request.put("room_id", roomId);
+            request.put("from_seq", fromSeq);
+            request.put("epoch", serverEpoch);
+        } catch (JSONException e) {
+            syncInFlight.remove(roomId);
             return;
         }
 
+        Log.d(TAG, "Salto na sala " + roomId + ", buscando eventos a partir do seq " + fromSeq);
+        socket.emit(GeoPingProtocol.EVENT_SYNC_ROOM, request, new AckWithTimeout(SYNC_ACK_TIMEOUT_MS) {
+            @Override
+            public void onSuccess(Object... args) {
+                syncInFlight.remove(roomId);
+                JSONObject result = args.length > 0 && args[0] instanceof JSONObject ? (JSONObject) args[0] : null;
+                applySync(roomId, result);
+            }
+
+            @Override
+            public void onTimeout() {
+                syncInFlight.remove(roomId);
+                Log.w(TAG, "sync_room sem resposta para " + roomId);
+            }
+        });
+    }
+
+    private void applySync(String roomId, JSONObject result) {
+        if (!lastSeqByRoom.containsKey(roomId)) {
+            return; // Saiu da sala enquanto esperava
+        }
+
+        JSONArray events = result != null && result.optBoolean("success", false)
+                ? result.optJSONArray("events") : null;
+
+        if (events == null) {
+            // Intervalo fora do buffer (ou erro): recarregar a sala pela API
+            long seq = result != null ? result.optLong("seq", 0) : 0;
+            if (result != null && result.has("epoch")) {
+                serverEpoch = result.optString("epoch", serverEpoch);
+            }
+            lastSeqByRoom.put(roomId, seq);
+            seqAheadByRoom.remove(roomId);
+            Log.w(TAG, "Eventos perdidos não disponíveis, recarregar sala " + roomId);
+
+            JSONObject reset = new JSONObject();
+            try {
+                reset.put("room_id", roomId);
+                reset.put("seq", seq);
+                reset.put("epoch", serverEpoch);
+            } catch (JSONException ignored) {
+            }
+            dispatchLocal(GeoPingProtocol.EVENT_ROOM_RESET, reset);
+            return;
+        }
+
+        Set<Long> ahead = seqAheadByRoom.get(roomId);
+        long last = lastSeqByRoom.get(roomId);
+        int recovered = 0;
+
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject entry = events.optJSONObject(i);
+            JSONObject data = entry != null ? entry.optJSONObject("data") : null;
+            if (data == null) {
+                continue;
+            }
+            long seq = data.optLong("seq", -1);
+            if (seq <= last || (ahead != null && ahead.contains(seq))) {
+                continue; // Já entregue
+            }
+            dispatchLocal(entry.optString("event"), data);
+            recovered++;
+        }
+
+        // Tudo até o seq da resposta foi entregue; o que chegou depois fica em ahead
+        long synced = Math.max(last, result.optLong("seq", last));
+        if (ahead != null) {
+            Iterator<Long> it = ahead.iterator();
+            while (it.hasNext()) {
+                if (it.next() <= synced) {
+                    it.remove();
+                }
+            }
+        }
+        advanceSeq(roomId, synced);
+        Log.d(TAG, recovered + " eventos recuperados na sala " + roomId);
+    }
+
+    /**
+     * Entregar um evento aos listeners das telas sem passar pelo socket
+     */
+    private void dispatchLocal(String event, JSONObject data) {
+        List<Emitter.Listener> listeners = eventListeners.get(event);
+        if (listeners == null) {
+            return;
+        }
+        for (Emitter.Listener listener : listeners) {
+            listener.call(data);
+        }
+    }
+
+    /**
+     * Próxima tentativa em random(0, min(cap, base * 2^tentativa)) ms.
+     * O jitter completo espalha as reconexões depois de um restart do servidor.
+     */
+    private void scheduleReconnect() {
+        handler.post(() -> {
+            if (manualDisconnect || socket == null || socket.connected() || reconnectScheduled) {
+                return;
+            }
+            if (!isForeground()) {
+                Log.d(TAG, "Em segundo plano, reconexão adiada até voltar ao app");
+                return;
+            }
+
+            long ceiling = Math.min(BACKOFF_CAP_MS, BACKOFF_BASE_MS << Math.min(reconnectAttempt, 15));
+            long delay = (long) (random.nextDouble() * ceiling);
+            reconnectAttempt++;
+            reconnectScheduled = true;
+
+            Log.d(TAG, "Reconectando em " + delay + " ms (tentativa " + reconnectAttempt + ")");
+            handler.postDelayed(reconnectRunnable, delay);
+        });
+    }
+
+    private void reconnectNow() {
+        reconnectScheduled = false;
+        if (socket != null && !socket.connected() && !manualDisconnect) {
+            socket.connect();
+        }
+    }
+
+    private void cancelReconnect() {
+        handler.removeCallbacks(reconnectRunnable);
+        reconnectScheduled = false;
+    }
+
+    /**
+     * Entrar em uma sala. Sem socket autenticado, a entrada acontece assim
+     * que a autenticação terminar.
+     */
+    public void joinRoom(String roomId) {
         currentRoomId = roomId;
-        socket.emit("join_room", roomId);
+
+        if (socket == null || !socket.connected() || !isAuthenticated) {
+            Log.d(TAG, "Socket não autenticado, entrada na sala adiada: " + roomId);
+            return;
+        }
+
+        emitJoin(roomId, false);
         Log.d(TAG, "Entrando na sala: " + roomId);
     }
 
+    /**
+     * @param resume informar o último seq visto (retomada após reconexão)
+     */
+    private void emitJoin(String roomId, boolean resume) {
+        Long lastSeq = lastSeqByRoom.get(roomId);
+        if (!resume || lastSeq == null || serverEpoch == null) {
+            socket.emit(GeoPingProtocol.EVENT_JOIN_ROOM, roomId);
+            return;
+        }
+
+        try {
+            JSONObject request = new JSONObject();
+            request.put("room_id", roomId);
+            request.put("last_seq", lastSeq);
+            request.put("epoch", serverEpoch);
+            socket.emit(GeoPingProtocol.EVENT_JOIN_ROOM, request);
+            Log.d(TAG, "Retomando sala " + roomId + " a partir do seq " + lastSeq);
+        } catch (JSONException e) {
+            socket.emit(GeoPingProtocol.EVENT_JOIN_ROOM, roomId);
+        }
+    }
+
     /**
      * Sair de uma sala
      */
     public void leaveRoom(String roomId) {
+        if (roomId != null && roomId.equals(currentRoomId)) {
+            currentRoomId = null;
+        }
+        lastSeqByRoom.remove(roomId);
+        seqAheadByRoom.remove(roomId);
+
         if (socket == null || !socket.connected()) {
             return;
         }
 
-        socket.emit("leave_room", roomId);
-        currentRoomId = null;
+        socket.emit(GeoPingProtocol.EVENT_LEAVE_ROOM, roomId);
         Log.d(TAG, "Saindo da sala: " + roomId);
     }
 
@@ -132,24 +533,70 @@ public class SocketManager {
      * Adicionar listener para novas mensagens
      */
     public void onNewMessage(Emitter.Listener listener) {
-        if (socket != null) {
-            socket.on("new_message", listener);
-        }
+        on(GeoPingProtocol.EVENT_NEW_MESSAGE, listener);
     }
 
     /**
      * Adicionar listener para novas conversas
      */
     public void onNewConversation(Emitter.Listener listener) {
+        on(GeoPingProtocol.EVENT_NEW_CONVERSATION, listener);
+    }
+
+    /**
+     * Adicionar listener para room_reset (eventos perdidos não disponíveis:
+     * recarregar a sala pela API)
+     */
+    public void onRoomReset(Emitter.Listener listener) {
+        on(GeoPingProtocol.EVENT_ROOM_RESET, listener);
+    }
+
+    /**
+     * Registrar listener; vale também para sockets criados depois (connect)
+     */
+    public void on(String event, Emitter.Listener listener) {
+        List<Emitter.Listener> list = eventListeners.get(event);
+        if (list == null) {
+            list = new CopyOnWriteArrayList<>();
+            eventListeners.put(event, list);
+        }
+        list.add(listener);
+
         if (socket != null) {
-            socket.on("new_conversation", listener);
+            socket.on(event, listener);
+        }
+    }
+
+    /**
+     * Enviar evento com ack (ex: send_message).
+     *
+     * @return false se o socket não está conectado e autenticado; nesse caso
+     *         o evento não é enviado (o socket.io bufferizaria sem ack)
+     */
+    public boolean emitWithAck(String event, JSONObject payload, Ack ack) {
+        if (socket == null || !socket.connected() || !isAuthenticated) {
+            return false;
         }
+        socket.emit(event, payload, ack);
+        return true;
+    }
+
+    public void addOnAuthenticatedListener(Runnable listener) {
+        authenticatedListeners.add(listener);
+    }
+
+    public void removeOnAuthenticatedListener(Runnable listener) {
+        authenticatedListeners.remove(listener);
     }
 
     /**
      * Remover listener
      */
     public void off(String event, Emitter.Listener listener) {
+        List<Emitter.Listener> list = eventListeners.get(event);
+        if (list != null) {
+            list.remove(listener);
+        }
         if (socket != null) {
             socket.off(event, listener);
         }
@@ -159,11 +606,16 @@ public class SocketManager {
      * Desconectar
      */
     public void disconnect() {
+        manualDisconnect = true;
+        cancelReconnect();
         if (socket != null) {
             socket.disconnect();
             socket = null;
             isConnected = false;
+            isAuthenticated = false;
             currentRoomId = null;
+            lastSeqByRoom.clear();
+            seqAheadByRoom.clear();
             Log.d(TAG, "Desconectado");
         }
     }
@@ -172,8 +624,11 @@ public class SocketManager {
         return isConnected && socket != null && socket.connected();
     }
 
+    public boolean isAuthenticated() {
+        return isAuthenticated && isConnected();
+    }
+
     public String getCurrentRoomId() {
         return currentRoomId;
     }
 }
-
@@ -0,0 +1,221 @@
+package com.geoping.app.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.DashPathEffect;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Grafico leve desenhado no Canvas para as metricas do treinamento.
+ *
+ * Dois modos:
+ * - Historico de loss (treino x validacao) em escala log
+ * - Histograma dos erros de reconstrucao com a linha do limiar
+ *
+ * Substitui os PNGs do matplotlib: os dados chegam em poucos KB via
+ * /api/training-metrics/:room_label e o desenho eh instantaneo.
+ */
+public class TrainingChartView extends View {
+
+    private static final int MODE_NONE = 0;
+    private static final int MODE_LOSS = 1;
+    private static final int MODE_HISTOGRAM = 2;
+
+    private static final int COLOR_TRAIN = 0xFF2980B9;      // Azul
+    private static final int COLOR_VALIDATION = 0xFFE67E22; // Laranja
+    private static final int COLOR_THRESHOLD = 0xFFE74C3C;  // Vermelho
+    private static final int COLOR_AXIS = 0xFF7F8C8D;       // Cinza
+
+    private int mode = MODE_NONE;
+
+    private float[] loss;
+    private float[] valLoss;
+
+    private int[] counts;
+    private float histogramMin;
+    private float histogramMax;
+    private float threshold;
+
+    private final Paint axisPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint barPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint thresholdPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+
+    public TrainingChartView(Context context) {
+        this(context, null);
+    }
+
+    public TrainingChartView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+
+        float density = getResources().getDisplayMetrics().density;
+
+        axisPaint.setColor(COLOR_AXIS);
+        axisPaint.setStrokeWidth(1 * density);
+
+        textPaint.setColor(COLOR_AXIS);
+        textPaint.setTextSize(10 * density);
+
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(2 * density);
+
+        barPaint.setColor(COLOR_TRAIN);
+        barPaint.setAlpha(180);
+
+        thresholdPaint.setColor(COLOR_THRESHOLD);
+        thresholdPaint.setStyle(Paint.Style.STROKE);
+        thresholdPaint.setStrokeWidth(2 * density);
+        thresholdPaint.setPathEffect(new DashPathEffect(new float[]{6 * density, 4 * density}, 0));
+    }
+
+    /**
+     * Exibir historico de loss por epoca
+     */
+    public void setLossHistory(float[] loss, @Nullable float[] valLoss) {
+        this.loss = loss;
+        this.valLoss = valLoss;
+        this.mode = MODE_LOSS;
+        invalidate();
+    }
+
+    /**
+     * Exibir histograma dos erros de reconstrucao
+     */
+    public void setHistogram(int[] counts, float min, float max, float threshold) {
+        this.counts = counts;
+        this.histogramMin = min;
+        this.histogramMax = max;
+        this.threshold = threshold;
+        this.mode = MODE_HISTOGRAM;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        float density = getResources().getDisplayMetrics().density;
+        float left = getPaddingLeft() + 40 * density;
+        float top = getPaddingTop() + 16 * density;
+        float right = getWidth() - getPaddingRight() - 8 * density;
+        float bottom = getHeight() - getPaddingBottom() - 16 * density;
+
+        if (right <= left || bottom <= top) {
+            return;
+        }
+
+        canvas.drawLine(left, bottom, right, bottom, axisPaint);
+        canvas.drawLine(left, top, left, bottom, axisPaint);
+
+        if (mode == MODE_LOSS && loss != null && loss.length > 1) {
+            drawLoss(canvas, left, top, right, bottom);
+        } else if (mode == MODE_HISTOGRAM && counts != null && counts.length > 0) {
+            drawHistogram(canvas, left, top, right, bottom);
+        }
+    }
+
+    private void drawLoss(Canvas canvas, float left, float top, float right, float bottom) {
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (float[] series : new float[][]{loss, valLoss}) {
+            if (series == null) continue;
+            for (float v : series) {
+                if (v <= 0) continue;
+                float l = (float) Math.log10(v);
+                min = Math.min(min, l);
+                max = Math.max(max, l);
+            }
+        }
+        if (min == Float.MAX_VALUE) {
+            return;
+        }
+        if (max - min < 1e-6f) {
+            max = min + 1;
+        }
+
+        drawSeries(canvas, loss, COLOR_TRAIN, min, max, left, top, right, bottom);
+        if (valLoss != null && valLoss.length > 1) {
+            drawSeries(canvas, valLoss, COLOR_VALIDATION, min, max, left, top, right, bottom);
+        }
+
+        canvas.drawText(formatValue((float) Math.pow(10, max)), 0, top + textPaint.getTextSize(), textPaint);
+        canvas.drawText(formatValue((float) Math.pow(10, min)), 0, bottom, textPaint);
+        canvas.drawText("Epoca " + loss.length, right - textPaint.measureText("Epoca " + loss.length),
+                bottom + textPaint.getTextSize() + 2, textPaint);
+
+        textPaint.setColor(COLOR_TRAIN);
+        canvas.drawText("treino", left + 4, top - 4, textPaint);
+        textPaint.setColor(COLOR_VALIDATION);
+        canvas.drawText("validacao", left + 8 + textPaint.measureText("treino"), top - 4, textPaint);
+        textPaint.setColor(COLOR_AXIS);
+    }
+
+    private void drawSeries(Canvas canvas, float[] series, int color, float min, float max,
+                            float left, float top, float right, float bottom) {
+        path.reset();
+        float stepX = (right - left) / (series.length - 1);
+        boolean started = false;
+        for (int i = 0; i < series.length; i++) {
+            if (series[i] <= 0) continue;
+            float y = bottom - ((float) Math.log10(series[i]) - min) / (max - min) * (bottom - top);
+            float x = left + i * stepX;
+            if (started) {
+                path.lineTo(x, y);
+            } else {
+                path.moveTo(x, y);
+                started = true;
+            }
+        }
+        linePaint.setColor(color);
+        canvas.drawPath(path, linePaint);
+    }
+
+    private void drawHistogram(Canvas canvas, float left, float top, float right, float bottom) {
+        int maxCount = 1;
+        for (int c : counts) {
+            maxCount = Math.max(maxCount, c);
+        }
+
+        // Eixo X vai ate o maior entre o ultimo bucket e o limiar
+        float rangeMax = Math.max(histogramMax, threshold);
+        float range = rangeMax - histogramMin;
+        if (range <= 0) {
+            range = 1;
+        }
+
+        float bucketWidth = (histogramMax - histogramMin) / counts.length;
+        for (int i = 0; i < counts.length; i++) {
+            float x0 = left + (i * bucketWidth) / range * (right - left);
+            float x1 = left + ((i + 1) * bucketWidth) / range * (right - left);
+            float y = bottom - (float) counts[i] / maxCount * (bottom - top);
+            canvas.drawRect(x0, y, Math.max(x0 + 1, x1 - 1), bottom, barPaint);
+        }
+
+        float tx = left + (threshold - histogramMin) / range * (right - left);
+        canvas.drawLine(tx, top, tx, bottom, thresholdPaint);
+
+        textPaint.setColor(COLOR_THRESHOLD);
+        String label = "limiar " + formatValue(threshold);
+        canvas.drawText(label, Math.max(left, Math.min(tx - textPaint.measureText(label) / 2,
+                right - textPaint.measureText(label))), top - 4, textPaint);
+        textPaint.setColor(COLOR_AXIS);
+
+        canvas.drawText(String.valueOf(maxCount), 0, top + textPaint.getTextSize(), textPaint);
+        canvas.drawText(formatValue(histogramMin), left, bottom + textPaint.getTextSize() + 2, textPaint);
+        String maxLabel = formatValue(rangeMax);
+        canvas.drawText(maxLabel, right - textPaint.measureText(maxLabel), bottom + textPaint.getTextSize() + 2, textPaint);
+    }
+
+    private static String formatValue(float value) {
+        return String.format(Locale.US, Math.abs(value) < 0.01f ? "%.1e" : "%.3f", value);
+    }
+}
@@ -23,6 +23,8 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.geoping.app.utils.ScanFreshness;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -80,6 +82,7 @@ public class DataCollectionActivity extends AppCompatActivity {
     private boolean isCollecting = false;
     private boolean isTestingInference = false; // Flag para diferenciar scan de coleta e teste
     private int scanCount = 0;
+    private ScanFreshness scanFreshness = new ScanFreshness(); // Descarta o cache repetido de scans recusados
     private int currentScanInterval = DEFAULT_SCAN_INTERVAL_MS;
 
     // Networking
@@ -360,6 +363,7 @@ public class DataCollectionActivity extends AppCompatActivity {
         // Iniciar coleta
         isCollecting = true;
         scanCount = 0;
+        scanFreshness = new ScanFreshness();
         updateScanCount();
 
         // Atualizar UI
@@ -440,8 +444,11 @@ public class DataCollectionActivity extends AppCompatActivity {
         
         try {
             boolean scanStarted = wifiManager.startScan();
+            scanFreshness.onStartScan(scanStarted);
             if (!scanStarted) {
                 addLog("AVISO: Falha ao iniciar scan (throttling?)");
+                updateScanCount();
+                cancelInferenceTest();
             }
         } catch (SecurityException e) {
             addLog("ERRO: Permissão negada para scan Wi-Fi");
@@ -473,17 +480,29 @@ public class DataCollectionActivity extends AppCompatActivity {
                 return;
             }
             
-            List<ScanResult> scanResults = wifiManager.getScanResults();
+            List<ScanResult> allResults = wifiManager.getScanResults();
             
-            if (scanResults == null || scanResults.isEmpty()) {
+            if (allResults == null || allResults.isEmpty()) {
                 addLog("Scan #" + (scanCount + 1) + ": Nenhuma rede encontrada");
+                cancelInferenceTest();
                 return;
             }
 
+            // Cache de um scan anterior (startScan recusado) não é amostra nova
+            ScanFreshness.Result freshness = scanFreshness.filter(allResults);
+            if (freshness.stale) {
+                addLog("AVISO: Resultado repetido do scan anterior descartado");
+                updateScanCount();
+                cancelInferenceTest();
+                return;
+            }
+            List<ScanResult> scanResults = freshness.fresh;
+
             scanCount++;
             updateScanCount();
 
-            addLog("Scan #" + scanCount + ": " + scanResults.size() + " redes detectadas");
+            addLog("Scan #" + scanCount + ": " + scanResults.size() + " redes detectadas" +
+                    (freshness.dropped > 0 ? " (" + freshness.dropped + " antigas descartadas)" : ""));
             
             // Mostrar detalhes das redes detectadas
             for (ScanResult result : scanResults) {
@@ -598,7 +617,11 @@ public class DataCollectionActivity extends AppCompatActivity {
      * Atualiza o contador de scans na UI
      */
     private void updateScanCount() {
-        textViewScanCount.setText("Scans realizados: " + scanCount);
+        String text = "Scans realizados: " + scanCount;
+        if (scanFreshness.getThrottledCount() + scanFreshness.getStaleScanCount() > 0) {
+            text += " (" + scanFreshness.describe() + ")";
+        }
+        textViewScanCount.setText(text);
     }
 
     /**
@@ -868,6 +891,17 @@ public class DataCollectionActivity extends AppCompatActivity {
         performWifiScan();
     }
 
+    /**
+     * Teste de inferência sem scan novo: desfazer a flag, senão o próximo scan
+     * (talvez da coleta) iria para o teste em vez de ser enviado como amostra
+     */
+    private void cancelInferenceTest() {
+        if (isTestingInference) {
+            isTestingInference = false;
+            addLog("Teste de inferência cancelado: sem scan novo, tente novamente em alguns segundos");
+        }
+    }
+
     /**
      * Envia o scan para o endpoint de teste de inferência
      */
@@ -1,8 +1,9 @@
 package com.geoping.datacollection;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
@@ -13,21 +14,24 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.geoping.app.utils.ApiClient;
+import com.geoping.app.utils.BitmapCache;
+import com.geoping.app.views.TrainingChartView;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * Activity para exibir os resultados do treinamento do modelo
@@ -41,6 +45,8 @@ public class TrainingResultsActivity extends AppCompatActivity {
     private TextView textViewTechnicalDetails;
     private ImageView imageViewTrainingHistory;
     private ImageView imageViewReconstructionErrors;
+    private TrainingChartView chartTrainingHistory;
+    private TrainingChartView chartReconstructionErrors;
     private ProgressBar progressBarTrainingHistory;
     private ProgressBar progressBarReconstructionErrors;
     private TextView textViewErrorTrainingHistory;
@@ -50,8 +56,9 @@ public class TrainingResultsActivity extends AppCompatActivity {
     private String roomLabel;
     private String serverUrl;
     private String trainingInfoJson;
+    private String modelVersion; // Chave de versao do cache de graficos (data do treino)
     private boolean technicalDetailsExpanded = false;
-    private OkHttpClient httpClient;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,8 +76,8 @@ public class TrainingResultsActivity extends AppCompatActivity {
         // Preencher informações do treinamento
         populateTrainingInfo();
 
-        // Carregar imagens
-        loadTrainingImages();
+        // Carregar metricas (graficos nativos); PNGs apenas como fallback
+        loadTrainingMetrics();
     }
 
     private void initializeComponents() {
@@ -81,6 +88,8 @@ public class TrainingResultsActivity extends AppCompatActivity {
         textViewTechnicalDetails = findViewById(R.id.textViewTechnicalDetails);
         imageViewTrainingHistory = findViewById(R.id.imageViewTrainingHistory);
         imageViewReconstructionErrors = findViewById(R.id.imageViewReconstructionErrors);
+        chartTrainingHistory = findViewById(R.id.chartTrainingHistory);
+        chartReconstructionErrors = findViewById(R.id.chartReconstructionErrors);
         progressBarTrainingHistory = findViewById(R.id.progressBarTrainingHistory);
         progressBarReconstructionErrors = findViewById(R.id.progressBarReconstructionErrors);
         textViewErrorTrainingHistory = findViewById(R.id.textViewErrorTrainingHistory);
@@ -88,8 +97,6 @@ public class TrainingResultsActivity extends AppCompatActivity {
         buttonBack = findViewById(R.id.buttonBack);
 
         textViewRoomLabel.setText("Sala: " + roomLabel);
-        
-        httpClient = new OkHttpClient();
 
         buttonBack.setOnClickListener(v -> finish());
         
@@ -118,6 +125,7 @@ public class TrainingResultsActivity extends AppCompatActivity {
         
         try {
             JSONObject trainingInfo = new JSONObject(trainingInfoJson);
+            modelVersion = trainingInfo.optString("training_date", null);
             
             // SEÇÃO 1: Resumo do Treinamento (BÁSICO)
             StringBuilder summary = new StringBuilder();
@@ -219,6 +227,74 @@ public class TrainingResultsActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Buscar as metricas do treino em JSON e desenhar os graficos localmente.
+     * Modelos treinados antes desse endpoint nao tem o JSON: cai para os PNGs.
+     */
+    private void loadTrainingMetrics() {
+        String metricsUrl = serverUrl + "/api/training-metrics/" + roomLabel;
+        Request request = new Request.Builder().url(metricsUrl).get().build();
+
+        ApiClient.getSharedHttpClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                mainHandler.post(() -> loadTrainingImages());
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful() || body == null) {
+                        mainHandler.post(() -> loadTrainingImages());
+                        return;
+                    }
+                    JSONObject metrics = new JSONObject(body.string());
+                    mainHandler.post(() -> {
+                        if (isFinishing()) return;
+                        try {
+                            renderMetrics(metrics);
+                        } catch (JSONException e) {
+                            loadTrainingImages();
+                        }
+                    });
+                } catch (IOException | JSONException e) {
+                    mainHandler.post(() -> loadTrainingImages());
+                }
+            }
+        });
+    }
+
+    private void renderMetrics(JSONObject metrics) throws JSONException {
+        float[] loss = toFloatArray(metrics.getJSONArray("loss"));
+        float[] valLoss = metrics.has("val_loss") ? toFloatArray(metrics.getJSONArray("val_loss")) : null;
+
+        JSONObject histogram = metrics.getJSONObject("histogram");
+        JSONArray countsJson = histogram.getJSONArray("counts");
+        int[] counts = new int[countsJson.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = countsJson.getInt(i);
+        }
+
+        chartTrainingHistory.setLossHistory(loss, valLoss);
+        chartReconstructionErrors.setHistogram(counts,
+                (float) histogram.getDouble("min"),
+                (float) histogram.getDouble("max"),
+                (float) metrics.getDouble("threshold"));
+
+        progressBarTrainingHistory.setVisibility(View.GONE);
+        progressBarReconstructionErrors.setVisibility(View.GONE);
+        chartTrainingHistory.setVisibility(View.VISIBLE);
+        chartReconstructionErrors.setVisibility(View.VISIBLE);
+    }
+
+    private static float[] toFloatArray(JSONArray array) throws JSONException {
+        float[] values = new float[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) array.getDouble(i);
+        }
+        return values;
+    }
+
     private void loadTrainingImages() {
         // Carregar gráfico de histórico de treinamento
         String trainingHistoryUrl = serverUrl + "/api/training-results/" + roomLabel + "/training_history.png";
@@ -233,46 +309,28 @@ public class TrainingResultsActivity extends AppCompatActivity {
 
     private void loadImage(String url, ImageView imageView, ProgressBar progressBar, 
                           TextView errorTextView, String imageName) {
-        Request request = new Request.Builder()
-            .url(url)
-            .get()
-            .build();
+        // Decodificar no tamanho do ImageView (largura da tela se ainda nao medido)
+        int reqWidth = imageView.getWidth() > 0
+            ? imageView.getWidth()
+            : getResources().getDisplayMetrics().widthPixels;
+        int reqHeight = imageView.getLayoutParams() != null && imageView.getLayoutParams().height > 0
+            ? imageView.getLayoutParams().height
+            : 0;
 
-        httpClient.newCall(request).enqueue(new Callback() {
+        BitmapCache.getInstance(this).load(url, modelVersion, reqWidth, reqHeight, new BitmapCache.Listener() {
             @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                runOnUiThread(() -> {
-                    progressBar.setVisibility(View.GONE);
-                    errorTextView.setVisibility(View.VISIBLE);
-                    errorTextView.setText("Erro ao carregar " + imageName + ": " + e.getMessage());
-                });
+            public void onBitmap(Bitmap bitmap) {
+                progressBar.setVisibility(View.GONE);
+                errorTextView.setVisibility(View.GONE);
+                imageView.setVisibility(View.VISIBLE);
+                imageView.setImageBitmap(bitmap);
             }
 
             @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (response.isSuccessful() && response.body() != null) {
-                    // Carregar imagem do stream
-                    InputStream inputStream = response.body().byteStream();
-                    final Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-
-                    runOnUiThread(() -> {
-                        if (bitmap != null) {
-                            progressBar.setVisibility(View.GONE);
-                            imageView.setVisibility(View.VISIBLE);
-                            imageView.setImageBitmap(bitmap);
-                        } else {
-                            progressBar.setVisibility(View.GONE);
-                            errorTextView.setVisibility(View.VISIBLE);
-                            errorTextView.setText("Erro ao decodificar " + imageName);
-                        }
-                    });
-                } else {
-                    runOnUiThread(() -> {
-                        progressBar.setVisibility(View.GONE);
-                        errorTextView.setVisibility(View.VISIBLE);
-                        errorTextView.setText("HTTP " + response.code() + ": " + imageName + " não encontrado");
-                    });
-                }
+            public void onError(String message) {
+                progressBar.setVisibility(View.GONE);
+                errorTextView.setVisibility(View.VISIBLE);
+                errorTextView.setText("Erro ao carregar " + imageName + ": " + message);
             }
         });
     }
@@ -0,0 +1,107 @@
+package com.geoping.loadtest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias com buckets de 1 ms (ate 60 s) + contagem de erros.
+ *
+ * Memoria constante e gravacao lock-free: milhares de usuarios gravando ao
+ * mesmo tempo nao distorcem a medicao.
+ */
+public class LatencyRecorder {
+    private static final int MAX_MS = 60_000;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(MAX_MS + 1);
+    private final LongAdder successes = new LongAdder();
+    private final AtomicLong maxMs = new AtomicLong();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    // Contadores do intervalo atual (relatorio parcial)
+    private final LongAdder intervalSuccesses = new LongAdder();
+    private final LongAdder intervalErrors = new LongAdder();
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordSuccess(long latencyNanos) {
+        long ms = Math.max(0, latencyNanos / 1_000_000);
+        buckets.incrementAndGet((int) Math.min(ms, MAX_MS));
+        successes.increment();
+        intervalSuccesses.increment();
+
+        long current;
+        while (ms > (current = maxMs.get()) && !maxMs.compareAndSet(current, ms)) {
+            // Repetir ate gravar o novo maximo
+        }
+    }
+
+    /**
+     * @param kind ex: "HTTP 500", "SocketTimeoutException"
+     */
+    public void recordError(String kind) {
+        errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        intervalErrors.increment();
+    }
+
+    public long getSuccessCount() {
+        return successes.sum();
+    }
+
+    public long getErrorCount() {
+        long total = 0;
+        for (LongAdder adder : errors.values()) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    public Map<String, Long> getErrorsByKind() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : errors.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    /**
+     * Zerar e devolver {sucessos, erros} desde a ultima chamada
+     */
+    public long[] drainInterval() {
+        return new long[]{intervalSuccesses.sumThenReset(), intervalErrors.sumThenReset()};
+    }
+
+    /**
+     * Percentil (0-100) em ms sobre as requisicoes bem-sucedidas
+     */
+    public long percentile(double p) {
+        long total = successes.sum();
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(total * p / 100.0);
+        long seen = 0;
+        for (int ms = 0; ms <= MAX_MS; ms++) {
+            seen += buckets.get(ms);
+            if (seen >= target) {
+                return ms;
+            }
+        }
+        return MAX_MS;
+    }
+
+    public long getMaxMs() {
+        return maxMs.get();
+    }
+}
@@ -0,0 +1,130 @@
+package com.geoping.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parametros do gerador de carga (linha de comando)
+ */
+public class LoadTestConfig {
+
+    String serverUrl = "http://localhost:3000";
+    List<String> roomIds = new ArrayList<>();
+    int users = 100;
+    double scansPerSecond = 0.1;   // Por usuario (PresenceService = 1 scan / 10s)
+    int durationSeconds = 60;
+    int rampUpSeconds = 10;
+    int loginConcurrency = 32;
+    int networksPerScan = 20;
+    String userPrefix = "loadtest_";
+    String password = "loadtest123";
+    String scanFile;               // Scans gravados (um array JSON por linha)
+    String traceFiles;             // Traces binarios .gpt (ScanTraceRecorder), separados por virgula
+    boolean useSocket = true;
+    boolean presenceViaSocket = false; // presence_scan com ack em vez de HTTP
+    int reportIntervalSeconds = 5;
+
+    static LoadTestConfig parse(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--server":
+                    config.serverUrl = stripSlash(value(args, ++i, arg));
+                    break;
+                case "--room":
+                    config.roomIds.addAll(Arrays.asList(value(args, ++i, arg).split(",")));
+                    break;
+                case "--users":
+                    config.users = Integer.parseInt(value(args, ++i, arg));
+                    break;
+                case "--rate":
+                    config.scansPerSecond = Double.parseDouble(value(args, ++i, arg));
+                    break;
+                case "--duration":
+                    config.durationSeconds = Integer.parseInt(value(args, ++i, arg));
+                    break;
+                case "--ramp-up":
+                    config.rampUpSeconds = Integer.parseInt(value(args, ++i, arg));
+                    break;
+                case "--login-concurrency":
+                    config.loginConcurrency = Integer.parseInt(value(args, ++i, arg));
+                    break;
+                case "--networks":
+                    config.networksPerScan = Integer.parseInt(value(args, ++i, arg));
+                    break;
+                case "--user-prefix":
+                    config.userPrefix = value(args, ++i, arg);
+                    break;
+                case "--password":
+                    config.password = value(args, ++i, arg);
+                    break;
+                case "--scan-file":
+                    config.scanFile = value(args, ++i, arg);
+                    break;
+                case "--trace-file":
+                    config.traceFiles = value(args, ++i, arg);
+                    break;
+                case "--no-socket":
+                    config.useSocket = false;
+                    break;
+                case "--presence-socket":
+                    config.presenceViaSocket = true;
+                    break;
+                case "--report-interval":
+                    config.reportIntervalSeconds = Integer.parseInt(value(args, ++i, arg));
+                    break;
+                case "--help":
+                case "-h":
+                    printUsage();
+                    System.exit(0);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Argumento desconhecido: " + arg);
+            }
+        }
+
+        if (config.roomIds.isEmpty()) {
+            throw new IllegalArgumentException("Informe ao menos uma sala com --room <room_id>");
+        }
+        if (config.presenceViaSocket && !config.useSocket) {
+            throw new IllegalArgumentException("--presence-socket nao pode ser usado com --no-socket");
+        }
+        if (config.users <= 0 || config.scansPerSecond <= 0 || config.durationSeconds <= 0) {
+            throw new IllegalArgumentException("--users, --rate e --duration devem ser positivos");
+        }
+        return config;
+    }
+
+    static void printUsage() {
+        System.out.println("Uso: loadtest --room <room_id>[,<room_id>...] [opcoes]");
+        System.out.println();
+        System.out.println("  --server <url>             URL do backend (padrao: http://localhost:3000)");
+        System.out.println("  --users <n>                Usuarios sinteticos (padrao: 100)");
+        System.out.println("  --rate <scans/s>           Scans por segundo POR usuario (padrao: 0.1)");
+        System.out.println("  --duration <s>             Duracao da fase de carga (padrao: 60)");
+        System.out.println("  --ramp-up <s>              Espalhar o inicio dos usuarios (padrao: 10)");
+        System.out.println("  --login-concurrency <n>    Logins simultaneos no setup (padrao: 32)");
+        System.out.println("  --networks <n>             Redes por scan sintetico (padrao: 20)");
+        System.out.println("  --scan-file <arquivo>      Reproduzir scans gravados (um array JSON por linha)");
+        System.out.println("  --trace-file <a.gpt,...>   Reproduzir traces gravados no aparelho");
+        System.out.println("  --user-prefix <p>          Prefixo dos usuarios (padrao: loadtest_)");
+        System.out.println("  --password <senha>         Senha dos usuarios (padrao: loadtest123)");
+        System.out.println("  --no-socket                Nao abrir conexoes Socket.io");
+        System.out.println("  --presence-socket          Enviar scans pelo evento presence_scan (como o app)");
+        System.out.println("  --report-interval <s>      Intervalo do relatorio parcial (padrao: 5)");
+    }
+
+    private static String value(String[] args, int index, String name) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Valor ausente para " + name);
+        }
+        return args[index];
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
@@ -0,0 +1,215 @@
+package com.geoping.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Gerador de carga headless para o caminho de presenca.
+ *
+ * Simula N instancias do PresenceService:
+ * 1. Login (ou registro) de N usuarios sinteticos
+ * 2. Socket.io: authenticate + join_room, como o SocketManager
+ * 3. Scans enviados para /api/presence/update na taxa configurada
+ *
+ * Ao final imprime p50/p95/p99, taxa de erros e throughput.
+ *
+ * Uso:
+ *   ./gradlew :loadtest:run --args="--room room_1a2b3c4d --users 500 --rate 0.1 --duration 120"
+ */
+public class PresenceLoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config;
+        try {
+            config = LoadTestConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERRO] " + e.getMessage());
+            LoadTestConfig.printUsage();
+            System.exit(2);
+            return;
+        }
+
+        new PresenceLoadGenerator().run(config);
+        System.exit(0);
+    }
+
+    private void run(LoadTestConfig config) throws Exception {
+        OkHttpClient client = buildClient(config.users);
+        ScanSource scans = ScanSource.create(config);
+
+        LatencyRecorder loginRecorder = new LatencyRecorder("login");
+        LatencyRecorder socketRecorder = new LatencyRecorder("socket join");
+        LatencyRecorder presenceRecorder = new LatencyRecorder("presence/update");
+        AtomicLong insideCount = new AtomicLong();
+
+        System.out.println("================================================================================");
+        System.out.println("GEOPING - GERADOR DE CARGA (PRESENCA)");
+        System.out.println("================================================================================");
+        System.out.println("Servidor:  " + config.serverUrl);
+        System.out.println("Salas:     " + config.roomIds);
+        System.out.println(String.format(Locale.US, "Usuarios:  %d x %.3f scans/s = %.1f req/s alvo",
+                config.users, config.scansPerSecond, config.users * config.scansPerSecond));
+        System.out.println("Duracao:   " + config.durationSeconds + "s (+" + config.rampUpSeconds + "s de ramp-up)");
+        System.out.println();
+
+        // 1. Login
+        List<SyntheticUser> users = new ArrayList<>(config.users);
+        for (int i = 0; i < config.users; i++) {
+            users.add(new SyntheticUser(i, config.roomIds.get(i % config.roomIds.size()), config));
+        }
+
+        System.out.println("[SETUP] Autenticando " + config.users + " usuarios...");
+        ExecutorService loginExecutor = Executors.newFixedThreadPool(config.loginConcurrency);
+        for (SyntheticUser user : users) {
+            loginExecutor.execute(() -> user.login(client, loginRecorder));
+        }
+        loginExecutor.shutdown();
+        loginExecutor.awaitTermination(10, TimeUnit.MINUTES);
+
+        List<SyntheticUser> active = new ArrayList<>();
+        for (SyntheticUser user : users) {
+            if (user.isLoggedIn()) {
+                active.add(user);
+            }
+        }
+        System.out.println("[SETUP] " + active.size() + "/" + config.users + " usuarios autenticados");
+        printRecorder(loginRecorder, -1);
+
+        if (active.isEmpty()) {
+            System.err.println("[ERRO] Nenhum usuario autenticado. Backend em " + config.serverUrl + " esta no ar?");
+            shutdown(client);
+            return;
+        }
+
+        // 2. Socket.io
+        if (config.useSocket) {
+            System.out.println("[SETUP] Conectando " + active.size() + " sockets...");
+            CountDownLatch ready = new CountDownLatch(active.size());
+            // Conexoes longas: sem read timeout (o engine.io ja faz ping/pong)
+            OkHttpClient socketClient = client.newBuilder().readTimeout(0, TimeUnit.MILLISECONDS).build();
+            for (SyntheticUser user : active) {
+                user.connectSocket(socketClient, socketRecorder, ready);
+            }
+            if (!ready.await(60, TimeUnit.SECONDS)) {
+                System.out.println("[SETUP] Timeout: " + ready.getCount() + " sockets sem resposta");
+            }
+            printRecorder(socketRecorder, -1);
+        }
+
+        // 3. Carga: cada usuario envia scans a taxa fixa, inicio espalhado no ramp-up
+        long periodMs = Math.max(1, Math.round(1000.0 / config.scansPerSecond));
+        long rampUpMs = TimeUnit.SECONDS.toMillis(config.rampUpSeconds);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+        System.out.println();
+        System.out.println("[CARGA] Iniciando (1 scan a cada " + periodMs + " ms por usuario)");
+        long loadStart = System.nanoTime();
+
+        for (SyntheticUser user : active) {
+            long initialDelay = rampUpMs > 0 ? ThreadLocalRandom.current().nextLong(rampUpMs) : 0;
+            scheduler.scheduleAtFixedRate(
+                    () -> user.sendPresence(client, scans, presenceRecorder, insideCount),
+                    initialDelay, periodMs, TimeUnit.MILLISECONDS);
+        }
+
+        scheduler.scheduleAtFixedRate(() -> printInterval(presenceRecorder, client, config.reportIntervalSeconds),
+                config.reportIntervalSeconds, config.reportIntervalSeconds, TimeUnit.SECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.rampUpSeconds + config.durationSeconds));
+        scheduler.shutdownNow();
+
+        // Aguardar requisicoes em andamento
+        long drainDeadline = System.currentTimeMillis() + 30_000;
+        while (client.dispatcher().runningCallsCount() > 0 && System.currentTimeMillis() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        double loadSeconds = (System.nanoTime() - loadStart) / 1e9;
+
+        // 4. Relatorio
+        System.out.println();
+        System.out.println("================================================================================");
+        System.out.println("RESULTADO");
+        System.out.println("================================================================================");
+        printRecorder(loginRecorder, -1);
+        if (config.useSocket) {
+            printRecorder(socketRecorder, -1);
+        }
+        printRecorder(presenceRecorder, loadSeconds);
+
+        long ok = presenceRecorder.getSuccessCount();
+        if (ok > 0) {
+            System.out.println(String.format(Locale.US, "  Classificados DENTRO: %.1f%%", 100.0 * insideCount.get() / ok));
+        }
+
+        for (SyntheticUser user : active) {
+            user.disconnect();
+        }
+        shutdown(client);
+    }
+
+    private static OkHttpClient buildClient(int users) {
+        // Sem limite artificial do OkHttp (padrao: 5 por host), senao o
+        // gerador vira o gargalo e mascara a latencia do backend
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(64, users * 2));
+        dispatcher.setMaxRequestsPerHost(Math.max(64, users * 2));
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(Math.max(5, users), 5, TimeUnit.MINUTES))
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private static void printInterval(LatencyRecorder recorder, OkHttpClient client, int intervalSeconds) {
+        long[] interval = recorder.drainInterval();
+        System.out.println(String.format(Locale.US,
+                "[CARGA] %.1f req/s ok | %d erros | %d em andamento | p95 acumulado %d ms",
+                (double) interval[0] / intervalSeconds, interval[1],
+                client.dispatcher().runningCallsCount(), recorder.percentile(95)));
+    }
+
+    /**
+     * @param seconds duracao da fase para calcular throughput (-1 para omitir)
+     */
+    private static void printRecorder(LatencyRecorder recorder, double seconds) {
+        long ok = recorder.getSuccessCount();
+        long errors = recorder.getErrorCount();
+        long total = ok + errors;
+
+        System.out.println(String.format(Locale.US,
+                "  [%s] %d ok, %d erros (%.2f%%) | p50 %d ms | p95 %d ms | p99 %d ms | max %d ms",
+                recorder.getName(), ok, errors, total > 0 ? 100.0 * errors / total : 0.0,
+                recorder.percentile(50), recorder.percentile(95), recorder.percentile(99),
+                recorder.getMaxMs()));
+
+        if (seconds > 0) {
+            System.out.println(String.format(Locale.US, "  Throughput: %.1f req/s", ok / seconds));
+        }
+
+        for (Map.Entry<String, Long> entry : recorder.getErrorsByKind().entrySet()) {
+            System.out.println("    - " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    private static void shutdown(OkHttpClient client) {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+}
@@ -0,0 +1,157 @@
+package com.geoping.loadtest;
+
+import com.geoping.app.protocol.ScanTraceReader;
+import com.geoping.app.protocol.WifiReading;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fonte dos scans Wi-Fi enviados pelos usuarios sinteticos.
+ *
+ * - Sintetico: conjunto fixo de BSSIDs por sala, RSSI com ruido gaussiano
+ * - Arquivo: scans gravados, um array JSON [{bssid, ssid, rssi}] por linha;
+ *   cada usuario percorre o arquivo a partir de um deslocamento diferente
+ * - Trace: arquivos .gpt gravados no aparelho (ScanTraceRecorder), mesma
+ *   distribuicao entre usuarios do modo arquivo
+ */
+public abstract class ScanSource {
+
+    public abstract List<WifiReading> nextScan(int userIndex, long sequence, String roomId);
+
+    static ScanSource create(LoadTestConfig config) throws IOException {
+        if (config.traceFiles != null) {
+            return FileScanSource.loadTraces(config.traceFiles);
+        }
+        if (config.scanFile != null) {
+            return FileScanSource.load(config.scanFile);
+        }
+        return new SyntheticScanSource(config.networksPerScan);
+    }
+
+    /**
+     * Scans gerados: parecidos com os de uma sala real (mesmos BSSIDs,
+     * RSSI estavel com ruido), sem depender de dados coletados.
+     */
+    static class SyntheticScanSource extends ScanSource {
+        private static final int POOL_SIZE = 40;
+        private final int networksPerScan;
+        private final Map<String, WifiReading[]> roomProfiles = new ConcurrentHashMap<>();
+
+        SyntheticScanSource(int networksPerScan) {
+            this.networksPerScan = Math.min(networksPerScan, POOL_SIZE);
+        }
+
+        /**
+         * BSSIDs, frequencias e RSSI base deterministicos por sala
+         */
+        private static WifiReading[] buildProfile(String roomId) {
+            Random roomRandom = new Random(roomId.hashCode());
+            WifiReading[] profile = new WifiReading[POOL_SIZE];
+            for (int i = 0; i < POOL_SIZE; i++) {
+                String bssid = String.format(Locale.US, "02:%02x:%02x:%02x:%02x:%02x",
+                        roomRandom.nextInt(256), roomRandom.nextInt(256), roomRandom.nextInt(256),
+                        roomRandom.nextInt(256), i);
+                int baseRssi = -40 - roomRandom.nextInt(50);
+                int frequency = roomRandom.nextBoolean()
+                        ? 2412 + 5 * roomRandom.nextInt(13)
+                        : 5180 + 20 * roomRandom.nextInt(8);
+                profile[i] = new WifiReading(bssid, "LOADTEST_" + (i % 5), baseRssi, frequency);
+            }
+            return profile;
+        }
+
+        @Override
+        public List<WifiReading> nextScan(int userIndex, long sequence, String roomId) {
+            WifiReading[] profile = roomProfiles.computeIfAbsent(roomId, SyntheticScanSource::buildProfile);
+            ThreadLocalRandom noise = ThreadLocalRandom.current();
+
+            List<WifiReading> scan = new ArrayList<>(POOL_SIZE);
+            for (WifiReading base : profile) {
+                int rssi = (int) Math.round(base.getRssi() + noise.nextGaussian() * 4);
+                scan.add(new WifiReading(base.getBssid(), base.getSsid(),
+                        Math.max(-100, Math.min(-20, rssi)), base.getFrequency()));
+            }
+
+            // Redes mais fracas somem de alguns scans, como no aparelho real
+            Collections.shuffle(scan, noise);
+            return scan.subList(0, networksPerScan);
+        }
+    }
+
+    static class FileScanSource extends ScanSource {
+        private final List<List<WifiReading>> scans;
+
+        private FileScanSource(List<List<WifiReading>> scans) {
+            this.scans = scans;
+        }
+
+        static FileScanSource load(String file) throws IOException {
+            List<List<WifiReading>> scans = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty()) continue;
+
+                    JSONArray networks = new JSONArray(line);
+                    List<WifiReading> scan = new ArrayList<>(networks.length());
+                    for (int i = 0; i < networks.length(); i++) {
+                        JSONObject network = networks.getJSONObject(i);
+                        scan.add(new WifiReading(
+                                network.getString("bssid"),
+                                network.optString("ssid", ""),
+                                network.getInt("rssi"),
+                                network.optInt("frequency", 0)));
+                    }
+                    scans.add(scan);
+                }
+            }
+
+            if (scans.isEmpty()) {
+                throw new IOException("Arquivo de scans vazio: " + file);
+            }
+            System.out.println("[SCANS] " + scans.size() + " scans carregados de " + file);
+            return new FileScanSource(scans);
+        }
+
+        /**
+         * Traces binarios, separados por virgula; os scans sao concatenados
+         */
+        static FileScanSource loadTraces(String files) throws IOException {
+            List<List<WifiReading>> scans = new ArrayList<>();
+            for (String file : files.split(",")) {
+                for (ScanTraceReader.Scan scan : ScanTraceReader.readAll(new File(file.trim()))) {
+                    scans.add(scan.readings);
+                }
+            }
+
+            if (scans.isEmpty()) {
+                throw new IOException("Nenhum scan nos traces: " + files);
+            }
+            System.out.println("[SCANS] " + scans.size() + " scans carregados de trace(s) " + files);
+            return new FileScanSource(scans);
+        }
+
+        @Override
+        public List<WifiReading> nextScan(int userIndex, long sequence, String roomId) {
+            int index = (int) ((userIndex * 7919L + sequence) % scans.size());
+            return scans.get(index);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.geoping.loadtest;
+
+import com.geoping.app.protocol.GeoPingProtocol;
+import com.geoping.app.protocol.Payloads;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.socket.client.AckWithTimeout;
+import io.socket.client.IO;
+import io.socket.client.Socket;
+import io.socket.engineio.client.transports.WebSocket;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Um cliente simulado: faz o que o app faz com LoginActivity,
+ * SocketManager e PresenceService, usando o mesmo pacote de protocolo.
+ */
+public class SyntheticUser {
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final long PRESENCE_ACK_TIMEOUT_MS = 30000; // Igual ao readTimeout do HTTP
+
+    private final int index;
+    private final String username;
+    private final String roomId;
+    private final LoadTestConfig config;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private String token;
+    private Socket socket;
+
+    public SyntheticUser(int index, String roomId, LoadTestConfig config) {
+        this.index = index;
+        this.username = config.userPrefix + index;
+        this.roomId = roomId;
+        this.config = config;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isLoggedIn() {
+        return token != null;
+    }
+
+    /**
+     * Login (bloqueante); registra o usuario na primeira execucao
+     */
+    public void login(OkHttpClient client, LatencyRecorder recorder) {
+        long start = System.nanoTime();
+        try {
+            JSONObject response = postJson(client, GeoPingProtocol.ROUTE_LOGIN,
+                    Payloads.login(username, config.password));
+
+            if (response == null) {
+                response = postJson(client, GeoPingProtocol.ROUTE_REGISTER,
+                        Payloads.register(username, username + "@loadtest.local", config.password));
+            }
+
+            if (response == null || !response.has("token")) {
+                recorder.recordError("login sem token");
+                return;
+            }
+
+            token = response.getString("token");
+            recorder.recordSuccess(System.nanoTime() - start);
+        } catch (HttpStatusException e) {
+            recorder.recordError("HTTP " + e.status);
+        } catch (IOException | JSONException e) {
+            recorder.recordError(e.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * POST JSON; devolve null em 401 (usuario ainda nao existe)
+     */
+    private JSONObject postJson(OkHttpClient client, String route, JSONObject payload)
+            throws IOException, JSONException {
+        Request request = new Request.Builder()
+                .url(config.serverUrl + route)
+                .post(RequestBody.create(payload.toString(), JSON))
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 401) {
+                return null;
+            }
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new HttpStatusException(response.code());
+            }
+            return new JSONObject(body.string());
+        }
+    }
+
+    /**
+     * Conectar ao Socket.io, autenticar e entrar na sala.
+     * A latencia medida vai do connect() ate o joined_room.
+     */
+    public void connectSocket(OkHttpClient client, LatencyRecorder recorder, CountDownLatch ready) {
+        IO.Options options = IO.Options.builder()
+                .setForceNew(true)
+                .setReconnection(true)
+                .setReconnectionAttempts(5)
+                .setReconnectionDelay(1000)
+                .setTimeout(10000)
+                .setTransports(new String[]{WebSocket.NAME})
+                .build();
+
+        // Mesmo OkHttpClient para todos os sockets: um dispatcher e um pool de threads
+        options.callFactory = client;
+        options.webSocketFactory = client;
+
+        AtomicBoolean settled = new AtomicBoolean(false);
+        long start = System.nanoTime();
+
+        try {
+            socket = IO.socket(config.serverUrl, options);
+        } catch (Exception e) {
+            recorder.recordError(e.getClass().getSimpleName());
+            ready.countDown();
+            return;
+        }
+
+        socket.on(Socket.EVENT_CONNECT, args ->
+                socket.emit(GeoPingProtocol.EVENT_AUTHENTICATE, GeoPingProtocol.bearer(token)));
+
+        socket.on(GeoPingProtocol.EVENT_AUTHENTICATED, args ->
+                socket.emit(GeoPingProtocol.EVENT_JOIN_ROOM, roomId));
+
+        socket.on(GeoPingProtocol.EVENT_JOINED_ROOM, args -> {
+            if (settled.compareAndSet(false, true)) {
+                recorder.recordSuccess(System.nanoTime() - start);
+                ready.countDown();
+            }
+        });
+
+        socket.on(GeoPingProtocol.EVENT_AUTHENTICATION_FAILED, args -> {
+            if (settled.compareAndSet(false, true)) {
+                recorder.recordError("authentication_failed");
+                ready.countDown();
+            }
+        });
+
+        socket.on(Socket.EVENT_CONNECT_ERROR, args -> {
+            if (settled.compareAndSet(false, true)) {
+                recorder.recordError("connect_error");
+                ready.countDown();
+            }
+        });
+
+        socket.connect();
+    }
+
+    /**
+     * Enviar um scan para /api/presence/update ou pelo evento presence_scan (assincrono)
+     */
+    public void sendPresence(OkHttpClient client, ScanSource scans, LatencyRecorder recorder,
+                             AtomicLong insideCount) {
+        JSONObject payload;
+        try {
+            payload = Payloads.presenceUpdate(roomId, scans.nextScan(index, sequence.getAndIncrement(), roomId));
+        } catch (JSONException e) {
+            recorder.recordError("JSONException");
+            return;
+        }
+
+        if (config.presenceViaSocket) {
+            sendPresenceSocket(payload, recorder, insideCount);
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(config.serverUrl + GeoPingProtocol.ROUTE_PRESENCE_UPDATE)
+                .post(RequestBody.create(payload.toString(), JSON))
+                .addHeader("Authorization", GeoPingProtocol.bearer(token))
+                .build();
+
+        long start = System.nanoTime();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                recorder.recordError(e.getClass().getSimpleName());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful() || body == null) {
+                        recorder.recordError("HTTP " + response.code());
+                        return;
+                    }
+
+                    // Ler o corpo inteiro faz parte da latencia percebida pelo app
+                    JSONObject result = new JSONObject(body.string());
+                    recorder.recordSuccess(System.nanoTime() - start);
+                    if (result.optBoolean("inside", false)) {
+                        insideCount.incrementAndGet();
+                    }
+                } catch (IOException | JSONException e) {
+                    recorder.recordError(e.getClass().getSimpleName());
+                }
+            }
+        });
+    }
+
+    private void sendPresenceSocket(JSONObject payload, LatencyRecorder recorder, AtomicLong insideCount) {
+        if (socket == null || !socket.connected()) {
+            recorder.recordError("socket desconectado");
+            return;
+        }
+
+        long start = System.nanoTime();
+        socket.emit(GeoPingProtocol.EVENT_PRESENCE_SCAN, payload, new AckWithTimeout(PRESENCE_ACK_TIMEOUT_MS) {
+            @Override
+            public void onSuccess(Object... args) {
+                JSONObject result = args.length > 0 && args[0] instanceof JSONObject ? (JSONObject) args[0] : null;
+                if (result == null || !result.optBoolean("success", false)) {
+                    recorder.recordError("ack " + (result != null ? result.optInt("status", 500) : "vazio"));
+                    return;
+                }
+                recorder.recordSuccess(System.nanoTime() - start);
+                if (result.optBoolean("inside", false)) {
+                    insideCount.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onTimeout() {
+                recorder.recordError("ack timeout");
+            }
+        });
+    }
+
+    public void disconnect() {
+        if (socket != null) {
+            socket.disconnect();
+            socket.close();
+            socket = null;
+        }
+    }
+
+    private static class HttpStatusException extends IOException {
+        final int status;
+
+        HttpStatusException(int status) {
+            super("HTTP " + status);
+            this.status = status;
+        }
+    }
+}
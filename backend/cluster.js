@@ -0,0 +1,64 @@
+// Backend GeoPing - Modo cluster (um worker por núcleo)
+//
+// O primário escuta a porta e repassa cada conexão a um worker com sticky
+// session (@socket.io/sticky): o polling do Socket.io precisa cair sempre no
+// mesmo processo. Os workers executam server.js com GEOPING_CLUSTER=1:
+// adapter de cluster para io.to(sala).emit, caches sincronizados por
+// LISTEN/NOTIFY (utils/clusterBus.js) e seq das salas na tabela room_event_seq.
+//
+// Uso: npm run start:cluster   (CLUSTER_WORKERS=4 para fixar o número de workers)
+
+require('dotenv').config();
+
+const cluster = require('cluster');
+const http = require('http');
+const os = require('os');
+
+const PORT = process.env.PORT || 3000;
+const WORKERS = parseInt(process.env.CLUSTER_WORKERS, 10) || os.cpus().length;
+const RESTART_DELAY_MS = 1000;
+
+if (cluster.isPrimary) {
+    const { setupMaster } = require('@socket.io/sticky');
+    const { setupPrimary } = require('@socket.io/cluster-adapter');
+
+    const httpServer = http.createServer();
+    setupMaster(httpServer, { loadBalancingMethod: 'least-connection' });
+    setupPrimary();
+    cluster.setupPrimary({ serialization: 'advanced' });
+
+    // Mesmo epoch para todos os workers (inclusive os reiniciados): o cliente
+    // só recarrega a sala quando o cluster inteiro reinicia
+    const workerEnv = {
+        GEOPING_CLUSTER: '1',
+        GEOPING_EPOCH: Date.now().toString(36),
+        CLUSTER_WORKERS: String(WORKERS) // Divisão dos limites por worker (utils/inference.js)
+    };
+
+    for (let i = 0; i < WORKERS; i++) {
+        cluster.fork(workerEnv);
+    }
+
+    let shuttingDown = false;
+
+    cluster.on('exit', (worker, code, signal) => {
+        if (shuttingDown) {
+            return;
+        }
+        console.error(`[CLUSTER] Worker ${worker.process.pid} saiu (${signal || code}), reiniciando...`);
+        setTimeout(() => cluster.fork(workerEnv), RESTART_DELAY_MS);
+    });
+
+    process.on('SIGINT', () => {
+        shuttingDown = true;
+        console.log('\n[CLUSTER] Encerrando workers...');
+        // Os workers recebem o SIGINT do terminal e fecham o próprio pool
+        httpServer.close(() => process.exit(0));
+    });
+
+    httpServer.listen(PORT, '0.0.0.0', () => {
+        console.log(`[CLUSTER] Primário ${process.pid} em http://localhost:${PORT} com ${WORKERS} workers`);
+    });
+} else {
+    require('./server');
+}
@@ -0,0 +1,132 @@
+// Manutenção das partições mensais de messages (database/migration_partitioning.sql)
+//
+// - cria a partição do mês atual e dos próximos MESSAGE_PARTITIONS_AHEAD meses,
+//   para que nenhuma mensagem caia na partição DEFAULT;
+// - retenção (desligada por padrão): com MESSAGE_RETENTION_MONTHS > 0, partições
+//   com mais desse número de meses são desanexadas (DETACH) e o histórico some
+//   do app. A tabela continua no banco com o mesmo nome (messages_yAAAAmMM)
+//   para arquivamento ou DROP manual;
+// - message_receipts e message_client_ids não têm FK para messages: as linhas
+//   de mensagens apagadas junto com a conversa (ON DELETE CASCADE) são
+//   removidas aqui, e as da partição desanexada antes do DETACH.
+//
+// No modo cluster todos os workers agendam o job, mas só quem obtém o
+// advisory lock executa.
+
+const PARTITIONS_AHEAD = parseInt(process.env.MESSAGE_PARTITIONS_AHEAD, 10) || 2;
+const RETENTION_MONTHS = parseInt(process.env.MESSAGE_RETENTION_MONTHS, 10) || 0;
+const INTERVAL_MS = 6 * 60 * 60 * 1000;
+const LOCK_KEY = 4307001; // pg_try_advisory_lock: um executor por vez
+
+const PARTITION_NAME = /^messages_y(\d{4})m(\d{2})$/;
+
+function monthStart(date, offsetMonths = 0) {
+    return new Date(Date.UTC(date.getUTCFullYear(), date.getUTCMonth() + offsetMonths, 1));
+}
+
+async function run(pool) {
+    const client = await pool.connect();
+    try {
+        const lock = await client.query('SELECT pg_try_advisory_lock($1) AS acquired', [LOCK_KEY]);
+        if (!lock.rows[0].acquired) {
+            return;
+        }
+
+        try {
+            const now = new Date();
+            for (let i = 0; i <= PARTITIONS_AHEAD; i++) {
+                await client.query('SELECT create_message_partition($1::date)', [monthStart(now, i)]);
+            }
+
+            if (RETENTION_MONTHS > 0) {
+                await detachExpired(client, monthStart(now, -RETENTION_MONTHS));
+            }
+
+            await deleteOrphans(client);
+        } finally {
+            await client.query('SELECT pg_advisory_unlock($1)', [LOCK_KEY]);
+        }
+    } finally {
+        client.release();
+    }
+}
+
+/**
+ * Desanexar as partições que terminam antes de "cutoff"
+ */
+async function detachExpired(client, cutoff) {
+    const result = await client.query(`
+        SELECT child.relname AS name
+        FROM pg_inherits
+        JOIN pg_class parent ON parent.oid = pg_inherits.inhparent
+        JOIN pg_class child ON child.oid = pg_inherits.inhrelid
+        WHERE parent.relname = 'messages'
+    `);
+
+    for (const { name } of result.rows) {
+        const match = PARTITION_NAME.exec(name);
+        if (!match) {
+            continue; // messages_default
+        }
+        // Mês MM (1-12) como índice do Date (0-11): início do mês seguinte = fim da partição
+        const end = new Date(Date.UTC(parseInt(match[1], 10), parseInt(match[2], 10), 1));
+        if (end > cutoff) {
+            continue;
+        }
+
+        // Sem FK para messages: limpar antes de desanexar
+        await client.query('BEGIN');
+        try {
+            await client.query(`
+                DELETE FROM message_receipts r
+                USING "${name}" m
+                WHERE r.message_id = m.id
+            `);
+            await client.query(`
+                DELETE FROM message_client_ids c
+                USING "${name}" m
+                WHERE c.message_id = m.id AND c.sent_at = m.sent_at
+            `);
+            await client.query(`ALTER TABLE messages DETACH PARTITION "${name}"`);
+            await client.query('COMMIT');
+            console.log(`[PARTITIONS] Partição ${name} desanexada (retenção de ${RETENTION_MONTHS} meses)`);
+        } catch (error) {
+            await client.query('ROLLBACK');
+            throw error;
+        }
+    }
+}
+
+/**
+ * Recibos e client_msg_ids de mensagens que não existem mais (conversa apagada)
+ */
+async function deleteOrphans(client) {
+    const receipts = await client.query(`
+        DELETE FROM message_receipts r
+        WHERE NOT EXISTS (SELECT 1 FROM messages m WHERE m.id = r.message_id)
+    `);
+    const clientIds = await client.query(`
+        DELETE FROM message_client_ids c
+        WHERE NOT EXISTS (SELECT 1 FROM messages m WHERE m.id = c.message_id AND m.sent_at = c.sent_at)
+    `);
+    if (receipts.rowCount > 0 || clientIds.rowCount > 0) {
+        console.log(`[PARTITIONS] Removidos ${receipts.rowCount} recibos e ${clientIds.rowCount} client_msg_ids órfãos`);
+    }
+}
+
+/**
+ * Executar agora e a cada 6 horas
+ */
+function start(pool) {
+    const execute = () => run(pool).catch((error) => {
+        console.error('[PARTITIONS] Erro na manutenção de partições:', error.message);
+    });
+
+    execute();
+    setInterval(execute, INTERVAL_MS).unref();
+}
+
+module.exports = {
+    start,
+    run
+};
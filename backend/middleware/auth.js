@@ -1,7 +1,25 @@
 const jwt = require('jsonwebtoken');
+const tokenCache = require('../utils/tokenCache');
 
 const JWT_SECRET = process.env.JWT_SECRET || 'geoping_secret_key_2024';
 
+/**
+ * Verificar um token JWT (com cache dos tokens já verificados)
+ *
+ * @returns {object} payload { userId, username, iat, exp }
+ * @throws erro do jsonwebtoken se o token for inválido ou expirado
+ */
+function verifyToken(token) {
+    const cached = tokenCache.get(token);
+    if (cached) {
+        return cached;
+    }
+
+    const payload = jwt.verify(token, JWT_SECRET);
+    tokenCache.set(token, payload);
+    return payload;
+}
+
 /**
  * Middleware para verificar autenticacao JWT
  */
@@ -16,18 +34,18 @@ function authenticateToken(req, res, next) {
         });
     }
 
-    jwt.verify(token, JWT_SECRET, (err, user) => {
-        if (err) {
-            return res.status(403).json({
-                success: false,
-                error: 'Token invalido ou expirado'
-            });
-        }
-
-        req.user = user; // { userId, username }
-        next();
-    });
-}
+    let user;
+    try {
+        user = verifyToken(token);
+    } catch (err) {
+        return res.status(403).json({
+            success: false,
+            error: 'Token invalido ou expirado'
+        });
+    }
 
-module.exports = { authenticateToken };
+    req.user = user; // { userId, username }
+    next();
+}
 
+module.exports = { authenticateToken, verifyToken };
@@ -1,6 +1,10 @@
 const express = require('express');
 const router = express.Router();
 const { authenticateToken } = require('../middleware/auth'); // Importar middleware
+const presenceCache = require('../utils/presenceCache');
+const { sendMessage, deliverMessage } = require('../services/messages');
+const { ServiceError } = require('../services/errors');
+const roomEvents = require('../utils/roomEvents');
 
 /**
  * POST /api/conversations/create
@@ -37,20 +41,12 @@ router.post('/conversations/create', authenticateToken, async (req, res) => {
         const roomIdInternal = room.id;
 
         // Verificar se usuário está dentro da sala (Ignorar se for o criador)
-        if (room.creator_id !== creator_id) {
-            const presenceResult = await pool.query(`
-                SELECT is_present
-                FROM presence
-                WHERE user_id = $1 AND room_id = $2
-                  AND last_seen_at > NOW() - INTERVAL '60 seconds'
-            `, [creator_id, roomIdInternal]);
-
-            if (presenceResult.rows.length === 0 || !presenceResult.rows[0].is_present) {
-                return res.status(403).json({
-                    success: false,
-                    error: 'Você precisa estar dentro da sala para criar uma conversa'
-                });
-            }
+        if (room.creator_id !== creator_id
+            && !(await presenceCache.isPresent(pool, creator_id, roomIdInternal))) {
+            return res.status(403).json({
+                success: false,
+                error: 'Você precisa estar dentro da sala para criar uma conversa'
+            });
         }
 
         // Criar conversa
@@ -62,19 +58,15 @@ router.post('/conversations/create', authenticateToken, async (req, res) => {
 
         const conversation = result.rows[0];
 
-        // Buscar username do criador (para devolver no JSON e o Android não ficar 'null')
-        const userResult = await pool.query(
-            'SELECT username FROM users WHERE id = $1',
-            [creator_id]
-        );
-        const creatorUsername = userResult.rows[0].username;
+        // Username do criador vem do JWT (para devolver no JSON e o Android não ficar 'null')
+        const creatorUsername = req.user.username;
 
         // Emitir evento Socket.io
         const io = req.app.get('io');
         // Usar room_id do UUID (que já tem o prefixo room_ se for o padrão do sistema ou uuid puro)
         // O Android envia "room_ff..." no join_room. O banco guarda "room_ff...".
         // Então o canal deve ser EXATAMENTE room_id
-        io.to(room_id).emit('new_conversation', {
+        await roomEvents.publish(io, room_id, 'new_conversation', {
             conversation_id: conversation.conversation_id,
             title: conversation.title,
             creator_id: conversation.creator_id,
@@ -104,85 +96,34 @@ router.post('/conversations/create', authenticateToken, async (req, res) => {
  * Enviar mensagem em uma conversa
  */
 router.post('/messages/send', authenticateToken, async (req, res) => {
-    const { conversation_id, content } = req.body;
-    const sender_id = req.user.userId;
-
-    if (!conversation_id || !content) {
-        return res.status(400).json({
-            success: false,
-            error: 'conversation_id e content são obrigatórios'
-        });
-    }
+    const { conversation_id, content, client_msg_id } = req.body;
 
     try {
         const pool = req.app.get('pool');
 
-        // Buscar conversa e sala
-        const convResult = await pool.query(`
-            SELECT c.id, c.room_id, r.room_id as room_uuid, r.creator_id
-            FROM conversations c
-            JOIN rooms r ON c.room_id = r.id
-            WHERE c.conversation_id = $1
-        `, [conversation_id]);
-
-        if (convResult.rows.length === 0) {
-            return res.status(404).json({
-                success: false,
-                error: 'Conversa não encontrada'
-            });
-        }
-
-        const conversation = convResult.rows[0];
-
-        // Verificar se usuário está dentro da sala (Ignorar se for o criador)
-        if (conversation.creator_id !== sender_id) {
-            const presenceResult = await pool.query(`
-                SELECT is_present
-                FROM presence
-                WHERE user_id = $1 AND room_id = $2
-                  AND last_seen_at > NOW() - INTERVAL '60 seconds'
-            `, [sender_id, conversation.room_id]);
-
-            if (presenceResult.rows.length === 0 || !presenceResult.rows[0].is_present) {
-                return res.status(403).json({
-                    success: false,
-                    error: 'Você precisa estar dentro da sala para enviar mensagens'
-                });
-            }
-        }
-
-        // Inserir mensagem
-        const result = await pool.query(`
-            INSERT INTO messages (conversation_id, sender_id, content)
-            VALUES ($1, $2, $3)
-            RETURNING id, conversation_id, sender_id, content, sent_at
-        `, [conversation.id, sender_id, content]);
-
-        const message = result.rows[0];
-
-        // Buscar informações do remetente
-        const userResult = await pool.query(
-            'SELECT username FROM users WHERE id = $1',
-            [sender_id]
-        );
-
-        const messageData = {
-            ...message,
-            sender_username: userResult.rows[0].username,
-            conversation_id: conversation_id
-        };
+        const sent = await sendMessage(pool, {
+            conversationId: conversation_id,
+            senderId: req.user.userId,
+            senderUsername: req.user.username, // Validado pelo authenticateToken
+            content,
+            clientMsgId: client_msg_id
+        });
 
-        // Emitir evento Socket.io para sala
-        const io = req.app.get('io');
-        // Usar room_uuid direto (o ID da sala que o socket entrou)
-        io.to(conversation.room_uuid).emit('new_message', messageData);
+        // Emitir evento Socket.io para sala, pelo room_uuid (o ID da sala que o
+        // socket entrou). Reenvio: só se a primeira tentativa não publicou
+        const message = await deliverMessage(pool, req.app.get('io'), sent);
 
-        res.status(201).json({
+        res.status(sent.duplicate ? 200 : 201).json({
             success: true,
-            message: messageData
+            message
         });
 
     } catch (error) {
+        if (error instanceof ServiceError) {
+            const { status, ...body } = error.toJSON();
+            return res.status(status).json(body);
+        }
+
         console.error('[MESSAGES] Erro ao enviar mensagem:', error);
         res.status(500).json({
             success: false,
@@ -192,12 +133,22 @@ router.post('/messages/send', authenticateToken, async (req, res) => {
 });
 
 /**
- * GET /api/messages/:conversation_id
+ * GET /api/messages/:conversation_id?limit=50&before=<sent_at ISO>
  * Buscar mensagens de uma conversa
  */
 router.get('/messages/:conversation_id', authenticateToken, async (req, res) => {
     const { conversation_id } = req.params;
-    const { limit = 50, offset = 0 } = req.query;
+    const { limit = 50, offset = 0, before } = req.query;
+
+    // Paginação por "before" (sent_at da mensagem mais antiga já carregada):
+    // a consulta só abre as partições mensais até essa data
+    const beforeDate = before ? new Date(before) : null;
+    if (beforeDate && isNaN(beforeDate.getTime())) {
+        return res.status(400).json({
+            success: false,
+            error: 'before deve ser uma data ISO 8601'
+        });
+    }
 
     try {
         const pool = req.app.get('pool');
@@ -217,20 +168,29 @@ router.get('/messages/:conversation_id', authenticateToken, async (req, res) =>
 
         const conversationIdInternal = convResult.rows[0].id;
 
-        // Buscar mensagens
+        // Buscar mensagens (com before, só as partições até essa data são abertas)
+        const params = [conversationIdInternal, parseInt(limit), parseInt(offset)];
+        let beforeFilter = '';
+        if (beforeDate) {
+            params.push(beforeDate);
+            beforeFilter = 'AND m.sent_at < $4';
+        }
+
         const result = await pool.query(`
             SELECT 
                 m.id,
                 m.sender_id,
                 u.username as sender_username,
                 m.content,
+                m.client_msg_id,
                 m.sent_at
             FROM messages m
             JOIN users u ON m.sender_id = u.id
             WHERE m.conversation_id = $1
+              ${beforeFilter}
             ORDER BY m.sent_at DESC
             LIMIT $2 OFFSET $3
-        `, [conversationIdInternal, parseInt(limit), parseInt(offset)]);
+        `, params);
 
         res.json({
             success: true,
@@ -1,9 +1,10 @@
 const express = require('express');
-const { spawn } = require('child_process');
-const path = require('path');
 const router = express.Router();
 
 const { authenticateToken } = require('../middleware/auth');
+const { evaluatePresence, evaluatePresenceAll } = require('../services/presence');
+const { ServiceError } = require('../services/errors');
+const { PRESENCE_WINDOW_MS } = require('../utils/presenceCache');
 
 /**
  * POST /api/presence/update
@@ -12,7 +13,9 @@ const { authenticateToken } = require('../middleware/auth');
  * Body:
  * {
  *   "room_id": "uuid",
- *   "wifi_scan_results": [{"bssid": "xx:xx:xx:xx:xx:xx", "ssid": "Name", "rssi": -50}]
+ *   "wifi_scan_results": [{"bssid": "xx:xx:xx:xx:xx:xx", "ssid": "Name", "rssi": -50}],
+ *   "report": false,        (opcional: só avaliar, sem gravar)
+ *   "state": "inside"       (opcional: estado do app a gravar, conferido com o scan)
  * }
  */
 router.post('/update', authenticateToken, async (req, res) => {
@@ -20,7 +23,7 @@ router.post('/update', authenticateToken, async (req, res) => {
     // console.log('[PRESENCE] Auth header:', req.headers.authorization);
     // console.log('[PRESENCE] Req User:', req.user);
 
-    const { room_id, wifi_scan_results } = req.body;
+    const { room_id, wifi_scan_results, report, state } = req.body;
     const user_id = req.user?.userId;
 
     if (!user_id) {
@@ -31,133 +34,72 @@ router.post('/update', authenticateToken, async (req, res) => {
         });
     }
 
-    if (!room_id || !wifi_scan_results) {
-        return res.status(400).json({
-            success: false,
-            error: 'room_id e wifi_scan_results são obrigatórios'
-        });
-    }
-
     try {
         const pool = req.app.get('pool');
 
-        // Buscar sala pelo room_id
-        const roomResult = await pool.query(
-            'SELECT id, wifi_ssid, model_trained FROM rooms WHERE room_id = $1',
-            [room_id]
-        );
-
-        if (roomResult.rows.length === 0) {
-            return res.status(404).json({
-                success: false,
-                error: 'Sala não encontrada'
-            });
-        }
-
-        const room = roomResult.rows[0];
-
-        if (!room.model_trained) {
-            return res.status(400).json({
-                success: false,
-                error: 'Modelo não treinado para esta sala'
-            });
-        }
-
-        // Chamar script Python para inferência
-        const pythonScript = path.join(__dirname, '..', '..', 'ml', 'predict_realtime.py');
-        const pythonExecutable = process.platform === 'win32'
-            ? path.join(__dirname, '..', '..', 'ml', 'venv', 'Scripts', 'python.exe')
-            : path.join(__dirname, '..', '..', 'ml', 'venv', 'bin', 'python');
-
-        const mlDirectory = path.join(__dirname, '..', '..', 'ml');
-
-        // Preparar entrada JSON para o Python
-        const inputData = JSON.stringify({
-            room_label: room.wifi_ssid,
-            wifi_scan_results: wifi_scan_results
-        });
-
-        const pythonProcess = spawn(pythonExecutable, [pythonScript], {
-            cwd: mlDirectory
+        const result = await evaluatePresence(pool, {
+            userId: user_id,
+            roomId: room_id,
+            wifiScanResults: wifi_scan_results,
+            source: 'presence',
+            report: report !== false,
+            state
         });
 
-        let outputData = '';
-        let errorData = '';
-
-        // Enviar dados via stdin
-        pythonProcess.stdin.write(inputData);
-        pythonProcess.stdin.end();
+        res.json(result);
 
-        // Capturar stdout
-        pythonProcess.stdout.on('data', (data) => {
-            outputData += data.toString();
-        });
+    } catch (error) {
+        if (error instanceof ServiceError) {
+            const { status, ...body } = error.toJSON();
+            if (error.retryAfterMs) {
+                res.set('Retry-After', String(Math.ceil(error.retryAfterMs / 1000)));
+            }
+            return res.status(status).json(body);
+        }
 
-        // Capturar stderr
-        pythonProcess.stderr.on('data', (data) => {
-            errorData += data.toString();
+        console.error('[PRESENCE] Erro ao atualizar presença:', error);
+        res.status(500).json({
+            success: false,
+            error: 'Erro interno do servidor'
         });
+    }
+});
 
-        // Processar resultado
-        pythonProcess.on('close', async (code) => {
-            try {
-                if (code !== 0) {
-                    console.error('[PRESENCE] Erro no Python:', errorData);
-                    return res.status(500).json({
-                        success: false,
-                        error: 'Erro na inferência do modelo',
-                        details: errorData
-                    });
-                }
-
-                // Parsear resultado JSON
-                const prediction = JSON.parse(outputData.trim());
-
-                if (!prediction.success) {
-                    return res.status(500).json({
-                        success: false,
-                        error: prediction.error || 'Erro desconhecido na predição'
-                    });
-                }
-
-                // Atualizar tabela de presença
-                const isInside = prediction.inside;
-                const confidence = prediction.confidence;
-
-                await pool.query(`
-                    INSERT INTO presence (user_id, room_id, is_present, confidence, last_seen_at)
-                    VALUES ($1, $2, $3, $4, NOW())
-                    ON CONFLICT (user_id, room_id)
-                    DO UPDATE SET
-                        is_present = $3,
-                        confidence = $4,
-                        last_seen_at = NOW()
-                `, [user_id, room.id, isInside, confidence]);
+/**
+ * POST /api/presence/update-all
+ * Avaliar um scan em todas as salas assinadas (um processo de inferência)
+ *
+ * Body:
+ * {
+ *   "room_ids": ["room_xxx", ...],   (opcional: padrão = todas as assinaturas aprovadas)
+ *   "wifi_scan_results": [{"bssid": "xx:xx:xx:xx:xx:xx", "ssid": "Name", "rssi": -50}]
+ * }
+ *
+ * Resposta: { success, evaluated, inside: [room_id], changes: [{ room_id, inside, confidence }] }
+ */
+router.post('/update-all', authenticateToken, async (req, res) => {
+    const { room_ids, wifi_scan_results } = req.body;
 
-                console.log(`[PRESENCE] User ${user_id} em sala ${room_id}: ${isInside ? 'INSIDE' : 'OUTSIDE'} (conf: ${confidence})`);
+    try {
+        const pool = req.app.get('pool');
 
-                // Retornar resultado
-                res.json({
-                    success: true,
-                    inside: isInside,
-                    confidence: confidence,
-                    room_id: room_id,
-                    reconstruction_error: prediction.reconstruction_error,
-                    threshold: prediction.threshold
-                });
+        res.json(await evaluatePresenceAll(pool, {
+            userId: req.user.userId,
+            roomIds: room_ids,
+            wifiScanResults: wifi_scan_results,
+            source: 'presence_all'
+        }));
 
-            } catch (parseError) {
-                console.error('[PRESENCE] Erro ao processar resultado:', parseError);
-                res.status(500).json({
-                    success: false,
-                    error: 'Erro ao processar resultado da inferência',
-                    details: outputData
-                });
+    } catch (error) {
+        if (error instanceof ServiceError) {
+            const { status, ...body } = error.toJSON();
+            if (error.retryAfterMs) {
+                res.set('Retry-After', String(Math.ceil(error.retryAfterMs / 1000)));
             }
-        });
+            return res.status(status).json(body);
+        }
 
-    } catch (error) {
-        console.error('[PRESENCE] Erro ao atualizar presença:', error);
+        console.error('[PRESENCE] Erro ao atualizar presença (multi-sala):', error);
         res.status(500).json({
             success: false,
             error: 'Erro interno do servidor'
@@ -190,7 +132,7 @@ router.get('/room/:room_id', async (req, res) => {
 
         const roomIdInternal = roomResult.rows[0].id;
 
-        // Buscar usuários presentes (atualizados nos últimos 30 segundos)
+        // Buscar usuários presentes (atualizados dentro da janela de presença)
         const result = await pool.query(`
             SELECT 
                 p.user_id,
@@ -202,9 +144,9 @@ router.get('/room/:room_id', async (req, res) => {
             JOIN users u ON p.user_id = u.id
             WHERE p.room_id = $1
               AND p.is_present = TRUE
-              AND p.last_seen_at > NOW() - INTERVAL '30 seconds'
+              AND p.last_seen_at > NOW() - make_interval(secs => $2)
             ORDER BY p.last_seen_at DESC
-        `, [roomIdInternal]);
+        `, [roomIdInternal, PRESENCE_WINDOW_MS / 1000]);
 
         res.json({
             success: true,
@@ -245,9 +187,9 @@ router.get('/user/:user_id', async (req, res) => {
             JOIN rooms r ON p.room_id = r.id
             WHERE p.user_id = $1
               AND p.is_present = TRUE
-              AND p.last_seen_at > NOW() - INTERVAL '30 seconds'
+              AND p.last_seen_at > NOW() - make_interval(secs => $2)
             ORDER BY p.last_seen_at DESC
-        `, [user_id]);
+        `, [user_id, PRESENCE_WINDOW_MS / 1000]);
 
         res.json({
             success: true,
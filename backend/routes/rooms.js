@@ -1,6 +1,14 @@
 const express = require('express');
 const { v4: uuidv4 } = require('uuid');
 const { authenticateToken } = require('../middleware/auth');
+const conversationCache = require('../utils/conversationCache');
+const presenceCache = require('../utils/presenceCache');
+const roomEvents = require('../utils/roomEvents');
+const clusterBus = require('../utils/clusterBus');
+const anchorFilter = require('../utils/anchorFilter');
+const { RateLimiter, AdmissionError } = require('../utils/admission');
+const { findNearbyRooms } = require('../services/nearby');
+const { ServiceError } = require('../services/errors');
 const router = express.Router();
 
 // Gerar codigo de acesso aleatorio
@@ -141,6 +149,59 @@ router.get('/search', authenticateToken, async (req, res) => {
     }
 });
 
+// Busca por proximidade pode avaliar modelos: limite por usuario
+const nearbyLimiter = new RateLimiter({ name: 'nearby', capacity: 3, perMinute: 6 });
+
+/**
+ * POST /api/rooms/nearby
+ * Salas perto de mim a partir de um scan Wi-Fi (requer autenticacao)
+ *
+ * Body:
+ * {
+ *   "wifi_scan_results": [{"bssid": "xx:xx:xx:xx:xx:xx", "ssid": "Name", "rssi": -50}],
+ *   "limit": 10,       // opcional
+ *   "score_top": 3     // opcional: avaliar os N primeiros com o modelo da sala
+ * }
+ */
+router.post('/nearby', authenticateToken, async (req, res) => {
+    const { wifi_scan_results, limit, score_top } = req.body;
+
+    try {
+        nearbyLimiter.take(String(req.user.userId));
+
+        const pool = req.app.get('pool');
+        const rooms = await findNearbyRooms(pool, {
+            wifiScanResults: wifi_scan_results,
+            limit: parseInt(limit, 10) || 10,
+            scoreTop: parseInt(score_top, 10) || 0
+        });
+
+        res.json({
+            success: true,
+            rooms
+        });
+
+    } catch (error) {
+        if (error instanceof AdmissionError) {
+            res.set('Retry-After', String(Math.ceil(error.retryAfterMs / 1000)));
+            return res.status(429).json({
+                success: false,
+                error: 'Muitas buscas seguidas, aguarde',
+                retry_after_ms: error.retryAfterMs
+            });
+        }
+        if (error instanceof ServiceError) {
+            const { status, ...body } = error.toJSON();
+            return res.status(status).json(body);
+        }
+        console.error('Erro ao buscar salas proximas:', error);
+        res.status(500).json({
+            success: false,
+            error: 'Erro interno do servidor'
+        });
+    }
+});
+
 /**
  * GET /api/rooms/my-rooms
  * Listar salas criadas pelo usuario (requer autenticacao)
@@ -608,6 +669,10 @@ router.delete('/:room_id', authenticateToken, async (req, res) => {
 
         // Deletar sala (CASCADE vai deletar subscriptions, conversations, messages automaticamente)
         await pool.query('DELETE FROM rooms WHERE room_id = $1', [room_id]);
+        conversationCache.invalidateRoom(room.id);
+        presenceCache.invalidateRoom(room.id);
+        roomEvents.forget(room_id);
+        clusterBus.publish('room_deleted', { id: room.id, room_id });
 
         // Decrementar contador de salas criadas pelo usuario
         await pool.query(
@@ -631,6 +696,58 @@ router.delete('/:room_id', authenticateToken, async (req, res) => {
     }
 });
 
+/**
+ * GET /api/rooms/:room_id/anchors
+ * BSSIDs âncora da sala e o mínimo visível para o pré-filtro de presença no
+ * app (scan abaixo do mínimo = fora da sala, sem enviar ao servidor)
+ */
+router.get('/:room_id/anchors', authenticateToken, async (req, res) => {
+    const { room_id } = req.params;
+    const user_id = req.user.userId;
+
+    try {
+        const pool = req.app.get('pool');
+
+        const roomResult = await pool.query(
+            'SELECT id, creator_id, wifi_ssid, model_trained FROM rooms WHERE room_id = $1',
+            [room_id]
+        );
+
+        if (roomResult.rows.length === 0) {
+            return res.status(404).json({ success: false, error: 'Sala nao encontrada' });
+        }
+
+        const room = roomResult.rows[0];
+
+        // Mesma permissão dos detalhes: criador ou inscrito aprovado
+        if (room.creator_id !== user_id) {
+            const subResult = await pool.query(
+                'SELECT status FROM subscriptions WHERE room_id = $1 AND user_id = $2',
+                [room.id, user_id]
+            );
+            if (subResult.rows.length === 0 || subResult.rows[0].status !== 'approved') {
+                return res.status(403).json({ success: false, error: 'Acesso negado' });
+            }
+        }
+
+        const filter = room.model_trained ? await anchorFilter.load(room.wifi_ssid) : null;
+        if (!filter) {
+            return res.status(404).json({ success: false, error: 'Sala sem pre-filtro (treine o modelo novamente)' });
+        }
+
+        res.json({
+            success: true,
+            room_id,
+            anchors: filter.list,
+            min_overlap: filter.minOverlap
+        });
+
+    } catch (error) {
+        console.error('Erro ao buscar ancoras da sala:', error);
+        res.status(500).json({ success: false, error: 'Erro interno do servidor' });
+    }
+});
+
 // Rota para buscar detalhes completos da sala (Gerenciamento)
 router.get('/:room_id/details', authenticateToken, async (req, res) => {
     const { room_id } = req.params;
@@ -662,7 +779,7 @@ router.get('/:room_id/details', authenticateToken, async (req, res) => {
         }
 
         // 2. Buscar inscritos e status online
-        // Online = is_present=TRUE e last_seen_at < 45 segundos atrás
+        // Online = is_present=TRUE e last_seen_at dentro da janela de presença (60s)
         const subscribersQuery = `
             SELECT 
                 u.id, 
@@ -672,7 +789,7 @@ router.get('/:room_id/details', authenticateToken, async (req, res) => {
                 p.confidence,
                 p.last_seen_at,
                 CASE 
-                    WHEN p.is_present = TRUE AND p.last_seen_at > NOW() - INTERVAL '45 seconds' THEN TRUE 
+                    WHEN p.is_present = TRUE AND p.last_seen_at > NOW() - make_interval(secs => $2) THEN TRUE 
                     ELSE FALSE 
                 END as is_online
             FROM subscriptions s
@@ -682,7 +799,7 @@ router.get('/:room_id/details', authenticateToken, async (req, res) => {
             ORDER BY is_online DESC, u.username ASC
         `;
         
-        const subscribersResult = await pool.query(subscribersQuery, [room.id]);
+        const subscribersResult = await pool.query(subscribersQuery, [room.id, presenceCache.PRESENCE_WINDOW_MS / 1000]);
 
         // 3. Buscar metadados do modelo (se treinado)
         let modelInfo = null;
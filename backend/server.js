@@ -12,6 +12,14 @@ const { spawn } = require('child_process');
 const path = require('path');
 const fs = require('fs');
 const { Server } = require('socket.io');
+const metrics = require('./utils/metrics');
+const inference = require('./utils/inference');
+const { AdmissionError, RateLimiter } = require('./utils/admission');
+const anchorFilter = require('./utils/anchorFilter');
+const cascade = require('./utils/cascade');
+const bssidIndex = require('./utils/bssidIndex');
+const { encodeFingerprint } = require('./utils/bssidDictionary');
+const { streamTrainingData } = require('./services/trainingExport');
 
 // Configuração do servidor
 const app = express();
@@ -24,7 +32,19 @@ const io = new Server(server, {
 });
 const PORT = process.env.PORT || 3000;
 
+// Modo cluster (cluster.js): o processo primário recebe as conexões e as
+// distribui entre os workers com sticky session; o worker não chama listen()
+const CLUSTERED = process.env.GEOPING_CLUSTER === '1';
+if (CLUSTERED) {
+    const { createAdapter } = require('@socket.io/cluster-adapter');
+    const { setupWorker } = require('@socket.io/sticky');
+    // io.to(sala).emit chega aos sockets de todos os workers
+    io.adapter(createAdapter());
+    setupWorker(io);
+}
+
 // Middleware
+app.use(metrics.httpMiddleware());
 app.use(cors());
 app.use(express.json({ limit: '10mb' }));
 app.use(express.urlencoded({ extended: true }));
@@ -38,6 +58,10 @@ const pool = new Pool({
     port: process.env.DB_PORT || 5432,
 });
 
+// Medir espera do pool e duração das queries (exposto em /metrics)
+metrics.instrumentPool(pool);
+metrics.instrumentSocketIO(io);
+
 // Disponibilizar pool e io para as rotas
 app.set('pool', pool);
 app.set('io', io);
@@ -63,8 +87,22 @@ const presenceRoutes = require('./routes/presence');
 const messagesRoutes = require('./routes/messages');
 
 // Importar middleware de autenticação
-const authMiddleware = require('./middleware/auth');
-const jwt = require('jsonwebtoken');
+const { verifyToken } = require('./middleware/auth');
+const { sendMessage, deliverMessage } = require('./services/messages');
+const { evaluatePresence, evaluatePresenceAll } = require('./services/presence');
+const { ServiceError } = require('./services/errors');
+const roomEvents = require('./utils/roomEvents');
+const clusterBus = require('./utils/clusterBus');
+const partitionMaintenance = require('./jobs/partitionMaintenance');
+
+// Estado compartilhado entre workers: caches via LISTEN/NOTIFY e seq das salas no banco
+if (CLUSTERED) {
+    clusterBus.start(pool);
+    roomEvents.useCluster(pool, io);
+}
+
+// Partições mensais de messages: criar as próximas e desanexar as expiradas
+partitionMaintenance.start(pool);
 
 // ================================================================================
 // GERENCIAMENTO SOCKET.IO
@@ -85,7 +123,8 @@ io.on('connection', (socket) => {
             }
             
             const actualToken = token.substring(7);
-            const decoded = jwt.verify(actualToken, process.env.JWT_SECRET || 'geoping_secret_key');
+            // Mesmo segredo e cache do middleware HTTP
+            const decoded = verifyToken(actualToken);
             
             authenticatedUserId = decoded.userId;
             authenticatedUsername = decoded.username;
@@ -99,15 +138,44 @@ io.on('connection', (socket) => {
     });
 
     // Evento: Entrar em uma sala
-    socket.on('join_room', (roomId) => {
+    // Aceita o room_id ou { room_id, last_seq, epoch } ao retomar a sessão:
+    // os eventos perdidos (seq > last_seq) são reenviados logo após o join
+    socket.on('join_room', async (request) => {
         if (!authenticatedUserId) {
             socket.emit('error', 'Você precisa estar autenticado');
             return;
         }
-        
+
+        const roomId = typeof request === 'object' && request !== null ? request.room_id : request;
+        if (!roomId) {
+            socket.emit('error', 'room_id é obrigatório');
+            return;
+        }
+
+        try {
+            await roomEvents.loadSeq(roomId);
+        } catch (error) {
+            console.error('[Socket.io] Erro ao carregar seq da sala:', error.message);
+        }
+
+        // join e reenvio no mesmo tick: nenhum evento fica entre os dois
         socket.join(roomId);
         console.log(`[Socket.io] ${authenticatedUsername} entrou na sala: ${roomId}`);
-        socket.emit('joined_room', roomId);
+        socket.emit('joined_room', roomId, { seq: roomEvents.currentSeq(roomId), epoch: roomEvents.EPOCH });
+
+        if (typeof request === 'object' && Number.isInteger(request.last_seq)) {
+            const missed = roomEvents.since(roomId, request.last_seq, request.epoch);
+            if (missed.reset) {
+                socket.emit('room_reset', { room_id: roomId, seq: missed.seq, epoch: roomEvents.EPOCH });
+            } else {
+                for (const { event, data } of missed.events) {
+                    socket.emit(event, data);
+                }
+                if (missed.events.length > 0) {
+                    console.log(`[Socket.io] ${authenticatedUsername}: ${missed.events.length} eventos reenviados em ${roomId}`);
+                }
+            }
+        }
         
         // Notificar outros na sala
         socket.to(roomId).emit('user_joined', {
@@ -128,6 +196,127 @@ io.on('connection', (socket) => {
         });
     });
 
+    // Evento: Buscar eventos perdidos de uma sala (cliente detectou um salto no seq)
+    // Pedido: { room_id, from_seq, epoch }. Resposta via ack:
+    // { success, room_id, events: [{ event, data }], seq } ou { success, reset: true, seq, epoch }
+    socket.on('sync_room', (data, ack) => {
+        const reply = typeof ack === 'function' ? ack : () => {};
+
+        if (!authenticatedUserId) {
+            reply({ success: false, status: 401, error: 'Você precisa estar autenticado' });
+            return;
+        }
+
+        const roomId = data && data.room_id;
+        const fromSeq = data && data.from_seq;
+        if (!roomId || !Number.isInteger(fromSeq) || fromSeq < 1) {
+            reply({ success: false, status: 400, error: 'room_id e from_seq são obrigatórios' });
+            return;
+        }
+
+        // Só quem está no canal recebe os eventos da sala
+        if (!socket.rooms.has(roomId)) {
+            reply({ success: false, status: 403, error: 'Entre na sala antes de sincronizar' });
+            return;
+        }
+
+        const missed = roomEvents.since(roomId, fromSeq - 1, data.epoch);
+        if (missed.reset) {
+            reply({ success: true, room_id: roomId, reset: true, seq: missed.seq, epoch: roomEvents.EPOCH });
+            return;
+        }
+        reply({ success: true, room_id: roomId, events: missed.events, seq: missed.seq });
+    });
+
+    // Evento: Enviar mensagem (mesma regra de POST /api/messages/send, sem
+    // HTTP nem verificação de JWT por mensagem). Resposta via ack:
+    // { success, message } ou { success: false, status, error }
+    socket.on('send_message', async (data, ack) => {
+        const reply = typeof ack === 'function' ? ack : () => {};
+
+        if (!authenticatedUserId) {
+            reply({ success: false, status: 401, error: 'Você precisa estar autenticado' });
+            return;
+        }
+
+        try {
+            const sent = await sendMessage(pool, {
+                conversationId: data && data.conversation_id,
+                senderId: authenticatedUserId,
+                senderUsername: authenticatedUsername,
+                content: data && data.content,
+                clientMsgId: data && data.client_msg_id
+            });
+
+            // Reenvio: só publica se a primeira tentativa não chegou a publicar
+            const message = await deliverMessage(pool, io, sent);
+            reply({ success: true, message });
+        } catch (error) {
+            if (error instanceof ServiceError) {
+                reply(error.toJSON());
+                return;
+            }
+            console.error('[Socket.io] Erro ao enviar mensagem:', error);
+            reply({ success: false, status: 500, error: 'Erro interno do servidor' });
+        }
+    });
+
+    // Evento: Scan Wi-Fi para presença (mesma regra de POST /api/presence/update,
+    // usando a autenticação feita uma vez no authenticate). Resultado via ack
+    socket.on('presence_scan', async (data, ack) => {
+        const reply = typeof ack === 'function' ? ack : () => {};
+
+        if (!authenticatedUserId) {
+            reply({ success: false, status: 401, error: 'Você precisa estar autenticado' });
+            return;
+        }
+
+        try {
+            reply(await evaluatePresence(pool, {
+                userId: authenticatedUserId,
+                roomId: data && data.room_id,
+                wifiScanResults: data && data.wifi_scan_results,
+                source: 'presence_socket',
+                report: !(data && data.report === false),
+                state: data && data.state
+            }));
+        } catch (error) {
+            if (error instanceof ServiceError) {
+                reply(error.toJSON());
+                return;
+            }
+            console.error('[Socket.io] Erro ao avaliar presença:', error);
+            reply({ success: false, status: 500, error: 'Erro interno do servidor' });
+        }
+    });
+
+    // Evento: Scan Wi-Fi avaliado em todas as salas assinadas
+    // (mesma regra de POST /api/presence/update-all)
+    socket.on('presence_scan_all', async (data, ack) => {
+        const reply = typeof ack === 'function' ? ack : () => {};
+
+        if (!authenticatedUserId) {
+            reply({ success: false, status: 401, error: 'Você precisa estar autenticado' });
+            return;
+        }
+
+        try {
+            reply(await evaluatePresenceAll(pool, {
+                userId: authenticatedUserId,
+                roomIds: data && data.room_ids,
+                wifiScanResults: data && data.wifi_scan_results,
+                source: 'presence_all_socket'
+            }));
+        } catch (error) {
+            if (error instanceof ServiceError) {
+                reply(error.toJSON());
+                return;
+            }
+            console.error('[Socket.io] Erro ao avaliar presença (multi-sala):', error);
+            reply({ success: false, status: 500, error: 'Erro interno do servidor' });
+        }
+    });
+
     // Evento: Desconexão
     socket.on('disconnect', () => {
         console.log(`[Socket.io] Cliente desconectado: ${socket.id} (${authenticatedUsername || 'não autenticado'})`);
@@ -155,6 +344,17 @@ app.get('/', (req, res) => {
     });
 });
 
+// Métricas no formato Prometheus. Em produção, defina METRICS_TOKEN
+// para exigir "Authorization: Bearer <token>" no scrape.
+app.get('/metrics', (req, res) => {
+    const token = process.env.METRICS_TOKEN;
+    if (token && req.headers.authorization !== `Bearer ${token}`) {
+        return res.status(401).send('Não autorizado\n');
+    }
+    res.set('Content-Type', 'text/plain; version=0.0.4; charset=utf-8');
+    res.send(metrics.render());
+});
+
 // Rota para coletar dados de treinamento do Wi-Fi
 app.post('/api/collect', async (req, res) => {
     try {
@@ -186,18 +386,21 @@ app.post('/api/collect', async (req, res) => {
             }
         }
 
-        // Inserção no banco de dados
+        // Inserção no banco de dados (BSSIDs pelo dicionário global, ver utils/bssidDictionary.js)
+        const { bssidIds, rssi } = await encodeFingerprint(pool, wifi_scan_results);
+
         const query = `
             INSERT INTO wifi_training_data 
-            (room_label, device_id, wifi_fingerprint, heuristics, scan_timestamp)
-            VALUES ($1, $2, $3, $4, NOW())
+            (room_label, device_id, bssid_ids, rssi, heuristics, scan_timestamp)
+            VALUES ($1, $2, $3, $4, $5, NOW())
             RETURNING id, scan_timestamp
         `;
 
         const values = [
             room_label,
             device_id,
-            JSON.stringify(wifi_scan_results),
+            bssidIds,
+            rssi,
             heuristics ? JSON.stringify(heuristics) : null
         ];
 
@@ -224,7 +427,9 @@ app.post('/api/collect', async (req, res) => {
     }
 });
 
-// Rota para TESTE de inferência (Dev/Debug)
+// Rota para TESTE de inferência (Dev/Debug). Sem autenticação: limite por IP
+const predictTestLimiter = new RateLimiter({ name: 'predict_test', capacity: 5, perMinute: 20 });
+
 app.post('/api/predict-test', async (req, res) => {
     try {
         const { room_label, wifi_scan_results } = req.body;
@@ -236,113 +441,57 @@ app.post('/api/predict-test', async (req, res) => {
             });
         }
 
+        predictTestLimiter.take(`${req.ip}:${room_label}`);
+
         console.log(`[TESTE INFERENCIA] Testando para sala: ${room_label} com ${wifi_scan_results.length} redes`);
         
         // Debug do payload recebido
         // console.log('Payload recebido:', JSON.stringify(req.body).substring(0, 200));
 
-        // Caminho para o script Python
-        const pythonScript = path.join(__dirname, '..', 'ml', 'predict_realtime.py');
-        const pythonExecutable = process.platform === 'win32'
-            ? path.join(__dirname, '..', 'ml', 'venv', 'Scripts', 'python.exe')
-            : path.join(__dirname, '..', 'ml', 'venv', 'bin', 'python');
-
         // Verificar se o script existe
-        if (!fs.existsSync(pythonScript)) {
+        if (!fs.existsSync(inference.PREDICT_SCRIPT)) {
             return res.status(500).json({ error: 'Script de inferência não encontrado' });
         }
 
-        // Executar o script Python
-        const mlDirectory = path.join(__dirname, '..', 'ml');
-        
-        // Definir variáveis de ambiente para suprimir logs do TensorFlow
-        const env = { 
-            ...process.env, 
-            TF_CPP_MIN_LOG_LEVEL: '2', // Suprimir INFO e WARNING
-            TF_ENABLE_ONEDNN_OPTS: '0' // Desativar oneDNN logs
-        };
-
-        const pythonProcess = spawn(pythonExecutable, [pythonScript], {
-            cwd: mlDirectory,
-            env: env
-        });
-
-        let outputBuffer = '';
-        let errorBuffer = '';
-
-        // Enviar dados para o script via stdin
-        const inputData = JSON.stringify({
+        const { code, result, stdout, stderr } = await inference.runPrediction({
             room_label: room_label,
             wifi_scan_results: wifi_scan_results
-        });
-
-        pythonProcess.stdin.write(inputData);
-        pythonProcess.stdin.end();
-
-        pythonProcess.stdout.on('data', (data) => {
-            outputBuffer += data.toString();
-        });
-
-        pythonProcess.stderr.on('data', (data) => {
-            errorBuffer += data.toString();
-        });
-
-        pythonProcess.on('close', (code) => {
-            // Tentar capturar mensagem de erro do stdout se houver (o script Python imprime JSON de erro no stdout)
-            let result = null;
-            try {
-                // O script pode imprimir logs antes do JSON, então pegamos a última linha válida
-                const lines = outputBuffer.trim().split('\n');
-                // Procurar de trás pra frente por um JSON válido
-                for (let i = lines.length - 1; i >= 0; i--) {
-                    try {
-                        const potentialJson = JSON.parse(lines[i]);
-                        // Verificar se é um JSON de resposta esperado (sucesso ou erro tratado pelo script)
-                        if (potentialJson.success !== undefined) {
-                            result = potentialJson;
-                            break;
-                        }
-                    } catch (e) {
-                        // Ignora linhas que não são JSON
-                    }
-                }
-            } catch (e) {
-                // Erro ao tentar parsear outputBuffer
-            }
-
-            if (code !== 0) {
-                // Se temos um resultado JSON do script (ex: erro tratado), retornamos ele
-                if (result && !result.success) {
-                     console.error(`[TESTE INFERENCIA] Erro reportado pelo script: ${result.error}`);
-                     return res.status(400).json({
-                         error: result.error,
-                         details: 'O script Python retornou um erro tratado.'
-                     });
-                }
+        }, 'predict_test');
 
-                // Se não tem JSON, usamos o stderr
-                console.error(`[TESTE INFERENCIA] Falha no processo Python (code ${code}): ${errorBuffer}`);
-                return res.status(500).json({
-                    error: 'Erro na execução do modelo (Processo falhou)',
-                    details: errorBuffer || outputBuffer // Tenta stderr, senão stdout
+        if (code !== 0) {
+            // Se temos um resultado JSON do script (ex: erro tratado), retornamos ele
+            if (result && !result.success) {
+                console.error(`[TESTE INFERENCIA] Erro reportado pelo script: ${result.error}`);
+                return res.status(400).json({
+                    error: result.error,
+                    details: 'O script Python retornou um erro tratado.'
                 });
             }
 
-            try {
-                if (result) {
-                    console.log(`[TESTE INFERENCIA] Resultado: ${result.inside ? 'DENTRO' : 'FORA'} (Conf: ${result.confidence})`);
-                    res.json(result);
-                } else {
-                    console.error(`[TESTE INFERENCIA] Saída inválida do Python: ${outputBuffer}`);
-                    res.status(500).json({ error: 'Saída inválida do modelo', raw_output: outputBuffer });
-                }
-            } catch (e) {
-                console.error(`[TESTE INFERENCIA] Erro ao processar resposta: ${e.message}`);
-                res.status(500).json({ error: 'Erro ao processar resposta do modelo' });
-            }
-        });
+            // Se não tem JSON, usamos o stderr
+            console.error(`[TESTE INFERENCIA] Falha no processo Python (code ${code}): ${stderr}`);
+            return res.status(500).json({
+                error: 'Erro na execução do modelo (Processo falhou)',
+                details: stderr || stdout // Tenta stderr, senão stdout
+            });
+        }
+
+        if (result) {
+            console.log(`[TESTE INFERENCIA] Resultado: ${result.inside ? 'DENTRO' : 'FORA'} (Conf: ${result.confidence})`);
+            res.json(result);
+        } else {
+            console.error(`[TESTE INFERENCIA] Saída inválida do Python: ${stdout}`);
+            res.status(500).json({ error: 'Saída inválida do modelo', raw_output: stdout });
+        }
 
     } catch (error) {
+        if (error instanceof AdmissionError) {
+            res.set('Retry-After', String(Math.ceil(error.retryAfterMs / 1000)));
+            return res.status(429).json({
+                error: 'Servidor ocupado, tente novamente em instantes',
+                retry_after_ms: error.retryAfterMs
+            });
+        }
         console.error('Erro no teste de inferência:', error);
         res.status(500).json({
             error: 'Erro interno do servidor',
@@ -352,6 +501,9 @@ app.post('/api/predict-test', async (req, res) => {
 });
 
 // Rota para obter estatísticas de coleta por sala
+//
+// training_room_stats é mantida por trigger na inserção
+// (database/migration_room_stats.sql): uma linha por sala, sem agregar scans
 app.get('/api/stats/:room_label', async (req, res) => {
     try {
         const { room_label } = req.params;
@@ -359,13 +511,13 @@ app.get('/api/stats/:room_label', async (req, res) => {
         const query = `
             SELECT 
                 room_label,
-                COUNT(*) as total_scans,
-                COUNT(DISTINCT device_id) as unique_devices,
-                MIN(scan_timestamp) as first_scan,
-                MAX(scan_timestamp) as last_scan
-            FROM wifi_training_data
-            WHERE room_label = $1
-            GROUP BY room_label
+                sample_count as total_scans,
+                device_count as unique_devices,
+                ROUND(network_count::numeric / NULLIF(sample_count, 0), 1) as avg_networks_per_scan,
+                first_scan,
+                last_scan
+            FROM training_room_stats
+            WHERE room_label = $1 AND sample_count > 0
         `;
 
         const result = await pool.query(query, [room_label]);
@@ -392,33 +544,18 @@ app.get('/api/stats/:room_label', async (req, res) => {
 });
 
 // Rota para obter todos os dados de uma sala (para treinamento)
+//
+// Streaming a partir de um cursor (services/trainingExport.js): ?format=json
+// (padrão, mesmo formato de antes), ndjson ou binary; ?since=&after_id= para
+// exportar só as amostras novas desde a última exportação
 app.get('/api/training-data/:room_label', async (req, res) => {
     try {
-        const { room_label } = req.params;
-
-        const query = `
-            SELECT 
-                id,
-                room_label,
-                scan_timestamp,
-                device_id,
-                wifi_fingerprint,
-                heuristics
-            FROM wifi_training_data
-            WHERE room_label = $1
-            ORDER BY scan_timestamp ASC
-        `;
-
-        const result = await pool.query(query, [room_label]);
-
-        res.json({
-            success: true,
-            room_label: room_label,
-            total_samples: result.rows.length,
-            data: result.rows
-        });
-
+        await streamTrainingData(pool, res, req.params.room_label, req.query);
     } catch (error) {
+        if (error instanceof ServiceError) {
+            const { status, ...body } = error.toJSON();
+            return res.status(status).json(body);
+        }
         console.error('Erro ao obter dados de treinamento:', error);
         res.status(500).json({
             error: 'Erro interno do servidor',
@@ -433,11 +570,11 @@ app.get('/api/rooms', async (req, res) => {
         const query = `
             SELECT 
                 room_label,
-                COUNT(*) as sample_count,
-                MIN(scan_timestamp) as first_scan,
-                MAX(scan_timestamp) as last_scan
-            FROM wifi_training_data
-            GROUP BY room_label
+                sample_count,
+                first_scan,
+                last_scan
+            FROM training_room_stats
+            WHERE sample_count > 0
             ORDER BY room_label
         `;
 
@@ -465,19 +602,23 @@ app.get('/api/rooms', async (req, res) => {
 // Configuração de quantidade mínima de amostras
 const MIN_SAMPLES_FOR_TRAINING = 30;
 
+/**
+ * Quantidade de amostras da sala (busca por chave em training_room_stats)
+ */
+async function getSampleCount(roomLabel) {
+    const result = await pool.query(
+        'SELECT sample_count FROM training_room_stats WHERE room_label = $1',
+        [roomLabel]
+    );
+    return result.rows.length > 0 ? parseInt(result.rows[0].sample_count) : 0;
+}
+
 // Rota para verificar quantidade de amostras disponíveis
 app.get('/api/check-samples/:room_label', async (req, res) => {
     try {
         const { room_label } = req.params;
 
-        const query = `
-            SELECT COUNT(*) as sample_count
-            FROM wifi_training_data
-            WHERE room_label = $1
-        `;
-
-        const result = await pool.query(query, [room_label]);
-        const sampleCount = parseInt(result.rows[0].sample_count);
+        const sampleCount = await getSampleCount(room_label);
 
         const canTrain = sampleCount >= MIN_SAMPLES_FOR_TRAINING;
 
@@ -507,14 +648,7 @@ app.post('/api/train/:room_label', async (req, res) => {
         const { room_label } = req.params;
 
         // Verificar quantidade de amostras
-        const checkQuery = `
-            SELECT COUNT(*) as sample_count
-            FROM wifi_training_data
-            WHERE room_label = $1
-        `;
-        
-        const checkResult = await pool.query(checkQuery, [room_label]);
-        const sampleCount = parseInt(checkResult.rows[0].sample_count);
+        const sampleCount = await getSampleCount(room_label);
 
         if (sampleCount < MIN_SAMPLES_FOR_TRAINING) {
             return res.status(400).json({
@@ -549,6 +683,22 @@ app.post('/api/train/:room_label', async (req, res) => {
 
         // Executar o script Python no diretório correto
         const mlDirectory = path.join(__dirname, '..', 'ml');
+
+        // Remover os gráficos do treinamento anterior: o script só gera os
+        // PNGs com GEOPING_SAVE_PLOTS=1, e os antigos seriam reportados como
+        // deste modelo em files_generated/results_urls
+        for (const plot of ['training_history', 'reconstruction_errors']) {
+            const plotPath = path.join(mlDirectory, 'models', `${room_label}_${plot}.png`);
+            try {
+                fs.unlinkSync(plotPath);
+            } catch (error) {
+                if (error.code !== 'ENOENT') {
+                    console.error(`[TREINAMENTO] Erro ao remover gráfico antigo ${plotPath}:`, error);
+                }
+            }
+        }
+
+        const stopTraining = metrics.trainingDuration.startTimer();
         const pythonProcess = spawn(pythonExecutable, [pythonScript, room_label], {
             cwd: mlDirectory  // Executar no diretório ml/
         });
@@ -583,8 +733,10 @@ app.post('/api/train/:room_label', async (req, res) => {
 
         // Tratar conclusão do processo
         pythonProcess.on('close', async (code) => {
+            const trainingSeconds = stopTraining({ result: code === 0 ? 'success' : 'failure' });
+
             if (code === 0) {
-                console.log(`[TREINAMENTO] Concluído com sucesso para '${room_label}'`);
+                console.log(`[TREINAMENTO] Concluído com sucesso para '${room_label}' em ${trainingSeconds.toFixed(1)}s`);
                 
                 // Atualizar status do modelo na tabela rooms
                 try {
@@ -596,6 +748,9 @@ app.post('/api/train/:room_label', async (req, res) => {
                     `;
                     await pool.query(updateQuery, [room_label]);
                     console.log(`[TREINAMENTO] Status do modelo atualizado no banco de dados para '${room_label}'`);
+                    anchorFilter.invalidate(room_label);
+                    cascade.invalidate(room_label);
+                    bssidIndex.invalidate();
                 } catch (updateError) {
                     console.error(`[TREINAMENTO] Erro ao atualizar status do modelo:`, updateError);
                 }
@@ -605,9 +760,12 @@ app.post('/api/train/:room_label', async (req, res) => {
                 const trainingHistoryImg = path.join(modelsDir, `${room_label}_training_history.png`);
                 const reconstructionErrorsImg = path.join(modelsDir, `${room_label}_reconstruction_errors.png`);
 
+                const metricsFile = path.join(modelsDir, `${room_label}_metrics.json`);
+
                 const filesGenerated = {
                     training_history: fs.existsSync(trainingHistoryImg),
-                    reconstruction_errors: fs.existsSync(reconstructionErrorsImg)
+                    reconstruction_errors: fs.existsSync(reconstructionErrorsImg),
+                    metrics: fs.existsSync(metricsFile)
                 };
 
                 // Ler metadados do treinamento
@@ -649,8 +807,13 @@ app.post('/api/train/:room_label', async (req, res) => {
                     files_generated: filesGenerated,
                     training_info: trainingInfo,
                     results_urls: {
-                        training_history: `/api/training-results/${room_label}/training_history.png`,
-                        reconstruction_errors: `/api/training-results/${room_label}/reconstruction_errors.png`
+                        training_history: filesGenerated.training_history
+                            ? `/api/training-results/${room_label}/training_history.png`
+                            : null,
+                        reconstruction_errors: filesGenerated.reconstruction_errors
+                            ? `/api/training-results/${room_label}/reconstruction_errors.png`
+                            : null,
+                        metrics: `/api/training-metrics/${room_label}`
                     }
                 }) + '\n');
                 res.end();
@@ -719,8 +882,11 @@ app.get('/api/training-results/:room_label/:filename', (req, res) => {
             });
         }
 
-        // Enviar o arquivo
-        res.sendFile(filePath);
+        // Enviar o arquivo (ETag/Last-Modified automáticos; no-cache força o
+        // cliente a revalidar com If-None-Match e receber 304 se não mudou)
+        res.sendFile(filePath, {
+            headers: { 'Cache-Control': 'no-cache' }
+        });
 
     } catch (error) {
         console.error('Erro ao servir gráfico:', error);
@@ -731,11 +897,38 @@ app.get('/api/training-results/:room_label/:filename', (req, res) => {
     }
 });
 
+// Rota para servir as métricas do treinamento como dados (gráficos nativos no app)
+app.get('/api/training-metrics/:room_label', (req, res) => {
+    try {
+        const { room_label } = req.params;
+        const filePath = path.join(__dirname, '..', 'ml', 'models', `${path.basename(room_label)}_metrics.json`);
+
+        if (!fs.existsSync(filePath)) {
+            return res.status(404).json({
+                error: 'Métricas não encontradas',
+                message: `As métricas ainda não foram geradas para a sala '${room_label}'`
+            });
+        }
+
+        // Poucos KB; ETag permite 304 em visitas repetidas
+        res.sendFile(filePath, {
+            headers: { 'Cache-Control': 'no-cache' }
+        });
+
+    } catch (error) {
+        console.error('Erro ao servir métricas:', error);
+        res.status(500).json({
+            error: 'Erro interno do servidor',
+            message: error.message
+        });
+    }
+});
+
 // ================================================================================
 // INICIALIZAÇÃO DO SERVIDOR
 // ================================================================================
 
-server.listen(PORT, '0.0.0.0', () => {
+function printBanner() {
     console.log('\n===========================================');
     console.log('  GeoPing Backend - Sistema Indoor RTLS v2.0');
     console.log('===========================================');
@@ -750,10 +943,12 @@ server.listen(PORT, '0.0.0.0', () => {
     console.log(`  [ROOMS]`);
     console.log(`  POST /api/rooms/create                       - Criar sala`);
     console.log(`  GET  /api/rooms/search                       - Buscar salas`);
+    console.log(`  POST /api/rooms/nearby                       - Salas perto de mim (scan Wi-Fi)`);
     console.log(`  GET  /api/rooms/my-rooms                     - Minhas salas`);
     console.log(`  DELETE /api/rooms/:room_id                   - Deletar sala`);
     console.log(`  [PRESENCE]`);
     console.log(`  POST /api/presence/update                    - Atualizar presença`);
+    console.log(`  POST /api/presence/update-all                - Presença em todas as assinaturas`);
     console.log(`  GET  /api/presence/room/:room_id             - Usuários presentes`);
     console.log(`  [MESSAGES]`);
     console.log(`  POST /api/conversations/create               - Criar conversa`);
@@ -762,9 +957,19 @@ server.listen(PORT, '0.0.0.0', () => {
     console.log(`  [ML/DATA]`);
     console.log(`  POST /api/collect                            - Coletar dados de Wi-Fi`);
     console.log(`  POST /api/train/:room_label                  - Treinar modelo da sala`);
+    console.log(`  GET  /api/training-data/:room_label          - Exportar amostras (json, ndjson, binary)`);
     console.log(`  GET  /api/training-results/:room/:file       - Obter gráficos gerados`);
+    console.log(`  GET  /api/training-metrics/:room             - Obter métricas do treino (JSON)`);
+    console.log(`  [OBSERVABILIDADE]`);
+    console.log(`  GET  /metrics                                - Métricas (Prometheus)`);
     console.log('\n');
-});
+}
+
+if (CLUSTERED) {
+    console.log(`[CLUSTER] Worker ${process.pid} pronto`);
+} else {
+    server.listen(PORT, '0.0.0.0', printBanner);
+}
 
 // Tratamento de erros não capturados
 process.on('unhandledRejection', (err) => {
@@ -0,0 +1,38 @@
+// Erro de regra de negócio dos serviços: carrega o status HTTP equivalente,
+// usado tanto na resposta HTTP quanto no ack do Socket.io
+
+class ServiceError extends Error {
+    /**
+     * @param {number} status - status HTTP equivalente (400, 403, 404, 429, 500)
+     * @param {string} message - mensagem exibida ao cliente
+     * @param {string} [details] - detalhes técnicos (ex: stderr do Python)
+     */
+    constructor(status, message, details) {
+        super(message);
+        this.status = status;
+        this.details = details;
+    }
+
+    /**
+     * Recusa por limite de taxa ou sobrecarga (429). retryAfterMs vai no
+     * corpo (retry_after_ms) e no header Retry-After das rotas HTTP
+     */
+    static tooManyRequests(message, retryAfterMs) {
+        const error = new ServiceError(429, message);
+        error.retryAfterMs = retryAfterMs;
+        return error;
+    }
+
+    toJSON() {
+        const body = { success: false, status: this.status, error: this.message };
+        if (this.details) {
+            body.details = this.details;
+        }
+        if (this.retryAfterMs) {
+            body.retry_after_ms = this.retryAfterMs;
+        }
+        return body;
+    }
+}
+
+module.exports = { ServiceError };
@@ -0,0 +1,161 @@
+// Envio de mensagens (compartilhado por POST /api/messages/send e pelo
+// evento send_message do Socket.io)
+//
+// Conversa e presença vêm dos caches em memória; no caminho comum a única
+// ida ao banco é o INSERT. Com client_msg_id o envio é idempotente: um
+// reenvio (timeout do ack, reconexão, dias depois) devolve a mensagem já
+// gravada, mesmo que chegue com o primeiro envio ainda em andamento.
+//
+// deliverMessage publica o evento new_message. message_client_ids.published
+// marca quem ficou com a publicação: se ela falhar depois do INSERT (ex: seq
+// no banco no modo cluster), a marca volta a FALSE e o reenvio do cliente
+// publica a mensagem em vez de só devolvê-la.
+
+const conversationCache = require('../utils/conversationCache');
+const roomEvents = require('../utils/roomEvents');
+const presenceCache = require('../utils/presenceCache');
+const { ServiceError } = require('./errors');
+
+const CLIENT_MSG_ID_MAX = 64;
+
+// Reserva (sender_id, client_msg_id) em message_client_ids e grava a mensagem
+// no mesmo comando. Num reenvio concorrente o segundo INSERT espera o
+// primeiro pela chave primária e cai no DO NOTHING: nenhuma linha volta
+const INSERT_IDEMPOTENT = `
+    WITH next AS (
+        SELECT nextval(pg_get_serial_sequence('messages', 'id'))::int AS id, NOW()::timestamp AS sent_at
+    ), claimed AS (
+        INSERT INTO message_client_ids (sender_id, client_msg_id, message_id, sent_at)
+        SELECT $2, $4, id, sent_at FROM next
+        ON CONFLICT DO NOTHING
+        RETURNING message_id, sent_at
+    )
+    INSERT INTO messages (id, conversation_id, sender_id, content, client_msg_id, sent_at)
+    SELECT message_id, $1, $2, $3, $4, sent_at FROM claimed
+    RETURNING id, conversation_id, sender_id, content, client_msg_id, sent_at
+`;
+
+// Mensagem já gravada para o client_msg_id (sent_at limita a uma partição)
+const SELECT_EXISTING = `
+    SELECT m.id, m.conversation_id, m.sender_id, m.content, m.client_msg_id, m.sent_at,
+           c.published
+    FROM message_client_ids c
+    JOIN messages m ON m.id = c.message_id AND m.sent_at = c.sent_at
+    WHERE c.sender_id = $1 AND c.client_msg_id = $2
+`;
+
+// Reenvio de mensagem nunca publicada: só um dos reenvios concorrentes publica
+const CLAIM_PUBLISH = `
+    UPDATE message_client_ids SET published = TRUE
+    WHERE sender_id = $1 AND client_msg_id = $2 AND published = FALSE
+`;
+
+const RELEASE_PUBLISH = `
+    UPDATE message_client_ids SET published = FALSE
+    WHERE sender_id = $1 AND client_msg_id = $2
+`;
+
+const INSERT_SIMPLE = `
+    INSERT INTO messages (conversation_id, sender_id, content)
+    VALUES ($1, $2, $3)
+    RETURNING id, conversation_id, sender_id, content, client_msg_id, sent_at
+`;
+
+/**
+ * Gravar uma mensagem.
+ *
+ * @param {object} params - { conversationId (UUID), senderId, senderUsername, content, clientMsgId? }
+ * @returns {Promise<{message: object, roomUuid: string, duplicate: boolean, publish: boolean}>}
+ *          publish = false: reenvio cuja mensagem já foi publicada
+ * @throws {ServiceError} conversa inexistente, usuário fora da sala ou dados inválidos
+ */
+async function sendMessage(pool, { conversationId, senderId, senderUsername, content, clientMsgId }) {
+    if (!conversationId || !content) {
+        throw new ServiceError(400, 'conversation_id e content são obrigatórios');
+    }
+    if (clientMsgId !== undefined && clientMsgId !== null
+        && (typeof clientMsgId !== 'string' || clientMsgId.length === 0 || clientMsgId.length > CLIENT_MSG_ID_MAX)) {
+        throw new ServiceError(400, 'client_msg_id inválido');
+    }
+
+    const conversation = await conversationCache.get(pool, conversationId);
+    if (!conversation) {
+        throw new ServiceError(404, 'Conversa não encontrada');
+    }
+
+    // Verificar se usuário está dentro da sala (Ignorar se for o criador)
+    if (conversation.creator_id !== senderId
+        && !(await presenceCache.isPresent(pool, senderId, conversation.room_id))) {
+        throw new ServiceError(403, 'Você precisa estar dentro da sala para enviar mensagens');
+    }
+
+    let result;
+    let duplicate = false;
+    let publish = true;
+    try {
+        result = clientMsgId
+            ? await pool.query(INSERT_IDEMPOTENT, [conversation.id, senderId, content, clientMsgId])
+            : await pool.query(INSERT_SIMPLE, [conversation.id, senderId, content]);
+
+        if (result.rows.length === 0) {
+            duplicate = true;
+            result = await pool.query(SELECT_EXISTING, [senderId, clientMsgId]);
+            if (result.rows.length === 0) {
+                // Mensagem original removida (conversa apagada ou retenção)
+                throw new ServiceError(409, 'client_msg_id já usado por uma mensagem removida');
+            }
+            publish = !result.rows[0].published
+                && (await pool.query(CLAIM_PUBLISH, [senderId, clientMsgId])).rowCount > 0;
+        }
+    } catch (error) {
+        // foreign_key_violation: conversa removida depois de entrar no cache
+        if (error.code === '23503') {
+            conversationCache.invalidate(conversationId);
+            throw new ServiceError(404, 'Conversa não encontrada');
+        }
+        throw error;
+    }
+
+    const { published, ...row } = result.rows[0];
+
+    return {
+        message: {
+            ...row,
+            sender_username: senderUsername,
+            conversation_id: conversationId
+        },
+        roomUuid: conversation.room_uuid,
+        duplicate,
+        publish,
+        senderId,
+        clientMsgId
+    };
+}
+
+/**
+ * Publicar new_message na sala (quando sendMessage indicou publish)
+ *
+ * @returns {Promise<object>} mensagem como enviada à sala (com seq) ou a
+ *          mensagem gravada, se não havia o que publicar
+ */
+async function deliverMessage(pool, io, { message, roomUuid, publish, senderId, clientMsgId }) {
+    if (!publish) {
+        return message;
+    }
+    try {
+        return await roomEvents.publish(io, roomUuid, 'new_message', message);
+    } catch (error) {
+        // Devolver a publicação para o próximo reenvio do cliente
+        if (clientMsgId) {
+            await pool.query(RELEASE_PUBLISH, [senderId, clientMsgId]).catch((releaseError) => {
+                console.error('[MESSAGES] Erro ao liberar publicação pendente:', releaseError.message);
+            });
+        }
+        throw error;
+    }
+}
+
+module.exports = {
+    sendMessage,
+    deliverMessage
+};
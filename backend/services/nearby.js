@@ -0,0 +1,98 @@
+// Salas perto de mim: candidatas pelo índice invertido de BSSIDs e,
+// opcionalmente, avaliação dos melhores candidatos pelo modelo de cada sala
+
+const bssidIndex = require('../utils/bssidIndex');
+const anchorFilter = require('../utils/anchorFilter');
+const { runPrediction } = require('../utils/inference');
+const { AdmissionError } = require('../utils/admission');
+const { ServiceError } = require('./errors');
+
+const MAX_RESULTS = 20;
+const MAX_SCORED = 5;
+
+/**
+ * @param {object} params - { wifiScanResults, limit, scoreTop: quantos candidatos
+ *                           avaliar com o modelo (0 = só sobreposição) }
+ * @returns {Promise<Array<object>>} salas no formato de /search com overlap_score,
+ *          bssid_matches e, quando avaliadas, inside/confidence
+ */
+async function findNearbyRooms(pool, { wifiScanResults, limit = 10, scoreTop = 0 }) {
+    if (!Array.isArray(wifiScanResults) || wifiScanResults.length === 0) {
+        throw new ServiceError(400, 'wifi_scan_results é obrigatório');
+    }
+
+    const candidates = await bssidIndex.candidates(
+        wifiScanResults,
+        Math.min(Math.max(1, limit), MAX_RESULTS)
+    );
+    if (candidates.length === 0) {
+        return [];
+    }
+
+    const result = await pool.query(
+        `SELECT
+            r.id, r.room_id, r.room_name, r.wifi_ssid,
+            r.model_trained, r.created_at,
+            u.username as creator_username,
+            COUNT(DISTINCT s.user_id) FILTER (WHERE s.status = 'approved') as subscriber_count
+         FROM rooms r
+         LEFT JOIN users u ON r.creator_id = u.id
+         LEFT JOIN subscriptions s ON r.id = s.room_id
+         WHERE r.wifi_ssid = ANY($1) AND r.model_trained = TRUE
+         GROUP BY r.id, r.room_id, r.room_name, r.wifi_ssid, r.model_trained, r.created_at, u.username`,
+        [candidates.map((c) => c.roomLabel)]
+    );
+
+    const roomsByLabel = new Map(result.rows.map((row) => [row.wifi_ssid, row]));
+
+    // Modelos sem sala no banco (sala deletada) ficam de fora
+    const rooms = candidates
+        .filter((c) => roomsByLabel.has(c.roomLabel))
+        .map((c) => ({
+            ...roomsByLabel.get(c.roomLabel),
+            overlap_score: Math.round(c.score * 1000) / 1000,
+            bssid_matches: c.matches
+        }));
+
+    const toScore = rooms.slice(0, Math.min(Math.max(0, scoreTop), MAX_SCORED));
+    await Promise.all(toScore.map((room) => scoreRoom(room, wifiScanResults)));
+
+    // Com avaliação: salas onde o modelo diz INSIDE primeiro
+    if (toScore.length > 0) {
+        rooms.sort((a, b) => (b.inside === true) - (a.inside === true));
+    }
+    return rooms;
+}
+
+/**
+ * Avaliar o scan no modelo da sala (pré-filtro de âncoras antes do Python).
+ * Fila de inferência cheia: a sala fica sem avaliação, não falha a busca.
+ */
+async function scoreRoom(room, wifiScanResults) {
+    const prefilter = await anchorFilter.check(room.wifi_ssid, wifiScanResults);
+    if (prefilter && prefilter.outside) {
+        room.inside = false;
+        room.confidence = 1 - prefilter.matches / prefilter.minOverlap;
+        return;
+    }
+
+    try {
+        const { code, result } = await runPrediction({
+            room_label: room.wifi_ssid,
+            wifi_scan_results: wifiScanResults
+        }, 'nearby');
+
+        if (code === 0 && result && result.success) {
+            room.inside = result.inside;
+            room.confidence = result.confidence;
+        }
+    } catch (error) {
+        if (!(error instanceof AdmissionError)) {
+            throw error;
+        }
+    }
+}
+
+module.exports = {
+    findNearbyRooms
+};
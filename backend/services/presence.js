@@ -0,0 +1,405 @@
+// Avaliação de presença (compartilhada por POST /api/presence/update e pelo
+// evento presence_scan do Socket.io)
+//
+// Inferência no modelo da sala, upsert na tabela presence e atualização do
+// cache usado pelo envio de mensagens. No modo multi-sala (POST
+// /api/presence/update-all, evento presence_scan_all) um único scan é
+// avaliado em todas as salas assinadas num só processo Python. Sob carga a presença é a primeira a
+// ser recusada (429): o próximo scan chega em segundos, mensagens não.
+//
+// Cascata: pré-filtro de âncoras, depois o primeiro estágio (utils/cascade.js,
+// em JS) e só os scans ambíguos chegam ao autoencoder.
+//
+// Apps com máquina de estados (PresenceStateMachine) enviam report: false nos
+// scans comuns (só avaliação, sem escrita nem repasse ao cluster) e report:
+// true com o estado ("state") apenas nas transições e no heartbeat. O estado
+// declarado é conferido com a avaliação do próprio scan: contrário a ela, só
+// é gravado para manter o estado já registrado (nunca para entrar na sala).
+
+const { runPrediction } = require('../utils/inference');
+const presenceCache = require('../utils/presenceCache');
+const anchorFilter = require('../utils/anchorFilter');
+const cascade = require('../utils/cascade');
+const { ServiceError } = require('./errors');
+const { AdmissionError, RateLimiter, shedIfPoolBusy } = require('../utils/admission');
+
+// O app envia um scan a cada 10s (PresenceService e ChatActivity juntos: 12/min)
+const presenceLimiter = new RateLimiter({
+    name: 'presence',
+    capacity: parseInt(process.env.PRESENCE_BURST, 10) || 6,
+    perMinute: parseInt(process.env.PRESENCE_RATE_PER_MIN, 10) || 15
+});
+
+// Modo multi-sala: salas avaliadas por scan (consome um único token do limite)
+const MAX_ROOMS_PER_SCAN = parseInt(process.env.PRESENCE_MAX_ROOMS_PER_SCAN, 10) || 20;
+
+// Conexões do pool esperando: acima disso a presença não entra na fila do banco
+const PRESENCE_MAX_POOL_WAITING = parseInt(process.env.PRESENCE_MAX_POOL_WAITING, 10) || 5;
+
+// Estado declarado contrário à avaliação do scan: aceito (histerese do app)
+// só se o modelo decidiu com confiança abaixo disso, sem o pré-filtro, e se
+// o estado declarado é o já gravado. O app pode manter o estado, nunca
+// promover OUTSIDE a INSIDE (o envio de mensagens depende desse registro)
+const STATE_OVERRIDE_MAX_CONFIDENCE = parseFloat(process.env.PRESENCE_STATE_OVERRIDE_MAX_CONFIDENCE) || 0.5;
+
+// Multi-sala: sala INSIDE sem transição só é regravada quando o last_seen_at
+// gravado tem essa idade (abaixo da janela de presença de 60s, como o
+// heartbeat do app)
+const PRESENCE_REFRESH_MS = presenceCache.PRESENCE_WINDOW_MS * 3 / 4;
+
+const STATES = ['inside', 'outside'];
+
+function rejected(error) {
+    const message = error.reason === 'rate_limited'
+        ? 'Muitas atualizações de presença, aguarde'
+        : 'Servidor ocupado, tente novamente em instantes';
+    return ServiceError.tooManyRequests(message, error.retryAfterMs);
+}
+
+/**
+ * Avaliar um scan Wi-Fi e registrar a presença do usuário.
+ *
+ * @param {object} params - { userId, roomId (room_xxx), wifiScanResults, source,
+ *                           report: false = só avaliar (padrão true),
+ *                           state: estado do app a registrar ("inside"/"outside") }
+ * @returns {Promise<object>} corpo da resposta: { success, inside, confidence, room_id, recorded, ... }
+ *          Com state, inside é o estado gravado e evaluation traz a avaliação do scan
+ * @throws {ServiceError} dados inválidos, sala inexistente/sem modelo ou erro na inferência
+ */
+async function evaluatePresence(pool, { userId, roomId, wifiScanResults, source = 'presence', report = true, state }) {
+    if (!roomId || !wifiScanResults) {
+        throw new ServiceError(400, 'room_id e wifi_scan_results são obrigatórios');
+    }
+    if (state !== undefined && state !== null && !STATES.includes(state)) {
+        throw new ServiceError(400, 'state deve ser "inside" ou "outside"');
+    }
+
+    try {
+        presenceLimiter.take(`${userId}:${roomId}`);
+        shedIfPoolBusy(pool, 'presence', PRESENCE_MAX_POOL_WAITING);
+    } catch (error) {
+        throw error instanceof AdmissionError ? rejected(error) : error;
+    }
+
+    // Buscar sala pelo room_id
+    const roomResult = await pool.query(
+        'SELECT id, wifi_ssid, model_trained FROM rooms WHERE room_id = $1',
+        [roomId]
+    );
+
+    if (roomResult.rows.length === 0) {
+        throw new ServiceError(404, 'Sala não encontrada');
+    }
+
+    const room = roomResult.rows[0];
+
+    if (!room.model_trained) {
+        throw new ServiceError(400, 'Modelo não treinado para esta sala');
+    }
+
+    // Pré-filtro: sem as âncoras da sala no scan, OUTSIDE sem rodar o modelo
+    const prefilter = await anchorFilter.check(room.wifi_ssid, wifiScanResults);
+    const prediction = prefilter && prefilter.outside
+        ? {
+            inside: false,
+            // Nenhuma âncora visível = certeza máxima
+            confidence: 1 - prefilter.matches / prefilter.minOverlap,
+            prefiltered: true,
+            anchor_matches: prefilter.matches
+        }
+        : await predictCascade(room, wifiScanResults, source);
+
+    const response = {
+        success: true,
+        inside: prediction.inside,
+        confidence: prediction.confidence,
+        room_id: roomId,
+        reconstruction_error: prediction.reconstruction_error,
+        threshold: prediction.threshold,
+        recorded: report !== false
+    };
+    if (prediction.prefiltered) {
+        response.prefiltered = true;
+        response.anchor_matches = prediction.anchor_matches;
+    }
+    if (prediction.cascade) {
+        response.cascade = true;
+        response.cascade_score = prediction.cascade_score;
+    }
+
+    // Só avaliação: nada no banco nem no cache
+    if (report === false) {
+        return response;
+    }
+
+    let isInside = prediction.inside;
+    const confidence = prediction.confidence;
+
+    if (state) {
+        const claimedInside = state === 'inside';
+        const accepted = claimedInside === prediction.inside
+            || (!prediction.prefiltered && confidence < STATE_OVERRIDE_MAX_CONFIDENCE
+                && claimedInside === await presenceCache.isPresent(pool, userId, room.id));
+        if (accepted) {
+            isInside = claimedInside;
+        }
+        response.evaluation = { inside: prediction.inside, confidence };
+        response.inside = isInside;
+        response.state_accepted = accepted;
+    }
+
+    // Atualizar tabela de presença
+    await pool.query(`
+        INSERT INTO presence (user_id, room_id, is_present, confidence, last_seen_at)
+        VALUES ($1, $2, $3, $4, NOW())
+        ON CONFLICT (user_id, room_id)
+        DO UPDATE SET
+            is_present = $3,
+            confidence = $4,
+            last_seen_at = NOW()
+    `, [userId, room.id, isInside, confidence]);
+
+    // Manter o cache do envio de mensagens em dia com o banco
+    presenceCache.set(userId, room.id, isInside, confidence);
+
+    console.log(`[PRESENCE] User ${userId} em sala ${roomId}: ${isInside ? 'INSIDE' : 'OUTSIDE'} (conf: ${confidence})` +
+        (state ? ` [estado do app: ${state}${response.state_accepted ? '' : ', recusado'}]` : ''));
+
+    return response;
+}
+
+/**
+ * Primeiro estágio da cascata; autoencoder só se ele não decidir
+ */
+async function predictCascade(room, wifiScanResults, source) {
+    const stage = await cascade.check(room.wifi_ssid, wifiScanResults);
+    if (stage && stage.decided) {
+        return {
+            inside: stage.inside,
+            confidence: Math.round(stage.confidence * 10000) / 10000,
+            cascade: true,
+            cascade_score: stage.score
+        };
+    }
+    return predict(room, wifiScanResults, source);
+}
+
+/**
+ * Inferência no autoencoder da sala (processo Python)
+ *
+ * @throws {ServiceError} fila cheia (429) ou erro na inferência
+ */
+async function predict(room, wifiScanResults, source) {
+    let inference;
+    try {
+        inference = await runPrediction({
+            room_label: room.wifi_ssid,
+            wifi_scan_results: wifiScanResults
+        }, source);
+    } catch (error) {
+        throw error instanceof AdmissionError ? rejected(error) : error;
+    }
+    const { code, result: prediction, stdout, stderr } = inference;
+
+    if (code !== 0) {
+        console.error('[PRESENCE] Erro no Python:', stderr);
+        throw new ServiceError(500, 'Erro na inferência do modelo', stderr);
+    }
+
+    if (!prediction) {
+        console.error('[PRESENCE] Erro ao processar resultado:', stdout);
+        throw new ServiceError(500, 'Erro ao processar resultado da inferência', stdout);
+    }
+
+    if (!prediction.success) {
+        throw new ServiceError(500, prediction.error || 'Erro desconhecido na predição');
+    }
+
+    return prediction;
+}
+
+/**
+ * Avaliar um scan em todas as salas assinadas (aprovadas, com modelo).
+ *
+ * @param {object} params - { userId, roomIds: restringir a estas salas (opcional),
+ *                           wifiScanResults, source }
+ * @returns {Promise<object>} { success, evaluated, inside: [room_id], changes:
+ *          [{ room_id, inside, confidence }] } - changes só com as transições
+ *          em relação à última avaliação conhecida. Só as transições e as
+ *          renovações de last_seen_at (PRESENCE_REFRESH_MS) são gravadas
+ * @throws {ServiceError}
+ */
+async function evaluatePresenceAll(pool, { userId, roomIds, wifiScanResults, source = 'presence_all' }) {
+    if (!Array.isArray(wifiScanResults)) {
+        throw new ServiceError(400, 'wifi_scan_results é obrigatório');
+    }
+    if (roomIds !== undefined && !Array.isArray(roomIds)) {
+        throw new ServiceError(400, 'room_ids deve ser uma lista');
+    }
+
+    try {
+        presenceLimiter.take(`${userId}:*`);
+        shedIfPoolBusy(pool, 'presence', PRESENCE_MAX_POOL_WAITING);
+    } catch (error) {
+        throw error instanceof AdmissionError ? rejected(error) : error;
+    }
+
+    // Só assinaturas aprovadas: room_ids de fora delas são ignorados
+    const params = [userId, MAX_ROOMS_PER_SCAN];
+    let roomFilter = '';
+    if (roomIds) {
+        params.push(roomIds.map(String));
+        roomFilter = 'AND r.room_id = ANY($3)';
+    }
+    const roomsResult = await pool.query(`
+        SELECT r.id, r.room_id, r.wifi_ssid
+        FROM subscriptions s
+        JOIN rooms r ON s.room_id = r.id
+        WHERE s.user_id = $1
+          AND s.status = 'approved'
+          AND s.is_blocked = FALSE
+          AND r.model_trained = TRUE
+          ${roomFilter}
+        ORDER BY s.subscribed_at DESC
+        LIMIT $2
+    `, params);
+
+    const rooms = roomsResult.rows;
+    if (rooms.length === 0) {
+        return { success: true, evaluated: 0, inside: [], changes: [] };
+    }
+
+    // Pré-filtro e primeiro estágio por sala; os ambíguos vão juntos para o Python
+    const predictions = new Map();
+    const toPredict = [];
+    for (const room of rooms) {
+        const prefilter = await anchorFilter.check(room.wifi_ssid, wifiScanResults);
+        if (prefilter && prefilter.outside) {
+            predictions.set(room.id, {
+                inside: false,
+                confidence: 1 - prefilter.matches / prefilter.minOverlap,
+                prefiltered: true
+            });
+            continue;
+        }
+        const stage = await cascade.check(room.wifi_ssid, wifiScanResults);
+        if (stage && stage.decided) {
+            predictions.set(room.id, {
+                inside: stage.inside,
+                confidence: Math.round(stage.confidence * 10000) / 10000,
+                cascade: true
+            });
+        } else {
+            toPredict.push(room);
+        }
+    }
+
+    if (toPredict.length > 0) {
+        const results = await predictMany(toPredict, wifiScanResults, source);
+        for (const room of toPredict) {
+            const result = results[room.wifi_ssid];
+            if (result && result.success) {
+                predictions.set(room.id, result);
+            } else {
+                console.error(`[PRESENCE] Falha no modelo de ${room.room_id}:`, result && result.error);
+            }
+        }
+    }
+
+    const evaluated = rooms.filter((room) => predictions.has(room.id));
+    if (evaluated.length === 0) {
+        throw new ServiceError(500, 'Erro na inferência dos modelos');
+    }
+
+    // Só grava as transições e as salas INSIDE cujo last_seen_at sairia da
+    // janela; as demais continuam valendo no banco (e no cache, com o
+    // lastSeenAt gravado). OUTSIDE sem transição não precisa ser renovado
+    const now = Date.now();
+    const toWrite = evaluated.filter((room) => {
+        const previous = presenceCache.get(userId, room.id);
+        const isInside = predictions.get(room.id).inside;
+        return !previous
+            || previous.isPresent !== isInside
+            || (isInside && now - previous.lastSeenAt >= PRESENCE_REFRESH_MS);
+    });
+
+    if (toWrite.length > 0) {
+        await upsertMany(pool, userId, toWrite, predictions);
+    }
+
+    const inside = [];
+    const changes = [];
+    for (const room of evaluated) {
+        const { inside: isInside, confidence } = predictions.get(room.id);
+        const previous = presenceCache.get(userId, room.id);
+        if (isInside) {
+            inside.push(room.room_id);
+        }
+        if (!toWrite.includes(room)) {
+            continue;
+        }
+        presenceCache.set(userId, room.id, isInside, confidence);
+        if (!previous || previous.isPresent !== isInside) {
+            changes.push({ room_id: room.room_id, inside: isInside, confidence });
+            console.log(`[PRESENCE] User ${userId} em sala ${room.room_id}: ${isInside ? 'INSIDE' : 'OUTSIDE'} (conf: ${confidence})`);
+        }
+    }
+
+    return {
+        success: true,
+        evaluated: evaluated.length,
+        inside,
+        changes
+    };
+}
+
+/**
+ * Um único upsert para as salas a gravar
+ */
+async function upsertMany(pool, userId, rooms, predictions) {
+    await pool.query(`
+        INSERT INTO presence (user_id, room_id, is_present, confidence, last_seen_at)
+        SELECT $1, t.room_id, t.is_present, t.confidence, NOW()
+        FROM unnest($2::int[], $3::boolean[], $4::float8[]) AS t(room_id, is_present, confidence)
+        ON CONFLICT (user_id, room_id)
+        DO UPDATE SET
+            is_present = EXCLUDED.is_present,
+            confidence = EXCLUDED.confidence,
+            last_seen_at = NOW()
+    `, [
+        userId,
+        rooms.map((room) => room.id),
+        rooms.map((room) => predictions.get(room.id).inside),
+        rooms.map((room) => predictions.get(room.id).confidence)
+    ]);
+}
+
+/**
+ * Inferência multi-sala: um processo Python, uma vaga no limite de inferências
+ *
+ * @returns {Promise<object>} resultados por wifi_ssid (room_label)
+ */
+async function predictMany(rooms, wifiScanResults, source) {
+    let inference;
+    try {
+        inference = await runPrediction({
+            room_labels: rooms.map((room) => room.wifi_ssid),
+            wifi_scan_results: wifiScanResults
+        }, source);
+    } catch (error) {
+        throw error instanceof AdmissionError ? rejected(error) : error;
+    }
+    const { code, result, stdout, stderr } = inference;
+
+    if (code !== 0 || !result || !result.success) {
+        console.error('[PRESENCE] Erro no Python (multi-sala):', stderr || stdout);
+        throw new ServiceError(500, (result && result.error) || 'Erro na inferência do modelo', stderr);
+    }
+
+    return result.results || {};
+}
+
+module.exports = {
+    evaluatePresence,
+    evaluatePresenceAll
+};
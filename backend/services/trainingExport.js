@@ -0,0 +1,326 @@
+// Exportação em streaming das amostras de treinamento de uma sala
+//
+// As linhas saem de um cursor do PostgreSQL (DECLARE ... / FETCH em lotes)
+// direto para a resposta HTTP (chunked): nem o backend nem o cliente
+// precisam ter a sala inteira em memória. Se o cliente lê devagar, o
+// próximo FETCH espera o 'drain' da resposta.
+//
+// Formatos (?format=):
+//   json    - { success, room_label, data: [...], bssids: {...}, total_samples,
+//               last_scan_timestamp, last_id }
+//             (mesmo conteúdo da rota antiga; o restante vem depois de data)
+//   ndjson  - um objeto por linha:
+//               {"type":"header","room_label","since","after_id"}
+//               {"type":"bssids","bssids":{id:{bssid,ssid}}}   (ids novos, antes do primeiro uso)
+//               {"type":"sample","id","scan_timestamp","device_id","bssid_ids","rssi","heuristics"}
+//               {"type":"end","total_samples","last_scan_timestamp","last_id"}
+//             Sem a linha "end" a exportação foi interrompida.
+//   binary  - registros little-endian após o cabeçalho "GPTD" + versão (u8 = 1):
+//               0x01 BSSID:   u32 id, u8 len, bssid, u8 len, ssid
+//               0x02 amostra: u32 id, f64 scan_timestamp (ms), u8 len, device_id,
+//                             u16 n, n x (u32 bssid_id, i16 rssi), u32 len, heuristics (JSON)
+//               0x03 fim:     u32 total, u32 last_id, u8 len, last_scan_timestamp
+//
+// Exportação incremental: repetir com since=<last_scan_timestamp> e
+// after_id=<last_id> do registro de fim; as amostras seguem a ordem
+// (scan_timestamp, id) e o filtro é estritamente posterior a esse par.
+// last_scan_timestamp vai como texto com microssegundos (a coluna tem essa
+// precisão; um Date em ms repetiria a última amostra na próxima exportação).
+
+const { ServiceError } = require('./errors');
+
+const FETCH_SIZE = 500;
+const FORMATS = ['json', 'ndjson', 'binary'];
+const CONTENT_TYPES = {
+    json: 'application/json; charset=utf-8',
+    ndjson: 'application/x-ndjson; charset=utf-8',
+    binary: 'application/octet-stream'
+};
+
+const ISO_TIMESTAMP = /^\d{4}-\d{2}-\d{2}([T ]\d{2}:\d{2}(:\d{2}(\.\d{1,6})?)?)?(Z|[+-]\d{2}:?\d{2})?$/;
+
+const BINARY_MAGIC = Buffer.from('GPTD');
+const BINARY_VERSION = 1;
+const RECORD_BSSID = 0x01;
+const RECORD_SAMPLE = 0x02;
+const RECORD_END = 0x03;
+
+/**
+ * Validar os parâmetros da query string (antes de abrir o cursor)
+ *
+ * @returns {{format: string, since: string|null, afterId: number|null}}
+ */
+function parseOptions(query) {
+    const format = query.format || 'json';
+    if (!FORMATS.includes(format)) {
+        throw new ServiceError(400, `format deve ser um de: ${FORMATS.join(', ')}`);
+    }
+
+    let since = null;
+    if (query.since !== undefined) {
+        since = String(query.since);
+        if (!ISO_TIMESTAMP.test(since) || Number.isNaN(Date.parse(since))) {
+            throw new ServiceError(400, 'since deve ser uma data ISO 8601 (ex: last_scan_timestamp)');
+        }
+    }
+
+    let afterId = null;
+    if (query.after_id !== undefined) {
+        if (since === null) {
+            throw new ServiceError(400, 'after_id exige since');
+        }
+        afterId = parseInt(query.after_id, 10);
+        if (!Number.isInteger(afterId) || afterId < 0) {
+            throw new ServiceError(400, 'after_id inválido');
+        }
+    }
+
+    return { format, since, afterId };
+}
+
+// --------------------------------------------------------------------------------
+// Codificadores
+// --------------------------------------------------------------------------------
+
+function createJsonEncoder(roomLabel) {
+    const dictionary = {};
+    let first = true;
+    return {
+        header: () => `{"success":true,"room_label":${JSON.stringify(roomLabel)},"data":[`,
+        bssids: (entries) => {
+            for (const row of entries) {
+                dictionary[row.id] = { bssid: row.bssid, ssid: row.ssid };
+            }
+            return null;
+        },
+        samples: (rows) => {
+            const parts = rows.map((row) => JSON.stringify(row));
+            const chunk = (first ? '' : ',') + parts.join(',');
+            first = false;
+            return chunk;
+        },
+        end: (total, last) => `],"bssids":${JSON.stringify(dictionary)},"total_samples":${total}`
+            + `,"last_scan_timestamp":${JSON.stringify(last ? last.cursor : null)}`
+            + `,"last_id":${last ? last.id : null}}`
+    };
+}
+
+function createNdjsonEncoder(roomLabel, { since, afterId }) {
+    return {
+        header: () => JSON.stringify({
+            type: 'header',
+            room_label: roomLabel,
+            since,
+            after_id: afterId
+        }) + '\n',
+        bssids: (entries) => {
+            const bssids = {};
+            for (const row of entries) {
+                bssids[row.id] = { bssid: row.bssid, ssid: row.ssid };
+            }
+            return JSON.stringify({ type: 'bssids', bssids }) + '\n';
+        },
+        samples: (rows) => rows
+            .map((row) => JSON.stringify({ type: 'sample', ...row }) + '\n')
+            .join(''),
+        end: (total, last) => JSON.stringify({
+            type: 'end',
+            total_samples: total,
+            last_scan_timestamp: last ? last.cursor : null,
+            last_id: last ? last.id : null
+        }) + '\n'
+    };
+}
+
+function shortString(value, maxBytes) {
+    const bytes = Buffer.from(value || '', 'utf8');
+    return bytes.length > maxBytes ? bytes.subarray(0, maxBytes) : bytes;
+}
+
+function createBinaryEncoder() {
+    return {
+        header: () => Buffer.concat([BINARY_MAGIC, Buffer.from([BINARY_VERSION])]),
+        bssids: (entries) => Buffer.concat(entries.map((row) => {
+            const bssid = shortString(row.bssid, 255);
+            const ssid = shortString(row.ssid, 255);
+            const buffer = Buffer.alloc(1 + 4 + 1 + bssid.length + 1 + ssid.length);
+            let offset = buffer.writeUInt8(RECORD_BSSID, 0);
+            offset = buffer.writeUInt32LE(row.id, offset);
+            offset = buffer.writeUInt8(bssid.length, offset);
+            offset += bssid.copy(buffer, offset);
+            offset = buffer.writeUInt8(ssid.length, offset);
+            ssid.copy(buffer, offset);
+            return buffer;
+        })),
+        samples: (rows) => Buffer.concat(rows.map((row) => {
+            const device = shortString(row.device_id, 255);
+            const heuristics = row.heuristics ? Buffer.from(JSON.stringify(row.heuristics), 'utf8') : Buffer.alloc(0);
+            const count = Math.min(row.bssid_ids.length, 0xffff);
+            const buffer = Buffer.alloc(1 + 4 + 8 + 1 + device.length + 2 + count * 6 + 4 + heuristics.length);
+            let offset = buffer.writeUInt8(RECORD_SAMPLE, 0);
+            offset = buffer.writeUInt32LE(row.id, offset);
+            offset = buffer.writeDoubleLE(new Date(row.scan_timestamp).getTime(), offset);
+            offset = buffer.writeUInt8(device.length, offset);
+            offset += device.copy(buffer, offset);
+            offset = buffer.writeUInt16LE(count, offset);
+            for (let i = 0; i < count; i++) {
+                offset = buffer.writeUInt32LE(row.bssid_ids[i], offset);
+                offset = buffer.writeInt16LE(row.rssi[i], offset);
+            }
+            offset = buffer.writeUInt32LE(heuristics.length, offset);
+            heuristics.copy(buffer, offset);
+            return buffer;
+        })),
+        end: (total, last) => {
+            const cursor = shortString(last ? last.cursor : '', 255);
+            const buffer = Buffer.alloc(1 + 4 + 4 + 1 + cursor.length);
+            let offset = buffer.writeUInt8(RECORD_END, 0);
+            offset = buffer.writeUInt32LE(total, offset);
+            offset = buffer.writeUInt32LE(last ? last.id : 0, offset);
+            offset = buffer.writeUInt8(cursor.length, offset);
+            cursor.copy(buffer, offset);
+            return buffer;
+        }
+    };
+}
+
+function createEncoder(roomLabel, options) {
+    switch (options.format) {
+        case 'ndjson': return createNdjsonEncoder(roomLabel, options);
+        case 'binary': return createBinaryEncoder();
+        default: return createJsonEncoder(roomLabel);
+    }
+}
+
+// --------------------------------------------------------------------------------
+// Streaming
+// --------------------------------------------------------------------------------
+
+/**
+ * Escrever respeitando o backpressure da resposta
+ *
+ * @returns {Promise<boolean>} false se o cliente desconectou
+ */
+function write(res, chunk) {
+    if (res.destroyed) {
+        return Promise.resolve(false);
+    }
+    if (chunk === null || chunk.length === 0 || res.write(chunk)) {
+        return Promise.resolve(true);
+    }
+    return new Promise((resolve) => {
+        const onDrain = () => { cleanup(); resolve(true); };
+        const onClose = () => { cleanup(); resolve(false); };
+        const cleanup = () => {
+            res.off('drain', onDrain);
+            res.off('close', onClose);
+        };
+        res.on('drain', onDrain);
+        res.on('close', onClose);
+    });
+}
+
+/**
+ * Enviar as amostras de "roomLabel" em "res" no formato pedido
+ *
+ * Erros de validação são lançados antes de qualquer escrita (ServiceError).
+ * Depois que o streaming começou, um erro encerra a conexão sem o registro
+ * de fim, para o cliente não confundir a exportação parcial com a completa.
+ */
+async function streamTrainingData(pool, res, roomLabel, query) {
+    const options = parseOptions(query);
+    const encoder = createEncoder(roomLabel, options);
+
+    const conditions = ['room_label = $1'];
+    const params = [roomLabel];
+    if (options.since && options.afterId !== null) {
+        params.push(options.since, options.afterId);
+        conditions.push('(scan_timestamp, id) > ($2::timestamp, $3)');
+    } else if (options.since) {
+        params.push(options.since);
+        conditions.push('scan_timestamp > $2::timestamp');
+    }
+
+    const client = await pool.connect();
+    let releaseError;
+    try {
+        // Cursor só existe dentro de transação; READ ONLY + REPEATABLE READ
+        // dão um snapshot consistente da sala durante toda a exportação
+        await client.query('BEGIN ISOLATION LEVEL REPEATABLE READ READ ONLY');
+        await client.query(`
+            DECLARE training_export NO SCROLL CURSOR FOR
+            SELECT id, room_label, scan_timestamp, device_id, bssid_ids, rssi, heuristics,
+                   to_char(scan_timestamp, 'YYYY-MM-DD"T"HH24:MI:SS.US') AS export_cursor
+            FROM wifi_training_data
+            WHERE ${conditions.join(' AND ')}
+            ORDER BY scan_timestamp ASC, id ASC
+        `, params);
+
+        res.status(200);
+        res.setHeader('Content-Type', CONTENT_TYPES[options.format]);
+        res.setHeader('Cache-Control', 'no-store');
+
+        const sentBssids = new Set();
+        let total = 0;
+        let last = null;
+        let connected = await write(res, encoder.header());
+
+        while (connected) {
+            const batch = await client.query(`FETCH ${FETCH_SIZE} FROM training_export`);
+            if (batch.rows.length === 0) {
+                break;
+            }
+
+            const tail = batch.rows[batch.rows.length - 1];
+            last = { id: tail.id, cursor: tail.export_cursor };
+            for (const row of batch.rows) {
+                delete row.export_cursor;
+            }
+
+            // Dicionário sob demanda: só os ids que ainda não foram enviados
+            const newIds = [];
+            for (const row of batch.rows) {
+                for (const id of row.bssid_ids) {
+                    if (!sentBssids.has(id)) {
+                        sentBssids.add(id);
+                        newIds.push(id);
+                    }
+                }
+            }
+            if (newIds.length > 0) {
+                const dictionary = await client.query(
+                    'SELECT id, bssid, ssid FROM bssids WHERE id = ANY($1::int[])',
+                    [newIds]
+                );
+                connected = await write(res, encoder.bssids(dictionary.rows));
+            }
+
+            connected = connected && await write(res, encoder.samples(batch.rows));
+            total += batch.rows.length;
+        }
+
+        await client.query('COMMIT');
+
+        if (connected) {
+            res.end(encoder.end(total, last));
+            console.log(`[EXPORT] Sala: ${roomLabel} | Formato: ${options.format} | Amostras: ${total}`);
+        } else {
+            console.log(`[EXPORT] Cliente desconectou durante a exportação de ${roomLabel} (${total} amostras enviadas)`);
+        }
+    } catch (error) {
+        releaseError = error;
+        await client.query('ROLLBACK').catch(() => {});
+        if (!res.headersSent) {
+            throw error;
+        }
+        console.error(`[EXPORT] Erro durante a exportação de ${roomLabel}:`, error.message);
+        res.destroy(error);
+    } finally {
+        client.release(releaseError);
+    }
+}
+
+module.exports = {
+    streamTrainingData,
+    parseOptions
+};
@@ -0,0 +1,171 @@
+// Controle de admissão para presença e inferência
+//
+// - RateLimiter: token bucket por chave (ex: usuário + sala). Cada chamada
+//   consome um token; os tokens voltam a uma taxa fixa até a capacidade.
+// - Semaphore: limite global de inferências simultâneas (cada uma é um
+//   processo Python), com fila limitada em tamanho e em tempo de espera.
+//
+// Recusas viram AdmissionError com retryAfterMs; os serviços convertem em
+// 429. Mensagens e autenticação não passam por aqui: sob carga só a
+// presença é descartada.
+
+const LruCache = require('./lruCache');
+const metrics = require('./metrics');
+
+const admissionRejections = metrics.counter(
+    'admission_rejections_total',
+    'Requisições recusadas pelo controle de admissão',
+    ['limiter', 'reason']
+);
+
+const semaphoreState = metrics.gauge(
+    'admission_semaphore',
+    'Ocupação dos semáforos de admissão',
+    ['limiter', 'state']
+);
+
+class AdmissionError extends Error {
+    /**
+     * @param {string} reason - 'rate_limited', 'queue_full', 'queue_timeout' ou 'db_busy'
+     * @param {number} retryAfterMs - quando o cliente deve tentar de novo
+     */
+    constructor(reason, retryAfterMs) {
+        super(`Requisição recusada (${reason})`);
+        this.reason = reason;
+        this.retryAfterMs = Math.max(1000, Math.ceil(retryAfterMs));
+    }
+}
+
+class RateLimiter {
+    /**
+     * @param {object} options - { name, capacity: rajada máxima, perMinute: reposição }
+     */
+    constructor({ name, capacity, perMinute }) {
+        this.name = name;
+        this.capacity = capacity;
+        this.refillPerMs = perMinute / 60000;
+        // Balde cheio depois de capacity / taxa: entrada expirada = balde cheio
+        this.buckets = new LruCache({
+            max: 100000,
+            ttlMs: Math.ceil(capacity / this.refillPerMs)
+        });
+    }
+
+    /**
+     * Consumir um token da chave
+     *
+     * @throws {AdmissionError} sem tokens disponíveis
+     */
+    take(key) {
+        const now = Date.now();
+        const bucket = this.buckets.get(key) || { tokens: this.capacity, updatedAt: now };
+
+        const tokens = Math.min(this.capacity, bucket.tokens + (now - bucket.updatedAt) * this.refillPerMs);
+        if (tokens < 1) {
+            this.buckets.set(key, { tokens, updatedAt: now });
+            admissionRejections.inc({ limiter: this.name, reason: 'rate_limited' });
+            throw new AdmissionError('rate_limited', (1 - tokens) / this.refillPerMs);
+        }
+
+        this.buckets.set(key, { tokens: tokens - 1, updatedAt: now });
+    }
+}
+
+class Semaphore {
+    /**
+     * @param {object} options - { name, limit: execuções simultâneas,
+     *                             maxQueue: espera máxima em fila, maxWaitMs: tempo máximo na fila }
+     */
+    constructor({ name, limit, maxQueue, maxWaitMs }) {
+        this.name = name;
+        this.limit = limit;
+        this.maxQueue = maxQueue;
+        this.maxWaitMs = maxWaitMs;
+        this.active = 0;
+        this.queue = [];
+        // Média móvel da duração de cada execução (estimativa do Retry-After)
+        this.avgHoldMs = 1000;
+
+        metrics.addCollector(() => {
+            semaphoreState.set({ limiter: name, state: 'active' }, this.active);
+            semaphoreState.set({ limiter: name, state: 'queued' }, this.queue.length);
+        });
+    }
+
+    estimateWaitMs() {
+        return this.avgHoldMs * (this.queue.length + 1) / this.limit;
+    }
+
+    /**
+     * Executar fn ocupando uma vaga. Fila cheia: recusa imediata.
+     *
+     * @throws {AdmissionError} fila cheia ou tempo de espera esgotado
+     */
+    async run(fn) {
+        await this.acquire();
+        const start = Date.now();
+        try {
+            return await fn();
+        } finally {
+            this.avgHoldMs = this.avgHoldMs * 0.8 + (Date.now() - start) * 0.2;
+            this.release();
+        }
+    }
+
+    acquire() {
+        if (this.active < this.limit) {
+            this.active++;
+            return Promise.resolve();
+        }
+
+        // Recusa rápida: não adianta esperar se a fila não anda a tempo
+        if (this.queue.length >= this.maxQueue || this.estimateWaitMs() > this.maxWaitMs) {
+            admissionRejections.inc({ limiter: this.name, reason: 'queue_full' });
+            return Promise.reject(new AdmissionError('queue_full', this.estimateWaitMs()));
+        }
+
+        return new Promise((resolve, reject) => {
+            const waiter = { resolve, reject, timer: null };
+            waiter.timer = setTimeout(() => {
+                const index = this.queue.indexOf(waiter);
+                if (index >= 0) {
+                    this.queue.splice(index, 1);
+                }
+                admissionRejections.inc({ limiter: this.name, reason: 'queue_timeout' });
+                reject(new AdmissionError('queue_timeout', this.estimateWaitMs()));
+            }, this.maxWaitMs);
+            this.queue.push(waiter);
+        });
+    }
+
+    release() {
+        const next = this.queue.shift();
+        if (next) {
+            // A vaga passa direto para o próximo da fila
+            clearTimeout(next.timer);
+            next.resolve();
+            return;
+        }
+        this.active--;
+    }
+}
+
+/**
+ * Recusar trabalho de baixa prioridade quando o pool do banco já tem fila:
+ * as conexões ficam para mensagens e login
+ *
+ * @throws {AdmissionError}
+ */
+function shedIfPoolBusy(pool, name, maxWaiting) {
+    if (pool.waitingCount > maxWaiting) {
+        admissionRejections.inc({ limiter: name, reason: 'db_busy' });
+        throw new AdmissionError('db_busy', 1000);
+    }
+}
+
+module.exports = {
+    AdmissionError,
+    RateLimiter,
+    Semaphore,
+    shedIfPoolBusy
+};
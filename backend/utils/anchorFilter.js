@@ -0,0 +1,96 @@
+// Pré-filtro de presença por BSSIDs âncora (ml/models/<sala>_anchors.json)
+//
+// O treinamento escolhe as redes mais frequentes e fortes da sala e o mínimo
+// de âncoras que as amostras de treino sempre veem. Um scan abaixo desse
+// mínimo é OUTSIDE sem spawn do Python. São no máximo algumas dezenas de
+// BSSIDs: um Set resolve em microssegundos (sem necessidade de Bloom filter).
+//
+// Modelos treinados antes do pré-filtro não têm o arquivo: o scan segue
+// direto para a inferência.
+
+const fs = require('fs');
+const path = require('path');
+const LruCache = require('./lruCache');
+const clusterBus = require('./clusterBus');
+const { ML_DIRECTORY } = require('./inference');
+const { presencePrefilter } = require('./metrics');
+
+const MODELS_DIR = path.join(ML_DIRECTORY, 'models');
+
+// TTL curto: cobre o retreino feito em outro worker sem depender do aviso
+const cache = new LruCache({ max: 1000, ttlMs: 60 * 1000 });
+
+/**
+ * Âncoras da sala: { anchors: Set<string>, list: string[], minOverlap } ou null
+ */
+async function load(roomLabel) {
+    const cached = cache.get(roomLabel);
+    if (cached !== undefined) {
+        return cached;
+    }
+
+    let filter = null;
+    try {
+        const file = path.join(MODELS_DIR, `${path.basename(roomLabel)}_anchors.json`);
+        const data = JSON.parse(await fs.promises.readFile(file, 'utf8'));
+        if (Array.isArray(data.anchors) && data.anchors.length > 0 && data.min_overlap > 0) {
+            filter = {
+                anchors: new Set(data.anchors.map((b) => b.toLowerCase())),
+                list: data.anchors,
+                minOverlap: data.min_overlap
+            };
+        }
+    } catch (error) {
+        if (error.code !== 'ENOENT') {
+            console.error(`[PREFILTER] Erro ao ler âncoras de ${roomLabel}:`, error.message);
+        }
+    }
+
+    cache.set(roomLabel, filter);
+    return filter;
+}
+
+/**
+ * Contar âncoras visíveis no scan
+ *
+ * @returns {Promise<{outside: boolean, matches: number, minOverlap: number}|null>}
+ *          null quando a sala não tem pré-filtro
+ */
+async function check(roomLabel, wifiScanResults) {
+    if (!Array.isArray(wifiScanResults)) {
+        return null;
+    }
+
+    const filter = await load(roomLabel);
+    if (!filter) {
+        presencePrefilter.inc({ result: 'no_anchors' });
+        return null;
+    }
+
+    let matches = 0;
+    for (const network of wifiScanResults) {
+        if (network && typeof network.bssid === 'string' && filter.anchors.has(network.bssid.toLowerCase())) {
+            matches++;
+        }
+    }
+
+    const outside = matches < filter.minOverlap;
+    presencePrefilter.inc({ result: outside ? 'outside' : 'pass' });
+    return { outside, matches, minOverlap: filter.minOverlap };
+}
+
+/**
+ * Descartar as âncoras em cache (novo treinamento da sala)
+ */
+function invalidate(roomLabel) {
+    cache.delete(roomLabel);
+    clusterBus.publish('anchors_changed', { roomLabel });
+}
+
+clusterBus.on('anchors_changed', ({ roomLabel }) => cache.delete(roomLabel));
+
+module.exports = {
+    load,
+    check,
+    invalidate
+};
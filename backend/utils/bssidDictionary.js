@@ -0,0 +1,93 @@
+// Dicionário global de BSSIDs (tabela bssids) e codificação dos fingerprints
+//
+// wifi_training_data guarda cada scan como dois arrays paralelos:
+// bssid_ids INT[] (ids nesta tabela) e rssi SMALLINT[]. Um BSSID recebe id
+// uma única vez e nunca muda, então o mapeamento BSSID -> id fica em cache.
+
+const LruCache = require('./lruCache');
+
+const cache = new LruCache({ max: 100000 });
+
+function normalize(bssid) {
+    return String(bssid).trim().toLowerCase();
+}
+
+/**
+ * ids dos BSSIDs, criando as entradas que ainda não existem
+ *
+ * @param {Map<string, string>} networks - BSSID normalizado -> SSID
+ * @returns {Promise<Map<string, number>>} BSSID normalizado -> id
+ */
+async function resolveIds(pool, networks) {
+    const ids = new Map();
+    const missing = [];
+
+    for (const bssid of networks.keys()) {
+        const id = cache.get(bssid);
+        if (id !== undefined) {
+            ids.set(bssid, id);
+        } else {
+            missing.push(bssid);
+        }
+    }
+
+    if (missing.length > 0) {
+        // Ordem fixa evita deadlock entre coletas simultâneas; DO UPDATE faz o
+        // RETURNING devolver também os BSSIDs que já existiam
+        missing.sort();
+        const result = await pool.query(`
+            INSERT INTO bssids (bssid, ssid)
+            SELECT * FROM unnest($1::text[], $2::text[])
+            ON CONFLICT (bssid) DO UPDATE SET ssid = COALESCE(bssids.ssid, EXCLUDED.ssid)
+            RETURNING id, bssid
+        `, [missing, missing.map((bssid) => networks.get(bssid) || null)]);
+
+        for (const row of result.rows) {
+            cache.set(row.bssid, row.id);
+            ids.set(row.bssid, row.id);
+        }
+    }
+
+    return ids;
+}
+
+/**
+ * Scan do app -> arrays da tabela wifi_training_data
+ * (BSSID repetido no mesmo scan: fica o sinal mais forte)
+ *
+ * @param {Array<{bssid, ssid, rssi}>} wifiScanResults
+ * @returns {Promise<{bssidIds: number[], rssi: number[]}>}
+ */
+async function encodeFingerprint(pool, wifiScanResults) {
+    const strongest = new Map();
+    const ssids = new Map();
+
+    for (const network of wifiScanResults) {
+        const value = Number(network.rssi);
+        if (!Number.isFinite(value)) {
+            continue;
+        }
+        const bssid = normalize(network.bssid);
+        const rssi = Math.max(-32768, Math.min(32767, Math.round(value)));
+        if (!strongest.has(bssid) || rssi > strongest.get(bssid)) {
+            strongest.set(bssid, rssi);
+        }
+        if (!ssids.get(bssid)) {
+            ssids.set(bssid, network.ssid ? String(network.ssid).slice(0, 64) : null);
+        }
+    }
+
+    const ids = await resolveIds(pool, ssids);
+    const bssidIds = [];
+    const rssi = [];
+    for (const [bssid, value] of strongest) {
+        bssidIds.push(ids.get(bssid));
+        rssi.push(value);
+    }
+    return { bssidIds, rssi };
+}
+
+module.exports = {
+    encodeFingerprint,
+    normalize
+};
@@ -0,0 +1,119 @@
+// Índice invertido BSSID -> salas treinadas (busca de "salas perto de mim")
+//
+// Montado a partir do vocabulário de cada modelo (ml/models/<sala>_bssids.json).
+// Um scan consulta só as listas dos BSSIDs que ele vê: o custo depende do
+// tamanho do scan e das salas que compartilham redes com ele, não do total
+// de salas. Cada BSSID pesa log(1 + N / salas_com_o_bssid): redes que
+// aparecem no prédio todo contam pouco, redes de uma sala só contam muito.
+
+const fs = require('fs');
+const path = require('path');
+const clusterBus = require('./clusterBus');
+const { ML_DIRECTORY } = require('./inference');
+
+const MODELS_DIR = path.join(ML_DIRECTORY, 'models');
+const VOCABULARY_SUFFIX = '_bssids.json';
+
+// Novas salas treinadas em outro worker entram no máximo depois disso
+const MAX_AGE_MS = 5 * 60 * 1000;
+
+let index = null;     // { postings: Map<bssid, string[]>, weights: Map<bssid, number>, builtAt }
+let building = null;  // Promise do build em andamento
+
+async function build() {
+    const files = (await fs.promises.readdir(MODELS_DIR).catch(() => []))
+        .filter((name) => name.endsWith(VOCABULARY_SUFFIX));
+
+    const postings = new Map();
+    for (const file of files) {
+        const roomLabel = file.slice(0, -VOCABULARY_SUFFIX.length);
+        try {
+            const bssids = JSON.parse(await fs.promises.readFile(path.join(MODELS_DIR, file), 'utf8'));
+            for (const bssid of new Set(bssids.map((b) => String(b).toLowerCase()))) {
+                if (!postings.has(bssid)) {
+                    postings.set(bssid, []);
+                }
+                postings.get(bssid).push(roomLabel);
+            }
+        } catch (error) {
+            console.error(`[NEARBY] Vocabulário inválido ${file}:`, error.message);
+        }
+    }
+
+    const weights = new Map();
+    for (const [bssid, rooms] of postings) {
+        weights.set(bssid, Math.log(1 + files.length / rooms.length));
+    }
+
+    console.log(`[NEARBY] Índice montado: ${files.length} salas, ${postings.size} BSSIDs`);
+    return { postings, weights, builtAt: Date.now() };
+}
+
+async function getIndex() {
+    if (index && Date.now() - index.builtAt < MAX_AGE_MS) {
+        return index;
+    }
+    if (!building) {
+        building = build()
+            .then((built) => {
+                index = built;
+                return built;
+            })
+            .finally(() => {
+                building = null;
+            });
+    }
+    // Índice antigo atende enquanto o novo é montado
+    return index || building;
+}
+
+/**
+ * Salas candidatas para um scan, ordenadas pela sobreposição ponderada
+ *
+ * @param {Array<{bssid}>} wifiScanResults
+ * @returns {Promise<Array<{roomLabel, score, matches}>>} score em [0, 1]: fração
+ *          do peso dos BSSIDs conhecidos do scan que a sala explica
+ */
+async function candidates(wifiScanResults, limit) {
+    const { postings, weights } = await getIndex();
+
+    const scores = new Map();
+    let scanWeight = 0;
+
+    for (const bssid of new Set(wifiScanResults.map((n) => String(n.bssid || '').toLowerCase()))) {
+        const rooms = postings.get(bssid);
+        if (!rooms) {
+            continue;
+        }
+        const weight = weights.get(bssid);
+        scanWeight += weight;
+        for (const roomLabel of rooms) {
+            const entry = scores.get(roomLabel) || { roomLabel, score: 0, matches: 0 };
+            entry.score += weight;
+            entry.matches++;
+            scores.set(roomLabel, entry);
+        }
+    }
+
+    return [...scores.values()]
+        .map((entry) => ({ ...entry, score: scanWeight > 0 ? entry.score / scanWeight : 0 }))
+        .sort((a, b) => b.score - a.score || b.matches - a.matches)
+        .slice(0, limit);
+}
+
+/**
+ * Remontar no próximo uso (sala treinada ou deletada)
+ */
+function invalidate() {
+    index = null;
+    clusterBus.publish('bssid_index_changed', {});
+}
+
+clusterBus.on('bssid_index_changed', () => {
+    index = null;
+});
+
+module.exports = {
+    candidates,
+    invalidate
+};
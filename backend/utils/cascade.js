@@ -0,0 +1,193 @@
+// Primeiro estágio da cascata de presença (ml/models/<sala>_cascade.json)
+//
+// Verossimilhança gaussiana por BSSID, calculada aqui mesmo (sem Python):
+// média, sobre o vocabulário da sala, de log p - z²/2 (z = desvios do RSSI
+// em relação à média do treino) para os BSSIDs vistos e log(1 - p) para os
+// não vistos. A gaussiana vai sem a constante de normalização, para que ver
+// um BSSID no RSSI típico valha log p e seja comparável a não vê-lo. O treinamento
+// calibra dois cortes nas amostras de treino:
+//   score >= inside_cut e núcleo da sala visto -> INSIDE sem autoencoder
+//   score <  outside_cut                       -> OUTSIDE sem autoencoder
+//   senão                                      -> ambíguo: autoencoder decide
+//
+// O treino só tem amostras de dentro: uma sala vizinha que compartilha os
+// BSSIDs pode passar do inside_cut. Por isso o INSIDE exige também ver pelo
+// menos core_min_matches BSSIDs do núcleo (core) a até core_max_z desvios do
+// RSSI do treino; cascatas sem núcleo (versão anterior, corte na mediana)
+// não decidem INSIDE.
+//
+// Modelos treinados antes da cascata não têm o arquivo: todo scan segue para
+// a inferência, como antes. presence_cascade_training_decided_ratio traz, por
+// sala, a fração do treino decidida como INSIDE, para comparar com a fração
+// decidida no tráfego real (presence_cascade_total).
+
+const fs = require('fs');
+const path = require('path');
+const LruCache = require('./lruCache');
+const clusterBus = require('./clusterBus');
+const { ML_DIRECTORY } = require('./inference');
+const { presenceCascade, presenceCascadeTrainingDecided } = require('./metrics');
+
+const MODELS_DIR = path.join(ML_DIRECTORY, 'models');
+
+// Mesmo TTL das âncoras: cobre o retreino feito em outro worker
+const cache = new LruCache({ max: 1000, ttlMs: 60 * 1000 });
+
+/**
+ * Modelo da sala pronto para avaliar ou null
+ */
+async function load(roomLabel) {
+    const cached = cache.get(roomLabel);
+    if (cached !== undefined) {
+        return cached;
+    }
+
+    let model = null;
+    try {
+        const file = path.join(MODELS_DIR, `${path.basename(roomLabel)}_cascade.json`);
+        const data = JSON.parse(await fs.promises.readFile(file, 'utf8'));
+        if (data.type === 'bssid_gaussian' && Array.isArray(data.bssids) && data.bssids.length > 0) {
+            const size = data.bssids.length;
+            const index = new Map();
+            const logSeen = new Float64Array(size);     // log p
+            const logUnseen = new Float64Array(size);   // log(1 - p)
+            let unseenTotal = 0;
+            for (let i = 0; i < size; i++) {
+                index.set(String(data.bssids[i]).toLowerCase(), i);
+                logSeen[i] = Math.log(data.presence[i]);
+                logUnseen[i] = Math.log(1 - data.presence[i]);
+                unseenTotal += logUnseen[i];
+            }
+            model = {
+                size,
+                index,
+                mean: Float64Array.from(data.mean),
+                std: Float64Array.from(data.std),
+                logSeen,
+                logUnseen,
+                unseenTotal,
+                insideCut: typeof data.inside_cut === 'number' && Array.isArray(data.core)
+                    ? data.inside_cut
+                    : null,
+                core: Array.isArray(data.core) ? Int32Array.from(data.core) : new Int32Array(0),
+                coreMaxZ: data.core_max_z,
+                coreMinMatches: data.core_min_matches,
+                outsideCut: data.outside_cut,
+                scale: data.scale || 1
+            };
+            if (typeof data.training_decided_fraction === 'number') {
+                presenceCascadeTrainingDecided.set({ room: roomLabel }, data.training_decided_fraction);
+            }
+        }
+    } catch (error) {
+        if (error.code !== 'ENOENT') {
+            console.error(`[CASCADE] Erro ao ler cascata de ${roomLabel}:`, error.message);
+        }
+    }
+
+    cache.set(roomLabel, model);
+    return model;
+}
+
+/**
+ * RSSI por índice do vocabulário da sala (BSSID repetido no scan: o mais forte)
+ */
+function readings(model, wifiScanResults) {
+    const strongest = new Map();
+    for (const network of wifiScanResults) {
+        if (!network || typeof network.bssid !== 'string') {
+            continue;
+        }
+        const i = model.index.get(network.bssid.toLowerCase());
+        const rssi = Number(network.rssi);
+        if (i === undefined || !Number.isFinite(rssi)) {
+            continue;
+        }
+        if (!strongest.has(i) || rssi > strongest.get(i)) {
+            strongest.set(i, rssi);
+        }
+    }
+    return strongest;
+}
+
+/**
+ * Score do scan (mesma fórmula de cascade_scores em ml/train_autoencoder.py)
+ */
+function score(model, strongest) {
+    // Parte "não vista" pré-somada: só os BSSIDs do scan trocam de termo
+    let total = model.unseenTotal;
+    for (const [i, rssi] of strongest) {
+        const z = (rssi - model.mean[i]) / model.std[i];
+        total += model.logSeen[i] - 0.5 * z * z - model.logUnseen[i];
+    }
+    return total / model.size;
+}
+
+/**
+ * BSSIDs do núcleo vistos perto do RSSI do treino
+ */
+function coreMatches(model, strongest) {
+    let matches = 0;
+    for (const i of model.core) {
+        const rssi = strongest.get(i);
+        if (rssi !== undefined && Math.abs(rssi - model.mean[i]) / model.std[i] <= model.coreMaxZ) {
+            matches++;
+        }
+    }
+    return matches;
+}
+
+/**
+ * Decidir o scan no primeiro estágio
+ *
+ * @returns {Promise<{decided: boolean, inside?: boolean, confidence?: number, score: number}|null>}
+ *          null quando a sala não tem cascata
+ */
+async function check(roomLabel, wifiScanResults) {
+    if (!Array.isArray(wifiScanResults)) {
+        return null;
+    }
+
+    const model = await load(roomLabel);
+    if (!model) {
+        presenceCascade.inc({ result: 'no_model' });
+        return null;
+    }
+
+    const strongest = readings(model, wifiScanResults);
+    const value = score(model, strongest);
+
+    // Confiança: 0.5 no corte, 1.0 a dois desvios (do treino) além dele
+    if (model.insideCut !== null && value >= model.insideCut
+        && coreMatches(model, strongest) >= model.coreMinMatches) {
+        presenceCascade.inc({ result: 'inside' });
+        const confidence = Math.min(1, 0.5 + (value - model.insideCut) / (4 * model.scale));
+        return { decided: true, inside: true, confidence, score: value };
+    }
+    if (value < model.outsideCut) {
+        presenceCascade.inc({ result: 'outside' });
+        const confidence = Math.min(1, 0.5 + (model.outsideCut - value) / (4 * model.scale));
+        return { decided: true, inside: false, confidence, score: value };
+    }
+
+    presenceCascade.inc({ result: 'ambiguous' });
+    return { decided: false, score: value };
+}
+
+/**
+ * Descartar a cascata em cache (novo treinamento da sala)
+ */
+function invalidate(roomLabel) {
+    cache.delete(roomLabel);
+    clusterBus.publish('cascade_changed', { roomLabel });
+}
+
+clusterBus.on('cascade_changed', ({ roomLabel }) => cache.delete(roomLabel));
+
+module.exports = {
+    load,
+    check,
+    score,
+    readings,
+    invalidate
+};
@@ -0,0 +1,126 @@
+// Avisos entre os processos do cluster (PostgreSQL LISTEN/NOTIFY)
+//
+// Com um único processo (npm start) publish() não faz nada. No modo cluster
+// (cluster.js) cada worker mantém uma conexão dedicada em LISTEN e os caches
+// em memória (presença, conversas, eventos de sala) se mantêm em dia pelos
+// avisos dos outros workers. O próprio worker ignora o que publicou: a
+// alteração local já foi feita antes do publish.
+//
+// O payload do NOTIFY tem limite de 8000 bytes: usar só para avisos pequenos.
+
+const { Client } = require('pg');
+
+const CHANNEL = 'geoping_bus';
+const RECONNECT_DELAY_MS = 2000;
+
+const handlers = new Map();
+let pool = null;
+let listener = null;
+let enabled = false;
+
+/**
+ * Ativar o barramento (modo cluster)
+ */
+function start(poolRef) {
+    pool = poolRef;
+    enabled = true;
+    connect(false);
+}
+
+function connect(isReconnect) {
+    // Mesma configuração do pool, fora dele: a conexão fica presa no LISTEN
+    const client = new Client(pool.options);
+    listener = client;
+
+    client.on('notification', (msg) => {
+        let notice;
+        try {
+            notice = JSON.parse(msg.payload);
+        } catch (e) {
+            return;
+        }
+        if (notice.pid !== process.pid) {
+            dispatch(notice.type, notice.payload);
+        }
+    });
+
+    client.on('error', (err) => {
+        console.error('[CLUSTER] Erro na conexão LISTEN:', err.message);
+        retry(client);
+    });
+    client.on('end', () => retry(client));
+
+    client.connect()
+        .then(() => client.query(`LISTEN ${CHANNEL}`))
+        .then(() => {
+            console.log(`[CLUSTER] Worker ${process.pid} escutando ${CHANNEL}`);
+            // Avisos perdidos enquanto estava desconectado: caches recomeçam do banco
+            if (isReconnect) {
+                dispatch('resync', {});
+            }
+        })
+        .catch((err) => {
+            console.error('[CLUSTER] Falha ao iniciar LISTEN:', err.message);
+            retry(client);
+        });
+}
+
+function retry(client) {
+    if (listener !== client) {
+        return; // Já substituída
+    }
+    listener = null;
+    client.removeAllListeners();
+    client.on('error', () => {});
+    client.end().catch(() => {});
+    setTimeout(() => connect(true), RECONNECT_DELAY_MS);
+}
+
+function dispatch(type, payload) {
+    const list = handlers.get(type);
+    if (!list) {
+        return;
+    }
+    for (const handler of list) {
+        try {
+            handler(payload);
+        } catch (err) {
+            console.error(`[CLUSTER] Erro ao tratar aviso ${type}:`, err);
+        }
+    }
+}
+
+/**
+ * Avisar os outros workers (sem efeito fora do modo cluster)
+ */
+function publish(type, payload) {
+    if (!enabled) {
+        return;
+    }
+    const message = JSON.stringify({ pid: process.pid, type, payload });
+    pool.query('SELECT pg_notify($1, $2)', [CHANNEL, message]).catch((err) => {
+        console.error(`[CLUSTER] Falha ao publicar ${type}:`, err.message);
+    });
+}
+
+/**
+ * Registrar tratamento de um tipo de aviso. 'resync' é disparado localmente
+ * depois de uma reconexão do LISTEN (avisos podem ter sido perdidos).
+ */
+function on(type, handler) {
+    if (!handlers.has(type)) {
+        handlers.set(type, []);
+    }
+    handlers.get(type).push(handler);
+}
+
+function isEnabled() {
+    return enabled;
+}
+
+module.exports = {
+    start,
+    publish,
+    on,
+    isEnabled
+};
@@ -0,0 +1,57 @@
+// Cache em memória das conversas (conversation_id UUID -> sala)
+//
+// A associação conversa/sala/criador não muda depois de criada, então a
+// entrada só precisa sair do cache quando a sala é deletada (em qualquer
+// worker, no modo cluster: aviso room_deleted do clusterBus).
+
+const LruCache = require('./lruCache');
+const { cacheRequests } = require('./metrics');
+const clusterBus = require('./clusterBus');
+
+const cache = new LruCache({ max: 20000 });
+
+/**
+ * Buscar conversa: { id, room_id, room_uuid, creator_id } ou null
+ */
+async function get(pool, conversationId) {
+    const cached = cache.get(conversationId);
+    if (cached) {
+        cacheRequests.inc({ cache: 'conversation', result: 'hit' });
+        return cached;
+    }
+    cacheRequests.inc({ cache: 'conversation', result: 'miss' });
+
+    const result = await pool.query(`
+        SELECT c.id, c.room_id, r.room_id as room_uuid, r.creator_id
+        FROM conversations c
+        JOIN rooms r ON c.room_id = r.id
+        WHERE c.conversation_id = $1
+    `, [conversationId]);
+
+    if (result.rows.length === 0) {
+        return null;
+    }
+
+    cache.set(conversationId, result.rows[0]);
+    return result.rows[0];
+}
+
+function invalidate(conversationId) {
+    cache.delete(conversationId);
+}
+
+/**
+ * Remover conversas de uma sala (id interno)
+ */
+function invalidateRoom(roomId) {
+    cache.deleteWhere((conversation) => conversation.room_id === roomId);
+}
+
+clusterBus.on('room_deleted', ({ id }) => invalidateRoom(id));
+clusterBus.on('resync', () => cache.clear());
+
+module.exports = {
+    get,
+    invalidate,
+    invalidateRoom
+};
@@ -0,0 +1,129 @@
+// Execução do script de inferência Python (ml/predict_realtime.py)
+//
+// Compartilhado por POST /api/presence/update e POST /api/predict-test,
+// com medição do tempo de spawn, duração total e etapas internas do Python.
+// Cada predição é um processo Python: o número de execuções simultâneas é
+// limitado (INFERENCE_CONCURRENCY) e o excedente espera numa fila curta ou
+// é recusado na hora com AdmissionError (429 para o cliente).
+
+const { spawn } = require('child_process');
+const path = require('path');
+const os = require('os');
+const metrics = require('./metrics');
+const { Semaphore } = require('./admission');
+
+const ML_DIRECTORY = path.join(__dirname, '..', '..', 'ml');
+const PREDICT_SCRIPT = path.join(ML_DIRECTORY, 'predict_realtime.py');
+const PYTHON_EXECUTABLE = process.platform === 'win32'
+    ? path.join(ML_DIRECTORY, 'venv', 'Scripts', 'python.exe')
+    : path.join(ML_DIRECTORY, 'venv', 'bin', 'python');
+
+// O limite vale por worker. Sem INFERENCE_CONCURRENCY, os núcleos são
+// divididos entre os workers do cluster (senão seriam núcleos² processos)
+const CLUSTER_WORKERS = process.env.GEOPING_CLUSTER
+    ? parseInt(process.env.CLUSTER_WORKERS, 10) || 1
+    : 1;
+const inferenceSlots = new Semaphore({
+    name: 'inference',
+    limit: parseInt(process.env.INFERENCE_CONCURRENCY, 10)
+        || Math.max(1, Math.floor(os.cpus().length / CLUSTER_WORKERS)),
+    maxQueue: parseInt(process.env.INFERENCE_MAX_QUEUE, 10) || 32,
+    maxWaitMs: parseInt(process.env.INFERENCE_MAX_WAIT_MS, 10) || 5000
+});
+
+// Suprimir logs do TensorFlow no stderr
+const PYTHON_ENV = {
+    ...process.env,
+    TF_CPP_MIN_LOG_LEVEL: '2',
+    TF_ENABLE_ONEDNN_OPTS: '0'
+};
+
+/**
+ * O script pode imprimir logs antes do JSON: procurar de trás pra frente
+ * pela última linha com um JSON de resposta ({ success: ... })
+ */
+function parseResult(output) {
+    const lines = output.trim().split('\n');
+    for (let i = lines.length - 1; i >= 0; i--) {
+        try {
+            const candidate = JSON.parse(lines[i]);
+            if (candidate && candidate.success !== undefined) {
+                return candidate;
+            }
+        } catch (e) {
+            // Ignora linhas que não são JSON
+        }
+    }
+    return null;
+}
+
+/**
+ * Executar uma predição (aguarda uma vaga no limite de inferências).
+ *
+ * @param {object} input - { room_label, wifi_scan_results } ou, no modo
+ *                         multi-sala, { room_labels, wifi_scan_results }
+ * @param {string} source - rótulo da métrica (ex: 'presence', 'predict_test')
+ * @returns {Promise<{code: number, result: object|null, stdout: string, stderr: string}>}
+ * @throws {AdmissionError} fila de inferência cheia ou espera esgotada
+ */
+function runPrediction(input, source) {
+    return inferenceSlots.run(() => spawnPrediction(input, source));
+}
+
+function spawnPrediction(input, source) {
+    return new Promise((resolve) => {
+        const stopTotal = metrics.inferenceDuration.startTimer({ source });
+        const stopSpawn = metrics.pythonSpawnDuration.startTimer({ script: 'predict_realtime' });
+
+        const pythonProcess = spawn(PYTHON_EXECUTABLE, [PREDICT_SCRIPT], {
+            cwd: ML_DIRECTORY,
+            env: PYTHON_ENV
+        });
+
+        let stdout = '';
+        let stderr = '';
+        let settled = false;
+
+        const finish = (code, error) => {
+            if (settled) return;
+            settled = true;
+
+            const result = parseResult(stdout);
+            const outcome = error ? 'spawn_error' : (code === 0 && result && result.success ? 'ok' : 'error');
+            stopTotal({ outcome });
+
+            // Etapas medidas pelo próprio script
+            if (result && result.timings) {
+                for (const [stage, ms] of Object.entries(result.timings)) {
+                    metrics.inferenceStageDuration.observe({ stage: stage.replace(/_ms$/, '') }, ms / 1000);
+                }
+            }
+
+            resolve({ code, result, stdout, stderr: error ? error.message : stderr });
+        };
+
+        pythonProcess.on('spawn', () => stopSpawn());
+        pythonProcess.on('error', (error) => finish(-1, error));
+        pythonProcess.on('close', (code) => finish(code, null));
+
+        pythonProcess.stdout.on('data', (data) => {
+            stdout += data.toString();
+        });
+        pythonProcess.stderr.on('data', (data) => {
+            stderr += data.toString();
+        });
+
+        pythonProcess.stdin.on('error', () => {
+            // Processo encerrou antes de ler a entrada; tratado em 'close'
+        });
+        pythonProcess.stdin.write(JSON.stringify(input));
+        pythonProcess.stdin.end();
+    });
+}
+
+module.exports = {
+    runPrediction,
+    PREDICT_SCRIPT,
+    PYTHON_EXECUTABLE,
+    ML_DIRECTORY
+};
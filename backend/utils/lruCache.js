@@ -0,0 +1,64 @@
+// Cache LRU em memória com TTL opcional (Map preserva ordem de inserção)
+
+class LruCache {
+    /**
+     * @param {object} options - { max: número máximo de entradas, ttlMs: validade (0 = sem expiração) }
+     */
+    constructor({ max = 1000, ttlMs = 0 } = {}) {
+        this.max = max;
+        this.ttlMs = ttlMs;
+        this.entries = new Map();
+    }
+
+    get(key) {
+        const entry = this.entries.get(key);
+        if (!entry) {
+            return undefined;
+        }
+
+        if (entry.expiresAt && entry.expiresAt <= Date.now()) {
+            this.entries.delete(key);
+            return undefined;
+        }
+
+        // Reinserir para marcar como usado recentemente
+        this.entries.delete(key);
+        this.entries.set(key, entry);
+        return entry.value;
+    }
+
+    set(key, value, ttlMs = this.ttlMs) {
+        this.entries.delete(key);
+        this.entries.set(key, { value, expiresAt: ttlMs > 0 ? Date.now() + ttlMs : 0 });
+
+        // Remover o menos usado (primeiro da iteração)
+        if (this.entries.size > this.max) {
+            this.entries.delete(this.entries.keys().next().value);
+        }
+    }
+
+    delete(key) {
+        return this.entries.delete(key);
+    }
+
+    /**
+     * Remover todas as entradas cujo valor satisfaz o predicado
+     */
+    deleteWhere(predicate) {
+        for (const [key, entry] of this.entries) {
+            if (predicate(entry.value, key)) {
+                this.entries.delete(key);
+            }
+        }
+    }
+
+    clear() {
+        this.entries.clear();
+    }
+
+    get size() {
+        return this.entries.size;
+    }
+}
+
+module.exports = LruCache;
@@ -0,0 +1,398 @@
+// Métricas no formato de texto do Prometheus (sem dependências externas)
+//
+// Tipos suportados: counter, gauge e histogram, com labels.
+// Exposição em GET /metrics (ver server.js).
+
+const DEFAULT_BUCKETS = [0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10];
+
+const registry = new Map();
+const collectors = [];
+
+function labelKey(labelNames, labels) {
+    return labelNames.map((name) => String(labels[name] ?? '')).join('\u0000');
+}
+
+function formatLabels(labelNames, values, extra) {
+    const parts = labelNames.map((name, i) => `${name}="${escapeLabel(values[i])}"`);
+    if (extra) {
+        parts.push(extra);
+    }
+    return parts.length > 0 ? `{${parts.join(',')}}` : '';
+}
+
+function escapeLabel(value) {
+    return String(value).replace(/\\/g, '\\\\').replace(/\n/g, '\\n').replace(/"/g, '\\"');
+}
+
+class Counter {
+    constructor(name, help, labelNames = []) {
+        this.name = name;
+        this.help = help;
+        this.type = 'counter';
+        this.labelNames = labelNames;
+        this.values = new Map();
+    }
+
+    inc(labels = {}, value = 1) {
+        const key = labelKey(this.labelNames, labels);
+        this.values.set(key, (this.values.get(key) || 0) + value);
+    }
+
+    render() {
+        const lines = [];
+        for (const [key, value] of this.values) {
+            lines.push(`${this.name}${formatLabels(this.labelNames, key.split('\u0000'))} ${value}`);
+        }
+        return lines;
+    }
+}
+
+class Gauge extends Counter {
+    constructor(name, help, labelNames = []) {
+        super(name, help, labelNames);
+        this.type = 'gauge';
+    }
+
+    set(labels, value) {
+        if (typeof labels === 'number') {
+            value = labels;
+            labels = {};
+        }
+        this.values.set(labelKey(this.labelNames, labels), value);
+    }
+
+    dec(labels = {}, value = 1) {
+        this.inc(labels, -value);
+    }
+}
+
+class Histogram {
+    constructor(name, help, labelNames = [], buckets = DEFAULT_BUCKETS) {
+        this.name = name;
+        this.help = help;
+        this.type = 'histogram';
+        this.labelNames = labelNames;
+        this.buckets = buckets;
+        this.series = new Map();
+    }
+
+    observe(labels, seconds) {
+        if (typeof labels === 'number') {
+            seconds = labels;
+            labels = {};
+        }
+
+        const key = labelKey(this.labelNames, labels);
+        let entry = this.series.get(key);
+        if (!entry) {
+            entry = { counts: new Array(this.buckets.length).fill(0), sum: 0, count: 0 };
+            this.series.set(key, entry);
+        }
+
+        for (let i = 0; i < this.buckets.length; i++) {
+            if (seconds <= this.buckets[i]) {
+                entry.counts[i]++;
+                break;
+            }
+        }
+        entry.sum += seconds;
+        entry.count++;
+    }
+
+    /**
+     * Inicia um cronômetro; a função retornada registra a duração
+     */
+    startTimer(labels = {}) {
+        const start = process.hrtime.bigint();
+        return (extraLabels = {}) => {
+            const seconds = Number(process.hrtime.bigint() - start) / 1e9;
+            this.observe({ ...labels, ...extraLabels }, seconds);
+            return seconds;
+        };
+    }
+
+    render() {
+        const lines = [];
+        for (const [key, entry] of this.series) {
+            const values = key.split('\u0000');
+            let cumulative = 0;
+            for (let i = 0; i < this.buckets.length; i++) {
+                cumulative += entry.counts[i];
+                lines.push(`${this.name}_bucket${formatLabels(this.labelNames, values, `le="${this.buckets[i]}"`)} ${cumulative}`);
+            }
+            lines.push(`${this.name}_bucket${formatLabels(this.labelNames, values, 'le="+Inf"')} ${entry.count}`);
+            lines.push(`${this.name}_sum${formatLabels(this.labelNames, values)} ${entry.sum}`);
+            lines.push(`${this.name}_count${formatLabels(this.labelNames, values)} ${entry.count}`);
+        }
+        return lines;
+    }
+}
+
+function register(metric) {
+    if (registry.has(metric.name)) {
+        return registry.get(metric.name);
+    }
+    registry.set(metric.name, metric);
+    return metric;
+}
+
+function counter(name, help, labelNames) {
+    return register(new Counter(name, help, labelNames));
+}
+
+function gauge(name, help, labelNames) {
+    return register(new Gauge(name, help, labelNames));
+}
+
+function histogram(name, help, labelNames, buckets) {
+    return register(new Histogram(name, help, labelNames, buckets));
+}
+
+/**
+ * Registrar função chamada antes de cada exposição (gauges amostrados)
+ */
+function addCollector(fn) {
+    collectors.push(fn);
+}
+
+function render() {
+    for (const collect of collectors) {
+        try {
+            collect();
+        } catch (error) {
+            console.error('[METRICS] Erro no coletor:', error.message);
+        }
+    }
+
+    const lines = [];
+    for (const metric of registry.values()) {
+        lines.push(`# HELP ${metric.name} ${metric.help}`);
+        lines.push(`# TYPE ${metric.name} ${metric.type}`);
+        lines.push(...metric.render());
+    }
+    return lines.join('\n') + '\n';
+}
+
+// ================================================================================
+// MÉTRICAS DA APLICAÇÃO
+// ================================================================================
+
+const httpRequestDuration = histogram(
+    'http_request_duration_seconds',
+    'Duração das requisições HTTP por rota',
+    ['method', 'route', 'status']
+);
+
+const pythonSpawnDuration = histogram(
+    'python_spawn_duration_seconds',
+    'Tempo entre spawn() e o processo Python estar em execução',
+    ['script'],
+    [0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1]
+);
+
+const inferenceDuration = histogram(
+    'inference_duration_seconds',
+    'Duração total da inferência (spawn até a saída do Python)',
+    ['source', 'outcome']
+);
+
+const inferenceStageDuration = histogram(
+    'inference_stage_duration_seconds',
+    'Etapas reportadas pelo Python: import, carga do modelo e predição',
+    ['stage']
+);
+
+const pgPoolWait = histogram(
+    'pg_pool_wait_seconds',
+    'Espera para obter uma conexão do pool do PostgreSQL',
+    [],
+    [0.0005, 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 5]
+);
+
+const pgQueryDuration = histogram(
+    'pg_query_duration_seconds',
+    'Duração das queries no PostgreSQL (sem a espera do pool)',
+    ['operation', 'table'],
+    [0.0005, 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 5]
+);
+
+const pgPoolConnections = gauge(
+    'pg_pool_connections',
+    'Conexões do pool por estado',
+    ['state']
+);
+
+const socketConnectedClients = gauge(
+    'socketio_connected_clients',
+    'Clientes Socket.io conectados'
+);
+
+const socketEventsSent = counter(
+    'socketio_events_sent_total',
+    'Eventos Socket.io entregues a clientes (por socket de destino)',
+    ['event']
+);
+
+const socketEventsReceived = counter(
+    'socketio_events_received_total',
+    'Eventos Socket.io recebidos de clientes',
+    ['event']
+);
+
+const cacheRequests = counter(
+    'cache_requests_total',
+    'Consultas aos caches em memória',
+    ['cache', 'result']
+);
+
+const presencePrefilter = counter(
+    'presence_prefilter_total',
+    'Scans de presença avaliados pelo pré-filtro de âncoras',
+    ['result']
+);
+
+const presenceCascade = counter(
+    'presence_cascade_total',
+    'Scans de presença avaliados pelo primeiro estágio da cascata',
+    ['result']
+);
+
+const presenceCascadeTrainingDecided = gauge(
+    'presence_cascade_training_decided_ratio',
+    'Fração das amostras de treino decidida como INSIDE pelo primeiro estágio da cascata',
+    ['room']
+);
+
+const trainingDuration = histogram(
+    'training_duration_seconds',
+    'Duração dos treinamentos de modelo',
+    ['result'],
+    [5, 15, 30, 60, 120, 300, 600, 1200]
+);
+
+/**
+ * Middleware Express: latência por rota (padrão da rota, não a URL,
+ * para manter a cardinalidade baixa)
+ */
+function httpMiddleware() {
+    return (req, res, next) => {
+        const start = process.hrtime.bigint();
+        res.on('finish', () => {
+            const route = req.route ? `${req.baseUrl}${req.route.path}` : 'unmatched';
+            const seconds = Number(process.hrtime.bigint() - start) / 1e9;
+            httpRequestDuration.observe({ method: req.method, route, status: res.statusCode }, seconds);
+        });
+        next();
+    };
+}
+
+// Cache de labels por texto SQL (as queries são literais fixos no código)
+const sqlLabelCache = new Map();
+const SQL_LABEL_CACHE_MAX = 500;
+
+function sqlLabels(text) {
+    let labels = sqlLabelCache.get(text);
+    if (labels) {
+        return labels;
+    }
+
+    const sql = String(text).replace(/--.*$/gm, ' ').trim();
+    const operationMatch = sql.match(/^\s*(\w+)/);
+    let operation = operationMatch ? operationMatch[1].toUpperCase() : 'UNKNOWN';
+
+    // CTE: usar o comando principal após o WITH
+    if (operation === 'WITH') {
+        const main = sql.match(/\)\s*(SELECT|INSERT|UPDATE|DELETE)\b/i);
+        operation = main ? main[1].toUpperCase() : operation;
+    }
+
+    const tableMatch = operation === 'UPDATE'
+        ? sql.match(/^\s*UPDATE\s+([\w.]+)/i)
+        : sql.match(/\b(?:FROM|INTO)\s+([\w.]+)/i);
+
+    labels = { operation, table: tableMatch ? tableMatch[1].toLowerCase() : 'none' };
+    if (sqlLabelCache.size < SQL_LABEL_CACHE_MAX) {
+        sqlLabelCache.set(text, labels);
+    }
+    return labels;
+}
+
+/**
+ * Instrumentar um pg.Pool: separa a espera por conexão da execução da query
+ */
+function instrumentPool(pool) {
+    const originalConnect = pool.connect.bind(pool);
+
+    pool.connect = function (callback) {
+        const stopWait = pgPoolWait.startTimer();
+        if (typeof callback === 'function') {
+            return originalConnect((err, client, release) => {
+                stopWait();
+                callback(err, client, release);
+            });
+        }
+        return originalConnect().then((client) => {
+            stopWait();
+            return client;
+        });
+    };
+
+    pool.query = async function (text, values) {
+        const client = await pool.connect();
+        const stopQuery = pgQueryDuration.startTimer(sqlLabels(typeof text === 'object' ? text.text : text));
+        try {
+            const result = await client.query(text, values);
+            client.release();
+            return result;
+        } catch (error) {
+            // Mesmo comportamento do pg.Pool.query: descartar o client em erro
+            client.release(error);
+            throw error;
+        } finally {
+            stopQuery();
+        }
+    };
+
+    addCollector(() => {
+        pgPoolConnections.set({ state: 'total' }, pool.totalCount);
+        pgPoolConnections.set({ state: 'idle' }, pool.idleCount);
+        pgPoolConnections.set({ state: 'waiting' }, pool.waitingCount);
+    });
+
+    return pool;
+}
+
+/**
+ * Instrumentar o servidor Socket.io: clientes conectados e eventos por nome
+ */
+function instrumentSocketIO(io) {
+    addCollector(() => socketConnectedClients.set(io.engine.clientsCount));
+
+    io.on('connection', (socket) => {
+        socket.onAnyOutgoing((event) => socketEventsSent.inc({ event }));
+        socket.onAny((event) => {
+            // Eventos sem handler viram "other" para não explodir a cardinalidade
+            socketEventsReceived.inc({ event: socket.listeners(event).length > 0 ? event : 'other' });
+        });
+    });
+}
+
+module.exports = {
+    counter,
+    gauge,
+    histogram,
+    addCollector,
+    render,
+    httpMiddleware,
+    instrumentPool,
+    instrumentSocketIO,
+    sqlLabels,
+    pythonSpawnDuration,
+    inferenceDuration,
+    inferenceStageDuration,
+    cacheRequests,
+    presencePrefilter,
+    presenceCascade,
+    presenceCascadeTrainingDecided,
+    trainingDuration
+};
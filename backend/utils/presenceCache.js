@@ -0,0 +1,94 @@
+// Cache em memória do status de presença (user, sala)
+//
+// Atualizado a cada POST /api/presence/update logo após o upsert no banco,
+// para que o envio de mensagens não precise consultar a tabela presence.
+// O banco continua sendo a fonte da verdade: só o caso "presente e recente"
+// é decidido pelo cache; qualquer outro caso consulta o banco.
+//
+// No modo cluster cada atualização é repassada aos outros workers
+// (clusterBus), então o envio de mensagens acerta o cache em qualquer worker.
+
+const LruCache = require('./lruCache');
+const metrics = require('./metrics');
+const clusterBus = require('./clusterBus');
+
+// Mesma janela usada nas queries (last_seen_at > NOW() - make_interval(secs => 60));
+// o heartbeat do app (PresenceStateMachine, 45s) precisa ficar abaixo dela
+const PRESENCE_WINDOW_MS = 60 * 1000;
+
+const cache = new LruCache({ max: 50000 });
+const { cacheRequests } = metrics;
+
+function key(userId, roomId) {
+    return `${userId}:${roomId}`;
+}
+
+/**
+ * Registrar o resultado de uma atualização de presença
+ *
+ * @param {number} roomId - id interno da sala (rooms.id)
+ */
+function set(userId, roomId, isPresent, confidence, lastSeenAt = Date.now()) {
+    cache.set(key(userId, roomId), { isPresent, confidence, lastSeenAt });
+    clusterBus.publish('presence', { userId, roomId, isPresent, confidence, lastSeenAt });
+}
+
+function get(userId, roomId) {
+    return cache.get(key(userId, roomId));
+}
+
+function isFresh(entry) {
+    return entry && entry.isPresent && Date.now() - entry.lastSeenAt <= PRESENCE_WINDOW_MS;
+}
+
+/**
+ * Usuário está dentro da sala (visto nos últimos 60s)?
+ * Cache primeiro; banco apenas quando o cache não confirma a presença.
+ */
+async function isPresent(pool, userId, roomId) {
+    if (isFresh(get(userId, roomId))) {
+        cacheRequests.inc({ cache: 'presence', result: 'hit' });
+        return true;
+    }
+    cacheRequests.inc({ cache: 'presence', result: 'miss' });
+
+    const result = await pool.query(`
+        SELECT is_present, confidence, last_seen_at
+        FROM presence
+        WHERE user_id = $1 AND room_id = $2
+    `, [userId, roomId]);
+
+    if (result.rows.length === 0) {
+        return false;
+    }
+
+    const row = result.rows[0];
+    const entry = {
+        isPresent: row.is_present,
+        confidence: row.confidence,
+        lastSeenAt: new Date(row.last_seen_at).getTime()
+    };
+    cache.set(key(userId, roomId), entry);
+    return isFresh(entry);
+}
+
+/**
+ * Remover entradas de uma sala (ex: sala deletada)
+ */
+function invalidateRoom(roomId) {
+    cache.deleteWhere((value, k) => k.endsWith(`:${roomId}`));
+}
+
+clusterBus.on('presence', ({ userId, roomId, isPresent, confidence, lastSeenAt }) => {
+    cache.set(key(userId, roomId), { isPresent, confidence, lastSeenAt });
+});
+clusterBus.on('room_deleted', ({ id }) => invalidateRoom(id));
+clusterBus.on('resync', () => cache.clear());
+
+module.exports = {
+    set,
+    get,
+    isPresent,
+    invalidateRoom,
+    PRESENCE_WINDOW_MS
+};
@@ -0,0 +1,150 @@
+// Eventos de sala com número de sequência (new_message, new_conversation)
+//
+// Cada sala (canal Socket.io = rooms.room_id) tem uma sequência crescente;
+// o evento vai com o campo seq e fica num buffer circular com os últimos
+// RING_SIZE eventos. Um cliente que reconecta informa o último seq visto no
+// join_room e recebe só o que perdeu. Se o buffer já não cobre o intervalo
+// (ou o servidor reiniciou: epoch diferente), o cliente recebe room_reset e
+// recarrega pela API.
+//
+// Modo cluster (useCluster): o seq vem da tabela room_event_seq, para ser
+// único entre os workers, e cada evento publicado é copiado para o buffer
+// dos outros workers via serverSideEmit do adapter do Socket.io.
+
+const clusterBus = require('./clusterBus');
+
+const RING_SIZE = 500;
+const REPLICATE_EVENT = 'room_event';
+
+// Identifica esta execução do servidor: as sequências recomeçam no restart.
+// No cluster o primário define GEOPING_EPOCH, igual para todos os workers
+const EPOCH = process.env.GEOPING_EPOCH || Date.now().toString(36);
+
+const rooms = new Map();
+let sharedPool = null;
+
+function roomState(roomId) {
+    let state = rooms.get(roomId);
+    if (!state) {
+        state = { seq: 0, ring: new Array(RING_SIZE) };
+        rooms.set(roomId, state);
+    }
+    return state;
+}
+
+function store(roomId, entry) {
+    const state = roomState(roomId);
+    state.ring[entry.seq % RING_SIZE] = entry;
+    if (entry.seq > state.seq) {
+        state.seq = entry.seq;
+    }
+}
+
+/**
+ * Modo cluster: sequência no banco e réplica do buffer entre workers
+ */
+function useCluster(pool, io) {
+    sharedPool = pool;
+    io.on(REPLICATE_EVENT, (roomId, entry) => store(roomId, entry));
+}
+
+async function sharedNextSeq(roomId) {
+    const result = await sharedPool.query(`
+        INSERT INTO room_event_seq (room_id, seq) VALUES ($1, 1)
+        ON CONFLICT (room_id) DO UPDATE SET seq = room_event_seq.seq + 1
+        RETURNING seq
+    `, [roomId]);
+    return Number(result.rows[0].seq);
+}
+
+function emit(io, roomId, event, payload, seq) {
+    const data = { ...payload, room_id: roomId, seq };
+    const entry = { seq, event, data };
+
+    store(roomId, entry);
+    io.to(roomId).emit(event, data);
+    if (sharedPool) {
+        io.serverSideEmit(REPLICATE_EVENT, roomId, entry);
+    }
+    return data;
+}
+
+/**
+ * Emitir um evento para a sala com o próximo seq. Com um único processo o
+ * seq é atribuído e o evento emitido antes de retornar (sem await no meio).
+ *
+ * @returns {Promise<object>} payload enviado (com seq)
+ */
+function publish(io, roomId, event, payload) {
+    if (sharedPool) {
+        return sharedNextSeq(roomId).then((seq) => emit(io, roomId, event, payload, seq));
+    }
+    return Promise.resolve(emit(io, roomId, event, payload, roomState(roomId).seq + 1));
+}
+
+/**
+ * Eventos com seq > lastSeq, em ordem
+ *
+ * @returns {{events: Array<{event, data}>, reset: boolean, seq: number}}
+ *          reset = true quando o intervalo não está mais disponível
+ */
+function since(roomId, lastSeq, epoch) {
+    const state = roomState(roomId);
+
+    if (epoch !== EPOCH || lastSeq > state.seq || state.seq - lastSeq > RING_SIZE) {
+        return { events: [], reset: true, seq: state.seq };
+    }
+
+    const events = [];
+    for (let seq = lastSeq + 1; seq <= state.seq; seq++) {
+        const entry = state.ring[seq % RING_SIZE];
+        // Buraco: worker reiniciado ou réplica ainda não chegou
+        if (!entry || entry.seq !== seq) {
+            return { events: [], reset: true, seq: state.seq };
+        }
+        events.push({ event: entry.event, data: entry.data });
+    }
+    return { events, reset: false, seq: state.seq };
+}
+
+function currentSeq(roomId) {
+    return rooms.has(roomId) ? rooms.get(roomId).seq : 0;
+}
+
+/**
+ * No cluster: trazer o seq da sala do banco (eventos publicados por outros
+ * workers antes deste começar a receber as réplicas). Sem efeito fora do cluster.
+ */
+async function loadSeq(roomId) {
+    if (!sharedPool) {
+        return;
+    }
+    const result = await sharedPool.query(
+        'SELECT seq FROM room_event_seq WHERE room_id = $1',
+        [roomId]
+    );
+    if (result.rows.length > 0) {
+        const state = roomState(roomId);
+        state.seq = Math.max(state.seq, Number(result.rows[0].seq));
+    }
+}
+
+/**
+ * Descartar o estado de uma sala deletada
+ */
+function forget(roomId) {
+    rooms.delete(roomId);
+}
+
+clusterBus.on('room_deleted', ({ room_id }) => forget(room_id));
+
+module.exports = {
+    useCluster,
+    publish,
+    since,
+    currentSeq,
+    loadSeq,
+    forget,
+    EPOCH,
+    RING_SIZE
+};
@@ -0,0 +1,46 @@
+// Cache de tokens JWT já verificados
+//
+// jwt.verify calcula um HMAC por requisição; com a presença enviada a cada
+// 10s por usuário o mesmo token é verificado milhares de vezes. A chave é o
+// SHA-256 do token (o token em si não fica em memória) e a entrada expira
+// junto com o token (claim exp). Apenas tokens válidos são guardados.
+
+const crypto = require('crypto');
+const LruCache = require('./lruCache');
+const { cacheRequests } = require('./metrics');
+
+// Limite de validade da entrada, mesmo para tokens de 7 dias
+const MAX_TTL_MS = 15 * 60 * 1000;
+
+const cache = new LruCache({ max: 10000 });
+
+function tokenKey(token) {
+    return crypto.createHash('sha256').update(token).digest('base64');
+}
+
+/**
+ * Payload já verificado ou undefined
+ */
+function get(token) {
+    const payload = cache.get(tokenKey(token));
+    cacheRequests.inc({ cache: 'jwt', result: payload ? 'hit' : 'miss' });
+    return payload;
+}
+
+/**
+ * Guardar o payload de um token recém-verificado
+ */
+function set(token, payload) {
+    const ttlMs = payload.exp
+        ? Math.min(payload.exp * 1000 - Date.now(), MAX_TTL_MS)
+        : MAX_TTL_MS;
+
+    if (ttlMs > 0) {
+        cache.set(tokenKey(token), payload, ttlMs);
+    }
+}
+
+module.exports = {
+    get,
+    set
+};
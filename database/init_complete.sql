@@ -4,17 +4,155 @@
 -- =====================================================
 
 -- Schema original (tabela de treinamento)
+-- Particionada por sala (HASH em 16 partições, migration_partitioning.sql)
 CREATE TABLE IF NOT EXISTS wifi_training_data (
-    id SERIAL PRIMARY KEY,
+    id SERIAL,
     room_label VARCHAR(100) NOT NULL,
     scan_timestamp TIMESTAMP DEFAULT NOW(),
     device_id VARCHAR(100),
-    wifi_fingerprint JSONB NOT NULL,
-    heuristics JSONB
+    bssid_ids INT[] NOT NULL,      -- ids em bssids, na ordem do scan
+    rssi SMALLINT[] NOT NULL,      -- RSSI (dBm) de cada posição de bssid_ids
+    heuristics JSONB,
+    PRIMARY KEY (id, room_label)
+) PARTITION BY HASH (room_label);
+
+DO $$
+BEGIN
+    FOR i IN 0..15 LOOP
+        EXECUTE format(
+            'CREATE TABLE IF NOT EXISTS wifi_training_data_p%s PARTITION OF wifi_training_data FOR VALUES WITH (MODULUS 16, REMAINDER %s)',
+            i, i
+        );
+    END LOOP;
+END $$;
+
+CREATE INDEX IF NOT EXISTS idx_training_room_time ON wifi_training_data(room_label, scan_timestamp);
+
+-- Estatísticas por sala mantidas por trigger (migration_room_stats.sql):
+-- /api/stats, /api/rooms e /api/check-samples leem uma linha em vez de
+-- agregar wifi_training_data
+CREATE TABLE IF NOT EXISTS training_room_stats (
+    room_label VARCHAR(100) PRIMARY KEY,
+    sample_count BIGINT NOT NULL DEFAULT 0,
+    device_count INT NOT NULL DEFAULT 0,
+    network_count BIGINT NOT NULL DEFAULT 0,   -- Soma de cardinality(bssid_ids), para a média por scan
+    first_scan TIMESTAMP,
+    last_scan TIMESTAMP
+);
+
+-- Dispositivos já vistos por sala (COUNT(DISTINCT device_id) incremental)
+CREATE TABLE IF NOT EXISTS training_room_devices (
+    room_label VARCHAR(100) NOT NULL,
+    device_id VARCHAR(100) NOT NULL,
+    PRIMARY KEY (room_label, device_id)
 );
 
-CREATE INDEX IF NOT EXISTS idx_room_label ON wifi_training_data(room_label);
-CREATE INDEX IF NOT EXISTS idx_scan_timestamp ON wifi_training_data(scan_timestamp);
+-- Coleta (caminho quente): incremento por linha
+CREATE OR REPLACE FUNCTION training_stats_on_insert() RETURNS TRIGGER AS $$
+DECLARE
+    new_devices INT := 0;
+BEGIN
+    IF NEW.device_id IS NOT NULL THEN
+        INSERT INTO training_room_devices (room_label, device_id)
+        VALUES (NEW.room_label, NEW.device_id)
+        ON CONFLICT DO NOTHING;
+        GET DIAGNOSTICS new_devices = ROW_COUNT;
+    END IF;
+
+    INSERT INTO training_room_stats AS s
+        (room_label, sample_count, device_count, network_count, first_scan, last_scan)
+    VALUES
+        (NEW.room_label, 1, new_devices, cardinality(NEW.bssid_ids), NEW.scan_timestamp, NEW.scan_timestamp)
+    ON CONFLICT (room_label) DO UPDATE SET
+        sample_count = s.sample_count + 1,
+        device_count = s.device_count + EXCLUDED.device_count,
+        network_count = s.network_count + EXCLUDED.network_count,
+        first_scan = LEAST(s.first_scan, EXCLUDED.first_scan),
+        last_scan = GREATEST(s.last_scan, EXCLUDED.last_scan);
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Recalcular uma sala a partir dos dados (DELETE/UPDATE, raros e manuais)
+CREATE OR REPLACE FUNCTION refresh_training_room_stats(label VARCHAR) RETURNS VOID AS $$
+BEGIN
+    DELETE FROM training_room_devices WHERE room_label = label;
+    INSERT INTO training_room_devices (room_label, device_id)
+    SELECT DISTINCT room_label, device_id
+    FROM wifi_training_data
+    WHERE room_label = label AND device_id IS NOT NULL;
+
+    DELETE FROM training_room_stats WHERE room_label = label;
+    INSERT INTO training_room_stats
+        (room_label, sample_count, device_count, network_count, first_scan, last_scan)
+    SELECT room_label, COUNT(*), COUNT(DISTINCT device_id), COALESCE(SUM(cardinality(bssid_ids)), 0),
+           MIN(scan_timestamp), MAX(scan_timestamp)
+    FROM wifi_training_data
+    WHERE room_label = label
+    GROUP BY room_label;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION training_stats_on_change() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM refresh_training_room_stats(room_label)
+        FROM (SELECT DISTINCT room_label FROM old_rows) AS changed;
+    ELSIF TG_OP = 'UPDATE' THEN
+        PERFORM refresh_training_room_stats(room_label)
+        FROM (SELECT room_label FROM old_rows UNION SELECT room_label FROM new_rows) AS changed;
+    ELSE
+        TRUNCATE training_room_stats, training_room_devices;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_training_stats_insert ON wifi_training_data;
+CREATE TRIGGER trg_training_stats_insert
+    AFTER INSERT ON wifi_training_data
+    FOR EACH ROW EXECUTE FUNCTION training_stats_on_insert();
+
+DROP TRIGGER IF EXISTS trg_training_stats_delete ON wifi_training_data;
+CREATE TRIGGER trg_training_stats_delete
+    AFTER DELETE ON wifi_training_data
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION training_stats_on_change();
+
+DROP TRIGGER IF EXISTS trg_training_stats_update ON wifi_training_data;
+CREATE TRIGGER trg_training_stats_update
+    AFTER UPDATE ON wifi_training_data
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION training_stats_on_change();
+
+DROP TRIGGER IF EXISTS trg_training_stats_truncate ON wifi_training_data;
+CREATE TRIGGER trg_training_stats_truncate
+    AFTER TRUNCATE ON wifi_training_data
+    FOR EACH STATEMENT EXECUTE FUNCTION training_stats_on_change();
+
+-- Dicionário global de BSSIDs (migration_compact_fingerprints.sql)
+CREATE TABLE IF NOT EXISTS bssids (
+    id SERIAL PRIMARY KEY,
+    bssid VARCHAR(64) NOT NULL UNIQUE,
+    ssid VARCHAR(64)
+);
+
+-- Fingerprint no formato JSON antigo, para consultas manuais
+CREATE OR REPLACE VIEW wifi_training_fingerprints AS
+SELECT
+    t.id,
+    t.room_label,
+    t.scan_timestamp,
+    t.device_id,
+    (
+        SELECT COALESCE(jsonb_agg(jsonb_build_object('bssid', b.bssid, 'ssid', b.ssid, 'rssi', n.rssi)
+                                  ORDER BY n.ord), '[]'::jsonb)
+        FROM unnest(t.bssid_ids, t.rssi) WITH ORDINALITY AS n(bssid_id, rssi, ord)
+        JOIN bssids b ON b.id = n.bssid_id
+    ) AS wifi_fingerprint,
+    t.heuristics
+FROM wifi_training_data t;
 
 -- Schema v2 (usuarios, salas, chat)
 CREATE TABLE IF NOT EXISTS users (
@@ -60,17 +198,50 @@ CREATE TABLE IF NOT EXISTS conversations (
     created_at TIMESTAMP DEFAULT NOW()
 );
 
+-- Particionada por mês (RANGE em sent_at); partições futuras e retenção:
+-- backend/jobs/partitionMaintenance.js
 CREATE TABLE IF NOT EXISTS messages (
-    id SERIAL PRIMARY KEY,
+    id SERIAL,
     conversation_id UUID REFERENCES conversations(conversation_id) ON DELETE CASCADE,
     sender_id INT REFERENCES users(id) ON DELETE SET NULL,
     content TEXT NOT NULL,
-    sent_at TIMESTAMP DEFAULT NOW()
+    client_msg_id VARCHAR(64),
+    sent_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (id, sent_at)
+) PARTITION BY RANGE (sent_at);
+
+CREATE OR REPLACE FUNCTION create_message_partition(month DATE) RETURNS TEXT AS $$
+DECLARE
+    start_at DATE := date_trunc('month', month)::date;
+    partition_name TEXT := 'messages_y' || to_char(start_at, 'YYYY') || 'm' || to_char(start_at, 'MM');
+BEGIN
+    EXECUTE format(
+        'CREATE TABLE IF NOT EXISTS %I PARTITION OF messages FOR VALUES FROM (%L) TO (%L)',
+        partition_name, start_at, (start_at + INTERVAL '1 month')::date
+    );
+    RETURN partition_name;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_message_partition((date_trunc('month', NOW()) + make_interval(months => i))::date)
+FROM generate_series(0, 2) AS i;
+
+CREATE TABLE IF NOT EXISTS messages_default PARTITION OF messages DEFAULT;
+
+-- Reenvio idempotente: (sender_id, client_msg_id) -> mensagem gravada. Tabela
+-- à parte porque um UNIQUE em messages teria de incluir sent_at (partição)
+CREATE TABLE IF NOT EXISTS message_client_ids (
+    sender_id INT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    client_msg_id VARCHAR(64) NOT NULL,
+    message_id INT NOT NULL,
+    sent_at TIMESTAMP NOT NULL,
+    published BOOLEAN NOT NULL DEFAULT TRUE,  -- FALSE: new_message falhou, o reenvio publica
+    PRIMARY KEY (sender_id, client_msg_id)
 );
 
 CREATE TABLE IF NOT EXISTS message_receipts (
     id SERIAL PRIMARY KEY,
-    message_id INT REFERENCES messages(id) ON DELETE CASCADE,
+    message_id INT NOT NULL,  -- Sem FK: messages é particionada (id, sent_at)
     user_id INT REFERENCES users(id) ON DELETE CASCADE,
     received_at TIMESTAMP DEFAULT NOW(),
     read_at TIMESTAMP,
@@ -86,11 +257,16 @@ CREATE TABLE IF NOT EXISTS presence (
     PRIMARY KEY (user_id, room_id)
 );
 
+-- Seq dos eventos de sala no modo cluster (backend/cluster.js)
+CREATE TABLE IF NOT EXISTS room_event_seq (
+    room_id VARCHAR(50) PRIMARY KEY REFERENCES rooms(room_id) ON DELETE CASCADE,
+    seq BIGINT NOT NULL DEFAULT 0
+);
+
 -- Indices
 CREATE INDEX IF NOT EXISTS idx_subscriptions_user_room ON subscriptions(user_id, room_id);
 CREATE INDEX IF NOT EXISTS idx_subscriptions_status ON subscriptions(status);
-CREATE INDEX IF NOT EXISTS idx_messages_conversation ON messages(conversation_id);
-CREATE INDEX IF NOT EXISTS idx_messages_sent_at ON messages(sent_at DESC);
+CREATE INDEX IF NOT EXISTS idx_messages_conversation_sent ON messages(conversation_id, sent_at DESC);
 CREATE INDEX IF NOT EXISTS idx_presence_user ON presence(user_id);
 CREATE INDEX IF NOT EXISTS idx_presence_room ON presence(room_id);
 CREATE INDEX IF NOT EXISTS idx_presence_last_seen ON presence(last_seen_at);
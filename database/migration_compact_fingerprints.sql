@@ -0,0 +1,104 @@
+-- ================================================================================
+-- MIGRAÇÃO: Fingerprints compactos com dicionário global de BSSIDs
+-- ================================================================================
+-- wifi_fingerprint (JSONB) repetia o BSSID e o SSID completos em cada linha e
+-- obrigava todo leitor (/api/training-data, train_autoencoder.py) a reparsear
+-- o JSON. Agora cada BSSID é gravado uma única vez na tabela bssids e o scan
+-- vira dois arrays paralelos na ordem original:
+--
+--   bssid_ids INT[]      ids em bssids (BSSID em minúsculas, sem repetição)
+--   rssi      SMALLINT[] RSSI em dBm de cada posição
+--
+-- A view wifi_training_fingerprints remonta o JSON antigo para consultas
+-- manuais (database/queries.sql).
+--
+-- Execute este script no PostgreSQL:
+-- psql -U postgres -d geoping -f database/migration_compact_fingerprints.sql
+--
+-- Depois, para devolver o espaço ao sistema (fora de transação):
+-- VACUUM FULL wifi_training_data;
+-- ================================================================================
+
+BEGIN;
+
+CREATE TABLE IF NOT EXISTS bssids (
+    id SERIAL PRIMARY KEY,
+    bssid VARCHAR(64) NOT NULL UNIQUE,
+    ssid VARCHAR(64)
+);
+
+COMMENT ON TABLE bssids IS 'Dicionário global de BSSIDs (minúsculas) referenciado por wifi_training_data.bssid_ids';
+
+ALTER TABLE wifi_training_data
+    ADD COLUMN IF NOT EXISTS bssid_ids INT[],
+    ADD COLUMN IF NOT EXISTS rssi SMALLINT[];
+
+-- 1. Dicionário com todos os BSSIDs já coletados
+INSERT INTO bssids (bssid, ssid)
+SELECT lower(network->>'bssid'), max(network->>'ssid')
+FROM wifi_training_data,
+     jsonb_array_elements(wifi_fingerprint) AS network
+WHERE network->>'bssid' IS NOT NULL
+GROUP BY lower(network->>'bssid')
+ON CONFLICT (bssid) DO NOTHING;
+
+-- 2. JSONB -> arrays (BSSID repetido no mesmo scan: fica o sinal mais forte)
+UPDATE wifi_training_data t
+SET bssid_ids = f.bssid_ids,
+    rssi = f.rssi
+FROM (
+    SELECT s.id,
+           array_agg(b.id ORDER BY n.ord) AS bssid_ids,
+           array_agg(n.rssi ORDER BY n.ord) AS rssi
+    FROM wifi_training_data s
+    CROSS JOIN LATERAL (
+        SELECT DISTINCT ON (lower(e.network->>'bssid'))
+               lower(e.network->>'bssid') AS bssid,
+               round((e.network->>'rssi')::numeric)::smallint AS rssi,
+               e.ord
+        FROM jsonb_array_elements(s.wifi_fingerprint) WITH ORDINALITY AS e(network, ord)
+        WHERE e.network->>'bssid' IS NOT NULL
+        ORDER BY lower(e.network->>'bssid'), (e.network->>'rssi')::numeric DESC
+    ) n
+    JOIN bssids b ON b.bssid = n.bssid
+    WHERE s.bssid_ids IS NULL
+    GROUP BY s.id
+) f
+WHERE t.id = f.id;
+
+-- Scans vazios
+UPDATE wifi_training_data
+SET bssid_ids = '{}', rssi = '{}'
+WHERE bssid_ids IS NULL;
+
+ALTER TABLE wifi_training_data
+    ALTER COLUMN bssid_ids SET NOT NULL,
+    ALTER COLUMN rssi SET NOT NULL;
+
+-- 3. Remover o JSONB (e o índice GIN sobre ele)
+DROP INDEX IF EXISTS idx_wifi_fingerprint;
+ALTER TABLE wifi_training_data DROP COLUMN IF EXISTS wifi_fingerprint;
+
+-- 4. Formato antigo para consultas manuais
+CREATE OR REPLACE VIEW wifi_training_fingerprints AS
+SELECT
+    t.id,
+    t.room_label,
+    t.scan_timestamp,
+    t.device_id,
+    (
+        SELECT COALESCE(jsonb_agg(jsonb_build_object('bssid', b.bssid, 'ssid', b.ssid, 'rssi', n.rssi)
+                                  ORDER BY n.ord), '[]'::jsonb)
+        FROM unnest(t.bssid_ids, t.rssi) WITH ORDINALITY AS n(bssid_id, rssi, ord)
+        JOIN bssids b ON b.id = n.bssid_id
+    ) AS wifi_fingerprint,
+    t.heuristics
+FROM wifi_training_data t;
+
+COMMIT;
+
+-- Verificação
+SELECT
+    (SELECT COUNT(*) FROM bssids) AS total_bssids,
+    (SELECT COUNT(*) FROM wifi_training_data) AS total_scans,
+    pg_size_pretty(pg_total_relation_size('wifi_training_data')) AS table_size;
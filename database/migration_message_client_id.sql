@@ -0,0 +1,48 @@
+-- ================================================================================
+-- MIGRAÇÃO: Identificador de mensagem gerado pelo cliente
+-- ================================================================================
+-- O app gera um client_msg_id (UUID) para cada mensagem e o reenvia em caso
+-- de timeout, possivelmente com o primeiro envio ainda em andamento. A chave
+-- primária de message_client_ids (sender_id, client_msg_id) garante uma só
+-- mensagem por client_msg_id: o envio concorrente espera o primeiro e cai no
+-- ON CONFLICT DO NOTHING (backend/services/messages.js).
+--
+-- Tabela à parte, e não UNIQUE em messages: depois de
+-- migration_partitioning.sql um índice único em messages teria de incluir
+-- sent_at, que muda a cada tentativa.
+--
+-- Execute este script no PostgreSQL:
+-- psql -U postgres -d geoping -f database/migration_message_client_id.sql
+-- ================================================================================
+
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS client_msg_id VARCHAR(64);
+
+CREATE TABLE IF NOT EXISTS message_client_ids (
+    sender_id INT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    client_msg_id VARCHAR(64) NOT NULL,
+    message_id INT NOT NULL,
+    sent_at TIMESTAMP NOT NULL,
+    published BOOLEAN NOT NULL DEFAULT TRUE,  -- FALSE: new_message falhou, o reenvio publica
+    PRIMARY KEY (sender_id, client_msg_id)
+);
+ALTER TABLE message_client_ids ADD COLUMN IF NOT EXISTS published BOOLEAN NOT NULL DEFAULT TRUE;
+
+-- Mensagens já gravadas com client_msg_id (versão anterior desta migração)
+INSERT INTO message_client_ids (sender_id, client_msg_id, message_id, sent_at)
+SELECT DISTINCT ON (sender_id, client_msg_id) sender_id, client_msg_id, id, COALESCE(sent_at, NOW())
+FROM messages
+WHERE client_msg_id IS NOT NULL AND sender_id IS NOT NULL
+ORDER BY sender_id, client_msg_id, id
+ON CONFLICT DO NOTHING;
+
+-- A busca de duplicatas agora é pela chave de message_client_ids
+DROP INDEX IF EXISTS idx_messages_sender_client;
+
+COMMENT ON COLUMN messages.client_msg_id IS 'Identificador gerado pelo app para reenvio idempotente';
+COMMENT ON TABLE message_client_ids IS 'client_msg_id já gravados por remetente (reenvio idempotente)';
+
+-- Verificação
+SELECT column_name, data_type
+FROM information_schema.columns
+WHERE table_name = 'messages'
+ORDER BY ordinal_position;
@@ -0,0 +1,149 @@
+-- ================================================================================
+-- MIGRAÇÃO: Particionamento de messages (por mês) e wifi_training_data (por sala)
+-- ================================================================================
+-- messages: RANGE (sent_at), uma partição por mês (messages_yAAAAmMM) mais uma
+-- partição DEFAULT de segurança. As partições futuras e a retenção (DETACH
+-- das antigas) ficam a cargo de backend/jobs/partitionMaintenance.js.
+--
+-- wifi_training_data: HASH (room_label) em 16 partições. Todas as consultas
+-- filtram por room_label, então cada uma toca uma única partição pequena.
+--
+-- Consequências:
+-- - a chave primária passa a incluir a coluna de partição: messages (id, sent_at)
+--   e wifi_training_data (id, room_label); os ids continuam únicos (mesma sequence);
+-- - message_receipts.message_id deixa de ter FOREIGN KEY (uma FK para tabela
+--   particionada exigiria sent_at em message_receipts): apagar uma conversa
+--   não remove mais os recibos. O job remove os recibos órfãos a cada
+--   execução e os da partição antes de desanexá-la (retenção, desligada por
+--   padrão: MESSAGE_RETENTION_MONTHS).
+--
+-- Requer PostgreSQL 12+ e as migrações migration_compact_fingerprints.sql e
+-- migration_message_client_id.sql (a coluna messages.client_msg_id é criada
+-- aqui se faltar, para a cópia das mensagens não falhar).
+--
+-- Execute este script no PostgreSQL (com o backend parado):
+-- psql -U postgres -d geoping -f database/migration_partitioning.sql
+-- ================================================================================
+
+BEGIN;
+
+-- --------------------------------------------------------------------------------
+-- messages
+-- --------------------------------------------------------------------------------
+
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS client_msg_id VARCHAR(64);
+ALTER TABLE messages RENAME TO messages_legacy;
+ALTER SEQUENCE messages_id_seq OWNED BY NONE;
+DROP INDEX IF EXISTS idx_messages_conversation, idx_messages_sent_at, idx_messages_sender_client;
+ALTER TABLE message_receipts DROP CONSTRAINT IF EXISTS message_receipts_message_id_fkey;
+
+CREATE TABLE messages (LIKE messages_legacy INCLUDING DEFAULTS) PARTITION BY RANGE (sent_at);
+ALTER TABLE messages ALTER COLUMN sent_at SET NOT NULL;
+ALTER TABLE messages ADD PRIMARY KEY (id, sent_at);
+
+-- conversation_id é UUID (init_complete.sql) ou INT (init_complete_fixed.sql)
+DO $$
+BEGIN
+    IF (SELECT data_type FROM information_schema.columns
+        WHERE table_name = 'messages' AND column_name = 'conversation_id') = 'uuid' THEN
+        ALTER TABLE messages ADD FOREIGN KEY (conversation_id)
+            REFERENCES conversations(conversation_id) ON DELETE CASCADE;
+    ELSE
+        ALTER TABLE messages ADD FOREIGN KEY (conversation_id)
+            REFERENCES conversations(id) ON DELETE CASCADE;
+    END IF;
+END $$;
+
+ALTER TABLE messages ADD FOREIGN KEY (sender_id) REFERENCES users(id) ON DELETE SET NULL;
+
+-- Partição do mês de "month" (idempotente); usada também pelo job de manutenção
+CREATE OR REPLACE FUNCTION create_message_partition(month DATE) RETURNS TEXT AS $$
+DECLARE
+    start_at DATE := date_trunc('month', month)::date;
+    partition_name TEXT := 'messages_y' || to_char(start_at, 'YYYY') || 'm' || to_char(start_at, 'MM');
+BEGIN
+    EXECUTE format(
+        'CREATE TABLE IF NOT EXISTS %I PARTITION OF messages FOR VALUES FROM (%L) TO (%L)',
+        partition_name, start_at, (start_at + INTERVAL '1 month')::date
+    );
+    RETURN partition_name;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Do primeiro mês com mensagens até dois meses à frente
+SELECT create_message_partition(month::date)
+FROM generate_series(
+    date_trunc('month', COALESCE((SELECT MIN(sent_at) FROM messages_legacy), NOW())),
+    date_trunc('month', NOW()) + INTERVAL '2 months',
+    INTERVAL '1 month'
+) AS month;
+
+-- Só recebe linhas se o job deixar de criar as partições futuras
+CREATE TABLE messages_default PARTITION OF messages DEFAULT;
+
+INSERT INTO messages (id, conversation_id, sender_id, content, client_msg_id, sent_at)
+SELECT id, conversation_id, sender_id, content, client_msg_id, COALESCE(sent_at, NOW())
+FROM messages_legacy;
+
+ALTER SEQUENCE messages_id_seq OWNED BY messages.id;
+DROP TABLE messages_legacy;
+
+-- "Últimas N" de uma conversa: em cada partição, o índice já está na ordem
+CREATE INDEX idx_messages_conversation_sent ON messages(conversation_id, sent_at DESC);
+
+-- --------------------------------------------------------------------------------
+-- wifi_training_data
+-- --------------------------------------------------------------------------------
+
+DROP VIEW IF EXISTS wifi_training_fingerprints;
+
+ALTER TABLE wifi_training_data RENAME TO wifi_training_data_legacy;
+ALTER SEQUENCE wifi_training_data_id_seq OWNED BY NONE;
+DROP INDEX IF EXISTS idx_room_label, idx_scan_timestamp, idx_device_id, idx_heuristics;
+
+CREATE TABLE wifi_training_data (LIKE wifi_training_data_legacy INCLUDING DEFAULTS)
+    PARTITION BY HASH (room_label);
+ALTER TABLE wifi_training_data ADD PRIMARY KEY (id, room_label);
+
+DO $$
+BEGIN
+    FOR i IN 0..15 LOOP
+        EXECUTE format(
+            'CREATE TABLE wifi_training_data_p%s PARTITION OF wifi_training_data FOR VALUES WITH (MODULUS 16, REMAINDER %s)',
+            i, i
+        );
+    END LOOP;
+END $$;
+
+INSERT INTO wifi_training_data SELECT * FROM wifi_training_data_legacy;
+
+ALTER SEQUENCE wifi_training_data_id_seq OWNED BY wifi_training_data.id;
+DROP TABLE wifi_training_data_legacy;
+
+CREATE INDEX idx_training_room_time ON wifi_training_data(room_label, scan_timestamp);
+
+CREATE VIEW wifi_training_fingerprints AS
+SELECT
+    t.id,
+    t.room_label,
+    t.scan_timestamp,
+    t.device_id,
+    (
+        SELECT COALESCE(jsonb_agg(jsonb_build_object('bssid', b.bssid, 'ssid', b.ssid, 'rssi', n.rssi)
+                                  ORDER BY n.ord), '[]'::jsonb)
+        FROM unnest(t.bssid_ids, t.rssi) WITH ORDINALITY AS n(bssid_id, rssi, ord)
+        JOIN bssids b ON b.id = n.bssid_id
+    ) AS wifi_fingerprint,
+    t.heuristics
+FROM wifi_training_data t;
+
+COMMIT;
+
+-- Verificação
+SELECT parent.relname AS tabela, child.relname AS particao,
+       pg_get_expr(child.relpartbound, child.oid) AS limites
+FROM pg_inherits
+JOIN pg_class parent ON parent.oid = pg_inherits.inhparent
+JOIN pg_class child ON child.oid = pg_inherits.inhrelid
+WHERE parent.relname IN ('messages', 'wifi_training_data')
+ORDER BY parent.relname, child.relname;
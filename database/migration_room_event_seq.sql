@@ -0,0 +1,24 @@
+-- ================================================================================
+-- MIGRAÇÃO: Sequência de eventos por sala (modo cluster)
+-- ================================================================================
+-- Com vários workers (backend/cluster.js) o seq dos eventos new_message e
+-- new_conversation precisa ser único entre os processos: cada evento
+-- incrementa a linha da sala com UPDATE ... RETURNING. Com um único
+-- processo (npm start) a tabela não é usada.
+--
+-- Execute este script no PostgreSQL:
+-- psql -U postgres -d geoping -f database/migration_room_event_seq.sql
+-- ================================================================================
+
+CREATE TABLE IF NOT EXISTS room_event_seq (
+    room_id VARCHAR(50) PRIMARY KEY REFERENCES rooms(room_id) ON DELETE CASCADE,
+    seq BIGINT NOT NULL DEFAULT 0
+);
+
+COMMENT ON TABLE room_event_seq IS 'Último seq de evento Socket.io emitido por sala (modo cluster)';
+
+-- Verificação
+SELECT column_name, data_type
+FROM information_schema.columns
+WHERE table_name = 'room_event_seq'
+ORDER BY ordinal_position;
@@ -0,0 +1,140 @@
+-- ================================================================================
+-- MIGRAÇÃO: Estatísticas de coleta por sala mantidas por trigger
+-- ================================================================================
+-- /api/stats/:room_label, /api/rooms, /api/check-samples/:room_label e a
+-- verificação de POST /api/train faziam COUNT(*), COUNT(DISTINCT device_id),
+-- MIN/MAX(scan_timestamp) sobre wifi_training_data a cada chamada. Agora um
+-- trigger AFTER INSERT incrementa training_room_stats na coleta e as rotas
+-- leem uma única linha. DELETE/UPDATE (manuais, ex: rename_room.sql)
+-- recalculam só as salas afetadas.
+--
+-- Requer PostgreSQL 12+ e a migração migration_compact_fingerprints.sql (bssid_ids).
+--
+-- Execute este script no PostgreSQL:
+-- psql -U postgres -d geoping -f database/migration_room_stats.sql
+-- ================================================================================
+
+BEGIN;
+
+-- Estatísticas por sala mantidas por trigger (migration_room_stats.sql):
+-- /api/stats, /api/rooms e /api/check-samples leem uma linha em vez de
+-- agregar wifi_training_data
+CREATE TABLE IF NOT EXISTS training_room_stats (
+    room_label VARCHAR(100) PRIMARY KEY,
+    sample_count BIGINT NOT NULL DEFAULT 0,
+    device_count INT NOT NULL DEFAULT 0,
+    network_count BIGINT NOT NULL DEFAULT 0,   -- Soma de cardinality(bssid_ids), para a média por scan
+    first_scan TIMESTAMP,
+    last_scan TIMESTAMP
+);
+
+-- Dispositivos já vistos por sala (COUNT(DISTINCT device_id) incremental)
+CREATE TABLE IF NOT EXISTS training_room_devices (
+    room_label VARCHAR(100) NOT NULL,
+    device_id VARCHAR(100) NOT NULL,
+    PRIMARY KEY (room_label, device_id)
+);
+
+-- Coleta (caminho quente): incremento por linha
+CREATE OR REPLACE FUNCTION training_stats_on_insert() RETURNS TRIGGER AS $$
+DECLARE
+    new_devices INT := 0;
+BEGIN
+    IF NEW.device_id IS NOT NULL THEN
+        INSERT INTO training_room_devices (room_label, device_id)
+        VALUES (NEW.room_label, NEW.device_id)
+        ON CONFLICT DO NOTHING;
+        GET DIAGNOSTICS new_devices = ROW_COUNT;
+    END IF;
+
+    INSERT INTO training_room_stats AS s
+        (room_label, sample_count, device_count, network_count, first_scan, last_scan)
+    VALUES
+        (NEW.room_label, 1, new_devices, cardinality(NEW.bssid_ids), NEW.scan_timestamp, NEW.scan_timestamp)
+    ON CONFLICT (room_label) DO UPDATE SET
+        sample_count = s.sample_count + 1,
+        device_count = s.device_count + EXCLUDED.device_count,
+        network_count = s.network_count + EXCLUDED.network_count,
+        first_scan = LEAST(s.first_scan, EXCLUDED.first_scan),
+        last_scan = GREATEST(s.last_scan, EXCLUDED.last_scan);
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Recalcular uma sala a partir dos dados (DELETE/UPDATE, raros e manuais)
+CREATE OR REPLACE FUNCTION refresh_training_room_stats(label VARCHAR) RETURNS VOID AS $$
+BEGIN
+    DELETE FROM training_room_devices WHERE room_label = label;
+    INSERT INTO training_room_devices (room_label, device_id)
+    SELECT DISTINCT room_label, device_id
+    FROM wifi_training_data
+    WHERE room_label = label AND device_id IS NOT NULL;
+
+    DELETE FROM training_room_stats WHERE room_label = label;
+    INSERT INTO training_room_stats
+        (room_label, sample_count, device_count, network_count, first_scan, last_scan)
+    SELECT room_label, COUNT(*), COUNT(DISTINCT device_id), COALESCE(SUM(cardinality(bssid_ids)), 0),
+           MIN(scan_timestamp), MAX(scan_timestamp)
+    FROM wifi_training_data
+    WHERE room_label = label
+    GROUP BY room_label;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION training_stats_on_change() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM refresh_training_room_stats(room_label)
+        FROM (SELECT DISTINCT room_label FROM old_rows) AS changed;
+    ELSIF TG_OP = 'UPDATE' THEN
+        PERFORM refresh_training_room_stats(room_label)
+        FROM (SELECT room_label FROM old_rows UNION SELECT room_label FROM new_rows) AS changed;
+    ELSE
+        TRUNCATE training_room_stats, training_room_devices;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_training_stats_insert ON wifi_training_data;
+CREATE TRIGGER trg_training_stats_insert
+    AFTER INSERT ON wifi_training_data
+    FOR EACH ROW EXECUTE FUNCTION training_stats_on_insert();
+
+DROP TRIGGER IF EXISTS trg_training_stats_delete ON wifi_training_data;
+CREATE TRIGGER trg_training_stats_delete
+    AFTER DELETE ON wifi_training_data
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION training_stats_on_change();
+
+DROP TRIGGER IF EXISTS trg_training_stats_update ON wifi_training_data;
+CREATE TRIGGER trg_training_stats_update
+    AFTER UPDATE ON wifi_training_data
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION training_stats_on_change();
+
+DROP TRIGGER IF EXISTS trg_training_stats_truncate ON wifi_training_data;
+CREATE TRIGGER trg_training_stats_truncate
+    AFTER TRUNCATE ON wifi_training_data
+    FOR EACH STATEMENT EXECUTE FUNCTION training_stats_on_change();
+
+-- Carga inicial a partir dos dados existentes
+TRUNCATE training_room_stats, training_room_devices;
+
+INSERT INTO training_room_devices (room_label, device_id)
+SELECT DISTINCT room_label, device_id
+FROM wifi_training_data
+WHERE device_id IS NOT NULL;
+
+INSERT INTO training_room_stats
+    (room_label, sample_count, device_count, network_count, first_scan, last_scan)
+SELECT room_label, COUNT(*), COUNT(DISTINCT device_id), COALESCE(SUM(cardinality(bssid_ids)), 0),
+       MIN(scan_timestamp), MAX(scan_timestamp)
+FROM wifi_training_data
+GROUP BY room_label;
+
+COMMIT;
+
+-- Verificação
+SELECT * FROM training_room_stats ORDER BY room_label;
@@ -9,7 +9,7 @@ SELECT
     COUNT(DISTINCT device_id) as unique_devices,
     MIN(scan_timestamp) as first_scan,
     MAX(scan_timestamp) as last_scan,
-    AVG(jsonb_array_length(wifi_fingerprint)) as avg_networks_per_scan
+    AVG(cardinality(bssid_ids)) as avg_networks_per_scan
 FROM wifi_training_data
 GROUP BY room_label
 ORDER BY room_label;
@@ -20,7 +20,7 @@ SELECT
     room_label,
     scan_timestamp,
     device_id,
-    jsonb_array_length(wifi_fingerprint) as num_networks
+    cardinality(bssid_ids) as num_networks
 FROM wifi_training_data
 WHERE room_label = 'LAB_LESERC'
 ORDER BY scan_timestamp DESC
@@ -34,15 +34,15 @@ SELECT
     device_id,
     wifi_fingerprint,
     heuristics
-FROM wifi_training_data
+FROM wifi_training_fingerprints
 WHERE id = 1;
 
 -- Contar quantos BSSIDs únicos foram detectados por sala
 SELECT 
     room_label,
-    COUNT(DISTINCT (network->>'bssid')) as unique_bssids
+    COUNT(DISTINCT bssid_id) as unique_bssids
 FROM wifi_training_data,
-     jsonb_array_elements(wifi_fingerprint) as network
+     unnest(bssid_ids) as bssid_id
 GROUP BY room_label;
 
 -- Ver todos os SSIDs únicos detectados em uma sala
@@ -52,7 +52,7 @@ SELECT DISTINCT
     AVG((network->>'rssi')::int) as avg_rssi,
     MIN((network->>'rssi')::int) as min_rssi,
     MAX((network->>'rssi')::int) as max_rssi
-FROM wifi_training_data,
+FROM wifi_training_fingerprints,
      jsonb_array_elements(wifi_fingerprint) as network
 WHERE room_label = 'LAB_LESERC'
 GROUP BY network->>'ssid'
@@ -60,14 +60,15 @@ ORDER BY appearances DESC;
 
 -- Ver distribuição de RSSI de um BSSID específico
 SELECT 
-    (network->>'rssi')::int as rssi,
+    n.rssi,
     COUNT(*) as frequency
-FROM wifi_training_data,
-     jsonb_array_elements(wifi_fingerprint) as network
-WHERE room_label = 'LAB_LESERC'
-  AND network->>'bssid' = '00:11:22:33:44:55'
-GROUP BY (network->>'rssi')::int
-ORDER BY rssi DESC;
+FROM wifi_training_data t,
+     unnest(t.bssid_ids, t.rssi) as n(bssid_id, rssi)
+JOIN bssids b ON b.id = n.bssid_id
+WHERE t.room_label = 'LAB_LESERC'
+  AND b.bssid = '00:11:22:33:44:55'
+GROUP BY n.rssi
+ORDER BY n.rssi DESC;
 
 -- Deletar todos os dados de uma sala específica
 -- DELETE FROM wifi_training_data WHERE room_label = 'SALA_TESTE';
@@ -89,7 +90,7 @@ SELECT
 FROM wifi_training_data;
 
 -- Backup de dados de uma sala específica (exportar para JSON)
--- \copy (SELECT row_to_json(t) FROM (SELECT * FROM wifi_training_data WHERE room_label = 'LAB_LESERC') t) TO 'backup_lab_leserc.json'
+-- \copy (SELECT row_to_json(t) FROM (SELECT * FROM wifi_training_fingerprints WHERE room_label = 'LAB_LESERC') t) TO 'backup_lab_leserc.json'
 
 -- Ver índices existentes
 SELECT 
@@ -9,10 +9,18 @@ Script para realizar predições em tempo real via stdin/stdout.
 Formato de entrada: JSON com dados do scan Wi-Fi
 Formato de saída: JSON com resultado da predição
 
+Modo multi-sala: {"room_labels": [...], "wifi_scan_results": [...]} avalia
+o mesmo scan em vários modelos num único processo. O scan é convertido uma
+vez num vetor sobre a união dos vocabulários; cada sala só seleciona as
+suas colunas. Saída: {"success": true, "results": {sala: {...}}}.
+
 Autor: GeoPing Team
 Data: 2025
 """
 
+import time
+_IMPORT_START = time.perf_counter()  # Import do TensorFlow domina o custo de cada spawn
+
 import os
 import sys
 import json
@@ -67,6 +75,10 @@ class RealtimePredictor:
         
         self.bssids = self.metadata['bssids']
         self.threshold = self.metadata['threshold']
+        # BSSID normalizado -> coluna (evita list.index, O(n) por rede)
+        self.bssid_index = {}
+        for i, bssid in enumerate(self.bssids):
+            self.bssid_index.setdefault(normalize_bssid(bssid), i)
     
     def preprocess_wifi_scan(self, wifi_scan_results):
         """
@@ -82,27 +94,12 @@ class RealtimePredictor:
         rssi_vector = np.zeros(len(self.bssids))
         match_count = 0
         
-        for network in wifi_scan_results:
-            bssid_raw = network.get('bssid', '')
-            rssi = network.get('rssi', -100)
-            
-            # Tentar encontrar BSSID (raw, upper ou lower) na lista do modelo
-            idx = -1
-            if bssid_raw in self.bssids:
-                idx = self.bssids.index(bssid_raw)
-            elif bssid_raw.upper() in self.bssids:
-                idx = self.bssids.index(bssid_raw.upper())
-            elif bssid_raw.lower() in self.bssids:
-                idx = self.bssids.index(bssid_raw.lower())
-            
-            if idx != -1:
+        for bssid, rssi in scan_to_map(wifi_scan_results).items():
+            idx = self.bssid_index.get(bssid)
+            if idx is not None:
                 # Aplicar mesma transformação do treino: RSSI + 100
                 rssi_vector[idx] = rssi + 100
                 match_count += 1
-            else:
-                 # Debug para entender por que não deu match (se necessário)
-                 # print(f"DEBUG: BSSID {bssid_raw} não encontrado no modelo", file=sys.stderr)
-                 pass
 
         # Debug logs
         print(f"DEBUG: Matches: {match_count}/{len(self.bssids)} (Scan: {len(wifi_scan_results)})", file=sys.stderr)
@@ -128,40 +125,32 @@ class RealtimePredictor:
         try:
             # Pré-processar entrada
             X, match_count = self.preprocess_wifi_scan(wifi_scan_results)
-            
-            # Se não houver matches significativos, provavelmente está fora
-            # Mas deixamos o modelo decidir pelo erro de reconstrução
-            
-            # Fazer predição (reconstrução)
-            X_reconstructed = self.model.predict(X, verbose=0)
-            
-            # Calcular erro de reconstrução (MSE)
-            mse = np.mean(np.square(X - X_reconstructed))
-            
-            # Decisão: inside se erro < threshold
-            inside = bool(mse < self.threshold)
-            
-            # Calcular confidence (baseado na distância do threshold)
-            if inside:
-                # Se está dentro, confidence é maior quanto menor o erro
-                confidence = float(1.0 - (mse / self.threshold))
-            else:
-                # Se está fora, confidence é baseado em quão longe está
-                confidence = float(min(1.0, (mse - self.threshold) / self.threshold))
-            
-            confidence = max(0.0, min(1.0, confidence))  # Garantir [0, 1]
-            
+            return self.evaluate(X, match_count)
+        except Exception as e:
             return {
-                'success': True,
-                'inside': inside,
-                'confidence': round(confidence, 4),
-                'reconstruction_error': round(float(mse), 6),
-                'threshold': round(float(self.threshold), 6),
-                'room_label': self.room_label,
-                'matches': match_count,
-                'total_bssids_model': len(self.bssids)
+                'success': False,
+                'error': str(e),
+                'inside': False,
+                'confidence': 0.0
             }
-            
+    
+    def predict_from_union(self, union_vector, union_index):
+        """
+        Predição a partir do scan já vetorizado sobre a união dos vocabulários
+        (modo multi-sala): só seleciona as colunas deste modelo.
+        
+        Args:
+            union_vector (np.ndarray): RSSI + 100 por coluna da união (0 = ausente)
+            union_index (dict): BSSID normalizado -> coluna da união
+        """
+        try:
+            rssi_vector = np.zeros(len(self.bssids))
+            rssi_vector[list(self.bssid_index.values())] = union_vector[
+                [union_index[bssid] for bssid in self.bssid_index]
+            ]
+            match_count = int(np.count_nonzero(rssi_vector))
+            X = self.scaler.transform(rssi_vector.reshape(1, -1))
+            return self.evaluate(X, match_count)
         except Exception as e:
             return {
                 'success': False,
@@ -169,6 +158,100 @@ class RealtimePredictor:
                 'inside': False,
                 'confidence': 0.0
             }
+    
+    def evaluate(self, X, match_count):
+        """
+        Erro de reconstrução do vetor normalizado e decisão pelo threshold.
+        """
+        # Se não houver matches significativos, provavelmente está fora
+        # Mas deixamos o modelo decidir pelo erro de reconstrução
+        
+        # Fazer predição (reconstrução)
+        X_reconstructed = self.model.predict(X, verbose=0)
+        
+        # Calcular erro de reconstrução (MSE)
+        mse = np.mean(np.square(X - X_reconstructed))
+        
+        # Decisão: inside se erro < threshold
+        inside = bool(mse < self.threshold)
+        
+        # Calcular confidence (baseado na distância do threshold)
+        if inside:
+            # Se está dentro, confidence é maior quanto menor o erro
+            confidence = float(1.0 - (mse / self.threshold))
+        else:
+            # Se está fora, confidence é baseado em quão longe está
+            confidence = float(min(1.0, (mse - self.threshold) / self.threshold))
+        
+        confidence = max(0.0, min(1.0, confidence))  # Garantir [0, 1]
+        
+        return {
+            'success': True,
+            'inside': inside,
+            'confidence': round(confidence, 4),
+            'reconstruction_error': round(float(mse), 6),
+            'threshold': round(float(self.threshold), 6),
+            'room_label': self.room_label,
+            'matches': match_count,
+            'total_bssids_model': len(self.bssids)
+        }
+
+
+def normalize_bssid(bssid):
+    return str(bssid).strip().lower()
+
+
+def scan_to_map(wifi_scan_results):
+    """
+    Scan -> {bssid normalizado: rssi} (BSSID repetido: fica o sinal mais forte)
+    """
+    scan = {}
+    for network in wifi_scan_results:
+        bssid = normalize_bssid(network.get('bssid', ''))
+        rssi = network.get('rssi', -100)
+        if bssid not in scan or rssi > scan[bssid]:
+            scan[bssid] = rssi
+    return scan
+
+
+def predict_many(room_labels, wifi_scan_results):
+    """
+    Avalia um scan em várias salas, compartilhando o pré-processamento.
+    
+    Returns:
+        tuple: (resultados por sala, tempo de carga dos modelos em ms)
+    """
+    load_start = time.perf_counter()
+    predictors = {}
+    results = {}
+    for room_label in dict.fromkeys(room_labels):
+        try:
+            predictors[room_label] = RealtimePredictor(room_label)
+        except Exception as e:
+            results[room_label] = {
+                'success': False,
+                'error': str(e),
+                'inside': False,
+                'confidence': 0.0
+            }
+    load_ms = (time.perf_counter() - load_start) * 1000
+    
+    # União dos vocabulários: o scan vira um único vetor
+    union_index = {}
+    for predictor in predictors.values():
+        for bssid in predictor.bssid_index:
+            union_index.setdefault(bssid, len(union_index))
+    
+    union_vector = np.zeros(len(union_index))
+    for bssid, rssi in scan_to_map(wifi_scan_results).items():
+        column = union_index.get(bssid)
+        if column is not None:
+            union_vector[column] = rssi + 100
+    
+    for room_label, predictor in predictors.items():
+        results[room_label] = predictor.predict_from_union(union_vector, union_index)
+    
+    return results, load_ms
 
 
 def main():
@@ -180,6 +263,29 @@ def main():
         input_data = sys.stdin.read()
         request = json.loads(input_data)
         
+        # Modo multi-sala
+        if 'room_labels' in request:
+            if not isinstance(request['room_labels'], list):
+                raise ValueError("Campo 'room_labels' deve ser uma lista")
+            if 'wifi_scan_results' not in request:
+                raise ValueError("Campo 'wifi_scan_results' é obrigatório")
+            
+            predict_start = time.perf_counter()
+            results, load_ms = predict_many(request['room_labels'], request['wifi_scan_results'])
+            predict_end = time.perf_counter()
+            
+            output = {
+                'success': True,
+                'results': results,
+                'timings': {
+                    'import_ms': round((predict_start - _IMPORT_START) * 1000, 2),
+                    'load_ms': round(load_ms, 2),
+                    'predict_ms': round((predict_end - predict_start) * 1000 - load_ms, 2)
+                }
+            }
+            print(json.dumps(output, ensure_ascii=False))
+            sys.exit(0)
+        
         # Validar entrada
         if 'room_label' not in request:
             raise ValueError("Campo 'room_label' é obrigatório")
@@ -190,10 +296,20 @@ def main():
         wifi_scan_results = request['wifi_scan_results']
         
         # Criar preditor
+        load_start = time.perf_counter()
         predictor = RealtimePredictor(room_label)
         
         # Fazer predição
+        predict_start = time.perf_counter()
         result = predictor.predict(wifi_scan_results)
+        predict_end = time.perf_counter()
+        
+        # Tempos por etapa (o backend expõe em /metrics)
+        result['timings'] = {
+            'import_ms': round((load_start - _IMPORT_START) * 1000, 2),
+            'load_ms': round((predict_start - load_start) * 1000, 2),
+            'predict_ms': round((predict_end - predict_start) * 1000, 2)
+        }
         
         # Retornar JSON via stdout
         print(json.dumps(result, ensure_ascii=False))
@@ -29,7 +29,6 @@ import pandas as pd
 import psycopg2
 from psycopg2.extras import RealDictCursor
 from datetime import datetime
-import matplotlib.pyplot as plt
 from sklearn.preprocessing import MinMaxScaler
 from tensorflow import keras
 from tensorflow.keras import layers
@@ -71,6 +70,37 @@ THRESHOLD_CONFIG = {
     'percentile': 95           # Para método percentile
 }
 
+# Pré-filtro de presença: BSSIDs âncora da sala (<sala>_anchors.json).
+# Um scan que vê menos âncoras que o mínimo aprendido é OUTSIDE sem rodar o modelo
+ANCHOR_CONFIG = {
+    'max_anchors': 32,          # As mais fortes entre as frequentes
+    'min_frequency': 0.5,       # Vista em pelo menos 50% das amostras
+    'overlap_percentile': 1,    # Âncoras vistas por 99% das amostras de treino...
+    'safety_factor': 0.5        # ...com margem: mínimo = metade desse valor
+}
+
+# Cascata de presença (<sala>_cascade.json): modelo barato avaliado no backend
+# (verossimilhança gaussiana por BSSID) decide os scans claramente dentro ou
+# fora; só os ambíguos, entre os dois cortes, vão para o autoencoder
+CASCADE_CONFIG = {
+    'min_presence': 0.02,       # Probabilidade de ver/não ver um BSSID nunca chega a 0
+    'min_std': 3.0,             # Desvio mínimo do RSSI (dB) por BSSID
+    'inside_percentile': 90,    # Corte de dentro: no mínimo o percentil 90 do treino...
+    'core_presence': 0.8,       # ...e o núcleo da sala (BSSIDs em >= 80% do treino)
+    'core_max_z': 2.0,          #    visto no RSSI do treino (|z| <= 2)
+    'core_min_fraction': 0.8,   #    em pelo menos 80% dos BSSIDs do núcleo
+    'outside_margin': 2.0       # Corte de fora: menor score do treino - 2 desvios
+}
+
+# Configuração das métricas exportadas para o app (gráficos nativos)
+METRICS_CONFIG = {
+    'histogram_bins': 50,
+    'precision': 6,            # Dígitos significativos nos floats do JSON
+    # PNGs via matplotlib são opcionais: o app desenha os gráficos a partir
+    # de <sala>_metrics.json. Defina GEOPING_SAVE_PLOTS=1 para gerar os PNGs.
+    'save_plots': os.getenv('GEOPING_SAVE_PLOTS', '0') == '1'
+}
+
 # Diretório para salvar modelos
 OUTPUT_DIR = 'models'
 os.makedirs(OUTPUT_DIR, exist_ok=True)
@@ -103,7 +133,8 @@ def load_training_data(room_label):
         room_label (str): Nome/label da sala (ex: 'LAB_LESERC')
     
     Returns:
-        pd.DataFrame: DataFrame com os dados de treinamento
+        pd.DataFrame: DataFrame com os dados de treinamento (colunas bssid_ids
+            e rssi; df.attrs['bssids'] mapeia id -> BSSID)
     """
     conn = connect_database()
     
@@ -113,15 +144,29 @@ def load_training_data(room_label):
             room_label,
             scan_timestamp,
             device_id,
-            wifi_fingerprint,
+            bssid_ids,
+            rssi,
             heuristics
         FROM wifi_training_data
         WHERE room_label = %s
         ORDER BY scan_timestamp ASC
     """
     
+    # Só os BSSIDs que aparecem nos scans da sala
+    dictionary_query = """
+        SELECT id, bssid
+        FROM bssids
+        WHERE id IN (
+            SELECT DISTINCT unnest(bssid_ids) FROM wifi_training_data WHERE room_label = %s
+        )
+    """
+    
     try:
         df = pd.read_sql_query(query, conn, params=(room_label,))
+        
+        with conn.cursor() as cursor:
+            cursor.execute(dictionary_query, (room_label,))
+            df.attrs['bssids'] = dict(cursor.fetchall())
         conn.close()
         
         if len(df) == 0:
@@ -153,38 +198,24 @@ def extract_bssids_and_rssi(df):
     """
     print("\n[1/5] Pré-processamento dos dados...")
     
-    # Coletar todos os BSSIDs únicos do dataset
-    all_bssids = set()
-    for idx, row in df.iterrows():
-        fingerprint = row['wifi_fingerprint']
-        for network in fingerprint:
-            all_bssids.add(network['bssid'])
-    
-    all_bssids = sorted(list(all_bssids))
+    # BSSIDs únicos do dataset (dicionário carregado junto com os scans)
+    names = df.attrs['bssids']
+    all_bssids = sorted(names.values())
+    position = {bssid: i for i, bssid in enumerate(all_bssids)}
+    column = {bssid_id: position[bssid] for bssid_id, bssid in names.items()}
     print(f"  → {len(all_bssids)} BSSIDs únicos encontrados")
     
-    # Criar matriz esparsa: linhas = amostras, colunas = BSSIDs
-    rssi_matrix = []
+    # Matriz esparsa: linhas = amostras, colunas = BSSIDs. Os scans já são
+    # arrays de ids e RSSI: cada linha é uma atribuição vetorizada
+    rssi_matrix = np.zeros((len(df), len(all_bssids)))
     
-    for idx, row in df.iterrows():
-        # Inicializar vetor com zeros
-        rssi_vector = np.zeros(len(all_bssids))
-        
-        # Preencher com valores de RSSI onde disponível
-        fingerprint = row['wifi_fingerprint']
-        for network in fingerprint:
-            bssid = network['bssid']
-            rssi = network['rssi']
-            
-            if bssid in all_bssids:
-                bssid_idx = all_bssids.index(bssid)
-                # Converter RSSI de dBm para valor positivo (tipicamente -100 a -30)
-                # Adicionar 100 para deixar positivo
-                rssi_vector[bssid_idx] = rssi + 100
-        
-        rssi_matrix.append(rssi_vector)
+    for row, (bssid_ids, rssi) in enumerate(zip(df['bssid_ids'], df['rssi'])):
+        if len(bssid_ids) == 0:
+            continue
+        # Converter RSSI de dBm para valor positivo (tipicamente -100 a -30)
+        # Adicionar 100 para deixar positivo
+        rssi_matrix[row, [column[i] for i in bssid_ids]] = np.asarray(rssi, dtype=float) + 100
     
-    rssi_matrix = np.array(rssi_matrix)
     print(f"  → Matriz criada: {rssi_matrix.shape[0]} amostras × {rssi_matrix.shape[1]} features")
     
     # Normalizar valores entre 0 e 1
@@ -343,6 +374,8 @@ def plot_training_history(history, room_label):
         history: Histórico do treinamento
         room_label: Nome da sala
     """
+    import matplotlib.pyplot as plt
+
     plt.figure(figsize=(12, 4))
     
     # Loss
@@ -382,6 +415,8 @@ def plot_reconstruction_errors(mse_per_sample, threshold, room_label):
         threshold: Valor do limiar
         room_label: Nome da sala
     """
+    import matplotlib.pyplot as plt
+
     plt.figure(figsize=(10, 6))
     
     plt.hist(mse_per_sample, bins=50, alpha=0.7, color='blue', edgecolor='black')
@@ -399,6 +434,50 @@ def plot_reconstruction_errors(mse_per_sample, threshold, room_label):
     plt.close()
 
 
+def _compact(values):
+    """Arredonda floats para METRICS_CONFIG['precision'] dígitos significativos."""
+    fmt = '{:.%dg}' % METRICS_CONFIG['precision']
+    return [float(fmt.format(float(v))) for v in values]
+
+
+def save_training_metrics(history, mse_per_sample, threshold, room_label):
+    """
+    Salva as métricas do treinamento como dados (JSON compacto) para o app
+    desenhar os gráficos nativamente, em vez de baixar PNGs.
+    
+    Args:
+        history: Histórico do treinamento
+        mse_per_sample: Array com os MSEs
+        threshold: Valor do limiar
+        room_label: Nome da sala
+    """
+    counts, edges = np.histogram(mse_per_sample, bins=METRICS_CONFIG['histogram_bins'])
+
+    metrics = {
+        'room_label': room_label,
+        'threshold': _compact([threshold])[0],
+        'loss': _compact(history.history['loss']),
+        'val_loss': _compact(history.history.get('val_loss', [])),
+        'histogram': {
+            'min': _compact([edges[0]])[0],
+            'max': _compact([edges[-1]])[0],
+            'counts': [int(c) for c in counts]
+        },
+        'error_stats': {
+            'mean': _compact([np.mean(mse_per_sample)])[0],
+            'std': _compact([np.std(mse_per_sample)])[0],
+            'q1': _compact([np.percentile(mse_per_sample, 25)])[0],
+            'q3': _compact([np.percentile(mse_per_sample, 75)])[0]
+        },
+        'training_date': datetime.now().isoformat()
+    }
+
+    filename = os.path.join(OUTPUT_DIR, f'{room_label}_metrics.json')
+    with open(filename, 'w') as f:
+        json.dump(metrics, f, separators=(',', ':'))
+    print(f"  [OK] Metricas salvas: {filename}")
+
+
 def save_model_and_metadata(model, bssids, scaler, threshold, room_label, df):
     """
     Salva o modelo treinado e metadados associados.
@@ -449,6 +528,149 @@ def save_model_and_metadata(model, bssids, scaler, threshold, room_label, df):
     print(f"  [OK] Lista de BSSIDs salva: {bssids_path}")
 
 
+def save_anchor_filter(df, room_label):
+    """
+    Escolhe os BSSIDs âncora da sala e o mínimo de âncoras visíveis que as
+    amostras de treino sempre atingem. O backend e o app usam o arquivo para
+    responder OUTSIDE sem inferência quando o usuário está longe.
+    
+    Args:
+        df: DataFrame original
+        room_label: Nome da sala
+    """
+    # Em quantas amostras cada BSSID aparece e a soma do RSSI (para a média)
+    seen = {}
+    rssi_sum = {}
+    names = df.attrs['bssids']
+    for bssid_ids, rssi_values in zip(df['bssid_ids'], df['rssi']):
+        for bssid_id, rssi in zip(bssid_ids, rssi_values):
+            bssid = names[bssid_id]
+            seen[bssid] = seen.get(bssid, 0) + 1
+            rssi_sum[bssid] = rssi_sum.get(bssid, 0) + rssi
+
+    num_samples = len(df)
+    frequent = [b for b, count in seen.items() if count / num_samples >= ANCHOR_CONFIG['min_frequency']]
+    frequent.sort(key=lambda b: rssi_sum[b] / seen[b], reverse=True)
+    anchors = frequent[:ANCHOR_CONFIG['max_anchors']]
+
+    # Quantas âncoras cada amostra de treino vê
+    anchor_set = set(anchors)
+    overlaps = [len(anchor_set & {names[i] for i in bssid_ids})
+                for bssid_ids in df['bssid_ids']]
+
+    min_overlap = 0
+    if anchors:
+        observed = np.percentile(overlaps, ANCHOR_CONFIG['overlap_percentile'])
+        min_overlap = max(1, int(observed * ANCHOR_CONFIG['safety_factor']))
+
+    anchors_data = {
+        'room_label': room_label,
+        'anchors': anchors,
+        'min_overlap': min_overlap,
+        'training_date': datetime.now().isoformat()
+    }
+
+    anchors_path = os.path.join(OUTPUT_DIR, f'{room_label}_anchors.json')
+    with open(anchors_path, 'w') as f:
+        json.dump(anchors_data, f, separators=(',', ':'))
+    print(f"  [OK] Ancoras salvas: {anchors_path} ({len(anchors)} BSSIDs, minimo {min_overlap})")
+
+
+def cascade_scores(rssi, presence, mean, std):
+    """
+    Score do primeiro estágio: média, sobre o vocabulário, da log-verossimilhança
+    de cada BSSID (visto: log p - z²/2, gaussiana sem a constante de
+    normalização; não visto: log(1 - p)).
+    O backend (backend/utils/cascade.js) calcula exatamente a mesma fórmula.
+    
+    Args:
+        rssi: matriz amostras × BSSIDs em dBm, NaN onde o BSSID não foi visto
+    """
+    seen = ~np.isnan(rssi)
+    z = (np.nan_to_num(rssi) - mean) / std
+    ll_seen = np.log(presence) - 0.5 * z ** 2
+    ll_unseen = np.log(1 - presence)
+    return np.where(seen, ll_seen, ll_unseen).mean(axis=1)
+
+
+def save_cascade(df, bssids, mse_per_sample, threshold, room_label):
+    """
+    Primeiro estágio da cascata e seus cortes, calibrados nas amostras de treino:
+    - inside_cut: acima dele nenhuma amostra de treino foi rejeitada pelo
+      autoencoder (e no mínimo o percentil inside_percentile dos scores).
+      Como o treino só tem amostras de dentro, o corte sozinho não separa
+      salas vizinhas que compartilham os BSSIDs: INSIDE no primeiro estágio
+      exige também o núcleo da sala (core) visto no RSSI típico;
+    - outside_cut: bem abaixo do menor score visto no treino.
+    
+    Args:
+        df: DataFrame original
+        bssids: Lista de BSSIDs (vocabulário do autoencoder)
+        mse_per_sample: Erro de reconstrução de cada amostra de treino
+        threshold: Limiar do autoencoder
+        room_label: Nome da sala
+    """
+    names = df.attrs['bssids']
+    position = {bssid: i for i, bssid in enumerate(bssids)}
+
+    rssi = np.full((len(df), len(bssids)), np.nan)
+    for row, (bssid_ids, values) in enumerate(zip(df['bssid_ids'], df['rssi'])):
+        if len(bssid_ids) == 0:
+            continue
+        rssi[row, [position[names[i]] for i in bssid_ids]] = np.asarray(values, dtype=float)
+
+    seen = ~np.isnan(rssi)
+    counts = seen.sum(axis=0)
+    presence = np.clip(counts / len(df), CASCADE_CONFIG['min_presence'], 1 - CASCADE_CONFIG['min_presence'])
+    safe_counts = np.maximum(counts, 1)
+    mean = np.where(seen, rssi, 0).sum(axis=0) / safe_counts
+    variance = np.where(seen, (rssi - mean) ** 2, 0).sum(axis=0) / safe_counts
+    std = np.maximum(np.sqrt(variance), CASCADE_CONFIG['min_std'])
+
+    scores = cascade_scores(rssi, presence, mean, std)
+    scale = float(np.std(scores)) or 1.0
+    rejected = scores[mse_per_sample >= threshold]
+
+    # Núcleo: BSSIDs quase sempre vistos na sala; um scan "de dentro" vê a
+    # maioria deles perto do RSSI médio do treino
+    core = np.flatnonzero(counts / len(df) >= CASCADE_CONFIG['core_presence'])
+    core_min_matches = int(np.ceil(CASCADE_CONFIG['core_min_fraction'] * len(core)))
+    z = np.abs(np.nan_to_num(rssi[:, core]) - mean[core]) / std[core]
+    core_matches = (seen[:, core] & (z <= CASCADE_CONFIG['core_max_z'])).sum(axis=1)
+
+    inside_cut = float(np.percentile(scores, CASCADE_CONFIG['inside_percentile']))
+    if len(rejected) > 0:
+        inside_cut = max(inside_cut, float(rejected.max()) + 1e-6)
+    if inside_cut > scores.max() or len(core) == 0:
+        inside_cut = None  # Não há faixa segura: todo scan não-fora vai ao autoencoder
+    outside_cut = float(scores.min()) - CASCADE_CONFIG['outside_margin'] * scale
+
+    decided = (float(np.mean((scores >= inside_cut) & (core_matches >= core_min_matches)))
+               if inside_cut is not None else 0.0)
+
+    cascade_data = {
+        'room_label': room_label,
+        'type': 'bssid_gaussian',
+        'bssids': bssids,
+        'presence': np.round(presence, 4).tolist(),
+        'mean': np.round(mean, 2).tolist(),
+        'std': np.round(std, 2).tolist(),
+        'inside_cut': inside_cut,
+        'core': core.tolist(),
+        'core_max_z': CASCADE_CONFIG['core_max_z'],
+        'core_min_matches': core_min_matches,
+        'outside_cut': outside_cut,
+        'scale': scale,
+        'training_decided_fraction': round(decided, 4),
+        'training_date': datetime.now().isoformat()
+    }
+
+    cascade_path = os.path.join(OUTPUT_DIR, f'{room_label}_cascade.json')
+    with open(cascade_path, 'w') as f:
+        json.dump(cascade_data, f, separators=(',', ':'))
+    print(f"  [OK] Cascata salva: {cascade_path} ({decided * 100:.0f}% do treino decidido no 1o estagio)")
+
+
 # ================================================================================
 # FUNÇÃO PRINCIPAL
 # ================================================================================
@@ -490,12 +712,16 @@ def main():
     # 5. Calcular limiar
     threshold, mse_per_sample = calculate_threshold(model, X_train)
     
-    # 6. Visualizar resultados
-    plot_training_history(history, room_label)
-    plot_reconstruction_errors(mse_per_sample, threshold, room_label)
+    # 6. Exportar métricas (e, opcionalmente, os gráficos em PNG)
+    save_training_metrics(history, mse_per_sample, threshold, room_label)
+    if METRICS_CONFIG['save_plots']:
+        plot_training_history(history, room_label)
+        plot_reconstruction_errors(mse_per_sample, threshold, room_label)
     
     # 7. Salvar tudo
     save_model_and_metadata(model, bssids, scaler, threshold, room_label, df)
+    save_anchor_filter(df, room_label)
+    save_cascade(df, bssids, mse_per_sample, threshold, room_label)
     
     # Resumo final
     print("\n" + "=" * 80)
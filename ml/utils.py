@@ -6,6 +6,8 @@ GeoPing - Utilitários para Machine Learning
 ================================================================================
 
 Funções auxiliares para visualização, análise e debugging do sistema.
+Os DataFrames vêm de train_autoencoder.load_training_data: colunas bssid_ids
+e rssi (arrays paralelos) e df.attrs['bssids'] com o dicionário id -> BSSID.
 
 Autor: GeoPing Team
 Data: 2025
@@ -30,9 +32,10 @@ def plot_bssid_frequency(df, room_label):
     # Coletar todos os BSSIDs
     bssid_counts = {}
     
-    for idx, row in df.iterrows():
-        for network in row['wifi_fingerprint']:
-            bssid = network['bssid']
+    names = df.attrs['bssids']
+    for bssid_ids in df['bssid_ids']:
+        for bssid_id in bssid_ids:
+            bssid = names[bssid_id]
             bssid_counts[bssid] = bssid_counts.get(bssid, 0) + 1
     
     # Ordenar por frequência
@@ -63,11 +66,7 @@ def plot_rssi_distribution(df, room_label):
         df: DataFrame com os dados de treinamento
         room_label: Nome da sala
     """
-    all_rssi = []
-    
-    for idx, row in df.iterrows():
-        for network in row['wifi_fingerprint']:
-            all_rssi.append(network['rssi'])
+    all_rssi = [rssi for scan in df['rssi'] for rssi in scan]
     
     plt.figure(figsize=(10, 6))
     plt.hist(all_rssi, bins=50, alpha=0.7, color='blue', edgecolor='black')
@@ -92,7 +91,7 @@ def plot_networks_per_scan(df, room_label):
         df: DataFrame com os dados de treinamento
         room_label: Nome da sala
     """
-    networks_count = [len(row['wifi_fingerprint']) for idx, row in df.iterrows()]
+    networks_count = [len(bssid_ids) for bssid_ids in df['bssid_ids']]
     
     plt.figure(figsize=(12, 6))
     plt.plot(networks_count, marker='o', markersize=2, linewidth=0.5)
@@ -218,7 +217,7 @@ def print_dataset_summary(df):
     print(f"Dispositivos únicos: {df['device_id'].nunique()}")
     
     # Estatísticas de redes
-    networks_per_scan = [len(row['wifi_fingerprint']) for _, row in df.iterrows()]
+    networks_per_scan = [len(bssid_ids) for bssid_ids in df['bssid_ids']]
     print(f"\nRedes por scan:")
     print(f"  Média: {np.mean(networks_per_scan):.1f}")
     print(f"  Mediana: {np.median(networks_per_scan):.0f}")
@@ -226,12 +225,8 @@ def print_dataset_summary(df):
     print(f"  Max: {np.max(networks_per_scan)}")
     
     # BSSIDs únicos
-    all_bssids = set()
-    all_rssi = []
-    for _, row in df.iterrows():
-        for network in row['wifi_fingerprint']:
-            all_bssids.add(network['bssid'])
-            all_rssi.append(network['rssi'])
+    all_bssids = {bssid_id for bssid_ids in df['bssid_ids'] for bssid_id in bssid_ids}
+    all_rssi = [rssi for scan in df['rssi'] for rssi in scan]
     
     print(f"\nBSSIDs únicos: {len(all_bssids)}")
     print(f"\nRSSI:")